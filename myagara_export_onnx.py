@@ -0,0 +1,21 @@
+"""Exports the trained Keras model to ONNX for the in-process backend.
+
+    pip install tf2onnx
+    python myagara_export_onnx.py
+
+Then start the backend with myagara.inference.backend=onnx and
+myagara.inference.onnx.model-path pointing at the exported file.
+"""
+import tensorflow as tf
+import tf2onnx
+from tensorflow.keras.models import load_model
+
+MODEL_PATH = "myagara_final_model.h5"
+ONNX_PATH = "myagara_final_model.onnx"
+
+model = load_model(MODEL_PATH)
+
+# Batch dimension left dynamic so the service can send micro-batches
+input_signature = [tf.TensorSpec([None, 128, 128, 3], tf.float32, name="input")]
+tf2onnx.convert.from_keras(model, input_signature=input_signature, opset=13, output_path=ONNX_PATH)
+print(f"Model exported to {ONNX_PATH}")
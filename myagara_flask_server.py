@@ -3,8 +3,15 @@ from tensorflow.keras.models import load_model
 from tensorflow.keras.utils import img_to_array, load_img
 from flask import Flask, request, jsonify
 import numpy as np
+import hashlib
+import io
 
-model = load_model("myagara_final_model.h5")
+MODEL_PATH = "myagara_final_model.h5"
+
+model = load_model(MODEL_PATH)
+
+with open(MODEL_PATH, "rb") as model_file:
+    MODEL_VERSION = hashlib.sha256(model_file.read()).hexdigest()[:16]
 
 class_names = [
     "Apple___Apple_scab",
@@ -14,18 +21,48 @@ class_names = [
     "Grape___Black_rot",
 ]
 
-def preprocess_image(image_path):
-    img = load_img(image_path, target_size=(128, 128))  
-    img_array = img_to_array(img) / 255.0
-    img_array = np.expand_dims(img_array, axis=0)
-    return img_array
+TENSOR_MIMETYPE = "application/x-uint8-tensor"
+
+def load_input(file):
+    # The backend usually sends raw 128x128x3 RGB bytes, so no decode or resize is needed
+    if file.mimetype == TENSOR_MIMETYPE:
+        shape = tuple(int(d) for d in file.mimetype_params.get("shape", "128x128x3").split("x"))
+        return np.frombuffer(file.read(), dtype=np.uint8).reshape(shape).astype(np.float32) / 255.0
+    img = load_img(io.BytesIO(file.read()), target_size=(128, 128))
+    return img_to_array(img) / 255.0
+
+class UnreadableImage(Exception):
+    pass
 
-def classify_image(image_path):
-    image = preprocess_image(image_path)
+def classify_image(file):
+    try:
+        image = np.expand_dims(load_input(file), axis=0)
+    except Exception as e:
+        raise UnreadableImage(str(e))
     predictions = model.predict(image)
     predicted_class = np.argmax(predictions[0])
     confidence = np.max(predictions[0]) * 100
-    return {"label": class_names[predicted_class], "confidence": round(confidence, 2)}
+    return {"label": class_names[predicted_class], "confidence": round(float(confidence), 2), "model_version": MODEL_VERSION}
+
+def classify_batch(files):
+    # An image that cannot be read gets an error in its place instead of failing the whole batch
+    results = [None] * len(files)
+    inputs = []
+    positions = []
+    for i, f in enumerate(files):
+        try:
+            inputs.append(load_input(f))
+            positions.append(i)
+        except Exception as e:
+            print(f"Error reading {f.filename}: {str(e)}")
+            results[i] = {"error": str(e)}
+    if inputs:
+        predictions = model.predict(np.stack(inputs))
+        for i, prediction in zip(positions, predictions):
+            predicted_class = np.argmax(prediction)
+            confidence = np.max(prediction) * 100
+            results[i] = {"label": class_names[predicted_class], "confidence": round(float(confidence), 2)}
+    return results
 
 app = Flask(__name__)
 
@@ -41,15 +78,33 @@ def classify():
             return jsonify({"error": "No image file provided"}), 400
 
         print(f"Processing file: {file.filename}")
-        file.save("temp.jpg")
-
-
-        result = classify_image("temp.jpg")
+        result = classify_image(file)
         return jsonify(result)
+    except UnreadableImage as e:
+        # 422 tells the backend the image was at fault, not the server
+        print(f"Error reading {file.filename}: {str(e)}")
+        return jsonify({"error": str(e)}), 422
     except Exception as e:
         print(f"Error: {str(e)}")  
         return jsonify({"error": str(e)}), 500
 
+@app.route('/classify_batch', methods=['POST'])
+def classify_many():
+    try:
+        files = request.files.getlist('images')
+        if not files:
+            return jsonify({"error": "No image files provided"}), 400
+
+        print(f"Processing batch of {len(files)} files")
+        return jsonify({"results": classify_batch(files), "model_version": MODEL_VERSION})
+    except Exception as e:
+        print(f"Error: {str(e)}")
+        return jsonify({"error": str(e)}), 500
+
+@app.route('/model', methods=['GET'])
+def model_info():
+    return jsonify({"model_version": MODEL_VERSION, "classes": class_names})
+
 
 if __name__ == '__main__':
-    app.run(port=5000)
+    app.run(port=5000, threaded=True)
@@ -0,0 +1,71 @@
+package dev.sealkboy.myagara.benchmark;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.boot.convert.DurationStyle;
+
+/**
+ * {@code --name=value} command line options for the load test tools.
+ */
+public final class Arguments {
+
+    private final Map<String, String> values = new LinkedHashMap<>();
+
+    private Arguments() {
+    }
+
+    public static Arguments parse(String... args) {
+        Arguments arguments = new Arguments();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Expected --name=value but got " + arg);
+            }
+            int equals = arg.indexOf('=');
+            if (equals < 0) {
+                arguments.values.put(arg.substring(2), "true");
+            } else {
+                arguments.values.put(arg.substring(2, equals), arg.substring(equals + 1));
+            }
+        }
+        return arguments;
+    }
+
+    public String string(String name, String defaultValue) {
+        return values.getOrDefault(name, defaultValue);
+    }
+
+    public int integer(String name, int defaultValue) {
+        return values.containsKey(name) ? Integer.parseInt(values.get(name)) : defaultValue;
+    }
+
+    public double decimal(String name, double defaultValue) {
+        return values.containsKey(name) ? Double.parseDouble(values.get(name)) : defaultValue;
+    }
+
+    public Duration duration(String name, Duration defaultValue) {
+        return values.containsKey(name) ? DurationStyle.detectAndParse(values.get(name)) : defaultValue;
+    }
+
+    public boolean has(String name) {
+        return values.containsKey(name);
+    }
+
+    public Map<String, String> all() {
+        return new LinkedHashMap<>(values);
+    }
+
+    /**
+     * @return the options whose names contain a dot, i.e. application properties to pass on
+     */
+    public Map<String, String> properties() {
+        Map<String, String> properties = new LinkedHashMap<>();
+        values.forEach((name, value) -> {
+            if (name.contains(".")) {
+                properties.put(name, value);
+            }
+        });
+        return properties;
+    }
+}
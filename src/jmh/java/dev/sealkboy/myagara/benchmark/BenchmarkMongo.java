@@ -0,0 +1,158 @@
+package dev.sealkboy.myagara.benchmark;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bson.Document;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoExceptionTranslator;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.repository.support.MongoRepositoryFactory;
+
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+
+import dev.sealkboy.myagara.model.Image;
+import dev.sealkboy.myagara.repository.ImageRepository;
+
+/**
+ * The Mongo side of the end-to-end benchmarks. With {@code -Dmyagara.bench.mongo-uri} or
+ * {@code MYAGARA_BENCH_MONGO_URI} set it is a real database ({@code myagara_bench},
+ * dropped on close); otherwise it is an in-process stand-in whose template runs the full
+ * entity-to-BSON mapping and keeps the resulting documents in memory instead of sending
+ * them to a server. Bulk upserts, as used by the label rollups, are accepted and dropped
+ * by the stand-in.
+ */
+public final class BenchmarkMongo implements AutoCloseable {
+
+    public static final String URI_PROPERTY = "myagara.bench.mongo-uri";
+    public static final String URI_VARIABLE = "MYAGARA_BENCH_MONGO_URI";
+
+    private final MongoClient client;
+    private final MongoTemplate template;
+    private final Map<String, Map<Object, Document>> collections = new ConcurrentHashMap<>();
+
+    private BenchmarkMongo(String uri) {
+        if (uri != null) {
+            this.client = MongoClients.create(uri);
+            this.template = new MongoTemplate(client, "myagara_bench");
+            this.template.dropCollection(Image.class);
+        } else {
+            this.client = null;
+            this.template = new StandInTemplate(converter());
+        }
+    }
+
+    /**
+     * @return a local database when {@value #URI_PROPERTY} or {@value #URI_VARIABLE} is set,
+     *         otherwise the stand-in
+     */
+    public static BenchmarkMongo open() {
+        return new BenchmarkMongo(System.getProperty(URI_PROPERTY, System.getenv(URI_VARIABLE)));
+    }
+
+    /**
+     * @return the converter Spring Data would build for the application's entities
+     */
+    public static MappingMongoConverter converter() {
+        MongoMappingContext context = new MongoMappingContext();
+        context.afterPropertiesSet();
+        MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, context);
+        converter.afterPropertiesSet();
+        return converter;
+    }
+
+    public MongoTemplate template() {
+        return template;
+    }
+
+    public ImageRepository imageRepository() {
+        return new MongoRepositoryFactory(template).getRepository(ImageRepository.class);
+    }
+
+    @Override
+    public void close() {
+        if (client != null) {
+            template.dropCollection(Image.class);
+            client.close();
+        }
+    }
+
+    private Object store(String collection, Document document) {
+        collections.computeIfAbsent(collection, name -> new ConcurrentHashMap<>()).put(document.get("_id"), document);
+        return document.get("_id");
+    }
+
+    private static MongoDatabaseFactory noDatabase() {
+        return (MongoDatabaseFactory) Proxy.newProxyInstance(BenchmarkMongo.class.getClassLoader(),
+                new Class<?>[] { MongoDatabaseFactory.class }, (proxy, method, args) -> switch (method.getName()) {
+                    case "getExceptionTranslator" -> new MongoExceptionTranslator();
+                    case "toString" -> "no database";
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    default -> throw new UnsupportedOperationException(
+                            "The Mongo stand-in has no database; set " + URI_VARIABLE + " for " + method.getName());
+                });
+    }
+
+    /**
+     * Keeps the template's own mapping, id and version handling and replaces only the
+     * driver calls that would write to a server.
+     */
+    private final class StandInTemplate extends MongoTemplate {
+
+        StandInTemplate(MappingMongoConverter converter) {
+            super(noDatabase(), converter);
+        }
+
+        @Override
+        protected Object insertDocument(String collectionName, Document document, Class<?> entityClass) {
+            return store(collectionName, document);
+        }
+
+        @Override
+        protected List<Object> insertDocumentList(String collectionName, List<Document> documents) {
+            List<Object> ids = new ArrayList<>(documents.size());
+            for (Document document : documents) {
+                ids.add(store(collectionName, document));
+            }
+            return ids;
+        }
+
+        @Override
+        protected Object saveDocument(String collectionName, Document document, Class<?> entityClass) {
+            return store(collectionName, document);
+        }
+
+        @Override
+        public BulkOperations bulkOps(BulkOperations.BulkMode mode, Class<?> entityType) {
+            String collection = getCollectionName(entityType);
+            List<Document> pending = new ArrayList<>();
+            return (BulkOperations) Proxy.newProxyInstance(BenchmarkMongo.class.getClassLoader(),
+                    new Class<?>[] { BulkOperations.class }, (proxy, method, args) -> switch (method.getName()) {
+                        case "insert" -> {
+                            List<?> entities = args[0] instanceof List<?> list ? list : List.of(args[0]);
+                            for (Object entity : entities) {
+                                Document document = new Document();
+                                getConverter().write(entity, document);
+                                pending.add(document);
+                            }
+                            yield proxy;
+                        }
+                        case "execute" -> {
+                            pending.forEach(document -> store(collection, document));
+                            yield BulkWriteResult.acknowledged(pending.size(), 0, 0, 0, List.of(), List.of());
+                        }
+                        default -> proxy;
+                    });
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package dev.sealkboy.myagara.benchmark;
+
+import java.time.Duration;
+import java.util.random.RandomGenerator;
+
+import org.springframework.boot.convert.DurationStyle;
+
+/**
+ * How long the {@link StubInferenceServer} takes per request. Written as {@code none},
+ * {@code fixed:40ms}, {@code uniform:20ms..80ms} or {@code lognormal:40ms,p99=250ms}
+ * (median and 99th percentile), with durations in the application's property format.
+ */
+public interface LatencyDistribution {
+
+    LatencyDistribution NONE = random -> 0L;
+
+    /**
+     * @param random source of randomness, one per calling thread
+     * @return the next latency in nanoseconds
+     */
+    long nextNanos(RandomGenerator random);
+
+    static LatencyDistribution fixed(Duration latency) {
+        long nanos = latency.toNanos();
+        return random -> nanos;
+    }
+
+    static LatencyDistribution uniform(Duration min, Duration max) {
+        long from = min.toNanos();
+        long to = max.toNanos();
+        if (to < from) {
+            throw new IllegalArgumentException("Uniform latency needs min <= max: " + min + ".." + max);
+        }
+        return random -> from == to ? from : random.nextLong(from, to + 1);
+    }
+
+    /**
+     * A long-tailed distribution, the usual shape of model serving latency.
+     */
+    static LatencyDistribution logNormal(Duration median, Duration p99) {
+        if (p99.compareTo(median) < 0) {
+            throw new IllegalArgumentException("Log-normal latency needs median <= p99: " + median + ", " + p99);
+        }
+        double mu = Math.log(median.toNanos());
+        // 2.326 is the standard normal quantile at 0.99
+        double sigma = Math.log((double) p99.toNanos() / median.toNanos()) / 2.326;
+        return random -> (long) Math.exp(mu + sigma * random.nextGaussian());
+    }
+
+    static LatencyDistribution parse(String spec) {
+        String[] kind = spec.trim().split(":", 2);
+        try {
+            return switch (kind[0]) {
+                case "none" -> NONE;
+                case "fixed" -> fixed(duration(kind[1]));
+                case "uniform" -> {
+                    String[] range = kind[1].split("\\.\\.");
+                    yield uniform(duration(range[0]), duration(range[1]));
+                }
+                case "lognormal" -> {
+                    String[] parts = kind[1].split(",");
+                    if (parts.length != 2 || !parts[1].trim().startsWith("p99=")) {
+                        throw new IllegalArgumentException("expected <median>,p99=<p99>");
+                    }
+                    yield logNormal(duration(parts[0]), duration(parts[1].trim().substring(4)));
+                }
+                default -> throw new IllegalArgumentException("unknown kind " + kind[0]);
+            };
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid latency distribution '" + spec + "': " + e.getMessage(), e);
+        }
+    }
+
+    private static Duration duration(String value) {
+        return DurationStyle.detectAndParse(value.trim());
+    }
+}
@@ -0,0 +1,70 @@
+package dev.sealkboy.myagara.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Photo-like JPEGs for the benchmarks: smooth gradients with sensor-style noise, so they
+ * compress about as well as real leaf photos.
+ */
+public final class SampleImages {
+
+    private SampleImages() {
+    }
+
+    /**
+     * @param width
+     * @param height
+     * @return encoded JPEG bytes, the same for the same size
+     */
+    public static byte[] jpeg(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(width * 31L + height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int noise = random.nextInt(24);
+                int red = clamp(40 + 120 * x / width + noise);
+                int green = clamp(90 + 140 * y / height + noise);
+                int blue = clamp(30 + noise);
+                image.setRGB(x, y, (red << 16) | (green << 8) | blue);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            ImageIO.write(image, "jpg", out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @param jpeg encoded JPEG
+     * @param comment text to embed
+     * @return the same picture with a comment segment after the start marker, so it hashes
+     *         differently and misses the classification cache
+     */
+    public static byte[] withComment(byte[] jpeg, String comment) {
+        byte[] text = comment.getBytes(StandardCharsets.US_ASCII);
+        int length = text.length + 2;
+        byte[] result = new byte[jpeg.length + 2 + length];
+        result[0] = jpeg[0];
+        result[1] = jpeg[1];
+        result[2] = (byte) 0xFF;
+        result[3] = (byte) 0xFE;
+        result[4] = (byte) (length >> 8);
+        result[5] = (byte) length;
+        System.arraycopy(text, 0, result, 6, text.length);
+        System.arraycopy(jpeg, 2, result, 6 + text.length, jpeg.length - 2);
+        return result;
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
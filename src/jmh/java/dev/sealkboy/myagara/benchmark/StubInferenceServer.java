@@ -0,0 +1,239 @@
+package dev.sealkboy.myagara.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process stand-in for the Flask server with the same endpoints and response shapes.
+ * It reads every request body in full but does no inference, so benchmarks measure the
+ * backend's side of the exchange.
+ * <p>
+ * For load tests it can imitate a real model server: each {@code /classify} or
+ * {@code /classify_batch} request takes a latency drawn from a {@link LatencyDistribution},
+ * a share of them fail with a 500 as Flask does on an exception, and at most
+ * {@code concurrency} are served at once with the rest queued. With a queue limit, requests
+ * beyond it are turned away with a 503.
+ */
+public final class StubInferenceServer implements AutoCloseable {
+
+    private static final String MODEL_VERSION = "0123456789abcdef";
+    private static final String RESULT = "{\"label\": \"Grape___Black_rot\", \"confidence\": 87.5}";
+
+    private final HttpServer server;
+    // platform threads: the JDK server reads request bodies while holding a monitor, which
+    // would pin a virtual thread's carrier and can stall every virtual thread on small hosts
+    private final ExecutorService executor = Executors.newCachedThreadPool(
+            Thread.ofPlatform().name("stub-inference-", 0).daemon().factory());
+    private final LatencyDistribution latency;
+    private final double errorRate;
+    private final Semaphore slots;
+    private final int queueLimit;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger peakActive = new AtomicInteger();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    private StubInferenceServer(Builder builder) throws IOException {
+        this.latency = builder.latency;
+        this.errorRate = builder.errorRate;
+        this.slots = builder.concurrency > 0 ? new Semaphore(builder.concurrency, true) : null;
+        this.queueLimit = builder.queueLimit;
+        // without this, small responses wait out the client's delayed ACK (~40ms each)
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", builder.port), 512);
+        server.setExecutor(executor);
+        server.createContext("/classify", exchange -> serve(exchange,
+                body -> RESULT.replace("}", ", \"model_version\": \"" + MODEL_VERSION + "\"}")));
+        server.createContext("/classify_batch", exchange -> serve(exchange, body -> {
+            int parts = count(body, "name=\"images\"");
+            StringBuilder json = new StringBuilder("{\"model_version\": \"" + MODEL_VERSION + "\", \"results\": [");
+            for (int i = 0; i < parts; i++) {
+                json.append(i == 0 ? "" : ", ").append(RESULT);
+            }
+            return json.append("]}").toString();
+        }));
+        server.createContext("/model", exchange -> respond(exchange, 200,
+                "{\"model_version\": \"" + MODEL_VERSION + "\"}"));
+        server.start();
+    }
+
+    /**
+     * @return a server that answers immediately and never fails
+     */
+    public static StubInferenceServer start() throws IOException {
+        return builder().start();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public String endpoint() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public Stats stats() {
+        return new Stats(requests.sum(), failures.sum(), rejections.sum(), peakActive.get());
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.close();
+    }
+
+    private void serve(HttpExchange exchange, UnaryOperator<String> result) throws IOException {
+        String body = readBody(exchange);
+        requests.increment();
+        if (!acquire()) {
+            rejections.increment();
+            respond(exchange, 503, "{\"error\": \"Inference server is at capacity\"}");
+            return;
+        }
+        try {
+            peakActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long nanos = latency.nextNanos(random);
+            if (nanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(nanos);
+            }
+            if (errorRate > 0 && random.nextDouble() < errorRate) {
+                failures.increment();
+                respond(exchange, 500, "{\"error\": \"Injected inference failure\"}");
+            } else {
+                respond(exchange, 200, result.apply(body));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            respond(exchange, 500, "{\"error\": \"Interrupted\"}");
+        } finally {
+            active.decrementAndGet();
+            if (slots != null) {
+                slots.release();
+            }
+        }
+    }
+
+    private boolean acquire() {
+        if (slots == null || slots.tryAcquire()) {
+            return true;
+        }
+        try {
+            if (queueLimit >= 0 && waiting.incrementAndGet() > queueLimit) {
+                return false;
+            }
+            slots.acquire();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            if (queueLimit >= 0) {
+                waiting.decrementAndGet();
+            }
+        }
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return new String(in.readAllBytes(), StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+    }
+
+    private static int count(String text, String token) {
+        int count = 0;
+        for (int at = text.indexOf(token); at >= 0; at = text.indexOf(token, at + token.length())) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @param requests classify and batch requests received
+     * @param failures requests answered with an injected 500
+     * @param rejected requests turned away with a 503 because the queue was full
+     * @param peakConcurrency most requests served at the same time
+     */
+    public record Stats(long requests, long failures, long rejected, int peakConcurrency) {
+    }
+
+    public static final class Builder {
+
+        private LatencyDistribution latency = LatencyDistribution.NONE;
+        private double errorRate;
+        private int concurrency;
+        private int queueLimit = -1;
+        private int port;
+
+        private Builder() {
+        }
+
+        public Builder latency(LatencyDistribution latency) {
+            this.latency = latency;
+            return this;
+        }
+
+        /**
+         * @param errorRate share of requests, 0 to 1, that fail with a 500
+         */
+        public Builder errorRate(double errorRate) {
+            if (errorRate < 0 || errorRate > 1) {
+                throw new IllegalArgumentException("Error rate must be between 0 and 1: " + errorRate);
+            }
+            this.errorRate = errorRate;
+            return this;
+        }
+
+        /**
+         * @param concurrency most requests served at once, or 0 for no limit
+         */
+        public Builder concurrency(int concurrency) {
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        /**
+         * @param queueLimit most requests waiting for a slot before the rest get a 503, or a
+         *                   negative value to queue without limit
+         */
+        public Builder queueLimit(int queueLimit) {
+            this.queueLimit = queueLimit;
+            return this;
+        }
+
+        /**
+         * @param port local port, or 0 for any free one
+         */
+        public Builder port(int port) {
+            this.port = port;
+            return this;
+        }
+
+        public StubInferenceServer start() throws IOException {
+            return new StubInferenceServer(this);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package dev.sealkboy.myagara.controller;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import dev.sealkboy.myagara.model.Image;
+import dev.sealkboy.myagara.service.ImageFields;
+
+/**
+ * Encoding one default-sized page of images as the listing endpoints do, in each format a
+ * client can ask for, with every property or only those a results table shows. The encoded
+ * size of each combination is printed during setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ImageEncodingBenchmark {
+
+    private static final int PAGE_SIZE = 100;
+
+    @Param({ "json", "cbor", "smile" })
+    public String format;
+
+    @Param({ "all", "id,label,confidence,timestamp" })
+    public String fields;
+
+    private ObjectMapper mapper;
+    private Object page;
+
+    @Setup
+    public void setUp() throws IOException {
+        mapper = switch (format) {
+            case "json" -> Jackson2ObjectMapperBuilder.json().build();
+            case "cbor" -> Jackson2ObjectMapperBuilder.cbor().build();
+            case "smile" -> Jackson2ObjectMapperBuilder.smile().build();
+            default -> throw new IllegalArgumentException("Unknown format: " + format);
+        };
+        List<Image> images = new ArrayList<>(PAGE_SIZE);
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            images.add(image(i));
+        }
+        page = fields.equals("all") ? images : images.stream().map(ImageFields.parse(fields)::of).toList();
+        System.out.printf("%n%s, fields=%s: %d bytes per page of %d%n", format, fields, encode().length, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return mapper.writeValueAsBytes(page);
+    }
+
+    private static Image image(int i) {
+        Image image = new Image();
+        image.setId(String.format("5f0c6a43-3a8f-4b5e-9d7c-%012d", i));
+        image.setFilename("IMG_20240611_" + (81522 + i) + ".jpg");
+        image.setTimestamp(1_718_000_000_000L - i * 60_000L);
+        image.setLabel(i % 3 == 0 ? "Corn___Cercospora_leaf_spot Gray_leaf_spot" : "Grape___Black_rot");
+        image.setConfidence(80 + (i % 200) / 10.0);
+        image.setContentHash(String.format("%064x", i * 7919L));
+        image.setContentType("image/jpeg");
+        image.setSize(1_800_000 + i * 1_024L);
+        image.setThumbnails(List.of(128, 512));
+        image.setVersion(1L);
+        return image;
+    }
+}
@@ -0,0 +1,81 @@
+package dev.sealkboy.myagara.loadtest;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Latencies and status codes of one endpoint during a run. Latencies are measured from the
+ * moment a request was due, not when it was sent, so a backend that stalls the generator
+ * is charged for the requests it held up.
+ */
+final class LatencyRecorder {
+
+    /** Status recorded when no response arrived at all. */
+    static final int NO_RESPONSE = 0;
+
+    private final String endpoint;
+    private final double targetRate;
+    private final Map<Integer, Long> statuses = new TreeMap<>();
+    private long[] latencies = new long[1024];
+    private int count;
+    private long dropped;
+
+    LatencyRecorder(String endpoint, double targetRate) {
+        this.endpoint = endpoint;
+        this.targetRate = targetRate;
+    }
+
+    synchronized void record(int status, long latencyNanos) {
+        if (count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, count * 2);
+        }
+        latencies[count++] = latencyNanos;
+        statuses.merge(status, 1L, Long::sum);
+    }
+
+    /**
+     * Counts a request the generator could not send because too many were already open.
+     */
+    synchronized void dropped() {
+        dropped++;
+    }
+
+    synchronized Summary summarize(Duration elapsed) {
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        long succeeded = 0;
+        Map<String, Long> byStatus = new LinkedHashMap<>();
+        for (Map.Entry<Integer, Long> entry : statuses.entrySet()) {
+            int status = entry.getKey();
+            if (status >= 200 && status < 300) {
+                succeeded += entry.getValue();
+            }
+            byStatus.put(status == NO_RESPONSE ? "no response" : String.valueOf(status), entry.getValue());
+        }
+        double seconds = elapsed.toNanos() / 1e9;
+        return new Summary(endpoint, targetRate, succeeded / seconds, count, count - succeeded, dropped, byStatus,
+                millis(sorted, 0.50), millis(sorted, 0.90), millis(sorted, 0.99), millis(sorted, 0.999),
+                sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1e6);
+    }
+
+    private static double millis(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, rank)] / 1e6;
+    }
+
+    /**
+     * @param throughput successful responses per second
+     * @param errors     responses outside 2xx, including requests that got no response
+     * @param dropped    requests never sent because the generator's in-flight limit was hit
+     */
+    record Summary(String endpoint, double targetRate, double throughput, long requests, long errors, long dropped,
+            Map<String, Long> statuses, double p50Millis, double p90Millis, double p99Millis, double p999Millis,
+            double maxMillis) {
+    }
+}
@@ -0,0 +1,193 @@
+package dev.sealkboy.myagara.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import dev.sealkboy.myagara.benchmark.SampleImages;
+
+/**
+ * Drives the image API at fixed request rates. Each endpoint has its own pacer that sends
+ * on schedule whether or not earlier requests have finished (an open workload, like real
+ * clients), so a slow backend shows up as latency rather than as a quietly lower rate.
+ * Uploads carry a unique comment so none of them is answered from the classification
+ * cache; {@code GET /api/images/{id}} picks ids from the most recent page listing.
+ */
+final class LoadGenerator {
+
+    private static final String BOUNDARY = "myagara-load-test";
+
+    private final HttpClient client;
+    private final URI base;
+    private final byte[] image;
+    private final int listLimit;
+    private final int maxInFlight;
+    private final Duration requestTimeout;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AtomicLong uploads = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile List<String> recentIds = List.of();
+
+    LoadGenerator(URI base, byte[] image, int listLimit, int maxInFlight, Duration requestTimeout) {
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+        this.base = base;
+        this.image = image;
+        this.listLimit = listLimit;
+        this.maxInFlight = maxInFlight;
+        this.requestTimeout = requestTimeout;
+    }
+
+    /**
+     * Uploads {@code images} one after another and lists them, so reads have something to
+     * find from the start.
+     */
+    void seed(int images) {
+        for (int i = 0; i < images; i++) {
+            int status = send(Endpoint.UPLOAD);
+            if (status != 200) {
+                throw new IllegalStateException("Seeding upload failed with status " + status);
+            }
+        }
+        send(Endpoint.LIST);
+    }
+
+    /**
+     * @param rates    requests per second by endpoint; endpoints at 0 are not called
+     * @param duration how long to send for; requests still open at the end are waited for
+     * @return one summary per endpoint called, in {@link Endpoint} order
+     */
+    List<LatencyRecorder.Summary> run(Map<Endpoint, Double> rates, Duration duration) {
+        List<LatencyRecorder> recorders = new ArrayList<>();
+        long start = System.nanoTime();
+        try (ExecutorService requests = Executors.newVirtualThreadPerTaskExecutor();
+                ExecutorService pacers = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Endpoint endpoint : Endpoint.values()) {
+                double rate = rates.getOrDefault(endpoint, 0.0);
+                if (rate > 0) {
+                    LatencyRecorder recorder = new LatencyRecorder(endpoint.label, rate);
+                    recorders.add(recorder);
+                    pacers.submit(() -> pace(endpoint, rate, start, start + duration.toNanos(), recorder, requests));
+                }
+            }
+            // closing waits for the pacers first, then for the requests they started
+        }
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+        return recorders.stream().map(recorder -> recorder.summarize(elapsed)).toList();
+    }
+
+    private void pace(Endpoint endpoint, double rate, long start, long end, LatencyRecorder recorder,
+            ExecutorService requests) {
+        double interval = 1e9 / rate;
+        for (long i = 0; ; i++) {
+            long due = start + (long) (i * interval);
+            if (due >= end) {
+                return;
+            }
+            for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                LockSupport.parkNanos(wait);
+            }
+            if (inFlight.incrementAndGet() > maxInFlight) {
+                inFlight.decrementAndGet();
+                recorder.dropped();
+                continue;
+            }
+            requests.submit(() -> {
+                try {
+                    int status = send(endpoint);
+                    recorder.record(status, System.nanoTime() - due);
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            });
+        }
+    }
+
+    private int send(Endpoint endpoint) {
+        try {
+            return switch (endpoint) {
+                case UPLOAD -> client.send(upload(), HttpResponse.BodyHandlers.discarding()).statusCode();
+                case LIST -> {
+                    HttpResponse<byte[]> response = client.send(request("/api/images?limit=" + listLimit).build(),
+                            HttpResponse.BodyHandlers.ofByteArray());
+                    if (response.statusCode() == 200) {
+                        rememberIds(response.body());
+                    }
+                    yield response.statusCode();
+                }
+                case GET -> client.send(request("/api/images/" + anyId()).build(),
+                        HttpResponse.BodyHandlers.discarding()).statusCode();
+            };
+        } catch (IOException e) {
+            return LatencyRecorder.NO_RESPONSE;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return LatencyRecorder.NO_RESPONSE;
+        }
+    }
+
+    private HttpRequest upload() {
+        byte[] unique = SampleImages.withComment(image, "load-test " + uploads.incrementAndGet());
+        ByteArrayOutputStream body = new ByteArrayOutputStream(unique.length + 256);
+        body.writeBytes(("--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"image\"; filename=\"leaf.jpg\"\r\n"
+                + "Content-Type: image/jpeg\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        body.writeBytes(unique);
+        body.writeBytes(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        return request("/api/images/upload")
+                .header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))
+                .build();
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder(base.resolve(path)).timeout(requestTimeout);
+    }
+
+    private void rememberIds(byte[] page) throws IOException {
+        List<String> ids = new ArrayList<>();
+        for (JsonNode image : objectMapper.readTree(page)) {
+            ids.add(image.path("id").asText());
+        }
+        if (!ids.isEmpty()) {
+            recentIds = List.copyOf(ids);
+        }
+    }
+
+    private String anyId() {
+        List<String> ids = recentIds;
+        return ids.isEmpty() ? UUID.randomUUID().toString() : ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+    }
+
+    enum Endpoint {
+        UPLOAD("POST /api/images/upload"),
+        LIST("GET /api/images"),
+        GET("GET /api/images/{id}");
+
+        final String label;
+
+        Endpoint(String label) {
+            this.label = label;
+        }
+    }
+}
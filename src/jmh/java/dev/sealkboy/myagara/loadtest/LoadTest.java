@@ -0,0 +1,171 @@
+package dev.sealkboy.myagara.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import dev.sealkboy.myagara.MyagaraApplication;
+import dev.sealkboy.myagara.benchmark.Arguments;
+import dev.sealkboy.myagara.benchmark.LatencyDistribution;
+import dev.sealkboy.myagara.benchmark.SampleImages;
+import dev.sealkboy.myagara.benchmark.StubInferenceServer;
+import dev.sealkboy.myagara.loadtest.LoadGenerator.Endpoint;
+
+/**
+ * Load test of the image API, run with
+ * {@code mvn -Pbenchmarks test-compile exec:exec@load-test -Dload.args="..."}.
+ * <p>
+ * Unless {@code --target} points at a running backend, it starts the application in this
+ * JVM against a {@link StubInferenceServer} and an in-memory Mongo that speaks the wire
+ * protocol, so nothing but a JDK is needed. After seeding and a warmup it sends uploads,
+ * page listings and single-image reads at the given rates and reports throughput and
+ * latency percentiles per endpoint, on the console and as JSON.
+ * <p>
+ * Options, with defaults: {@code --upload-rate=10 --list-rate=20 --get-rate=50}
+ * (requests per second), {@code --duration=30s --warmup=10s --seed-images=20
+ * --list-limit=20 --image-size=1024x768 --max-in-flight=1000 --request-timeout=30s
+ * --report=target/load-test.json}, and for the stub {@code --inference-latency=none
+ * --inference-error-rate=0 --inference-concurrency=0 --inference-queue=-1} (see
+ * {@link LatencyDistribution} for the latency syntax; 0 concurrency and a negative queue
+ * mean unlimited). Any option with a dot in its name, such as
+ * {@code --myagara.inference.batch.enabled=false}, is passed to the application.
+ */
+public final class LoadTest {
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Arguments arguments = Arguments.parse(args);
+        Map<Endpoint, Double> rates = new EnumMap<>(Endpoint.class);
+        rates.put(Endpoint.UPLOAD, arguments.decimal("upload-rate", 10));
+        rates.put(Endpoint.LIST, arguments.decimal("list-rate", 20));
+        rates.put(Endpoint.GET, arguments.decimal("get-rate", 50));
+        Duration duration = arguments.duration("duration", Duration.ofSeconds(30));
+        Duration warmup = arguments.duration("warmup", Duration.ofSeconds(10));
+        String[] size = arguments.string("image-size", "1024x768").split("x");
+        byte[] image = SampleImages.jpeg(Integer.parseInt(size[0]), Integer.parseInt(size[1]));
+
+        StubInferenceServer inference = null;
+        MongoServer mongo = null;
+        ConfigurableApplicationContext application = null;
+        try {
+            URI target;
+            if (arguments.has("target")) {
+                target = URI.create(arguments.string("target", null));
+            } else {
+                inference = StubInferenceServer.builder()
+                        .latency(LatencyDistribution.parse(arguments.string("inference-latency", "none")))
+                        .errorRate(arguments.decimal("inference-error-rate", 0))
+                        .concurrency(arguments.integer("inference-concurrency", 0))
+                        .queueLimit(arguments.integer("inference-queue", -1))
+                        .start();
+                mongo = new MongoServer(new MemoryBackend());
+                InetSocketAddress mongoAddress = mongo.bind();
+                application = startApplication(inference, mongoAddress, arguments.properties());
+                int port = ((WebServerApplicationContext) application).getWebServer().getPort();
+                target = URI.create("http://127.0.0.1:" + port);
+            }
+
+            LoadGenerator generator = new LoadGenerator(target, image, arguments.integer("list-limit", 20),
+                    arguments.integer("max-in-flight", 1000),
+                    arguments.duration("request-timeout", Duration.ofSeconds(30)));
+            generator.seed(arguments.integer("seed-images", 20));
+            if (!warmup.isZero()) {
+                System.out.println("Warming up for " + warmup.toSeconds() + "s against " + target);
+                generator.run(rates, warmup);
+            }
+            StubInferenceServer.Stats before = inference == null ? null : inference.stats();
+            System.out.println("Measuring for " + duration.toSeconds() + "s");
+            List<LatencyRecorder.Summary> results = generator.run(rates, duration);
+
+            StubInferenceServer.Stats stats = inference == null ? null : difference(inference.stats(), before);
+            print(results, stats);
+            write(new File(arguments.string("report", "target/load-test.json")), arguments, results, stats);
+        } finally {
+            if (application != null) {
+                application.close();
+            }
+            if (mongo != null) {
+                mongo.shutdownNow();
+            }
+            if (inference != null) {
+                inference.close();
+            }
+        }
+    }
+
+    private static ConfigurableApplicationContext startApplication(StubInferenceServer inference,
+            InetSocketAddress mongo, Map<String, String> overrides) {
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("server.port", "0");
+        properties.put("spring.data.mongodb.uri",
+                "mongodb://" + mongo.getHostString() + ":" + mongo.getPort() + "/myagara");
+        properties.put("myagara.inference.backend", "flask");
+        properties.put("myagara.inference.endpoint", inference.endpoint());
+        properties.put("myagara.upload.archive.enabled", "false");
+        // one instance, and the in-process Mongo has no capped collections to share changes through
+        properties.put("myagara.images.cache.change-feed", "false");
+        properties.put("logging.level.root", "WARN");
+        properties.put("spring.main.banner-mode", "off");
+        properties.putAll(overrides);
+        List<String> args = new ArrayList<>();
+        properties.forEach((name, value) -> args.add("--" + name + "=" + value));
+        return SpringApplication.run(MyagaraApplication.class, args.toArray(String[]::new));
+    }
+
+    private static StubInferenceServer.Stats difference(StubInferenceServer.Stats after,
+            StubInferenceServer.Stats before) {
+        return new StubInferenceServer.Stats(after.requests() - before.requests(),
+                after.failures() - before.failures(), after.rejected() - before.rejected(), after.peakConcurrency());
+    }
+
+    private static void print(List<LatencyRecorder.Summary> results, StubInferenceServer.Stats inference) {
+        System.out.printf("%n%-26s %8s %8s %8s %7s %7s %9s %9s %9s %9s %9s%n", "endpoint", "target/s", "ok/s",
+                "requests", "errors", "dropped", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (LatencyRecorder.Summary result : results) {
+            System.out.printf("%-26s %8.1f %8.1f %8d %7d %7d %9.2f %9.2f %9.2f %9.2f %9.2f%n", result.endpoint(),
+                    result.targetRate(), result.throughput(), result.requests(), result.errors(), result.dropped(),
+                    result.p50Millis(), result.p90Millis(), result.p99Millis(), result.p999Millis(),
+                    result.maxMillis());
+            if (result.errors() > 0) {
+                System.out.println("    statuses: " + result.statuses());
+            }
+        }
+        if (inference != null) {
+            System.out.printf("%ninference stub: %d requests, %d failed, %d rejected, peak concurrency %d%n",
+                    inference.requests(), inference.failures(), inference.rejected(), inference.peakConcurrency());
+        }
+    }
+
+    private static void write(File report, Arguments arguments, List<LatencyRecorder.Summary> results,
+            StubInferenceServer.Stats inference) throws IOException {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("options", arguments.all());
+        json.put("endpoints", results);
+        if (inference != null) {
+            json.put("inference", inference);
+        }
+        File directory = report.getAbsoluteFile().getParentFile();
+        if (directory != null) {
+            directory.mkdirs();
+        }
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(report, json);
+        System.out.println("Report written to " + report);
+    }
+}
@@ -0,0 +1,287 @@
+package dev.sealkboy.myagara.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import dev.sealkboy.myagara.benchmark.Arguments;
+import dev.sealkboy.myagara.benchmark.SampleImages;
+import dev.sealkboy.myagara.benchmark.StubInferenceServer;
+
+/**
+ * Compares how fast each build of the application starts and answers its first requests,
+ * run with {@code mvn -Pbenchmarks test-compile exec:exec@startup-benchmark
+ * -Dstartup.args="..."} after building the builds to compare, e.g. with
+ * {@code mvn -Pfast-startup package -DskipTests}.
+ * <p>
+ * Each run starts a fresh process against a {@link StubInferenceServer} and an in-memory
+ * Mongo, and measures the time from launch until the readiness probe answers, which
+ * includes the startup warmup, then the latency of the first upload and of the first page
+ * listing. Runs of the different builds are interleaved so drift on the machine affects
+ * them alike. The builds are {@code default} ({@code java -jar} on the Spring Boot jar),
+ * {@code fast-startup} (AOT-processed, with the class data sharing archive) and
+ * {@code native} (the GraalVM executable); those not built are skipped.
+ * <p>
+ * Options, with defaults: {@code --runs=5 --variants=default,fast-startup,native
+ * --startup-timeout=120s --request-timeout=30s --report=target/startup-benchmark.json}.
+ * Any option with a dot in its name, such as {@code --myagara.warmup.enabled=false}, is
+ * passed to the application. Process output goes to {@code target/startup-<variant>.log}.
+ */
+public final class StartupBenchmark {
+
+    private static final String BOUNDARY = "myagara-startup-benchmark";
+    private static final File TARGET = new File("target");
+
+    private StartupBenchmark() {
+    }
+
+    record Variant(String name, File directory, List<String> command) {
+    }
+
+    record Run(String variant, long startupMillis, long firstUploadMillis, long firstListMillis) {
+    }
+
+    record Summary(String variant, int runs, long medianStartupMillis, long minStartupMillis,
+            long medianFirstUploadMillis, long medianFirstListMillis) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Arguments arguments = Arguments.parse(args);
+        int runs = arguments.integer("runs", 5);
+        Duration startupTimeout = arguments.duration("startup-timeout", Duration.ofSeconds(120));
+        Duration requestTimeout = arguments.duration("request-timeout", Duration.ofSeconds(30));
+        List<Variant> variants = variants(arguments.string("variants", "default,fast-startup,native").split(","));
+        if (variants.isEmpty()) {
+            throw new IllegalStateException("Nothing to compare; build the application first");
+        }
+        byte[] image = SampleImages.jpeg(1024, 768);
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+
+        List<Run> results = new ArrayList<>();
+        MongoServer mongo = new MongoServer(new MemoryBackend());
+        try (StubInferenceServer inference = StubInferenceServer.start()) {
+            InetSocketAddress mongoAddress = mongo.bind();
+            for (int run = 1; run <= runs; run++) {
+                for (Variant variant : variants) {
+                    Map<String, String> properties = properties(inference, mongoAddress, arguments.properties());
+                    Run result = measure(variant, properties, client, image, startupTimeout, requestTimeout);
+                    System.out.printf("%-13s run %d: ready in %d ms, first upload %d ms, first listing %d ms%n",
+                            variant.name(), run, result.startupMillis(), result.firstUploadMillis(),
+                            result.firstListMillis());
+                    results.add(result);
+                }
+            }
+        } finally {
+            mongo.shutdownNow();
+        }
+
+        List<Summary> summaries = variants.stream().map(variant -> summarize(variant.name(), results)).toList();
+        print(summaries);
+        write(new File(arguments.string("report", "target/startup-benchmark.json")), arguments, summaries, results);
+    }
+
+    private static List<Variant> variants(String... names) {
+        String java = new File(System.getProperty("java.home"), "bin/java").getPath();
+        List<Variant> variants = new ArrayList<>();
+        for (String name : names) {
+            switch (name.trim()) {
+                case "default" -> {
+                    File jar = find(TARGET, "myagara-", ".jar", "-aot.jar");
+                    if (jar == null) {
+                        skip(name, "mvn package");
+                    } else {
+                        variants.add(new Variant(name, TARGET, List.of(java, "-jar", jar.getName())));
+                    }
+                }
+                case "fast-startup" -> {
+                    File directory = new File(TARGET, "fast-startup");
+                    File jar = find(directory, "myagara-", "-aot.jar", null);
+                    if (jar == null || !new File(directory, "myagara.jsa").isFile()) {
+                        skip(name, "mvn -Pfast-startup package");
+                    } else {
+                        // CDS checks the class path as given, so run from where the archive was made
+                        variants.add(new Variant(name, directory, List.of(java, "-XX:SharedArchiveFile=myagara.jsa",
+                                "-Xlog:cds=error", "-Dspring.aot.enabled=true", "-jar", jar.getName())));
+                    }
+                }
+                case "native" -> {
+                    File executable = new File(TARGET, "myagara");
+                    if (!executable.canExecute() || executable.isDirectory()) {
+                        skip(name, "mvn -Pnative native:compile");
+                    } else {
+                        variants.add(new Variant(name, TARGET, List.of(executable.getAbsolutePath())));
+                    }
+                }
+                default -> throw new IllegalArgumentException("Unknown variant: " + name);
+            }
+        }
+        return variants;
+    }
+
+    private static File find(File directory, String prefix, String suffix, String excludedSuffix) {
+        File[] files = directory.listFiles((dir, file) -> file.startsWith(prefix) && file.endsWith(suffix)
+                && (excludedSuffix == null || !file.endsWith(excludedSuffix)));
+        return files == null || files.length == 0 ? null : files[0];
+    }
+
+    private static void skip(String variant, String build) {
+        System.out.println("Skipping " + variant + ": not built (" + build + ")");
+    }
+
+    private static Map<String, String> properties(StubInferenceServer inference, InetSocketAddress mongo,
+            Map<String, String> overrides) throws IOException {
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("server.port", String.valueOf(freePort()));
+        properties.put("spring.data.mongodb.uri",
+                "mongodb://" + mongo.getHostString() + ":" + mongo.getPort() + "/myagara");
+        properties.put("myagara.inference.endpoint", inference.endpoint());
+        properties.put("myagara.upload.archive.enabled", "false");
+        // the in-process Mongo has no capped collections to share changes through
+        properties.put("myagara.images.cache.change-feed", "false");
+        properties.put("logging.level.root", "WARN");
+        properties.put("spring.main.banner-mode", "off");
+        properties.putAll(overrides);
+        return properties;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static Run measure(Variant variant, Map<String, String> properties, HttpClient client, byte[] image,
+            Duration startupTimeout, Duration requestTimeout) throws Exception {
+        List<String> command = new ArrayList<>(variant.command());
+        properties.forEach((name, value) -> command.add("--" + name + "=" + value));
+        File log = new File(TARGET, "startup-" + variant.name() + ".log").getAbsoluteFile();
+        URI base = URI.create("http://127.0.0.1:" + properties.get("server.port"));
+
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command)
+                .directory(variant.directory())
+                .redirectErrorStream(true)
+                .redirectOutput(log)
+                .start();
+        try {
+            awaitReady(process, client, base, start + startupTimeout.toNanos(), log);
+            long startup = System.nanoTime() - start;
+            long upload = time(client, upload(base, image, requestTimeout));
+            long list = time(client, HttpRequest.newBuilder(base.resolve("/api/images?limit=20"))
+                    .timeout(requestTimeout).build());
+            return new Run(variant.name(), TimeUnit.NANOSECONDS.toMillis(startup), TimeUnit.NANOSECONDS.toMillis(upload),
+                    TimeUnit.NANOSECONDS.toMillis(list));
+        } finally {
+            process.destroy();
+            if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                process.destroyForcibly().waitFor();
+            }
+        }
+    }
+
+    /**
+     * Polls the readiness probe, which answers once startup, warmup included, is over.
+     */
+    private static void awaitReady(Process process, HttpClient client, URI base, long deadline, File log)
+            throws Exception {
+        HttpRequest probe = HttpRequest.newBuilder(base.resolve("/actuator/health/readiness"))
+                .timeout(Duration.ofSeconds(1)).build();
+        while (System.nanoTime() < deadline) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException("Exited with " + process.exitValue() + " before ready; see " + log);
+            }
+            try {
+                if (client.send(probe, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return;
+                }
+            } catch (ConnectException e) {
+                // not listening yet
+            } catch (IOException e) {
+                // listening but not answering yet
+            }
+            Thread.sleep(10);
+        }
+        throw new IllegalStateException("Not ready in time; see " + log);
+    }
+
+    private static HttpRequest upload(URI base, byte[] image, Duration timeout) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(image.length + 256);
+        body.writeBytes(("--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"image\"; filename=\"leaf.jpg\"\r\n"
+                + "Content-Type: image/jpeg\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        body.writeBytes(SampleImages.withComment(image, "startup " + System.nanoTime()));
+        body.writeBytes(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        return HttpRequest.newBuilder(base.resolve("/api/images/upload"))
+                .timeout(timeout)
+                .header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))
+                .build();
+    }
+
+    private static long time(HttpClient client, HttpRequest request) throws Exception {
+        long start = System.nanoTime();
+        HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+        long elapsed = System.nanoTime() - start;
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException(request.uri() + " answered " + response.statusCode());
+        }
+        return elapsed;
+    }
+
+    private static Summary summarize(String variant, List<Run> results) {
+        List<Run> runs = results.stream().filter(run -> run.variant().equals(variant)).toList();
+        long[] startup = runs.stream().mapToLong(Run::startupMillis).sorted().toArray();
+        return new Summary(variant, runs.size(), median(startup), startup[0],
+                median(runs.stream().mapToLong(Run::firstUploadMillis).toArray()),
+                median(runs.stream().mapToLong(Run::firstListMillis).toArray()));
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static void print(List<Summary> summaries) {
+        System.out.printf("%n%-13s %5s %13s %11s %17s %18s%n", "variant", "runs", "ready p50 ms", "ready min",
+                "1st upload p50 ms", "1st listing p50 ms");
+        for (Summary summary : summaries) {
+            System.out.printf("%-13s %5d %13d %11d %17d %18d%n", summary.variant(), summary.runs(),
+                    summary.medianStartupMillis(), summary.minStartupMillis(), summary.medianFirstUploadMillis(),
+                    summary.medianFirstListMillis());
+        }
+    }
+
+    private static void write(File report, Arguments arguments, List<Summary> summaries, List<Run> runs)
+            throws IOException {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("options", arguments.all());
+        json.put("variants", summaries);
+        json.put("runs", runs);
+        File directory = report.getAbsoluteFile().getParentFile();
+        if (directory != null) {
+            directory.mkdirs();
+        }
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(report, json);
+        System.out.println("Report written to " + report);
+    }
+}
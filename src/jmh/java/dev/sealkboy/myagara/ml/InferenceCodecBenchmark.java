@@ -0,0 +1,114 @@
+package dev.sealkboy.myagara.ml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.core.io.Resource;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import dev.sealkboy.myagara.benchmark.SampleImages;
+import dev.sealkboy.myagara.storage.SpooledImage;
+
+/**
+ * The backend's share of one inference exchange: preprocessing an upload, writing the
+ * multipart request and turning the JSON response into classifications.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class InferenceCodecBenchmark {
+
+    private static final int BATCH_SIZE = 16;
+    private static final TypeReference<Map<String, Object>> JSON_OBJECT = new TypeReference<>() {};
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private ImagePreprocessor tensorPreprocessor;
+    private ImagePreprocessor jpegPreprocessor;
+    private SpooledImage photo;
+    private List<Resource> tensors;
+    private byte[] batchResponse;
+    private FlaskClassifier classifier;
+
+    @Setup
+    public void setUp() throws IOException {
+        photo = SpooledImage.of("leaf.jpg", SampleImages.jpeg(2048, 1536));
+        tensorPreprocessor = preprocessor("tensor");
+        jpegPreprocessor = preprocessor("jpeg");
+        tensors = Collections.nCopies(BATCH_SIZE, tensorPreprocessor.prepare(photo));
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            results.add(Map.of("label", "Grape___Black_rot", "confidence", 87.5));
+        }
+        batchResponse = objectMapper.writeValueAsBytes(Map.of("model_version", "0123456789abcdef", "results", results));
+        classifier = new FlaskClassifier(new InferenceTransport() {
+            @Override
+            public Map<String, Object> postImages(String path, String partName, List<? extends Resource> images) {
+                try {
+                    return objectMapper.readValue(batchResponse, JSON_OBJECT);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            @Override
+            public Map<String, Object> get(String path) {
+                return Map.of();
+            }
+        });
+    }
+
+    @Benchmark
+    public Resource preprocessToTensor() {
+        return tensorPreprocessor.prepare(photo);
+    }
+
+    @Benchmark
+    public Resource preprocessToJpeg() {
+        return jpegPreprocessor.prepare(photo);
+    }
+
+    @Benchmark
+    public void writeOriginalRequest(Blackhole blackhole) throws IOException {
+        HttpInferenceTransport.multipart("image", List.of(photo)).writeTo(OutputStream.nullOutputStream());
+        blackhole.consume(photo);
+    }
+
+    @Benchmark
+    public void writeTensorBatchRequest(Blackhole blackhole) throws IOException {
+        HttpInferenceTransport.multipart("images", tensors).writeTo(OutputStream.nullOutputStream());
+        blackhole.consume(tensors);
+    }
+
+    @Benchmark
+    public List<Classification> parseBatchResponse() {
+        return classifier.classify(tensors);
+    }
+
+    private static ImagePreprocessor preprocessor(String mode) {
+        InferenceProperties properties = new InferenceProperties();
+        properties.getPreprocess().setMode(mode);
+        return new ImagePreprocessor(properties);
+    }
+}
@@ -0,0 +1,82 @@
+package dev.sealkboy.myagara.model;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonBinaryReader;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+
+import dev.sealkboy.myagara.benchmark.BenchmarkMongo;
+
+/**
+ * Mapping an {@link Image} to and from its stored form with the converter Spring Data
+ * uses, and encoding that document to BSON as the driver does before a write.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ImageMappingBenchmark {
+
+    private final DocumentCodec codec = new DocumentCodec();
+    private MappingMongoConverter converter;
+    private Image image;
+    private Document document;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() {
+        converter = BenchmarkMongo.converter();
+        image = new Image();
+        image.setId("5f0c6a43-3a8f-4b5e-9d7c-2f1e8a6b4c3d");
+        image.setFilename("IMG_20240611_081522.jpg");
+        image.setTimestamp(1_718_000_000_000L);
+        image.setLabel("Corn___Cercospora_leaf_spot Gray_leaf_spot");
+        image.setConfidence(93.27);
+        image.setVersion(3L);
+        document = write();
+        ByteBuffer buffer = writeAndEncode();
+        encoded = new byte[buffer.remaining()];
+        buffer.get(encoded);
+    }
+
+    @Benchmark
+    public Document write() {
+        Document target = new Document();
+        converter.write(image, target);
+        return target;
+    }
+
+    @Benchmark
+    public Image read() {
+        return converter.read(Image.class, document);
+    }
+
+    @Benchmark
+    public ByteBuffer writeAndEncode() {
+        return new RawBsonDocument(write(), codec).getByteBuffer().asNIO();
+    }
+
+    @Benchmark
+    public Image decodeAndRead() {
+        try (BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(encoded))) {
+            return converter.read(Image.class, codec.decode(reader, DecoderContext.builder().build()));
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package dev.sealkboy.myagara.service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.multipart.MultipartFile;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+
+import dev.sealkboy.myagara.benchmark.BenchmarkMongo;
+import dev.sealkboy.myagara.benchmark.SampleImages;
+import dev.sealkboy.myagara.benchmark.StubInferenceServer;
+import dev.sealkboy.myagara.ml.ClassificationCache;
+import dev.sealkboy.myagara.ml.FlaskClassifier;
+import dev.sealkboy.myagara.ml.HttpInferenceTransport;
+import dev.sealkboy.myagara.ml.ImagePreprocessor;
+import dev.sealkboy.myagara.ml.InferenceProperties;
+import dev.sealkboy.myagara.ml.TensorFlowClient;
+import dev.sealkboy.myagara.model.Image;
+import dev.sealkboy.myagara.storage.ImageArchiver;
+import dev.sealkboy.myagara.storage.LocalImageStore;
+import dev.sealkboy.myagara.storage.UploadProperties;
+import dev.sealkboy.myagara.storage.UploadSpool;
+
+/**
+ * Uploads end to end: spooling, preprocessing, an HTTP round trip to a
+ * {@link StubInferenceServer}, mapping and storing the image and updating the label
+ * rollups, wired as the application wires them. Storage is the {@link BenchmarkMongo}
+ * stand-in unless a local Mongo is configured. The classification cache is off so every
+ * upload reaches the inference server, and so is the concurrency limit, which would
+ * otherwise shed some of the concurrent uploads on a small machine. {@code writeBehind} is
+ * off, or the durability of the write-behind buffer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+public class UploadBenchmark {
+
+    private static final int BULK_SIZE = 64;
+
+    @Param({ "tensor", "none" })
+    public String preprocess;
+
+    @Param({ "true", "false" })
+    public boolean batching;
+
+    @Param({ "off", "flush", "buffer" })
+    public String writeBehind;
+
+    private StubInferenceServer server;
+    private BenchmarkMongo mongo;
+    private HttpInferenceTransport transport;
+    private ClassificationCache cache;
+    private TensorFlowClient tensorFlowClient;
+    private ImageArchiver imageArchiver;
+    private ImageWriteBehind imageWriteBehind;
+    private ImageService imageService;
+    private BulkUploadService bulkUploadService;
+    private MockMultipartFile file;
+    private List<MultipartFile> files;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = StubInferenceServer.start();
+        mongo = BenchmarkMongo.open();
+
+        InferenceProperties inference = new InferenceProperties();
+        inference.setEndpoint(server.endpoint());
+        inference.getBatch().setEnabled(batching);
+        inference.getCache().setEnabled(false);
+        inference.getLimit().setEnabled(false);
+        inference.getCache().setModelCheckInterval(Duration.ZERO);
+        inference.getPreprocess().setMode(preprocess);
+        transport = new HttpInferenceTransport(inference, new ObjectMapper());
+        cache = new ClassificationCache(inference, mongo.template());
+        tensorFlowClient = new TensorFlowClient(inference, new FlaskClassifier(transport), cache,
+                new ImagePreprocessor(inference));
+
+        UploadProperties upload = new UploadProperties();
+        upload.getArchive().setEnabled(false);
+        upload.getThumbnails().setEnabled(false);
+        upload.getWriteBehind().setEnabled(!writeBehind.equals("off"));
+        if (upload.getWriteBehind().isEnabled()) {
+            upload.getWriteBehind().setDurability(writeBehind);
+        }
+        UploadSpool uploadSpool = new UploadSpool(upload);
+        LocalImageStore imageStore = new LocalImageStore(upload);
+        imageArchiver = new ImageArchiver(upload, imageStore);
+        AnalyticsService analyticsService = new AnalyticsService(mongo.template(), new AnalyticsProperties());
+        UploadObservations observations = new UploadObservations(ObservationRegistry.NOOP, new SimpleMeterRegistry());
+
+        imageService = new ImageService();
+        ReflectionTestUtils.setField(imageService, "tensorFlowClient", tensorFlowClient);
+        ReflectionTestUtils.setField(imageService, "imageRepository", mongo.imageRepository());
+        ReflectionTestUtils.setField(imageService, "uploadSpool", uploadSpool);
+        ReflectionTestUtils.setField(imageService, "imageArchiver", imageArchiver);
+        ReflectionTestUtils.setField(imageService, "imageStore", imageStore);
+        ImageQueryProperties images = new ImageQueryProperties();
+        images.getCache().setChangeFeed(false);
+        ImageCache imageCache = new ImageCache(images, mongo.template());
+        ReflectionTestUtils.setField(imageService, "imageCache", imageCache);
+        ThumbnailService thumbnailService = new ThumbnailService(upload, imageStore, mongo.template(), imageCache);
+        ReflectionTestUtils.setField(imageService, "thumbnailService", thumbnailService);
+        imageWriteBehind = new ImageWriteBehind(upload, mongo.template(), analyticsService, imageCache,
+                thumbnailService);
+        ReflectionTestUtils.setField(imageService, "writeBehind", imageWriteBehind);
+        ReflectionTestUtils.setField(imageService, "mongoTemplate", mongo.template());
+        ReflectionTestUtils.setField(imageService, "queryProperties", images);
+        ReflectionTestUtils.setField(imageService, "analyticsService", analyticsService);
+        ReflectionTestUtils.setField(imageService, "observations", observations);
+        bulkUploadService = new BulkUploadService(upload, imageService, uploadSpool, mongo.template(), analyticsService,
+                imageCache, thumbnailService, observations);
+
+        file = new MockMultipartFile("image", "leaf.jpg", "image/jpeg", SampleImages.jpeg(1024, 768));
+        files = new ArrayList<>();
+        for (int i = 0; i < BULK_SIZE; i++) {
+            files.add(file);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        imageWriteBehind.shutdown();
+        tensorFlowClient.shutdown();
+        cache.shutdown();
+        transport.close();
+        imageArchiver.shutdown();
+        server.close();
+        mongo.close();
+    }
+
+    @Benchmark
+    public Image upload() {
+        return imageService.uploadImage(file);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Image concurrentUploads() {
+        return imageService.uploadImage(file);
+    }
+
+    /** One-by-one baseline for {@link #bulkUpload()}: the same images as separate uploads. */
+    @Benchmark
+    @OperationsPerInvocation(BULK_SIZE)
+    public int sequentialUploads() {
+        int saved = 0;
+        for (MultipartFile each : files) {
+            saved += imageService.uploadImage(each) != null ? 1 : 0;
+        }
+        return saved;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BULK_SIZE)
+    public List<BulkItemResult> bulkUpload() {
+        return bulkUploadService.ingest(files);
+    }
+}
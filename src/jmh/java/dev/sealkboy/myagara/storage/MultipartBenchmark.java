@@ -0,0 +1,64 @@
+package dev.sealkboy.myagara.storage;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockMultipartFile;
+
+import dev.sealkboy.myagara.benchmark.SampleImages;
+
+/**
+ * Taking a multipart upload into the spool, which every upload path does before it
+ * classifies anything.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MultipartBenchmark {
+
+    /** Small uploads stay on the heap, larger ones go to pooled direct buffers. */
+    @Param({ "320x240", "2048x1536" })
+    public String resolution;
+
+    private UploadSpool spool;
+    private MockMultipartFile file;
+
+    @Setup
+    public void setUp() {
+        String[] size = resolution.split("x");
+        byte[] jpeg = SampleImages.jpeg(Integer.parseInt(size[0]), Integer.parseInt(size[1]));
+        file = new MockMultipartFile("image", "leaf.jpg", "image/jpeg", jpeg);
+        spool = new UploadSpool(new UploadProperties());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long spool() throws IOException {
+        try (SpooledImage image = spool.spool(file)) {
+            return image.contentLength();
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String spoolAndHash() throws IOException {
+        try (SpooledImage image = spool.spool(file)) {
+            return image.sha256();
+        }
+    }
+}
@@ -1,13 +1,70 @@
 package dev.sealkboy.myagara;
 
+import java.time.Duration;
+
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
 import org.springframework.boot.SpringApplication;
+import org.springframework.boot.SpringApplicationRunListener;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.ImportRuntimeHints;
+
+import dev.sealkboy.myagara.model.Image;
+import dev.sealkboy.myagara.service.BulkItemResult;
 
 @SpringBootApplication
+@ConfigurationPropertiesScan
+@ImportRuntimeHints(MyagaraApplication.Hints.class)
 public class MyagaraApplication {
 
+	/**
+	 * Set to stop as soon as the context is refreshed, for the training run that records the
+	 * classes to share between JVMs. Nothing past startup, such as tailing the image change
+	 * log or warming up connections, is done.
+	 */
+	static final String TRAINING_RUN = "myagara.training-run";
+
 	public static void main(String[] args) {
+		if (Boolean.getBoolean(TRAINING_RUN)) {
+			train(args);
+			return;
+		}
 		SpringApplication.run(MyagaraApplication.class, args);
 	}
 
+	private static void train(String[] args) {
+		SpringApplicationRunListener stopWhenStarted = new SpringApplicationRunListener() {
+
+			@Override
+			public void started(ConfigurableApplicationContext context, Duration timeTaken) {
+				context.close();
+				throw new SpringApplication.AbandonedRunException(context);
+			}
+		};
+		try {
+			SpringApplication.withHook(application -> stopWhenStarted,
+					() -> SpringApplication.run(MyagaraApplication.class, args));
+		} catch (SpringApplication.AbandonedRunException e) {
+			// the classes are dumped as the JVM exits
+		}
+	}
+
+	/**
+	 * Types written with the application's ObjectMapper outside of controller signatures,
+	 * which a native image would otherwise not know to keep reflective access to.
+	 */
+	static class Hints implements RuntimeHintsRegistrar {
+
+		@Override
+		public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+			for (Class<?> type : new Class<?>[] { Image.class, BulkItemResult.class }) {
+				hints.reflection().registerType(type, MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS,
+						MemberCategory.INVOKE_PUBLIC_METHODS, MemberCategory.DECLARED_FIELDS);
+			}
+		}
+	}
+
 }
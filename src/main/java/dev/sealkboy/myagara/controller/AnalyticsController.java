@@ -0,0 +1,53 @@
+package dev.sealkboy.myagara.controller;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Locale;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import dev.sealkboy.myagara.service.AnalyticsService;
+import dev.sealkboy.myagara.service.BadRequestException;
+import dev.sealkboy.myagara.service.LabelTrend;
+import dev.sealkboy.myagara.service.TrendBucket;
+
+@RestController
+@RequestMapping("/api/analytics")
+public class AnalyticsController {
+
+    private final AnalyticsService analyticsService;
+
+    public AnalyticsController(AnalyticsService analyticsService) {
+        this.analyticsService = analyticsService;
+    }
+
+    /**
+     * Count, average confidence and low-confidence rate per label and bucket. Day-aligned
+     * ranges are served from rollups unless {@code source=aggregation} is requested.
+     */
+    @GetMapping("/labels")
+    public ResponseEntity<List<LabelTrend>> getLabelTrends(@RequestParam(value = "from", required = false) Instant from,
+            @RequestParam(value = "to", required = false) Instant to,
+            @RequestParam(value = "bucket", defaultValue = "day") String bucket,
+            @RequestParam(value = "source", defaultValue = "auto") String source) {
+        AnalyticsService.Source trendSource;
+        try {
+            trendSource = AnalyticsService.Source.valueOf(source.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Unknown source: " + source + ". Expected auto, rollups or aggregation");
+        }
+        return ResponseEntity.ok(analyticsService.trends(from == null ? null : from.toEpochMilli(),
+                to == null ? null : to.toEpochMilli(), TrendBucket.parse(bucket), trendSource));
+    }
+
+    @PostMapping("/rollups/rebuild")
+    public ResponseEntity<String> rebuildRollups() {
+        int rollups = analyticsService.rebuild();
+        return ResponseEntity.ok("Rollups Rebuilt: " + rollups);
+    }
+}
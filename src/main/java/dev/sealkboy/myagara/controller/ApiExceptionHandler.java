@@ -0,0 +1,60 @@
+package dev.sealkboy.myagara.controller;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+import dev.sealkboy.myagara.ml.InferenceOverloadedException;
+import dev.sealkboy.myagara.ml.InferenceRejectedException;
+import dev.sealkboy.myagara.ml.InferenceUnavailableException;
+import dev.sealkboy.myagara.ml.UnclassifiableImageException;
+import dev.sealkboy.myagara.service.BadRequestException;
+import dev.sealkboy.myagara.service.ImageConflictException;
+import dev.sealkboy.myagara.service.UploadQueueFullException;
+
+/**
+ * Maps service exceptions that are not server errors to their HTTP status.
+ */
+@RestControllerAdvice
+public class ApiExceptionHandler {
+
+    @ExceptionHandler(UploadQueueFullException.class)
+    public ResponseEntity<String> handleUploadQueueFull(UploadQueueFullException e) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfter().toSeconds()))
+                .body(e.getMessage());
+    }
+
+    @ExceptionHandler(InferenceOverloadedException.class)
+    public ResponseEntity<String> handleInferenceOverloaded(InferenceOverloadedException e) {
+        return rejected(HttpStatus.TOO_MANY_REQUESTS, e);
+    }
+
+    @ExceptionHandler(InferenceUnavailableException.class)
+    public ResponseEntity<String> handleInferenceUnavailable(InferenceUnavailableException e) {
+        return rejected(HttpStatus.SERVICE_UNAVAILABLE, e);
+    }
+
+    @ExceptionHandler(UnclassifiableImageException.class)
+    public ResponseEntity<String> handleUnclassifiable(UnclassifiableImageException e) {
+        return ResponseEntity.unprocessableEntity().body(e.getMessage());
+    }
+
+    @ExceptionHandler(ImageConflictException.class)
+    public ResponseEntity<String> handleConflict(ImageConflictException e) {
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+    }
+
+    @ExceptionHandler(BadRequestException.class)
+    public ResponseEntity<String> handleBadRequest(BadRequestException e) {
+        return ResponseEntity.badRequest().body(e.getMessage());
+    }
+
+    private static ResponseEntity<String> rejected(HttpStatus status, InferenceRejectedException e) {
+        return ResponseEntity.status(status)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfter().toSeconds()))
+                .body(e.getMessage());
+    }
+}
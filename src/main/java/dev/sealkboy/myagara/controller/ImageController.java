@@ -1,7 +1,27 @@
 package dev.sealkboy.myagara.controller;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -9,22 +29,60 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import dev.sealkboy.myagara.model.Image;
+import dev.sealkboy.myagara.service.BadRequestException;
+import dev.sealkboy.myagara.service.BulkItemResult;
+import dev.sealkboy.myagara.service.BulkUploadService;
+import dev.sealkboy.myagara.service.ImageFields;
+import dev.sealkboy.myagara.service.ImagePage;
+import dev.sealkboy.myagara.service.ImageQuery;
 import dev.sealkboy.myagara.service.ImageService;
+import dev.sealkboy.myagara.service.ThumbnailService;
+import dev.sealkboy.myagara.service.UploadJob;
+import dev.sealkboy.myagara.service.UploadJobService;
+import dev.sealkboy.myagara.storage.StoredImage;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 
 @RestController
 @RequestMapping("/api/images")
 public class ImageController {
 
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    private static final String CONTENT_CACHE_CONTROL = CacheControl.maxAge(Duration.ofDays(365))
+            .cachePublic().immutable().getHeaderValue();
+    // metadata may change, so clients keep it but revalidate with the ETag before use
+    private static final CacheControl METADATA_CACHE_CONTROL = CacheControl.noCache();
+    // below this, handing the file to the connector costs more than writing it
+    private static final long SENDFILE_THRESHOLD = 48 * 1024;
+    private static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
     private final ImageService imageService;
+    private final UploadJobService uploadJobService;
+    private final BulkUploadService bulkUploadService;
+    private final ObjectMapper objectMapper;
 
-    public ImageController(ImageService imageService) {
+    public ImageController(ImageService imageService, UploadJobService uploadJobService,
+            BulkUploadService bulkUploadService, ObjectMapper objectMapper) {
         this.imageService = imageService;
+        this.uploadJobService = uploadJobService;
+        this.bulkUploadService = bulkUploadService;
+        this.objectMapper = objectMapper;
     }
 
     @PostMapping("/upload")
@@ -33,20 +91,202 @@ public class ImageController {
         return ResponseEntity.ok("Image Uploaded");
     }
 
+    @PostMapping(value = "/upload", params = "mode=async")
+    public ResponseEntity<UploadJob> uploadImageAsync(@RequestParam("image") MultipartFile file) {
+        UploadJob job = uploadJobService.submit(file);
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/images/jobs/" + job.getId()))
+                .body(job);
+    }
+
+    @PostMapping(value = "/bulk", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<List<BulkItemResult>> uploadImages(@RequestParam("images") List<MultipartFile> files) {
+        return ResponseEntity.ok(bulkUploadService.ingest(files));
+    }
+
+    /**
+     * Ingests a ZIP archive sent as the request body and streams one JSON line per entry
+     * as each is classified and saved.
+     */
+    @PostMapping(value = "/bulk", consumes = { "application/zip", "application/x-zip-compressed" },
+            produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> uploadArchive(InputStream archive) {
+        StreamingResponseBody body = out -> bulkUploadService.ingestZip(archive, result -> writeLine(out, result, true));
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+
+    @GetMapping("/jobs/{jobId}")
+    public CompletableFuture<ResponseEntity<UploadJob>> getUploadJob(@PathVariable String jobId,
+            @RequestParam(value = "wait", defaultValue = "0") long waitSeconds) {
+        UploadJob job = uploadJobService.getJob(jobId);
+        if (job == null) {
+            return CompletableFuture.completedFuture(ResponseEntity.notFound().build());
+        }
+        return uploadJobService.await(job, Duration.ofSeconds(waitSeconds))
+                .thenApply(current -> ResponseEntity
+                        .status(current.isDone() ? HttpStatus.OK : HttpStatus.ACCEPTED)
+                        .body(current));
+    }
+
+    /**
+     * One page of images, newest first. The {@code ETag} changes whenever any image does, so
+     * an unchanged listing is answered with 304 without querying. Like every image read, it
+     * may also be encoded as CBOR or Smile by asking for {@code application/cbor} or
+     * {@code application/x-jackson-smile}.
+     */
     @GetMapping
-    public ResponseEntity<List<Image>> getAllImages() {
-        return ResponseEntity.ok(imageService.getAllImages());
+    public ResponseEntity<List<Image>> getImages(@RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "limit", required = false) Integer limit, WebRequest request) {
+        String etag = imagesTag();
+        if (etag != null && request.checkNotModified(etag)) {
+            return null;
+        }
+        ImagePage page = imageService.getImages(cursor, limit);
+        return pageResponse(page, page.images(), etag, UriComponentsBuilder.fromPath("/api/images")
+                .queryParamIfPresent("limit", Optional.ofNullable(limit)));
     }
 
+    /**
+     * A page like {@link #getImages} with only the comma-separated properties in
+     * {@code fields}, read from Mongo with a projection.
+     */
+    @GetMapping(params = "fields")
+    public ResponseEntity<List<Map<String, Object>>> getImageFields(@RequestParam("fields") String fields,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "limit", required = false) Integer limit, WebRequest request) {
+        ImageFields projection = ImageFields.parse(fields);
+        String etag = imagesTag();
+        if (etag != null && request.checkNotModified(etag)) {
+            return null;
+        }
+        ImagePage page = imageService.searchImages(ImageQuery.ALL, cursor, limit, projection);
+        return pageResponse(page, project(page, projection), etag, UriComponentsBuilder.fromPath("/api/images")
+                .queryParam("fields", projection)
+                .queryParamIfPresent("limit", Optional.ofNullable(limit)));
+    }
+
+    /**
+     * Images matching every given filter, newest first, paged and tagged like
+     * {@link #getImages}. {@code maxConfidence} and {@code to} are exclusive.
+     */
+    @GetMapping("/search")
+    public ResponseEntity<List<Image>> searchImages(@RequestParam(value = "label", required = false) String label,
+            @RequestParam(value = "minConfidence", required = false) Double minConfidence,
+            @RequestParam(value = "maxConfidence", required = false) Double maxConfidence,
+            @RequestParam(value = "from", required = false) Instant from,
+            @RequestParam(value = "to", required = false) Instant to,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "limit", required = false) Integer limit, WebRequest request) {
+        String etag = imagesTag();
+        if (etag != null && request.checkNotModified(etag)) {
+            return null;
+        }
+        ImagePage page = imageService.searchImages(filter(label, minConfidence, maxConfidence, from, to), cursor, limit);
+        return pageResponse(page, page.images(), etag, searchLink(label, minConfidence, maxConfidence, from, to, limit));
+    }
+
+    /**
+     * A search like {@link #searchImages} with only the properties in {@code fields}.
+     * {@code fields=id,label,confidence,timestamp} with a {@code label} can be answered from
+     * the label index without reading the images themselves.
+     */
+    @GetMapping(value = "/search", params = "fields")
+    public ResponseEntity<List<Map<String, Object>>> searchImageFields(@RequestParam("fields") String fields,
+            @RequestParam(value = "label", required = false) String label,
+            @RequestParam(value = "minConfidence", required = false) Double minConfidence,
+            @RequestParam(value = "maxConfidence", required = false) Double maxConfidence,
+            @RequestParam(value = "from", required = false) Instant from,
+            @RequestParam(value = "to", required = false) Instant to,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "limit", required = false) Integer limit, WebRequest request) {
+        ImageFields projection = ImageFields.parse(fields);
+        String etag = imagesTag();
+        if (etag != null && request.checkNotModified(etag)) {
+            return null;
+        }
+        ImagePage page = imageService.searchImages(filter(label, minConfidence, maxConfidence, from, to), cursor,
+                limit, projection);
+        return pageResponse(page, project(page, projection), etag,
+                searchLink(label, minConfidence, maxConfidence, from, to, limit).queryParam("fields", projection));
+    }
+
+    /**
+     * Streams every image as NDJSON straight from a Mongo cursor, so memory use does not
+     * grow with the collection.
+     */
+    @GetMapping(value = "/export", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> exportImages() {
+        StreamingResponseBody body = out -> {
+            try (Stream<Image> images = imageService.streamImages()) {
+                images.forEach(image -> writeLine(out, image, false));
+            }
+        };
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+
+    /**
+     * The {@code ETag} is the version, as accepted by {@code If-Match} on updates, followed
+     * by the thumbnail sizes once they are rendered, and a matching {@code If-None-Match} is
+     * answered with 304 straight from the image cache.
+     */
     @GetMapping("/{id}")
-    public ResponseEntity<Image> getImageById(@PathVariable String id) {
-        return ResponseEntity.ok(imageService.getImageById(id));
+    public ResponseEntity<Image> getImageById(@PathVariable String id, WebRequest request) {
+        Image image = imageService.getImageById(id);
+        return imageResponse(image, image, request);
+    }
+
+    /**
+     * An image like {@link #getImageById} with only the properties in {@code fields}.
+     */
+    @GetMapping(value = "/{id}", params = "fields")
+    public ResponseEntity<Map<String, Object>> getImageFieldsById(@PathVariable String id,
+            @RequestParam("fields") String fields, WebRequest request) {
+        ImageFields projection = ImageFields.parse(fields);
+        Image image = imageService.getImageById(id);
+        return imageResponse(image, projection.of(image), request);
+    }
+
+    /**
+     * The original bytes of an image. They never change, so the hash is a strong
+     * {@code ETag}, {@code If-None-Match} gets a 304 and clients may cache them for a year.
+     * A single {@code Range} gets a 206 with just that part. Where the connector supports
+     * it, the file goes to the socket with {@code sendfile}; otherwise it is transferred
+     * from the file channel without passing through a user-space buffer of ours.
+     */
+    @GetMapping("/{id}/content")
+    public void getImageContent(@PathVariable String id, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        Image image = imageService.getImageById(id);
+        serve(imageService.getImageContent(image), image.getContentHash(), contentTypeOf(image), request, response);
     }
 
+    /**
+     * A JPEG thumbnail fitting in a square of {@code size} pixels, one of
+     * {@code myagara.upload.thumbnails.sizes} and the smallest by default, cached and ranged
+     * like the original. One not rendered yet is rendered on the spot.
+     */
+    @GetMapping("/{id}/thumbnail")
+    public void getImageThumbnail(@PathVariable String id, @RequestParam(value = "size", required = false) Integer size,
+            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Image image = imageService.getImageById(id);
+        int edge = size == null ? imageService.getThumbnailSizes().get(0) : size;
+        StoredImage thumbnail = imageService.getImageThumbnail(image, edge);
+        serve(thumbnail, image.getContentHash() + "." + ThumbnailService.variant(edge), MediaType.IMAGE_JPEG, request,
+                response);
+    }
+
+    /**
+     * Partial update. The expected version may be sent in the body or as {@code If-Match};
+     * a stale version is answered with 409.
+     */
     @PutMapping("/{id}")
-    public ResponseEntity<Image> updateImageMetadata(@PathVariable String id, @RequestBody Image updatedImage) {
+    public ResponseEntity<Image> updateImageMetadata(@PathVariable String id, @RequestBody Image updatedImage,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        if (ifMatch != null && !ifMatch.isBlank() && !ifMatch.trim().equals("*")) {
+            updatedImage.setVersion(parseVersion(ifMatch));
+        }
         Image image = imageService.updateImageMetadata(id, updatedImage);
-        return ResponseEntity.ok(image);
+        return ResponseEntity.ok().eTag(imageTag(image)).body(image);
     }
 
     @DeleteMapping("/{id}")
@@ -60,4 +300,188 @@ public class ImageController {
         imageService.deleteAllImages();
         return ResponseEntity.ok("All Images Deleted");
     }
+
+    private void writeLine(OutputStream out, Object value, boolean flush) {
+        try {
+            out.write(objectMapper.writeValueAsBytes(value));
+            out.write('\n');
+            if (flush) {
+                out.flush();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes stored bytes that never change under {@code tag}, honouring
+     * {@code If-None-Match} and a single {@code Range}.
+     */
+    private static void serve(StoredImage content, String tag, MediaType contentType, HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        if (content == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        String etag = "\"" + tag + "\"";
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CONTENT_CACHE_CONTROL);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (new ServletWebRequest(request, response).checkNotModified(etag)) {
+            return;
+        }
+
+        long length = content.length();
+        long start = 0;
+        long end = length - 1;
+        HttpRange range = singleRange(request, etag);
+        if (range != null) {
+            start = range.getRangeStart(length);
+            end = range.getRangeEnd(length);
+            if (start >= length || start > end) {
+                response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                return;
+            }
+            response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+        }
+        long count = end - start + 1;
+        response.setContentType(contentType.toString());
+        response.setContentLengthLong(count);
+        if ("HEAD".equals(request.getMethod()) || count == 0) {
+            return;
+        }
+
+        Path file = content.file();
+        if (file != null && count >= SENDFILE_THRESHOLD && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED))) {
+            request.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end + 1);
+            return;
+        }
+        content.transferTo(start, count, Channels.newChannel(response.getOutputStream()));
+    }
+
+    /**
+     * @return the one range asked for, or {@code null} to send everything: when there is no
+     *         {@code Range}, it is malformed or asks for several parts, or {@code If-Range}
+     *         names other content
+     */
+    private static HttpRange singleRange(HttpServletRequest request, String etag) {
+        String header = request.getHeader(HttpHeaders.RANGE);
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (header == null || (ifRange != null && !ifRange.trim().equals(etag))) {
+            return null;
+        }
+        try {
+            List<HttpRange> ranges = HttpRange.parseRanges(header);
+            return ranges.size() == 1 ? ranges.get(0) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static MediaType contentTypeOf(Image image) {
+        if (image.getContentType() != null) {
+            try {
+                return MediaType.parseMediaType(image.getContentType());
+            } catch (IllegalArgumentException e) {
+                // fall back to the filename
+            }
+        }
+        if (image.getFilename() == null) {
+            return MediaType.APPLICATION_OCTET_STREAM;
+        }
+        return MediaTypeFactory.getMediaType(image.getFilename()).orElse(MediaType.APPLICATION_OCTET_STREAM);
+    }
+
+    private static Long parseVersion(String ifMatch) {
+        String tag = ifMatch.trim();
+        if (tag.startsWith("W/")) {
+            tag = tag.substring(2);
+        }
+        try {
+            tag = tag.replace("\"", "");
+            int thumbnails = tag.indexOf('-');
+            return Long.valueOf(thumbnails < 0 ? tag : tag.substring(0, thumbnails));
+        } catch (NumberFormatException e) {
+            throw new BadRequestException("Invalid If-Match version: " + ifMatch);
+        }
+    }
+
+    /**
+     * Taken before querying, so a change made meanwhile leaves the tag older than the page
+     * and the next request gets it in full.
+     *
+     * @return the weak {@code ETag} of every listing, or {@code null} if changes made by
+     *         other instances cannot be tracked right now
+     */
+    private String imagesTag() {
+        String tag = imageService.getImagesTag();
+        return tag == null ? null : "W/\"" + tag + "\"";
+    }
+
+    /**
+     * Thumbnails are recorded without a new version, so their sizes are part of the tag.
+     */
+    private static String imageTag(Image image) {
+        List<Integer> thumbnails = image.getThumbnails();
+        if (thumbnails == null || thumbnails.isEmpty()) {
+            return "\"" + image.getVersion() + "\"";
+        }
+        return thumbnails.stream().map(String::valueOf)
+                .collect(Collectors.joining("-", "\"" + image.getVersion() + "-", "\""));
+    }
+
+    private static <T> ResponseEntity<T> imageResponse(Image image, T body, WebRequest request) {
+        if (image.getVersion() == null) {
+            return ResponseEntity.ok().varyBy(HttpHeaders.ACCEPT).body(body);
+        }
+        String etag = imageTag(image);
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        return ResponseEntity.ok().eTag(etag).cacheControl(METADATA_CACHE_CONTROL).varyBy(HttpHeaders.ACCEPT)
+                .body(body);
+    }
+
+    private static ImageQuery filter(String label, Double minConfidence, Double maxConfidence, Instant from,
+            Instant to) {
+        return new ImageQuery(label, minConfidence, maxConfidence,
+                from == null ? null : from.toEpochMilli(), to == null ? null : to.toEpochMilli());
+    }
+
+    private static UriComponentsBuilder searchLink(String label, Double minConfidence, Double maxConfidence,
+            Instant from, Instant to, Integer limit) {
+        return UriComponentsBuilder.fromPath("/api/images/search")
+                .queryParamIfPresent("label", Optional.ofNullable(label))
+                .queryParamIfPresent("minConfidence", Optional.ofNullable(minConfidence))
+                .queryParamIfPresent("maxConfidence", Optional.ofNullable(maxConfidence))
+                .queryParamIfPresent("from", Optional.ofNullable(from))
+                .queryParamIfPresent("to", Optional.ofNullable(to))
+                .queryParamIfPresent("limit", Optional.ofNullable(limit));
+    }
+
+    private static List<Map<String, Object>> project(ImagePage page, ImageFields fields) {
+        return page.images().stream().map(fields::of).toList();
+    }
+
+    /**
+     * When more images remain, the {@code X-Next-Cursor} header carries the cursor for the
+     * next page and {@code Link} points at it.
+     */
+    private static <T> ResponseEntity<List<T>> pageResponse(ImagePage page, List<T> body, String etag,
+            UriComponentsBuilder link) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().varyBy(HttpHeaders.ACCEPT);
+        if (etag != null) {
+            response.eTag(etag).cacheControl(METADATA_CACHE_CONTROL);
+        }
+        if (page.nextCursor() != null) {
+            String next = link.queryParam("cursor", page.nextCursor()).build().encode().toUriString();
+            response.header("X-Next-Cursor", page.nextCursor())
+                    .header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+        }
+        return response.body(body);
+    }
 }
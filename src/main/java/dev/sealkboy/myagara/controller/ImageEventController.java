@@ -0,0 +1,80 @@
+package dev.sealkboy.myagara.controller;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import dev.sealkboy.myagara.service.ImageEvent;
+import dev.sealkboy.myagara.service.ImageEventFeed;
+import dev.sealkboy.myagara.service.ImageQueryProperties;
+
+@RestController
+@RequestMapping("/api/images")
+public class ImageEventController {
+
+    private final ImageEventFeed imageEventFeed;
+    private final long timeout;
+
+    public ImageEventController(ImageEventFeed imageEventFeed, ImageQueryProperties properties) {
+        this.imageEventFeed = imageEventFeed;
+        this.timeout = properties.getEvents().getTimeout().toMillis();
+    }
+
+    /**
+     * Streams image writes as server-sent events named {@code created}, {@code updated},
+     * {@code deleted} and {@code reset}. Created and updated events carry the image, deleted
+     * ones its id; a reset means events were missed and whatever was fetched should be
+     * fetched again. Browsers reconnect with {@code Last-Event-ID} by themselves.
+     *
+     * @param lastEventId id of the last event seen, to resume after it
+     * @param since       the same, for clients that cannot set headers
+     */
+    @GetMapping(value = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamEvents(@RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+            @RequestParam(required = false) String since) {
+        SseEmitter emitter = new SseEmitter(timeout);
+        ImageEventFeed.Subscription subscription = imageEventFeed.subscribe(
+                lastEventId != null ? lastEventId : since, new ImageEventFeed.Subscriber() {
+
+                    @Override
+                    public void onEvent(ImageEvent event) throws IOException {
+                        SseEmitter.SseEventBuilder builder = SseEmitter.event()
+                                .name(event.type().name().toLowerCase(Locale.ROOT))
+                                .data(payload(event), MediaType.APPLICATION_JSON);
+                        if (event.id() != null) {
+                            builder.id(event.id());
+                        }
+                        emitter.send(builder);
+                    }
+
+                    @Override
+                    public void onIdle() throws IOException {
+                        emitter.send(SseEmitter.event().comment("keepalive"));
+                    }
+
+                    @Override
+                    public void onDropped() {
+                        emitter.complete();
+                    }
+                });
+        emitter.onCompletion(subscription::close);
+        emitter.onTimeout(subscription::close);
+        emitter.onError(e -> subscription.close());
+        return emitter;
+    }
+
+    private static Object payload(ImageEvent event) {
+        if (event.image() != null) {
+            return event.image();
+        }
+        return event.imageId() == null ? Map.of() : Map.of("id", event.imageId());
+    }
+}
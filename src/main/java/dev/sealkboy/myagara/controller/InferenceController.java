@@ -0,0 +1,93 @@
+package dev.sealkboy.myagara.controller;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hc.core5.pool.PoolStats;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import dev.sealkboy.myagara.ml.ClassificationCache;
+import dev.sealkboy.myagara.ml.HttpInferenceTransport;
+import dev.sealkboy.myagara.ml.ImagePreprocessor;
+import dev.sealkboy.myagara.ml.InferenceBatcher;
+import dev.sealkboy.myagara.ml.InferenceTransport;
+import dev.sealkboy.myagara.ml.ReplicaPool;
+import dev.sealkboy.myagara.ml.TensorFlowClient;
+
+@RestController
+@RequestMapping("/api/inference")
+public class InferenceController {
+
+    private final TensorFlowClient tensorFlowClient;
+    private final InferenceTransport inferenceTransport;
+    private final ClassificationCache classificationCache;
+
+    public InferenceController(TensorFlowClient tensorFlowClient, InferenceTransport inferenceTransport,
+            ClassificationCache classificationCache) {
+        this.tensorFlowClient = tensorFlowClient;
+        this.inferenceTransport = inferenceTransport;
+        this.classificationCache = classificationCache;
+    }
+
+    @GetMapping("/batching")
+    public ResponseEntity<InferenceBatcher.BatchStats> getBatchStats() {
+        InferenceBatcher.BatchStats stats = tensorFlowClient.getBatchStats();
+        if (stats == null) {
+            return ResponseEntity.noContent().build();
+        }
+        return ResponseEntity.ok(stats);
+    }
+
+    @GetMapping("/connections")
+    public ResponseEntity<Map<String, Integer>> getConnectionStats() {
+        if (!(inferenceTransport instanceof HttpInferenceTransport httpTransport)) {
+            return ResponseEntity.noContent().build();
+        }
+        PoolStats stats = httpTransport.getPoolStats();
+        return ResponseEntity.ok(Map.of(
+                "leased", stats.getLeased(),
+                "available", stats.getAvailable(),
+                "pending", stats.getPending(),
+                "max", stats.getMax()));
+    }
+
+    @GetMapping("/replicas")
+    public ResponseEntity<List<ReplicaPool.ReplicaStats>> getReplicaStats() {
+        if (!(inferenceTransport instanceof HttpInferenceTransport httpTransport)) {
+            return ResponseEntity.noContent().build();
+        }
+        return ResponseEntity.ok(httpTransport.getReplicaStats());
+    }
+
+    /**
+     * The adaptive concurrency limit and circuit breaker in front of the classifier.
+     */
+    @GetMapping("/limits")
+    public ResponseEntity<Map<String, Object>> getLimitStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("limiter", tensorFlowClient.getLimitStats());
+        stats.put("breaker", tensorFlowClient.getBreakerStats());
+        return ResponseEntity.ok(stats);
+    }
+
+    @GetMapping("/cache")
+    public ResponseEntity<ClassificationCache.CacheStats> getCacheStats() {
+        return ResponseEntity.ok(classificationCache.stats());
+    }
+
+    @GetMapping("/preprocessing")
+    public ResponseEntity<ImagePreprocessor.PreprocessStats> getPreprocessStats() {
+        return ResponseEntity.ok(tensorFlowClient.getPreprocessStats());
+    }
+
+    @DeleteMapping("/cache")
+    public ResponseEntity<String> clearCache() {
+        classificationCache.invalidateAll();
+        return ResponseEntity.ok("Classification Cache Cleared");
+    }
+}
@@ -0,0 +1,51 @@
+package dev.sealkboy.myagara.controller;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import dev.sealkboy.myagara.model.ReclassificationJob;
+import dev.sealkboy.myagara.service.ReclassificationService;
+
+@RestController
+@RequestMapping("/api/reclassification")
+public class ReclassificationController {
+
+    private final ReclassificationService reclassificationService;
+
+    public ReclassificationController(ReclassificationService reclassificationService) {
+        this.reclassificationService = reclassificationService;
+    }
+
+    /**
+     * Starts re-classifying stored images in the background.
+     *
+     * @param modelVersion the version to label every image with, by default the model served now
+     */
+    @PostMapping
+    public ResponseEntity<ReclassificationJob> start(@RequestParam(required = false) String modelVersion) {
+        return ResponseEntity.accepted().body(reclassificationService.start(modelVersion));
+    }
+
+    @GetMapping
+    public ResponseEntity<ReclassificationJob> getJob() {
+        ReclassificationJob job = reclassificationService.getJob();
+        if (job == null) {
+            return ResponseEntity.noContent().build();
+        }
+        return ResponseEntity.ok(job);
+    }
+
+    @DeleteMapping
+    public ResponseEntity<ReclassificationJob> cancel() {
+        ReclassificationJob job = reclassificationService.cancel();
+        if (job == null) {
+            return ResponseEntity.noContent().build();
+        }
+        return ResponseEntity.ok(job);
+    }
+}
@@ -0,0 +1,133 @@
+package dev.sealkboy.myagara.ml;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caps the classifications in flight at a limit that follows the model server's latency,
+ * in the manner of a gradient concurrency limit. The baseline is an estimate of unloaded
+ * latency: it follows faster calls quickly and slower ones only over about a thousand
+ * calls, so a server that is merely busy does not redefine normal. While calls come back
+ * within {@code tolerance} times that baseline the limit grows by about its square root,
+ * and as they slow down it shrinks in proportion.
+ * A failed call cuts the limit by a tenth. Calls over the limit are refused at once
+ * rather than queued, so excess load is shed instead of piling up on threads.
+ * <p>
+ * The limit only grows while at least half of it is in use, so a quiet period does not
+ * leave it far above what the server was ever shown to handle.
+ */
+public class AdaptiveLimiter {
+
+    private static final int BASELINE_SAMPLES = 1000;
+    private static final double FAST_ALPHA = 0.1;
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final double smoothing;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private volatile double limit;
+    private double baselineNanos;
+    private long samples;
+
+    /**
+     * @param initialLimit calls allowed in flight before any latency is seen
+     * @param minLimit     the limit never falls below this
+     * @param maxLimit     the limit never grows beyond this
+     * @param tolerance    how much slower than the baseline a call may be before the limit
+     *                     shrinks, e.g. 2 for twice as slow
+     * @param smoothing    share of each adjustment applied at once, between 0 and 1
+     */
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance, double smoothing) {
+        if (minLimit < 1 || maxLimit < minLimit || tolerance < 1 || smoothing <= 0 || smoothing > 1) {
+            throw new IllegalArgumentException("Invalid concurrency limit settings");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.smoothing = smoothing;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * @return whether the call may go ahead; if so, exactly one of {@link #onSuccess},
+     *         {@link #onFailure} or {@link #onIgnored} must follow
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= (int) limit) {
+                rejected.increment();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                accepted.increment();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @param latencyNanos how long the call took
+     */
+    public void onSuccess(long latencyNanos) {
+        int wasInFlight = inFlight.getAndDecrement();
+        synchronized (this) {
+            double latency = Math.max(1, latencyNanos);
+            samples++;
+            if (samples == 1) {
+                baselineNanos = latency;
+            } else if (latency < baselineNanos) {
+                // a faster call is better evidence of the unloaded latency: follow it quickly
+                baselineNanos += (latency - baselineNanos) * FAST_ALPHA;
+            } else {
+                baselineNanos += (latency - baselineNanos) / Math.min(samples, BASELINE_SAMPLES);
+            }
+            if (wasInFlight < limit / 2) {
+                return;
+            }
+            double gradient = Math.max(0.5, Math.min(1.0, tolerance * baselineNanos / latency));
+            double target = limit * gradient + Math.sqrt(limit);
+            limit = clamp(limit * (1 - smoothing) + target * smoothing);
+        }
+    }
+
+    public void onFailure() {
+        inFlight.decrementAndGet();
+        synchronized (this) {
+            limit = clamp(limit * BACKOFF_RATIO);
+        }
+    }
+
+    /**
+     * Ends a call whose outcome says nothing about the server's load.
+     */
+    public void onIgnored() {
+        inFlight.decrementAndGet();
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public LimitStats stats() {
+        double baseline;
+        synchronized (this) {
+            baseline = baselineNanos;
+        }
+        return new LimitStats((int) limit, inFlight.get(), accepted.sum(), rejected.sum(), baseline / 1e6);
+    }
+
+    private double clamp(double value) {
+        return Math.max(minLimit, Math.min(maxLimit, value));
+    }
+
+    /**
+     * @param baselineMillis estimated unloaded latency the limit is judged against
+     */
+    public record LimitStats(int limit, int inFlight, long accepted, long rejected, double baselineMillis) {
+    }
+}
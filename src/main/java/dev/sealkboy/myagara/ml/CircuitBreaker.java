@@ -0,0 +1,153 @@
+package dev.sealkboy.myagara.ml;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fails calls fast while the model server keeps failing. Outcomes of the last
+ * {@code windowSize} calls are kept; once at least {@code minimumCalls} of them are in and
+ * the share of failures reaches {@code failureRateThreshold}, the breaker opens and
+ * refuses every call for {@code openDuration}. After that it lets {@code halfOpenCalls}
+ * trial calls through: if all succeed it closes again, and any failure reopens it.
+ */
+public class CircuitBreaker {
+
+    private static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final boolean[] outcomes;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long openNanos;
+    private final int halfOpenCalls;
+    private final LongAdder rejected = new LongAdder();
+    private State state = State.CLOSED;
+    private int next;
+    private int recorded;
+    private int failures;
+    private long openedAt;
+    private int trialsStarted;
+    private int trialsPassed;
+
+    public CircuitBreaker(String name, int windowSize, int minimumCalls, double failureRateThreshold,
+            Duration openDuration, int halfOpenCalls) {
+        if (windowSize < 1 || minimumCalls < 1 || minimumCalls > windowSize || halfOpenCalls < 1) {
+            throw new IllegalArgumentException("Invalid circuit breaker settings");
+        }
+        this.name = name;
+        this.outcomes = new boolean[windowSize];
+        this.minimumCalls = minimumCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.openNanos = openDuration.toNanos();
+        this.halfOpenCalls = halfOpenCalls;
+    }
+
+    /**
+     * @return whether the call may go ahead; if so, exactly one of {@link #onSuccess},
+     *         {@link #onFailure} or {@link #onIgnored} must follow
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+            state = State.HALF_OPEN;
+            trialsStarted = 0;
+            trialsPassed = 0;
+        }
+        if (state == State.OPEN || (state == State.HALF_OPEN && trialsStarted >= halfOpenCalls)) {
+            rejected.increment();
+            return false;
+        }
+        if (state == State.HALF_OPEN) {
+            trialsStarted++;
+        }
+        return true;
+    }
+
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            if (++trialsPassed >= halfOpenCalls) {
+                state = State.CLOSED;
+                resetWindow();
+                log.info("Circuit breaker {} closed after {} successful trial calls", name, halfOpenCalls);
+            }
+        } else if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            open();
+            return;
+        }
+        if (state == State.CLOSED) {
+            record(true);
+            if (recorded >= minimumCalls && (double) failures / recorded >= failureRateThreshold) {
+                open();
+            }
+        }
+    }
+
+    /**
+     * Ends a call that never reached the server, e.g. because another limit refused it.
+     */
+    public synchronized void onIgnored() {
+        if (state == State.HALF_OPEN && trialsStarted > trialsPassed) {
+            trialsStarted--;
+        }
+    }
+
+    /**
+     * @return how long until trial calls are let through, at least one second
+     */
+    public synchronized Duration retryAfter() {
+        long remaining = state == State.OPEN ? openNanos - (System.nanoTime() - openedAt) : 0;
+        return Duration.ofSeconds(Math.max(1, (long) Math.ceil(remaining / 1e9)));
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized BreakerStats stats() {
+        return new BreakerStats(state, recorded == 0 ? 0 : (double) failures / recorded, recorded, rejected.sum());
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+        resetWindow();
+        log.warn("Circuit breaker {} opened; failing calls fast for {}ms", name, openNanos / 1_000_000);
+    }
+
+    private void record(boolean failed) {
+        if (recorded == outcomes.length && outcomes[next]) {
+            failures--;
+        }
+        outcomes[next] = failed;
+        next = (next + 1) % outcomes.length;
+        recorded = Math.min(recorded + 1, outcomes.length);
+        if (failed) {
+            failures++;
+        }
+    }
+
+    private void resetWindow() {
+        next = 0;
+        recorded = 0;
+        failures = 0;
+    }
+
+    /**
+     * @param failureRate share of failures among the {@code calls} in the current window
+     * @param rejected    calls refused while open, since start
+     */
+    public record BreakerStats(State state, double failureRate, int calls, long rejected) {
+    }
+}
@@ -0,0 +1,38 @@
+package dev.sealkboy.myagara.ml;
+
+import java.util.Map;
+
+import dev.sealkboy.myagara.model.Image;
+
+/**
+ * Result of classifying one image, as returned by the model server.
+ *
+ * @param label        predicted class name
+ * @param confidence   confidence of the prediction in percent
+ * @param modelVersion version of the model that produced it, or {@code null} if unknown
+ */
+public record Classification(String label, double confidence, String modelVersion) {
+
+    /**
+     * @param responseBody one decoded result object from the model server
+     * @param modelVersion version reported alongside it, if any
+     * @return
+     */
+    static Classification fromResponse(Map<String, Object> responseBody, String modelVersion) {
+        String label = (String) responseBody.getOrDefault("label", "unknown");
+        double confidence = Double.parseDouble(responseBody.getOrDefault("confidence", 0.0).toString());
+        Object version = responseBody.getOrDefault("model_version", modelVersion);
+        return new Classification(label, confidence, version == null ? null : version.toString());
+    }
+
+    /**
+     * @return a new, unsaved image carrying this result
+     */
+    public Image toImage() {
+        Image image = new Image();
+        image.setLabel(label);
+        image.setConfidence(confidence);
+        image.setModelVersion(modelVersion);
+        return image;
+    }
+}
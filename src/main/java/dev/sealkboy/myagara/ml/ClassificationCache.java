@@ -0,0 +1,232 @@
+package dev.sealkboy.myagara.ml;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import dev.sealkboy.myagara.storage.SpooledImage;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Remembers classifications by the SHA-256 of the image bytes so that re-uploads of the
+ * same photo skip the model server. The in-memory tier is a size-bounded Caffeine cache
+ * (W-TinyLFU eviction); the optional persistent tier lives in the {@code classifications}
+ * collection. Entries remember the model version that produced them, and a new version
+ * drops the memory tier and the persisted entries of older versions. Concurrent requests
+ * for the same bytes share one in-flight inference.
+ */
+@Component
+public class ClassificationCache implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(ClassificationCache.class);
+
+    private final boolean enabled;
+    private final boolean persistent;
+    private final MongoTemplate mongoTemplate;
+    private final AsyncCache<String, Classification> memory;
+    private final AtomicReference<String> modelVersion;
+    private final LongAdder persistentHits = new LongAdder();
+    private final LongAdder persistentMisses = new LongAdder();
+    private final ExecutorService loader = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("classification-cache-", 0).factory());
+
+    public ClassificationCache(InferenceProperties properties, MongoTemplate mongoTemplate) {
+        InferenceProperties.Cache cache = properties.getCache();
+        this.enabled = cache.isEnabled();
+        this.persistent = cache.isPersistent();
+        this.mongoTemplate = mongoTemplate;
+        this.modelVersion = new AtomicReference<>(cache.getModelVersion());
+        this.memory = Caffeine.newBuilder()
+                .maximumSize(cache.getMaxEntries())
+                .executor(loader)
+                .recordStats()
+                .buildAsync();
+    }
+
+    /**
+     * Returns the cached classification of the image's bytes, or runs {@code inference} once
+     * for all concurrent callers with the same bytes and caches its result.
+     *
+     * @param image
+     * @param inference classifies an image that is not cached
+     * @return
+     */
+    public CompletableFuture<Classification> classify(Resource image,
+            Function<Resource, CompletableFuture<Classification>> inference) {
+        if (!enabled) {
+            return inference.apply(image);
+        }
+        String hash = contentHash(image);
+        CompletableFuture<Classification> cached = memory.get(hash, (key, executor) -> load(key, image, inference));
+        return cached.thenCompose(result -> {
+            if (isCurrent(result)) {
+                return CompletableFuture.completedFuture(result);
+            }
+            // Produced by a model that has since been replaced; drop it and classify again.
+            memory.asMap().remove(hash, cached);
+            return memory.get(hash, (key, executor) -> load(key, image, inference));
+        });
+    }
+
+    /**
+     * Records the model version reported by the model server. A version different from the
+     * current one invalidates everything cached so far. Until this is first called, the
+     * version reported with the first classification result is taken as current.
+     *
+     * @param version
+     */
+    public void onModelVersion(String version) {
+        if (!enabled || version == null) {
+            return;
+        }
+        String previous = modelVersion.getAndSet(version);
+        if (previous == null || Objects.equals(previous, version)) {
+            return;
+        }
+        log.info("Model version changed from {} to {}, invalidating classification cache", previous, version);
+        memory.synchronous().invalidateAll();
+        if (persistent) {
+            loader.execute(() -> {
+                try {
+                    mongoTemplate.remove(query(where("modelVersion").ne(version)), CachedClassification.class);
+                } catch (RuntimeException e) {
+                    log.warn("Failed to purge cached classifications of older models", e);
+                }
+            });
+        }
+    }
+
+    public String getModelVersion() {
+        return modelVersion.get();
+    }
+
+    public void invalidateAll() {
+        memory.synchronous().invalidateAll();
+        if (persistent) {
+            mongoTemplate.dropCollection(CachedClassification.class);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, memory.synchronous(), "classification");
+    }
+
+    public CacheStats stats() {
+        com.github.benmanes.caffeine.cache.stats.CacheStats memoryStats = memory.synchronous().stats();
+        return new CacheStats(
+                memoryStats.hitCount(),
+                memoryStats.missCount(),
+                memoryStats.evictionCount(),
+                persistentHits.sum(),
+                persistentMisses.sum(),
+                memory.synchronous().estimatedSize(),
+                modelVersion.get());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        loader.shutdown();
+    }
+
+    private boolean isCurrent(Classification result) {
+        String current = modelVersion.get();
+        return current == null || result.modelVersion() == null || current.equals(result.modelVersion());
+    }
+
+    private CompletableFuture<Classification> load(String hash, Resource image,
+            Function<Resource, CompletableFuture<Classification>> inference) {
+        return CompletableFuture.supplyAsync(() -> findPersisted(hash, modelVersion.get()), loader)
+                .thenCompose(cached -> cached != null
+                        ? CompletableFuture.completedFuture(cached)
+                        : inference.apply(image).thenApplyAsync(result -> {
+                            if (result.modelVersion() != null) {
+                                modelVersion.compareAndSet(null, result.modelVersion());
+                            }
+                            if (isCurrent(result)) {
+                                persist(hash, result);
+                            }
+                            return result;
+                        }, loader));
+    }
+
+    private Classification findPersisted(String hash, String version) {
+        if (!persistent || version == null) {
+            return null;
+        }
+        try {
+            CachedClassification cached = mongoTemplate.findOne(
+                    query(where("_id").is(hash).and("modelVersion").is(version)), CachedClassification.class);
+            if (cached == null) {
+                persistentMisses.increment();
+                return null;
+            }
+            persistentHits.increment();
+            return new Classification(cached.getLabel(), cached.getConfidence(), cached.getModelVersion());
+        } catch (RuntimeException e) {
+            log.warn("Persistent classification cache lookup failed", e);
+            return null;
+        }
+    }
+
+    private void persist(String hash, Classification result) {
+        if (!persistent || result.modelVersion() == null) {
+            return;
+        }
+        try {
+            CachedClassification cached = new CachedClassification();
+            cached.setId(hash);
+            cached.setLabel(result.label());
+            cached.setConfidence(result.confidence());
+            cached.setModelVersion(result.modelVersion());
+            cached.setTimestamp(System.currentTimeMillis());
+            mongoTemplate.save(cached);
+        } catch (RuntimeException e) {
+            log.warn("Failed to persist cached classification", e);
+        }
+    }
+
+    private static String contentHash(Resource image) {
+        if (image instanceof SpooledImage spooled) {
+            return spooled.sha256();
+        }
+        try (DigestInputStream in = new DigestInputStream(image.getInputStream(), MessageDigest.getInstance("SHA-256"))) {
+            in.transferTo(OutputStream.nullOutputStream());
+            return HexFormat.of().formatHex(in.getMessageDigest().digest());
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new RuntimeException("Failed to hash image " + image.getFilename(), e);
+        }
+    }
+
+    /**
+     * Hit, miss and eviction counters of both cache tiers.
+     */
+    public record CacheStats(long hits, long misses, long evictions, long persistentHits, long persistentMisses,
+            long size, String modelVersion) {
+    }
+}
@@ -0,0 +1,36 @@
+package dev.sealkboy.myagara.ml;
+
+import java.util.List;
+
+import org.springframework.core.io.Resource;
+
+/**
+ * Runs the plant disease model. The backend is chosen with
+ * {@code myagara.inference.backend}; implementations are shared by every caller and must
+ * be thread safe.
+ */
+public interface Classifier {
+
+    /**
+     * @param images one or more encoded images
+     * @return one result per image, in the same order
+     * @throws PartialBatchException if some of the images could not be classified but the
+     *                               others were
+     */
+    List<Classification> classify(List<? extends Resource> images);
+
+    /**
+     * @return version of the model currently served, or {@code null} if it cannot be determined
+     */
+    String modelVersion();
+
+    /**
+     * Gets the backend ready to answer the first classification quickly, e.g. by opening
+     * connections to the model server ahead of time.
+     *
+     * @param connections how many calls the backend should be ready to take at once
+     */
+    default void warmUp(int connections) {
+        modelVersion();
+    }
+}
@@ -0,0 +1,108 @@
+package dev.sealkboy.myagara.ml;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+/**
+ * {@link Classifier} backed by the Flask model server.
+ */
+@Component
+@ConditionalOnProperty(name = "myagara.inference.backend", havingValue = "flask", matchIfMissing = true)
+public class FlaskClassifier implements Classifier {
+
+    private static final String CLASSIFY_PATH = "/classify";
+    private static final String CLASSIFY_BATCH_PATH = "/classify_batch";
+    private static final String MODEL_PATH = "/model";
+
+    private final InferenceTransport transport;
+
+    public FlaskClassifier(InferenceTransport transport) {
+        this.transport = transport;
+    }
+
+    @Override
+    public List<Classification> classify(List<? extends Resource> images) {
+        if (images.size() == 1) {
+            return List.of(classifySingle(images.get(0)));
+        }
+        return classifyAll(images);
+    }
+
+    @Override
+    public String modelVersion() {
+        Object version = transport.get(MODEL_PATH).get("model_version");
+        return version == null ? null : version.toString();
+    }
+
+    /**
+     * Asks every connection for the model version at once, so the pool opens that many
+     * keep-alive connections.
+     */
+    @Override
+    public void warmUp(int connections) {
+        List<CompletableFuture<?>> calls = new ArrayList<>(connections);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < connections; i++) {
+                calls.add(CompletableFuture.runAsync(() -> transport.get(MODEL_PATH), executor));
+            }
+        }
+        CompletableFuture.allOf(calls.toArray(CompletableFuture[]::new)).join();
+    }
+
+    /**
+     * The server answers images it could not read with an {@code error} in their place; those
+     * fail on their own with {@link UnclassifiableImageException}.
+     */
+    @SuppressWarnings("unchecked")
+    private List<Classification> classifyAll(List<? extends Resource> images) {
+        try {
+            Map<String, Object> response = transport.postImages(CLASSIFY_BATCH_PATH, "images", images);
+            Object results = response.get("results");
+            if (!(results instanceof List<?> resultList) || resultList.size() != images.size()) {
+                throw new RuntimeException("Failed to classify image batch. Unexpected response: " + results);
+            }
+            String modelVersion = (String) response.get("model_version");
+            List<Classification> classified = new ArrayList<>(resultList.size());
+            List<RuntimeException> failures = new ArrayList<>(resultList.size());
+            boolean failed = false;
+            for (Object result : resultList) {
+                Map<String, Object> item = (Map<String, Object>) result;
+                Object error = item.get("error");
+                if (error != null) {
+                    classified.add(null);
+                    failures.add(new UnclassifiableImageException("Error classifying image: " + error));
+                    failed = true;
+                } else {
+                    classified.add(Classification.fromResponse(item, modelVersion));
+                    failures.add(null);
+                }
+            }
+            if (failed) {
+                throw new PartialBatchException(classified, failures);
+            }
+            return classified;
+        } catch (PartialBatchException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Error connecting to Flask API", e);
+        }
+    }
+
+    private Classification classifySingle(Resource image) {
+        try {
+            return Classification.fromResponse(transport.postImages(CLASSIFY_PATH, "image", List.of(image)), null);
+        } catch (UnclassifiableImageException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Error connecting to Flask API", e);
+        }
+    }
+}
@@ -0,0 +1,405 @@
+package dev.sealkboy.myagara.ml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.entity.mime.AbstractContentBody;
+import org.apache.hc.client5.http.entity.mime.MultipartEntityBuilder;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * {@link InferenceTransport} over a single pooled, keep-alive Apache HttpClient shared by
+ * all calls. Connect and read timeouts are enforced by the client; the total timeout
+ * aborts the exchange from a timer so no caller waits longer than configured.
+ * <p>
+ * Calls are spread over the configured replicas by a {@link ReplicaPool}, which health
+ * checks them in the background. With hedging on, an image post still unanswered after
+ * the configured percentile of recent latencies is also sent to a second replica, and the
+ * first answer wins while the other call is cancelled.
+ */
+@Component
+public class HttpInferenceTransport implements InferenceTransport, MeterBinder {
+
+    private static final TypeReference<Map<String, Object>> JSON_OBJECT = new TypeReference<>() {};
+    private static final int UNPROCESSABLE_ENTITY = 422;
+    private static final int LATENCY_SAMPLES = 1024;
+    private static final int MIN_HEDGE_SAMPLES = 20;
+
+    private final ReplicaPool replicas;
+    private final Duration totalTimeout;
+    private final ObjectMapper objectMapper;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+    private final ScheduledExecutorService deadlines;
+    private final InferenceProperties.Hedge hedge;
+    private final Map<String, LatencyWindow> latencies = new ConcurrentHashMap<>();
+    private final ExecutorService attempts = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("inference-attempt-", 0).factory());
+    private final LongAdder hedgeable = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+
+    public HttpInferenceTransport(InferenceProperties properties, ObjectMapper objectMapper) {
+        InferenceProperties.Http http = properties.getHttp();
+        InferenceProperties.Replicas replicaProperties = properties.getReplicas();
+        List<String> endpoints = properties.getEndpoints().isEmpty()
+                ? List.of(properties.getEndpoint())
+                : properties.getEndpoints();
+        this.replicas = new ReplicaPool(endpoints.stream().map(URI::create).toList(),
+                replicaProperties.getUnhealthyThreshold(), replicaProperties.getHealthyThreshold());
+        this.totalTimeout = http.getTotalTimeout();
+        this.objectMapper = objectMapper;
+        this.hedge = properties.getHedge();
+
+        this.connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnPerRoute(http.getMaxConnectionsPerRoute())
+                .setMaxConnTotal(http.getMaxConnectionsTotal())
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.of(http.getConnectTimeout()))
+                        .setSocketTimeout(Timeout.of(http.getReadTimeout()))
+                        .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+                        .build())
+                .build();
+        this.httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.of(http.getTotalTimeout()))
+                        .setResponseTimeout(Timeout.of(http.getReadTimeout()))
+                        .build())
+                .evictIdleConnections(TimeValue.of(http.getIdleTimeout()))
+                .build();
+        this.deadlines = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("inference-deadline").daemon().factory());
+
+        Duration interval = replicaProperties.getHealthCheckInterval();
+        if (!interval.isZero() && !interval.isNegative()) {
+            String path = replicaProperties.getHealthCheckPath();
+            deadlines.scheduleWithFixedDelay(() -> checkReplicas(path), interval.toMillis(), interval.toMillis(),
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public Map<String, Object> postImages(String path, String partName, List<? extends Resource> images) {
+        return send(path, endpoint -> {
+            HttpPost post = new HttpPost(endpoint.resolve(path));
+            post.setEntity(multipart(partName, images));
+            return post;
+        }, hedge.isEnabled());
+    }
+
+    @Override
+    public Map<String, Object> get(String path) {
+        return send(path, endpoint -> new HttpGet(endpoint.resolve(path)), false);
+    }
+
+    /**
+     * @return leased, available and pending connections of the shared pool
+     */
+    public PoolStats getPoolStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    /**
+     * @return calls, failures and recent latency of each replica
+     */
+    public List<ReplicaPool.ReplicaStats> getReplicaStats() {
+        return replicas.stats();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (ReplicaPool.Replica replica : replicas.replicas()) {
+            String tag = replica.endpoint().toString();
+            Gauge.builder("myagara.inference.replica.outstanding", replica, ReplicaPool.Replica::outstanding)
+                    .tag("replica", tag).register(registry);
+            Gauge.builder("myagara.inference.replica.healthy", replica, each -> each.isHealthy() ? 1 : 0)
+                    .tag("replica", tag).register(registry);
+            FunctionCounter.builder("myagara.inference.replica.requests", replica, ReplicaPool.Replica::requests)
+                    .tag("replica", tag).register(registry);
+            FunctionCounter.builder("myagara.inference.replica.failures", replica, ReplicaPool.Replica::failures)
+                    .tag("replica", tag).register(registry);
+        }
+        FunctionCounter.builder("myagara.inference.hedges", hedges, LongAdder::sum).register(registry);
+        Gauge.builder("myagara.inference.connections", connectionManager, pool -> pool.getTotalStats().getLeased())
+                .tag("state", "leased").register(registry);
+        Gauge.builder("myagara.inference.connections", connectionManager, pool -> pool.getTotalStats().getAvailable())
+                .tag("state", "available").register(registry);
+        Gauge.builder("myagara.inference.connections", connectionManager, pool -> pool.getTotalStats().getPending())
+                .tag("state", "pending").register(registry);
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        deadlines.shutdownNow();
+        attempts.shutdownNow();
+        httpClient.close();
+    }
+
+    /**
+     * @return a request body with one streamed part per image, in order
+     */
+    static HttpEntity multipart(String partName, List<? extends Resource> images) {
+        MultipartEntityBuilder multipart = MultipartEntityBuilder.create();
+        for (Resource image : images) {
+            multipart.addPart(partName, new ResourceBody(image));
+        }
+        return multipart.build();
+    }
+
+    private Map<String, Object> send(String path, Function<URI, HttpUriRequestBase> requestTo, boolean hedged) {
+        long delay = hedged ? hedgeDelayNanos(path) : -1;
+        if (hedged) {
+            hedgeable.increment();
+        }
+        Attempt primary = new Attempt(path, replicas.acquire(null), requestTo, totalTimeout.toNanos());
+        if (delay < 0) {
+            return primary.run();
+        }
+
+        long start = System.nanoTime();
+        CompletableFuture<Map<String, Object>> first = CompletableFuture.supplyAsync(primary::run, attempts);
+        try {
+            return first.get(delay, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // slower than usual: hedge below
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause());
+        } catch (InterruptedException e) {
+            primary.abandon();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for inference", e);
+        }
+
+        ReplicaPool.Replica other = hedges.sum() < hedge.getMaxRatio() * hedgeable.sum()
+                ? replicas.acquire(primary.replica)
+                : null;
+        if (other == null) {
+            return join(first);
+        }
+        hedges.increment();
+        other.hedged();
+        Attempt backup = new Attempt(path, other, requestTo, totalTimeout.toNanos() - (System.nanoTime() - start));
+        CompletableFuture<Map<String, Object>> second = CompletableFuture.supplyAsync(backup::run, attempts);
+
+        CompletableFuture<Map<String, Object>> winner = new CompletableFuture<>();
+        AtomicInteger failed = new AtomicInteger();
+        for (CompletableFuture<Map<String, Object>> attempt : List.of(first, second)) {
+            attempt.whenComplete((result, error) -> {
+                if (error == null) {
+                    winner.complete(result);
+                } else if (failed.incrementAndGet() == 2) {
+                    winner.completeExceptionally(error);
+                }
+            });
+        }
+        try {
+            return join(winner);
+        } finally {
+            primary.abandon();
+            backup.abandon();
+        }
+    }
+
+    /**
+     * @return how long to wait before hedging a call to {@code path}, or -1 not to hedge it
+     *         because there is no second replica or too little history
+     */
+    private long hedgeDelayNanos(String path) {
+        LatencyWindow window = latencies.get(path);
+        if (replicas.size() < 2 || window == null || window.count() < MIN_HEDGE_SAMPLES) {
+            return -1;
+        }
+        return Math.max(hedge.getMinDelay().toNanos(), window.percentile(hedge.getPercentile()));
+    }
+
+    private void checkReplicas(String path) {
+        for (ReplicaPool.Replica replica : replicas.replicas()) {
+            Thread.ofVirtual().name("inference-health-check").start(() -> {
+                boolean passed;
+                try {
+                    execute(new HttpGet(replica.endpoint().resolve(path)), totalTimeout.toNanos());
+                    passed = true;
+                } catch (RuntimeException e) {
+                    passed = false;
+                }
+                replica.checked(passed);
+            });
+        }
+    }
+
+    private Map<String, Object> execute(HttpUriRequestBase request, long timeoutNanos) {
+        ScheduledFuture<?> deadline = deadlines.schedule(request::cancel, Math.max(0, timeoutNanos),
+                TimeUnit.NANOSECONDS);
+        try {
+            return httpClient.execute(request, response -> {
+                HttpEntity entity = response.getEntity();
+                if (response.getCode() == UNPROCESSABLE_ENTITY && entity != null) {
+                    // the server is fine, but could not read the image it was sent
+                    Map<String, Object> body;
+                    try (InputStream content = entity.getContent()) {
+                        body = objectMapper.readValue(content, JSON_OBJECT);
+                    }
+                    throw new UnclassifiableImageException("Error classifying image: " + body.get("error"));
+                }
+                if (response.getCode() < 200 || response.getCode() >= 300 || entity == null) {
+                    throw new IOException("Inference request failed. Status: " + response.getCode());
+                }
+                try (InputStream content = entity.getContent()) {
+                    return objectMapper.readValue(content, JSON_OBJECT);
+                }
+            });
+        } catch (IOException e) {
+            if (request.isCancelled()) {
+                throw new RuntimeException("Inference request exceeded total timeout of " + totalTimeout, e);
+            }
+            throw new RuntimeException("Inference request to " + request.getRequestUri() + " failed", e);
+        } finally {
+            deadline.cancel(false);
+        }
+    }
+
+    private static Map<String, Object> join(CompletableFuture<Map<String, Object>> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw unwrap(e.getCause());
+        }
+    }
+
+    private static RuntimeException unwrap(Throwable cause) {
+        return cause instanceof RuntimeException runtime ? runtime : new RuntimeException(cause);
+    }
+
+    /**
+     * One call to one replica, which reports its outcome back to the pool.
+     */
+    private final class Attempt {
+
+        private final String path;
+        private final ReplicaPool.Replica replica;
+        private final HttpUriRequestBase request;
+        private final long timeoutNanos;
+        private volatile boolean abandoned;
+
+        Attempt(String path, ReplicaPool.Replica replica, Function<URI, HttpUriRequestBase> requestTo,
+                long timeoutNanos) {
+            this.path = path;
+            this.replica = replica;
+            this.request = requestTo.apply(replica.endpoint());
+            this.timeoutNanos = timeoutNanos;
+        }
+
+        Map<String, Object> run() {
+            long start = System.nanoTime();
+            try {
+                Map<String, Object> result = execute(request, timeoutNanos);
+                long nanos = System.nanoTime() - start;
+                replica.succeeded(nanos);
+                if (hedge.isEnabled()) {
+                    latencies.computeIfAbsent(path, key -> new LatencyWindow(LATENCY_SAMPLES)).record(nanos);
+                }
+                return result;
+            } catch (UnclassifiableImageException e) {
+                replica.succeeded(System.nanoTime() - start);
+                throw e;
+            } catch (RuntimeException e) {
+                if (abandoned) {
+                    replica.abandoned();
+                } else {
+                    replica.failed();
+                }
+                throw e;
+            }
+        }
+
+        /**
+         * Cancels the call if it is still running; its outcome then no longer counts.
+         */
+        void abandon() {
+            abandoned = true;
+            request.cancel();
+        }
+    }
+
+    /**
+     * Streams a {@link Resource} into a multipart part without buffering it first.
+     */
+    private static final class ResourceBody extends AbstractContentBody {
+
+        private final Resource resource;
+
+        ResourceBody(Resource resource) {
+            super(ContentType.parse(resource instanceof PreprocessedImage prepared
+                    ? prepared.getContentType()
+                    : MediaTypeFactory.getMediaType(resource).orElse(MediaType.APPLICATION_OCTET_STREAM).toString()));
+            this.resource = resource;
+        }
+
+        @Override
+        public String getFilename() {
+            String filename = resource.getFilename();
+            return filename != null ? filename : "image";
+        }
+
+        @Override
+        public long getContentLength() {
+            try {
+                return resource.contentLength();
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            try (InputStream in = resource.getInputStream()) {
+                StreamUtils.copy(in, out);
+            }
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package dev.sealkboy.myagara.ml;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.FloatBuffer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+/**
+ * Shrinks uploads to exactly what the model consumes before they are classified: the
+ * image is decoded (subsampled while decoding when it is much larger than the model
+ * input), resized to {@code inputSize x inputSize} and handed on either as raw RGB bytes
+ * or as a small JPEG. Work runs on the calling thread so concurrent uploads spread over
+ * all cores, a semaphore bounds how many decoded originals are in memory at once, and the
+ * resize targets are pooled and reused.
+ */
+@Component
+public class ImagePreprocessor {
+
+    /** Media type of raw {@code size x size x 3} RGB bytes, row-major and channels last. */
+    public static final String TENSOR_MEDIA_TYPE = "application/x-uint8-tensor";
+
+    private static final Logger log = LoggerFactory.getLogger(ImagePreprocessor.class);
+
+    public enum Mode {
+        NONE, JPEG, TENSOR
+    }
+
+    private final Mode mode;
+    private final int inputSize;
+    private final float jpegQuality;
+    private final Semaphore decodes;
+    private final Queue<BufferedImage> targets = new ConcurrentLinkedQueue<>();
+    private final LongAdder images = new LongAdder();
+    private final LongAdder passedThrough = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+
+    public ImagePreprocessor(InferenceProperties properties) {
+        InferenceProperties.Preprocess preprocess = properties.getPreprocess();
+        this.mode = Mode.valueOf(preprocess.getMode().trim().toUpperCase(Locale.ROOT));
+        this.inputSize = preprocess.getInputSize();
+        this.jpegQuality = preprocess.getJpegQuality();
+        this.decodes = new Semaphore(Math.max(1, preprocess.getThreads()));
+    }
+
+    /**
+     * Converts one image to the configured wire format. Images Java cannot decode are
+     * returned unchanged so that the inference server can still try them.
+     *
+     * @param image
+     * @return the preprocessed image, or {@code image} itself
+     */
+    public Resource prepare(Resource image) {
+        if (mode == Mode.NONE || image instanceof PreprocessedImage) {
+            return image;
+        }
+        try {
+            PreprocessedImage prepared = mode == Mode.TENSOR ? tensor(image) : jpeg(image);
+            images.increment();
+            bytesIn.add(image.contentLength());
+            bytesOut.add(prepared.contentLength());
+            return prepared;
+        } catch (IOException | RuntimeException e) {
+            log.debug("Sending {} without preprocessing", image.getFilename(), e);
+            passedThrough.increment();
+            return image;
+        }
+    }
+
+    /**
+     * @param images
+     * @return {@link #prepare(Resource)} of every image, in the same order, computed in parallel
+     */
+    public List<Resource> prepareAll(List<? extends Resource> images) {
+        if (mode == Mode.NONE) {
+            return List.copyOf(images);
+        }
+        return images.parallelStream().map(this::prepare).map(Resource.class::cast).toList();
+    }
+
+    /**
+     * @param image an encoded image, or a tensor of the input size
+     * @return raw RGB pixels of the image at the input size
+     * @throws IOException if the image cannot be decoded
+     */
+    public PreprocessedImage tensor(Resource image) throws IOException {
+        if (image instanceof PreprocessedImage prepared && prepared.isTensor() && prepared.getSize() == inputSize) {
+            return prepared;
+        }
+        byte[] pixels = new byte[inputSize * inputSize * 3];
+        resize(image, target -> {
+            byte[] bgr = ((DataBufferByte) target.getRaster().getDataBuffer()).getData();
+            for (int i = 0; i < bgr.length; i += 3) {
+                pixels[i] = bgr[i + 2];
+                pixels[i + 1] = bgr[i + 1];
+                pixels[i + 2] = bgr[i];
+            }
+        });
+        String shape = ";shape=" + inputSize + "x" + inputSize + "x3";
+        return new PreprocessedImage(stem(image) + ".rgb", TENSOR_MEDIA_TYPE + shape, pixels, inputSize);
+    }
+
+    /**
+     * Appends the image as {@code size * size * 3} floats scaled to {@code [0, 1]}, the
+     * layout the model was trained on.
+     *
+     * @param image
+     * @param tensor
+     * @throws IOException if the image cannot be decoded
+     */
+    public void writeFloats(Resource image, FloatBuffer tensor) throws IOException {
+        for (byte value : tensor(image).bytes()) {
+            tensor.put((value & 0xFF) / 255f);
+        }
+    }
+
+    public PreprocessStats stats() {
+        return new PreprocessStats(mode.name().toLowerCase(Locale.ROOT), inputSize, images.sum(),
+                passedThrough.sum(), bytesIn.sum(), bytesOut.sum());
+    }
+
+    private PreprocessedImage jpeg(Resource image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(inputSize * inputSize / 2);
+        resize(image, target -> {
+            ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+            try (MemoryCacheImageOutputStream stream = new MemoryCacheImageOutputStream(out)) {
+                ImageWriteParam param = writer.getDefaultWriteParam();
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(jpegQuality);
+                writer.setOutput(stream);
+                writer.write(null, new IIOImage(target, null, null), param);
+            } finally {
+                writer.dispose();
+            }
+        });
+        return new PreprocessedImage(stem(image) + ".jpg", "image/jpeg", out.toByteArray(), inputSize);
+    }
+
+    /**
+     * Decodes and resizes the image into a pooled target, then lets {@code consumer} read
+     * the target before it is returned to the pool.
+     */
+    private void resize(Resource image, TargetConsumer consumer) throws IOException {
+        try {
+            decodes.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting to decode " + image.getFilename(), e);
+        }
+        BufferedImage target = targets.poll();
+        if (target == null) {
+            target = new BufferedImage(inputSize, inputSize, BufferedImage.TYPE_3BYTE_BGR);
+        }
+        try {
+            BufferedImage decoded = decode(image);
+            Graphics2D graphics = target.createGraphics();
+            try {
+                graphics.setComposite(AlphaComposite.Src);
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.drawImage(decoded, 0, 0, inputSize, inputSize, null);
+            } finally {
+                graphics.dispose();
+            }
+            consumer.accept(target);
+        } finally {
+            targets.offer(target);
+            decodes.release();
+        }
+    }
+
+    /**
+     * Decodes the first frame, skipping rows and columns the resize would average away
+     * anyway, so a large photo never materialises at full resolution.
+     */
+    private BufferedImage decode(Resource image) throws IOException {
+        try (InputStream in = image.getInputStream();
+                ImageInputStream stream = new MemoryCacheImageInputStream(in)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format: " + image.getFilename());
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                int stepX = Math.max(1, reader.getWidth(0) / (inputSize * 2));
+                int stepY = Math.max(1, reader.getHeight(0) / (inputSize * 2));
+                param.setSourceSubsampling(stepX, stepY, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static String stem(Resource image) {
+        String filename = image.getFilename();
+        if (filename == null || filename.isEmpty()) {
+            return "image";
+        }
+        int dot = filename.lastIndexOf('.');
+        return dot > 0 ? filename.substring(0, dot) : filename;
+    }
+
+    @FunctionalInterface
+    private interface TargetConsumer {
+        void accept(BufferedImage target) throws IOException;
+    }
+
+    public record PreprocessStats(String mode, int inputSize, long images, long passedThrough, long bytesIn,
+            long bytesOut) {
+    }
+}
@@ -0,0 +1,237 @@
+package dev.sealkboy.myagara.ml;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Groups concurrent single-item calls into batches. A batch is dispatched as soon as it
+ * reaches {@code maxBatchSize} items or its oldest item has waited {@code maxWait}, and
+ * each caller gets back the result at its own position in the batch. A batch function that
+ * throws {@link PartialBatchException} fails only the callers whose items failed.
+ *
+ * @param <I> input of one call
+ * @param <O> result of one call
+ */
+public class InferenceBatcher<I, O> implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(InferenceBatcher.class);
+
+    private final Function<List<I>, List<O>> batchFunction;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final Semaphore batchPermits;
+    private final BlockingQueue<Pending<I, O>> queue = new LinkedBlockingQueue<>();
+    private final ExecutorService batchExecutor;
+    private final Thread dispatcher;
+    private final Stats stats;
+    private volatile boolean running = true;
+
+    public InferenceBatcher(String name, int maxBatchSize, Duration maxWait, int maxConcurrentBatches,
+            Function<List<I>, List<O>> batchFunction) {
+        if (maxBatchSize < 1 || maxConcurrentBatches < 1) {
+            throw new IllegalArgumentException("Batch size and concurrent batches must be positive");
+        }
+        this.batchFunction = batchFunction;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.batchPermits = new Semaphore(maxConcurrentBatches);
+        this.stats = new Stats(maxBatchSize);
+        this.batchExecutor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-batch-", 0).factory());
+        this.dispatcher = Thread.ofPlatform().name(name + "-dispatcher").daemon().start(this::dispatchLoop);
+    }
+
+    /**
+     * @param input
+     * @return a future completed with this input's result once its batch returns
+     */
+    public CompletableFuture<O> submit(I input) {
+        Pending<I, O> pending = new Pending<>(input, System.nanoTime());
+        if (!running) {
+            pending.future.completeExceptionally(new IllegalStateException("Batcher is shut down"));
+            return pending.future;
+        }
+        queue.add(pending);
+        if (!running && queue.remove(pending)) {
+            // closed meanwhile, and the queue may have been drained for the last time
+            pending.future.completeExceptionally(new IllegalStateException("Batcher is shut down"));
+        }
+        return pending.future;
+    }
+
+    public int queueDepth() {
+        return queue.size();
+    }
+
+    public BatchStats stats() {
+        return stats.snapshot();
+    }
+
+    private void dispatchLoop() {
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending<I, O> first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                List<Pending<I, O>> batch = new ArrayList<>(maxBatchSize);
+                batch.add(first);
+                long deadline = first.enqueuedAt + maxWaitNanos;
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    Pending<I, O> next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                // All batch slots busy: keep filling this batch while we wait for one to free up.
+                batchPermits.acquire();
+                queue.drainTo(batch, maxBatchSize - batch.size());
+
+                long waitNanos = System.nanoTime() - first.enqueuedAt;
+                stats.record(batch.size(), waitNanos);
+                if (log.isDebugEnabled()) {
+                    log.debug("Dispatching batch of {} after {} us", batch.size(), waitNanos / 1_000);
+                }
+                batchExecutor.execute(() -> runBatch(batch));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+
+    private void runBatch(List<Pending<I, O>> batch) {
+        try {
+            List<I> inputs = new ArrayList<>(batch.size());
+            for (Pending<I, O> pending : batch) {
+                inputs.add(pending.input);
+            }
+            List<O> results = batchFunction.apply(inputs);
+            if (results == null || results.size() != batch.size()) {
+                throw new IllegalStateException("Batch returned " + (results == null ? 0 : results.size())
+                        + " results for " + batch.size() + " inputs");
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).future.complete(results.get(i));
+            }
+        } catch (PartialBatchException e) {
+            completeEach(batch, e);
+        } catch (Throwable t) {
+            for (Pending<I, O> pending : batch) {
+                pending.future.completeExceptionally(t);
+            }
+        } finally {
+            batchPermits.release();
+        }
+    }
+
+    private void completeEach(List<Pending<I, O>> batch, PartialBatchException e) {
+        if (e.size() != batch.size()) {
+            IllegalStateException mismatch = new IllegalStateException("Batch returned " + e.size()
+                    + " results for " + batch.size() + " inputs");
+            batch.forEach(pending -> pending.future.completeExceptionally(mismatch));
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            RuntimeException failure = e.getFailure(i);
+            if (failure != null) {
+                batch.get(i).future.completeExceptionally(failure);
+            } else {
+                batch.get(i).future.complete(e.getResult(i));
+            }
+        }
+    }
+
+    /**
+     * Stops accepting work, dispatches whatever is still queued and waits for in-flight batches.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            dispatcher.join(TimeUnit.SECONDS.toMillis(30));
+            batchExecutor.shutdown();
+            batchExecutor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Pending<I, O> leftover;
+        while ((leftover = queue.poll()) != null) {
+            leftover.future.completeExceptionally(new IllegalStateException("Batcher is shut down"));
+        }
+    }
+
+    private record Pending<I, O>(I input, long enqueuedAt, CompletableFuture<O> future) {
+
+        Pending(I input, long enqueuedAt) {
+            this(input, enqueuedAt, new CompletableFuture<>());
+        }
+    }
+
+    /**
+     * Point-in-time view of the batching behaviour, for tuning batch size and wait time.
+     *
+     * @param sizeHistogram number of batches dispatched at each size, indexed by size
+     */
+    public record BatchStats(long batches, long requests, double meanBatchSize, int maxBatchSize,
+            double meanWaitMillis, double maxWaitMillis, long[] sizeHistogram) {
+    }
+
+    private static final class Stats {
+
+        private final LongAdder batches = new LongAdder();
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder totalWaitNanos = new LongAdder();
+        private final AtomicInteger maxSize = new AtomicInteger();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+        private final AtomicLongArray sizeHistogram;
+
+        Stats(int maxBatchSize) {
+            this.sizeHistogram = new AtomicLongArray(maxBatchSize + 1);
+        }
+
+        void record(int size, long waitNanos) {
+            batches.increment();
+            requests.add(size);
+            totalWaitNanos.add(waitNanos);
+            maxSize.accumulateAndGet(size, Math::max);
+            maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+            sizeHistogram.incrementAndGet(size);
+        }
+
+        BatchStats snapshot() {
+            long batchCount = batches.sum();
+            long requestCount = requests.sum();
+            long[] histogram = new long[sizeHistogram.length()];
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] = sizeHistogram.get(i);
+            }
+            return new BatchStats(
+                    batchCount,
+                    requestCount,
+                    batchCount == 0 ? 0 : (double) requestCount / batchCount,
+                    maxSize.get(),
+                    batchCount == 0 ? 0 : totalWaitNanos.sum() / 1e6 / batchCount,
+                    maxWaitNanos.get() / 1e6,
+                    histogram);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package dev.sealkboy.myagara.ml;
+
+import java.time.Duration;
+
+/**
+ * Thrown when the adaptive concurrency limit of the model server is reached.
+ */
+public class InferenceOverloadedException extends InferenceRejectedException {
+
+    public InferenceOverloadedException(Duration retryAfter) {
+        super("Inference is at capacity", retryAfter);
+    }
+}
@@ -0,0 +1,578 @@
+package dev.sealkboy.myagara.ml;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings for the inference client, bound from {@code myagara.inference.*}.
+ */
+@ConfigurationProperties(prefix = "myagara.inference")
+public class InferenceProperties {
+
+    private String backend = "flask";
+    private String endpoint = "http://localhost:5000";
+    private List<String> endpoints = new ArrayList<>();
+    private final Http http = new Http();
+    private final Replicas replicas = new Replicas();
+    private final Hedge hedge = new Hedge();
+    private final Limit limit = new Limit();
+    private final Breaker breaker = new Breaker();
+    private final Batch batch = new Batch();
+    private final Cache cache = new Cache();
+    private final Onnx onnx = new Onnx();
+    private final Preprocess preprocess = new Preprocess();
+
+    /**
+     * @return {@code flask} to call the model server, or {@code onnx} to run the model in process
+     */
+    public String getBackend() {
+        return backend;
+    }
+
+    public void setBackend(String backend) {
+        this.backend = backend;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public void setEndpoint(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    /**
+     * @return base URLs of every model server replica; when empty, {@link #getEndpoint()} is
+     *         the only one
+     */
+    public List<String> getEndpoints() {
+        return endpoints;
+    }
+
+    public void setEndpoints(List<String> endpoints) {
+        this.endpoints = endpoints;
+    }
+
+    public Http getHttp() {
+        return http;
+    }
+
+    public Replicas getReplicas() {
+        return replicas;
+    }
+
+    public Hedge getHedge() {
+        return hedge;
+    }
+
+    public Limit getLimit() {
+        return limit;
+    }
+
+    public Breaker getBreaker() {
+        return breaker;
+    }
+
+    public Batch getBatch() {
+        return batch;
+    }
+
+    public Cache getCache() {
+        return cache;
+    }
+
+    public Onnx getOnnx() {
+        return onnx;
+    }
+
+    public Preprocess getPreprocess() {
+        return preprocess;
+    }
+
+    /**
+     * Connection pool and timeouts of the shared HTTP transport.
+     */
+    public static class Http {
+
+        private Duration connectTimeout = Duration.ofSeconds(2);
+        private Duration readTimeout = Duration.ofSeconds(10);
+        private Duration totalTimeout = Duration.ofSeconds(15);
+        private Duration idleTimeout = Duration.ofSeconds(30);
+        private int maxConnectionsPerRoute = 32;
+        private int maxConnectionsTotal = 64;
+
+        public Duration getConnectTimeout() {
+            return connectTimeout;
+        }
+
+        public void setConnectTimeout(Duration connectTimeout) {
+            this.connectTimeout = connectTimeout;
+        }
+
+        public Duration getReadTimeout() {
+            return readTimeout;
+        }
+
+        public void setReadTimeout(Duration readTimeout) {
+            this.readTimeout = readTimeout;
+        }
+
+        public Duration getTotalTimeout() {
+            return totalTimeout;
+        }
+
+        public void setTotalTimeout(Duration totalTimeout) {
+            this.totalTimeout = totalTimeout;
+        }
+
+        public Duration getIdleTimeout() {
+            return idleTimeout;
+        }
+
+        public void setIdleTimeout(Duration idleTimeout) {
+            this.idleTimeout = idleTimeout;
+        }
+
+        public int getMaxConnectionsPerRoute() {
+            return maxConnectionsPerRoute;
+        }
+
+        public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+            this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+        }
+
+        public int getMaxConnectionsTotal() {
+            return maxConnectionsTotal;
+        }
+
+        public void setMaxConnectionsTotal(int maxConnectionsTotal) {
+            this.maxConnectionsTotal = maxConnectionsTotal;
+        }
+    }
+
+    /**
+     * Health checking of the model server replicas.
+     */
+    public static class Replicas {
+
+        private String healthCheckPath = "/model";
+        private Duration healthCheckInterval = Duration.ofSeconds(5);
+        private int unhealthyThreshold = 3;
+        private int healthyThreshold = 2;
+
+        public String getHealthCheckPath() {
+            return healthCheckPath;
+        }
+
+        public void setHealthCheckPath(String healthCheckPath) {
+            this.healthCheckPath = healthCheckPath;
+        }
+
+        /**
+         * @return time between health checks of each replica, or zero to check none
+         */
+        public Duration getHealthCheckInterval() {
+            return healthCheckInterval;
+        }
+
+        public void setHealthCheckInterval(Duration healthCheckInterval) {
+            this.healthCheckInterval = healthCheckInterval;
+        }
+
+        /**
+         * @return consecutive failed calls or health checks after which a replica is evicted
+         */
+        public int getUnhealthyThreshold() {
+            return unhealthyThreshold;
+        }
+
+        public void setUnhealthyThreshold(int unhealthyThreshold) {
+            this.unhealthyThreshold = unhealthyThreshold;
+        }
+
+        /**
+         * @return consecutive passing health checks after which an evicted replica is re-admitted
+         */
+        public int getHealthyThreshold() {
+            return healthyThreshold;
+        }
+
+        public void setHealthyThreshold(int healthyThreshold) {
+            this.healthyThreshold = healthyThreshold;
+        }
+    }
+
+    /**
+     * Hedged classification requests: a call still unanswered after the given percentile of
+     * recent latencies is also sent to a second replica, and the first answer wins.
+     */
+    public static class Hedge {
+
+        private boolean enabled = false;
+        private double percentile = 0.95;
+        private Duration minDelay = Duration.ofMillis(10);
+        private double maxRatio = 0.1;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public double getPercentile() {
+            return percentile;
+        }
+
+        public void setPercentile(double percentile) {
+            this.percentile = percentile;
+        }
+
+        public Duration getMinDelay() {
+            return minDelay;
+        }
+
+        public void setMinDelay(Duration minDelay) {
+            this.minDelay = minDelay;
+        }
+
+        /**
+         * @return most hedges as a share of hedgeable calls, which caps the extra load
+         */
+        public double getMaxRatio() {
+            return maxRatio;
+        }
+
+        public void setMaxRatio(double maxRatio) {
+            this.maxRatio = maxRatio;
+        }
+    }
+
+    /**
+     * Adaptive limit on classifications in flight; see {@link AdaptiveLimiter}.
+     */
+    public static class Limit {
+
+        private boolean enabled = true;
+        private int initial = 20;
+        private int min = 2;
+        private int max = 200;
+        private double tolerance = 2.0;
+        private double smoothing = 0.2;
+        private Duration retryAfter = Duration.ofSeconds(1);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getInitial() {
+            return initial;
+        }
+
+        public void setInitial(int initial) {
+            this.initial = initial;
+        }
+
+        public int getMin() {
+            return min;
+        }
+
+        public void setMin(int min) {
+            this.min = min;
+        }
+
+        public int getMax() {
+            return max;
+        }
+
+        public void setMax(int max) {
+            this.max = max;
+        }
+
+        /**
+         * @return how many times slower than usual calls may get before the limit shrinks
+         */
+        public double getTolerance() {
+            return tolerance;
+        }
+
+        public void setTolerance(double tolerance) {
+            this.tolerance = tolerance;
+        }
+
+        public double getSmoothing() {
+            return smoothing;
+        }
+
+        public void setSmoothing(double smoothing) {
+            this.smoothing = smoothing;
+        }
+
+        /**
+         * @return the {@code Retry-After} given to callers refused at the limit
+         */
+        public Duration getRetryAfter() {
+            return retryAfter;
+        }
+
+        public void setRetryAfter(Duration retryAfter) {
+            this.retryAfter = retryAfter;
+        }
+    }
+
+    /**
+     * Circuit breaker over classification calls; see {@link CircuitBreaker}.
+     */
+    public static class Breaker {
+
+        private boolean enabled = true;
+        private int windowSize = 20;
+        private int minimumCalls = 10;
+        private double failureRateThreshold = 0.5;
+        private Duration openDuration = Duration.ofSeconds(10);
+        private int halfOpenCalls = 3;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getWindowSize() {
+            return windowSize;
+        }
+
+        public void setWindowSize(int windowSize) {
+            this.windowSize = windowSize;
+        }
+
+        public int getMinimumCalls() {
+            return minimumCalls;
+        }
+
+        public void setMinimumCalls(int minimumCalls) {
+            this.minimumCalls = minimumCalls;
+        }
+
+        public double getFailureRateThreshold() {
+            return failureRateThreshold;
+        }
+
+        public void setFailureRateThreshold(double failureRateThreshold) {
+            this.failureRateThreshold = failureRateThreshold;
+        }
+
+        public Duration getOpenDuration() {
+            return openDuration;
+        }
+
+        public void setOpenDuration(Duration openDuration) {
+            this.openDuration = openDuration;
+        }
+
+        public int getHalfOpenCalls() {
+            return halfOpenCalls;
+        }
+
+        public void setHalfOpenCalls(int halfOpenCalls) {
+            this.halfOpenCalls = halfOpenCalls;
+        }
+    }
+
+    /**
+     * Micro-batching of concurrent classification calls into one request.
+     */
+    public static class Batch {
+
+        private boolean enabled = true;
+        private int maxSize = 16;
+        private Duration maxWait = Duration.ofMillis(5);
+        private int maxConcurrentBatches = 4;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public Duration getMaxWait() {
+            return maxWait;
+        }
+
+        public void setMaxWait(Duration maxWait) {
+            this.maxWait = maxWait;
+        }
+
+        public int getMaxConcurrentBatches() {
+            return maxConcurrentBatches;
+        }
+
+        public void setMaxConcurrentBatches(int maxConcurrentBatches) {
+            this.maxConcurrentBatches = maxConcurrentBatches;
+        }
+    }
+
+    /**
+     * Classification cache keyed by the content hash of the image bytes.
+     */
+    public static class Cache {
+
+        private boolean enabled = true;
+        private long maxEntries = 10_000;
+        private boolean persistent = false;
+        private String modelVersion;
+        private Duration modelCheckInterval = Duration.ofSeconds(30);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getMaxEntries() {
+            return maxEntries;
+        }
+
+        public void setMaxEntries(long maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        public boolean isPersistent() {
+            return persistent;
+        }
+
+        public void setPersistent(boolean persistent) {
+            this.persistent = persistent;
+        }
+
+        public String getModelVersion() {
+            return modelVersion;
+        }
+
+        public void setModelVersion(String modelVersion) {
+            this.modelVersion = modelVersion;
+        }
+
+        public Duration getModelCheckInterval() {
+            return modelCheckInterval;
+        }
+
+        public void setModelCheckInterval(Duration modelCheckInterval) {
+            this.modelCheckInterval = modelCheckInterval;
+        }
+    }
+
+    /**
+     * The exported model run in process when {@code backend=onnx}.
+     */
+    public static class Onnx {
+
+        private String modelPath = "myagara_final_model.onnx";
+        private List<String> labels = new ArrayList<>(List.of(
+                "Apple___Apple_scab",
+                "Blueberry___healthy",
+                "Cherry___healthy",
+                "Corn___Cercospora_leaf_spot Gray_leaf_spot",
+                "Grape___Black_rot"));
+        private int intraOpThreads = 0;
+
+        public String getModelPath() {
+            return modelPath;
+        }
+
+        public void setModelPath(String modelPath) {
+            this.modelPath = modelPath;
+        }
+
+        public List<String> getLabels() {
+            return labels;
+        }
+
+        public void setLabels(List<String> labels) {
+            this.labels = labels;
+        }
+
+        /**
+         * @return threads per inference call, or 0 for the runtime's default
+         */
+        public int getIntraOpThreads() {
+            return intraOpThreads;
+        }
+
+        public void setIntraOpThreads(int intraOpThreads) {
+            this.intraOpThreads = intraOpThreads;
+        }
+    }
+
+    /**
+     * Shrinking uploads to the model's input before they are classified.
+     */
+    public static class Preprocess {
+
+        private String mode = "tensor";
+        private int inputSize = 128;
+        private float jpegQuality = 0.9f;
+        private int threads = Runtime.getRuntime().availableProcessors();
+
+        /**
+         * @return {@code tensor} to send raw RGB bytes, {@code jpeg} to send a resized JPEG,
+         *         or {@code none} to send the original upload
+         */
+        public String getMode() {
+            return mode;
+        }
+
+        public void setMode(String mode) {
+            this.mode = mode;
+        }
+
+        public int getInputSize() {
+            return inputSize;
+        }
+
+        public void setInputSize(int inputSize) {
+            this.inputSize = inputSize;
+        }
+
+        public float getJpegQuality() {
+            return jpegQuality;
+        }
+
+        public void setJpegQuality(float jpegQuality) {
+            this.jpegQuality = jpegQuality;
+        }
+
+        /**
+         * @return images decoded at the same time, which bounds decode memory
+         */
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package dev.sealkboy.myagara.ml;
+
+import java.time.Duration;
+
+/**
+ * Thrown when a classification is refused before it reaches the model server, so the
+ * caller can be told when to try again instead of waiting for a timeout.
+ */
+public abstract class InferenceRejectedException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    protected InferenceRejectedException(String message, Duration retryAfter) {
+        super(message + ". Retry after " + retryAfter.toSeconds() + "s");
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
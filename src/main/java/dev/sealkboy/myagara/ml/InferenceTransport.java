@@ -0,0 +1,29 @@
+package dev.sealkboy.myagara.ml;
+
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.core.io.Resource;
+
+/**
+ * Carries classification requests to the model server. Implementations own their
+ * connections and are shared by every caller.
+ */
+public interface InferenceTransport {
+
+    /**
+     * Posts the images as multipart parts to a path of the configured endpoint.
+     *
+     * @param path     path of the endpoint, e.g. {@code /classify}
+     * @param partName multipart field name of every image
+     * @param images   image contents, sent in order
+     * @return the decoded JSON response body
+     */
+    Map<String, Object> postImages(String path, String partName, List<? extends Resource> images);
+
+    /**
+     * @param path path of the endpoint, e.g. {@code /model}
+     * @return the decoded JSON response body of a GET request
+     */
+    Map<String, Object> get(String path);
+}
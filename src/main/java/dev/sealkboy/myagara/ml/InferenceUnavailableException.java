@@ -0,0 +1,13 @@
+package dev.sealkboy.myagara.ml;
+
+import java.time.Duration;
+
+/**
+ * Thrown while the circuit breaker is open because recent inference calls kept failing.
+ */
+public class InferenceUnavailableException extends InferenceRejectedException {
+
+    public InferenceUnavailableException(Duration retryAfter) {
+        super("Inference is unavailable after repeated failures", retryAfter);
+    }
+}
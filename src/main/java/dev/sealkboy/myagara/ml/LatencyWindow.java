@@ -0,0 +1,60 @@
+package dev.sealkboy.myagara.ml;
+
+import java.util.Arrays;
+
+/**
+ * The most recent latencies of a kind of call, for percentiles over a sliding window.
+ * Percentiles are read from a sorted copy of the window that is refreshed every
+ * {@code size / 16} samples, so reading them takes no lock and sorts nothing; they lag the
+ * window by at most that many samples.
+ */
+final class LatencyWindow {
+
+    private final long[] samples;
+    private final int refreshEvery;
+    private int next;
+    private volatile long count;
+    private volatile long[] sorted = new long[0];
+
+    LatencyWindow(int size) {
+        this.samples = new long[size];
+        this.refreshEvery = Math.max(1, size / 16);
+    }
+
+    void record(long nanos) {
+        long[] copy = null;
+        synchronized (this) {
+            samples[next] = nanos;
+            next = (next + 1) % samples.length;
+            long recorded = count + 1;
+            count = recorded;
+            // every sample while the window is young, so early percentiles are not empty
+            if (recorded <= refreshEvery || recorded % refreshEvery == 0) {
+                copy = Arrays.copyOf(samples, (int) Math.min(recorded, samples.length));
+            }
+        }
+        if (copy != null) {
+            Arrays.sort(copy);
+            sorted = copy;
+        }
+    }
+
+    /**
+     * @return latencies recorded so far, including those that have left the window
+     */
+    long count() {
+        return count;
+    }
+
+    /**
+     * @param quantile between 0 and 1
+     * @return the latency at {@code quantile} of the window in nanoseconds, or 0 if empty
+     */
+    long percentile(double quantile) {
+        long[] snapshot = sorted;
+        if (snapshot.length == 0) {
+            return 0;
+        }
+        return snapshot[Math.max(0, (int) Math.ceil(quantile * snapshot.length) - 1)];
+    }
+}
@@ -0,0 +1,173 @@
+package dev.sealkboy.myagara.ml;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * {@link Classifier} that runs the exported model inside the JVM with ONNX Runtime, so a
+ * classification never leaves the process. One session is shared by all callers, and the
+ * direct input buffers handed to the runtime are pooled and reused across calls.
+ */
+@Component
+@ConditionalOnProperty(name = "myagara.inference.backend", havingValue = "onnx")
+public class OnnxClassifier implements Classifier {
+
+    private final OrtEnvironment environment;
+    private final OrtSession session;
+    private final String inputName;
+    private final String modelVersion;
+    private final List<String> labels;
+    private final ImagePreprocessor preprocessor;
+    private final int inputSize;
+    private final int floatsPerImage;
+    private final int maxBatchSize;
+    private final Queue<FloatBuffer> inputBuffers = new ConcurrentLinkedQueue<>();
+
+    public OnnxClassifier(InferenceProperties properties, ImagePreprocessor preprocessor) {
+        InferenceProperties.Onnx onnx = properties.getOnnx();
+        Path modelPath = Path.of(onnx.getModelPath());
+        this.labels = List.copyOf(onnx.getLabels());
+        this.preprocessor = preprocessor;
+        this.inputSize = properties.getPreprocess().getInputSize();
+        this.floatsPerImage = inputSize * inputSize * 3;
+        this.maxBatchSize = properties.getBatch().isEnabled() ? Math.max(1, properties.getBatch().getMaxSize()) : 1;
+
+        try {
+            byte[] model = Files.readAllBytes(modelPath);
+            this.modelVersion = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(model)).substring(0, 16);
+            this.environment = OrtEnvironment.getEnvironment();
+            try (OrtSession.SessionOptions options = new OrtSession.SessionOptions()) {
+                options.setOptimizationLevel(OrtSession.SessionOptions.OptLevel.ALL_OPT);
+                if (onnx.getIntraOpThreads() > 0) {
+                    options.setIntraOpNumThreads(onnx.getIntraOpThreads());
+                }
+                this.session = environment.createSession(model, options);
+            }
+        } catch (IOException | OrtException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Could not load ONNX model from " + modelPath.toAbsolutePath(), e);
+        }
+        this.inputName = session.getInputNames().iterator().next();
+    }
+
+    /**
+     * Images that cannot be decoded fail on their own with {@link UnclassifiableImageException};
+     * the others are classified as usual.
+     */
+    @Override
+    public List<Classification> classify(List<? extends Resource> images) {
+        List<Classification> results = new ArrayList<>(images.size());
+        List<RuntimeException> failures = new ArrayList<>(images.size());
+        for (int start = 0; start < images.size(); start += maxBatchSize) {
+            run(images.subList(start, Math.min(images.size(), start + maxBatchSize)), results, failures);
+        }
+        if (failures.stream().anyMatch(failure -> failure != null)) {
+            throw new PartialBatchException(results, failures);
+        }
+        return results;
+    }
+
+    @Override
+    public String modelVersion() {
+        return modelVersion;
+    }
+
+    @PreDestroy
+    public void close() throws OrtException {
+        session.close();
+    }
+
+    /**
+     * Decodes each image into the next free slot of the input tensor, then runs the model on
+     * those that could be decoded. Appends one entry per image to {@code results} and
+     * {@code failures}.
+     */
+    private void run(List<? extends Resource> batch, List<Classification> results, List<RuntimeException> failures) {
+        FloatBuffer input = acquireBuffer();
+        try {
+            input.clear();
+            List<RuntimeException> batchFailures = new ArrayList<>(batch.size());
+            int decoded = 0;
+            for (Resource image : batch) {
+                int position = input.position();
+                try {
+                    preprocessor.writeFloats(image, input);
+                    batchFailures.add(null);
+                    decoded++;
+                } catch (IOException | RuntimeException e) {
+                    input.position(position);
+                    batchFailures.add(new UnclassifiableImageException("Error decoding image " + image.getFilename(), e));
+                }
+            }
+            input.flip();
+
+            List<Classification> classified = new ArrayList<>(decoded);
+            if (decoded > 0) {
+                long[] shape = { decoded, inputSize, inputSize, 3 };
+                try (OnnxTensor tensor = OnnxTensor.createTensor(environment, input, shape);
+                        OrtSession.Result output = session.run(Map.of(inputName, tensor))) {
+                    float[][] probabilities = (float[][]) output.get(0).getValue();
+                    for (float[] scores : probabilities) {
+                        classified.add(toClassification(scores));
+                    }
+                }
+            }
+            int next = 0;
+            for (RuntimeException failure : batchFailures) {
+                results.add(failure == null ? classified.get(next++) : null);
+                failures.add(failure);
+            }
+        } catch (OrtException e) {
+            throw new RuntimeException("Error running ONNX model", e);
+        } finally {
+            inputBuffers.offer(input);
+        }
+    }
+
+    private Classification toClassification(float[] scores) {
+        int best = 0;
+        for (int i = 1; i < scores.length; i++) {
+            if (scores[i] > scores[best]) {
+                best = i;
+            }
+        }
+        String label = best < labels.size() ? labels.get(best) : "unknown";
+        double confidence = Math.round(scores[best] * 10_000.0) / 100.0;
+        return new Classification(label, confidence, modelVersion);
+    }
+
+    /**
+     * @return a native-order direct buffer for a full batch, reused across calls so the
+     *         runtime reads the pixels without a copy
+     */
+    private FloatBuffer acquireBuffer() {
+        FloatBuffer buffer = inputBuffers.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(maxBatchSize * floatsPerImage * Float.BYTES)
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer();
+        }
+        return buffer;
+    }
+}
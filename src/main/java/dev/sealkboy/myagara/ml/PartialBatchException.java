@@ -0,0 +1,46 @@
+package dev.sealkboy.myagara.ml;
+
+import java.util.List;
+
+/**
+ * Thrown when a batch went through but some of its items failed on their own, such as
+ * images that could not be decoded. It carries the results of the other items, so that
+ * only the callers whose items failed see an error.
+ */
+public class PartialBatchException extends RuntimeException {
+
+    private final List<?> results;
+    private final List<? extends RuntimeException> failures;
+
+    /**
+     * @param results  one entry per item, ignored where the item failed
+     * @param failures one entry per item, {@code null} where the item succeeded
+     */
+    public PartialBatchException(List<?> results, List<? extends RuntimeException> failures) {
+        super(failures.stream().filter(failure -> failure != null).count() + " of " + failures.size()
+                + " items in the batch failed");
+        this.results = results;
+        this.failures = failures;
+    }
+
+    public int size() {
+        return failures.size();
+    }
+
+    /**
+     * @param index
+     * @return the item's failure, or {@code null} if it succeeded
+     */
+    public RuntimeException getFailure(int index) {
+        return failures.get(index);
+    }
+
+    /**
+     * @param index position of an item that succeeded
+     * @return its result
+     */
+    @SuppressWarnings("unchecked")
+    public <O> O getResult(int index) {
+        return (O) results.get(index);
+    }
+}
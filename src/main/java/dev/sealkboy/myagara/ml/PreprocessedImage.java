@@ -0,0 +1,85 @@
+package dev.sealkboy.myagara.ml;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import org.springframework.core.io.AbstractResource;
+
+/**
+ * An upload already shrunk to the model's input, either as raw RGB bytes or as a small
+ * re-encoded image, ready to be sent to a {@link Classifier}.
+ */
+public final class PreprocessedImage extends AbstractResource {
+
+    private final String filename;
+    private final String contentType;
+    private final byte[] bytes;
+    private final int size;
+
+    PreprocessedImage(String filename, String contentType, byte[] bytes, int size) {
+        this.filename = filename;
+        this.contentType = contentType;
+        this.bytes = bytes;
+        this.size = size;
+    }
+
+    @Override
+    public String getFilename() {
+        return filename;
+    }
+
+    /**
+     * @return media type of the bytes, including the tensor shape for raw pixels
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public long contentLength() {
+        return bytes.length;
+    }
+
+    @Override
+    public boolean exists() {
+        return true;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new ByteArrayInputStream(bytes);
+    }
+
+    @Override
+    public String getDescription() {
+        return "Preprocessed image [" + filename + ", " + bytes.length + " bytes]";
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return this == other;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(this);
+    }
+
+    /**
+     * @return whether the bytes are raw {@code size x size x 3} RGB pixels
+     */
+    public boolean isTensor() {
+        return contentType.startsWith(ImagePreprocessor.TENSOR_MEDIA_TYPE);
+    }
+
+    /**
+     * @return width and height of the image
+     */
+    public int getSize() {
+        return size;
+    }
+
+    byte[] bytes() {
+        return bytes;
+    }
+}
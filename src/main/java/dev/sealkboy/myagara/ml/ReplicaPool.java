@@ -0,0 +1,183 @@
+package dev.sealkboy.myagara.ml;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The model server replicas behind {@link HttpInferenceTransport}. Each call goes to the
+ * healthy replica with the fewest calls in flight, ties broken at random so light load is
+ * still spread. A replica is evicted after {@code unhealthyThreshold} consecutive failed
+ * calls or health checks, so a replica that fails fast does not draw ever more traffic, and
+ * is re-admitted after {@code healthyThreshold} consecutive passing health checks. When
+ * every replica is evicted, calls go to all of them rather than to none.
+ */
+public final class ReplicaPool {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaPool.class);
+    private static final int LATENCY_SAMPLES = 256;
+
+    private final List<Replica> replicas;
+    private final int unhealthyThreshold;
+    private final int healthyThreshold;
+
+    ReplicaPool(List<URI> endpoints, int unhealthyThreshold, int healthyThreshold) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("At least one inference endpoint is required");
+        }
+        this.replicas = endpoints.stream().map(Replica::new).toList();
+        this.unhealthyThreshold = Math.max(1, unhealthyThreshold);
+        this.healthyThreshold = Math.max(1, healthyThreshold);
+    }
+
+    /**
+     * Picks a replica and counts the call as in flight on it until it reports back.
+     *
+     * @param excluded a replica not to pick, or {@code null}
+     * @return the chosen replica, or {@code null} if {@code excluded} is the only one
+     */
+    Replica acquire(Replica excluded) {
+        Replica chosen = leastOutstanding(excluded, true);
+        if (chosen == null) {
+            chosen = leastOutstanding(excluded, false);
+        }
+        if (chosen != null) {
+            chosen.outstanding.incrementAndGet();
+        }
+        return chosen;
+    }
+
+    List<Replica> replicas() {
+        return replicas;
+    }
+
+    int size() {
+        return replicas.size();
+    }
+
+    public List<ReplicaStats> stats() {
+        return replicas.stream().map(Replica::stats).toList();
+    }
+
+    private Replica leastOutstanding(Replica excluded, boolean healthyOnly) {
+        int size = replicas.size();
+        int offset = size > 1 ? ThreadLocalRandom.current().nextInt(size) : 0;
+        Replica best = null;
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((offset + i) % size);
+            if (replica == excluded || (healthyOnly && !replica.healthy)) {
+                continue;
+            }
+            if (best == null || replica.outstanding.get() < best.outstanding.get()) {
+                best = replica;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * One model server and what calls to it have seen.
+     */
+    final class Replica {
+
+        private final URI endpoint;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private final AtomicInteger consecutivePasses = new AtomicInteger();
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder hedged = new LongAdder();
+        private final LatencyWindow latencies = new LatencyWindow(LATENCY_SAMPLES);
+        private volatile boolean healthy = true;
+
+        private Replica(URI endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        URI endpoint() {
+            return endpoint;
+        }
+
+        boolean isHealthy() {
+            return healthy;
+        }
+
+        int outstanding() {
+            return outstanding.get();
+        }
+
+        long requests() {
+            return requests.sum();
+        }
+
+        long failures() {
+            return failures.sum();
+        }
+
+        void succeeded(long nanos) {
+            outstanding.decrementAndGet();
+            requests.increment();
+            latencies.record(nanos);
+            consecutiveFailures.set(0);
+        }
+
+        void failed() {
+            outstanding.decrementAndGet();
+            requests.increment();
+            failures.increment();
+            countFailure();
+        }
+
+        /**
+         * Ends a call that was cancelled because another replica answered first.
+         */
+        void abandoned() {
+            outstanding.decrementAndGet();
+        }
+
+        void hedged() {
+            hedged.increment();
+        }
+
+        void checked(boolean passed) {
+            if (!passed) {
+                consecutivePasses.set(0);
+                countFailure();
+            } else if (healthy) {
+                consecutiveFailures.set(0);
+            } else if (consecutivePasses.incrementAndGet() >= healthyThreshold) {
+                consecutiveFailures.set(0);
+                healthy = true;
+                log.info("Inference replica {} re-admitted after {} passing health checks", endpoint,
+                        healthyThreshold);
+            }
+        }
+
+        private void countFailure() {
+            if (consecutiveFailures.incrementAndGet() >= unhealthyThreshold && healthy) {
+                healthy = false;
+                consecutivePasses.set(0);
+                log.warn("Inference replica {} evicted after {} consecutive failures", endpoint, unhealthyThreshold);
+            }
+        }
+
+        private ReplicaStats stats() {
+            return new ReplicaStats(endpoint.toString(), healthy, outstanding.get(), requests.sum(), failures.sum(),
+                    hedged.sum(), latencies.percentile(0.5) / 1e6, latencies.percentile(0.95) / 1e6,
+                    latencies.percentile(0.99) / 1e6);
+        }
+    }
+
+    /**
+     * @param hedged    calls sent here as the second copy of a slow call
+     * @param p50Millis percentiles over the replica's most recent successful calls
+     */
+    public record ReplicaStats(String endpoint, boolean healthy, int outstanding, long requests, long failures,
+            long hedged, double p50Millis, double p95Millis, double p99Millis) {
+    }
+}
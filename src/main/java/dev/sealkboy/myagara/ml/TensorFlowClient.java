@@ -1,67 +1,278 @@
 package dev.sealkboy.myagara.ml;
 
-import java.io.File;
-import java.util.Map;
-
-import org.springframework.core.ParameterizedTypeReference;
-import org.springframework.core.io.FileSystemResource;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Component;
-import org.springframework.util.LinkedMultiValueMap;
-import org.springframework.util.MultiValueMap;
-import org.springframework.web.client.RestTemplate;
 
 import dev.sealkboy.myagara.model.Image;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
 
 @Component
-public class TensorFlowClient {
+public class TensorFlowClient implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(TensorFlowClient.class);
+
+    private final Classifier classifier;
+    private final ClassificationCache cache;
+    private final ImagePreprocessor preprocessor;
+    private final InferenceBatcher<Resource, Classification> batcher;
+    private final ScheduledExecutorService modelCheck;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AdaptiveLimiter limiter;
+    private final CircuitBreaker breaker;
+    private final Duration limitRetryAfter;
 
-    private static final String FLASK_URL = "http://localhost:5000/classify";
+    public TensorFlowClient(InferenceProperties properties, Classifier classifier, ClassificationCache cache,
+            ImagePreprocessor preprocessor) {
+        this.classifier = classifier;
+        this.cache = cache;
+        this.preprocessor = preprocessor;
+        InferenceProperties.Batch batch = properties.getBatch();
+        this.batcher = batch.isEnabled()
+                ? new InferenceBatcher<>("inference", batch.getMaxSize(), batch.getMaxWait(),
+                        batch.getMaxConcurrentBatches(), classifier::classify)
+                : null;
+
+        InferenceProperties.Limit limit = properties.getLimit();
+        this.limiter = limit.isEnabled()
+                ? new AdaptiveLimiter(limit.getInitial(), limit.getMin(), limit.getMax(), limit.getTolerance(),
+                        limit.getSmoothing())
+                : null;
+        this.limitRetryAfter = limit.getRetryAfter();
+        InferenceProperties.Breaker breakerProperties = properties.getBreaker();
+        this.breaker = breakerProperties.isEnabled()
+                ? new CircuitBreaker("inference", breakerProperties.getWindowSize(), breakerProperties.getMinimumCalls(),
+                        breakerProperties.getFailureRateThreshold(), breakerProperties.getOpenDuration(),
+                        breakerProperties.getHalfOpenCalls())
+                : null;
+
+        long checkMillis = properties.getCache().getModelCheckInterval().toMillis();
+        if (properties.getCache().isEnabled() && checkMillis > 0) {
+            this.modelCheck = Executors.newSingleThreadScheduledExecutor(
+                    Thread.ofPlatform().name("model-version-check").daemon().factory());
+            this.modelCheck.scheduleWithFixedDelay(this::refreshModelVersion, 0, checkMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.modelCheck = null;
+        }
+    }
 
     /**
-     * 
-     * @param imageFile 
-     * @return 
+     * Classifies one image. Identical bytes are answered from the classification cache;
+     * otherwise the image is preprocessed on the calling thread and, when batching is
+     * enabled, joins the next batch and blocks until that batch's response arrives.
+     * Calls that would exceed the adaptive concurrency limit, or that arrive while the
+     * circuit breaker is open, are refused at once.
+     *
+     * @param image
+     * @return
+     * @throws InferenceRejectedException if the call was refused
      */
-    @SuppressWarnings("null")
-    public Image classifyImage(File imageFile) {
+    public Image classifyImage(Resource image) {
         try {
-            RestTemplate restTemplate = new RestTemplate();
+            return cache.classify(image, this::infer).join().toImage();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Classifies one image with the model served now, bypassing the classification cache but
+     * not the concurrency limit or the circuit breaker, so background work competes fairly
+     * with uploads.
+     *
+     * @param image
+     * @return
+     * @throws InferenceRejectedException if the call was refused
+     */
+    public Classification reclassify(Resource image) {
+        try {
+            return infer(image).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return version of the model served now as reported by the classifier, else the last
+     *         one seen, or {@code null} if none is known
+     */
+    public String getModelVersion() {
+        try {
+            String version = classifier.modelVersion();
+            if (version != null) {
+                return version;
+            }
+        } catch (RuntimeException e) {
+            log.debug("Could not read model version from the classifier", e);
+        }
+        return cache.getModelVersion();
+    }
+
+    /**
+     * Readies the classifier for the first uploads, outside the concurrency limit and the
+     * circuit breaker, which should not learn from it.
+     *
+     * @param connections calls the classifier should be ready to take at once
+     */
+    public void warmUp(int connections) {
+        classifier.warmUp(connections);
+    }
+
+    public InferenceBatcher.BatchStats getBatchStats() {
+        return batcher == null ? null : batcher.stats();
+    }
+
+    public ClassificationCache.CacheStats getCacheStats() {
+        return cache.stats();
+    }
+
+    public ImagePreprocessor.PreprocessStats getPreprocessStats() {
+        return preprocessor.stats();
+    }
 
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+    public AdaptiveLimiter.LimitStats getLimitStats() {
+        return limiter == null ? null : limiter.stats();
+    }
 
-            MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
-            body.add("image", new FileSystemResource(imageFile));
+    public CircuitBreaker.BreakerStats getBreakerStats() {
+        return breaker == null ? null : breaker.stats();
+    }
 
-            HttpEntity<MultiValueMap<String, Object>> requestEntity = new HttpEntity<>(body, headers);
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("myagara.inference.in.flight", inFlight, AtomicInteger::get)
+                .description("Classifications sent to the classifier and not yet answered")
+                .register(registry);
+        if (batcher != null) {
+            Gauge.builder("myagara.inference.batch.queued", batcher, InferenceBatcher::queueDepth)
+                    .description("Classifications waiting to join a batch")
+                    .register(registry);
+        }
+        if (limiter != null) {
+            Gauge.builder("myagara.inference.limit", limiter, AdaptiveLimiter::getLimit)
+                    .description("Classifications currently allowed in flight")
+                    .register(registry);
+            FunctionCounter.builder("myagara.inference.rejected", limiter, each -> each.stats().rejected())
+                    .tag("reason", "limit")
+                    .register(registry);
+        }
+        if (breaker != null) {
+            Gauge.builder("myagara.inference.breaker.open", breaker,
+                    each -> each.getState() == CircuitBreaker.State.CLOSED ? 0 : 1)
+                    .description("1 while the inference circuit breaker is open or half open")
+                    .register(registry);
+            FunctionCounter.builder("myagara.inference.rejected", breaker, each -> each.stats().rejected())
+                    .tag("reason", "breaker")
+                    .register(registry);
+        }
+    }
 
-            ResponseEntity<Map<String, Object>> response = restTemplate.exchange(
-                FLASK_URL,
-                HttpMethod.POST,
-                requestEntity,
-                new ParameterizedTypeReference<Map<String, Object>>() {}
-            );
+    @PreDestroy
+    public void shutdown() {
+        if (modelCheck != null) {
+            modelCheck.shutdownNow();
+        }
+        if (batcher != null) {
+            batcher.close();
+        }
+    }
 
-            if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
-                Map<String, Object> responseBody = response.getBody();
+    /**
+     * Preprocesses the image before asking for a permit, so the limiter and the breaker only
+     * see the time spent on the classifier. Images the classifier cannot read count against
+     * neither.
+     */
+    private CompletableFuture<Classification> infer(Resource image) {
+        Resource prepared = preprocessor.prepare(image);
+        if (breaker != null && !breaker.tryAcquire()) {
+            return CompletableFuture.failedFuture(new InferenceUnavailableException(breaker.retryAfter()));
+        }
+        if (limiter != null && !limiter.tryAcquire()) {
+            if (breaker != null) {
+                breaker.onIgnored();
+            }
+            return CompletableFuture.failedFuture(new InferenceOverloadedException(limitRetryAfter));
+        }
+        inFlight.incrementAndGet();
+        long start = System.nanoTime();
+        CompletableFuture<Classification> result;
+        try {
+            result = classify(prepared);
+        } catch (RuntimeException e) {
+            finished(start, e);
+            throw e;
+        }
+        return result.whenComplete((classification, error) -> finished(start, error));
+    }
+
+    private void finished(long start, Throwable error) {
+        inFlight.decrementAndGet();
+        if (error instanceof CompletionException wrapped && wrapped.getCause() != null) {
+            error = wrapped.getCause();
+        }
+        if (error == null) {
+            if (limiter != null) {
+                limiter.onSuccess(System.nanoTime() - start);
+            }
+            if (breaker != null) {
+                breaker.onSuccess();
+            }
+        } else if (error instanceof UnclassifiableImageException) {
+            if (limiter != null) {
+                limiter.onIgnored();
+            }
+            if (breaker != null) {
+                breaker.onIgnored();
+            }
+        } else {
+            if (limiter != null) {
+                limiter.onFailure();
+            }
+            if (breaker != null) {
+                breaker.onFailure();
+            }
+        }
+    }
 
-                String label = (String) responseBody.getOrDefault("label", "unknown");
-                double confidence = Double.parseDouble(responseBody.getOrDefault("confidence", 0.0).toString());
+    private CompletableFuture<Classification> classify(Resource prepared) {
+        if (batcher != null) {
+            return batcher.submit(prepared);
+        }
+        try {
+            return CompletableFuture.completedFuture(classifier.classify(List.of(prepared)).get(0));
+        } catch (PartialBatchException e) {
+            throw e.getFailure(0);
+        }
+    }
 
-                Image image = new Image();
-                image.setLabel(label);
-                image.setConfidence(confidence);
-                return image;
-            } else {
-                throw new RuntimeException("Failed to classify image. Status: " + response.getStatusCode());
+    private void refreshModelVersion() {
+        try {
+            String version = classifier.modelVersion();
+            if (version != null) {
+                cache.onModelVersion(version);
             }
-        } catch (Exception e) {
-            throw new RuntimeException("Error connecting to Flask API", e);
+        } catch (RuntimeException e) {
+            log.debug("Could not read model version from the classifier", e);
         }
     }
 }
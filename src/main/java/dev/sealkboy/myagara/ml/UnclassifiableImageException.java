@@ -0,0 +1,16 @@
+package dev.sealkboy.myagara.ml;
+
+/**
+ * Thrown when an image itself cannot be classified, e.g. because it cannot be decoded.
+ * Sending it again will not help, and it says nothing about the health of the classifier.
+ */
+public class UnclassifiableImageException extends RuntimeException {
+
+    public UnclassifiableImageException(String message) {
+        super(message);
+    }
+
+    public UnclassifiableImageException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
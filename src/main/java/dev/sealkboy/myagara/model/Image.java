@@ -1,9 +1,19 @@
 package dev.sealkboy.myagara.model;
 
+import java.util.List;
+
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 @Document(collection = "images")
+@CompoundIndexes({
+    @CompoundIndex(name = "timestamp_id_confidence", def = "{'timestamp': -1, '_id': -1, 'confidence': 1}"),
+    @CompoundIndex(name = "label_timestamp_id_confidence", def = "{'label': 1, 'timestamp': -1, '_id': -1, 'confidence': 1}")
+})
 public class Image {
 
     @Id
@@ -12,6 +22,14 @@ public class Image {
     private long timestamp;
     private String label;
     private double confidence; 
+    @Indexed(sparse = true)
+    private String contentHash;
+    private String contentType;
+    private long size;
+    private List<Integer> thumbnails;
+    private String modelVersion;
+    @Version
+    private Long version;
 
 
     public String getId() {
@@ -53,4 +71,61 @@ public class Image {
     public void setConfidence(double confidence) {
         this.confidence = confidence;
     }
+
+    /**
+     * @return hex SHA-256 of the original bytes, which is also their key in the image store
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    /**
+     * @return sizes of the thumbnails rendered so far, or {@code null} if none are
+     */
+    public List<Integer> getThumbnails() {
+        return thumbnails;
+    }
+
+    public void setThumbnails(List<Integer> thumbnails) {
+        this.thumbnails = thumbnails;
+    }
+
+    /**
+     * @return version of the model that produced the label, or {@code null} if unknown
+     */
+    public String getModelVersion() {
+        return modelVersion;
+    }
+
+    public void setModelVersion(String modelVersion) {
+        this.modelVersion = modelVersion;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
 }
@@ -0,0 +1,74 @@
+package dev.sealkboy.myagara.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Running totals of one label on one UTC day, kept up to date with {@code $inc} as images
+ * are added, changed and removed. The id is {@code <day>:<label>}.
+ */
+@Document(collection = "label_rollups")
+@CompoundIndex(name = "day_label", def = "{'day': 1, 'label': 1}")
+public class LabelRollup {
+
+    @Id
+    private String id;
+    private long day;
+    private String label;
+    private long count;
+    private double confidenceSum;
+    private long lowConfidenceCount;
+
+    public static String id(long day, String label) {
+        return day + ":" + label;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public long getDay() {
+        return day;
+    }
+
+    public void setDay(long day) {
+        this.day = day;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public void setLabel(String label) {
+        this.label = label;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    public double getConfidenceSum() {
+        return confidenceSum;
+    }
+
+    public void setConfidenceSum(double confidenceSum) {
+        this.confidenceSum = confidenceSum;
+    }
+
+    public long getLowConfidenceCount() {
+        return lowConfidenceCount;
+    }
+
+    public void setLowConfidenceCount(long lowConfidenceCount) {
+        this.lowConfidenceCount = lowConfidenceCount;
+    }
+}
@@ -0,0 +1,177 @@
+package dev.sealkboy.myagara.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Progress of re-running inference over stored images after a model upgrade, checkpointed
+ * after every batch so the job picks up where it stopped. There is one job at a time, with
+ * id {@link #CURRENT}; the instance working on it holds a lease that it renews with each
+ * checkpoint.
+ */
+@Document(collection = "reclassification_jobs")
+public class ReclassificationJob {
+
+    public static final String CURRENT = "current";
+
+    public enum State {
+        RUNNING, COMPLETED, CANCELLED
+    }
+
+    @Id
+    private String id;
+    private String modelVersion;
+    private State state;
+    private String lastId;
+    private long total;
+    private long processed;
+    private long relabelled;
+    private long skipped;
+    private long failed;
+    private long startedAt;
+    private long checkpointedAt;
+    private long finishedAt;
+    private String claimedBy;
+    private long claimedUntil;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    /**
+     * @return the model version every image should end up labelled by
+     */
+    public String getModelVersion() {
+        return modelVersion;
+    }
+
+    public void setModelVersion(String modelVersion) {
+        this.modelVersion = modelVersion;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public void setState(State state) {
+        this.state = state;
+    }
+
+    /**
+     * @return id of the last image of the last checkpointed batch, or {@code null} before the
+     *         first; images are visited in id order
+     */
+    public String getLastId() {
+        return lastId;
+    }
+
+    public void setLastId(String lastId) {
+        this.lastId = lastId;
+    }
+
+    /**
+     * @return estimated number of images when the job started
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    /**
+     * @return images written with the new model's result
+     */
+    public long getProcessed() {
+        return processed;
+    }
+
+    public void setProcessed(long processed) {
+        this.processed = processed;
+    }
+
+    /**
+     * @return processed images whose label changed
+     */
+    public long getRelabelled() {
+        return relabelled;
+    }
+
+    public void setRelabelled(long relabelled) {
+        this.relabelled = relabelled;
+    }
+
+    /**
+     * @return images left as they were because their original is not stored or they were
+     *         edited while being classified
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    public void setSkipped(long skipped) {
+        this.skipped = skipped;
+    }
+
+    /**
+     * @return images left as they were because classifying them failed
+     */
+    public long getFailed() {
+        return failed;
+    }
+
+    public void setFailed(long failed) {
+        this.failed = failed;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(long startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    public long getCheckpointedAt() {
+        return checkpointedAt;
+    }
+
+    public void setCheckpointedAt(long checkpointedAt) {
+        this.checkpointedAt = checkpointedAt;
+    }
+
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    public void setFinishedAt(long finishedAt) {
+        this.finishedAt = finishedAt;
+    }
+
+    /**
+     * @return the instance working on the job, or {@code null} if none is
+     */
+    public String getClaimedBy() {
+        return claimedBy;
+    }
+
+    public void setClaimedBy(String claimedBy) {
+        this.claimedBy = claimedBy;
+    }
+
+    /**
+     * @return epoch milliseconds after which another instance may take the job over
+     */
+    public long getClaimedUntil() {
+        return claimedUntil;
+    }
+
+    public void setClaimedUntil(long claimedUntil) {
+        this.claimedUntil = claimedUntil;
+    }
+}
@@ -0,0 +1,29 @@
+package dev.sealkboy.myagara.service;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings for label trend analytics, bound from {@code myagara.analytics.*}.
+ */
+@ConfigurationProperties(prefix = "myagara.analytics")
+public class AnalyticsProperties {
+
+    private boolean rollupsEnabled = true;
+    private double lowConfidenceThreshold = 60.0;
+
+    public boolean isRollupsEnabled() {
+        return rollupsEnabled;
+    }
+
+    public void setRollupsEnabled(boolean rollupsEnabled) {
+        this.rollupsEnabled = rollupsEnabled;
+    }
+
+    public double getLowConfidenceThreshold() {
+        return lowConfidenceThreshold;
+    }
+
+    public void setLowConfidenceThreshold(double lowConfidenceThreshold) {
+        this.lowConfidenceThreshold = lowConfidenceThreshold;
+    }
+}
@@ -0,0 +1,296 @@
+package dev.sealkboy.myagara.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.ArithmeticOperators;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import dev.sealkboy.myagara.model.Image;
+import dev.sealkboy.myagara.model.LabelRollup;
+
+/**
+ * Label trends per day or week. Counts, confidence sums and low-confidence counts are kept
+ * per (UTC day, label) in {@link LabelRollup} documents that {@link ImageService} adjusts on
+ * every write, so a dashboard query reads one document per day and label instead of every
+ * image. Ranges that do not start and end on day boundaries are answered by an aggregation
+ * over the images themselves.
+ */
+@Service
+public class AnalyticsService {
+
+    private static final Logger log = LoggerFactory.getLogger(AnalyticsService.class);
+
+    public enum Source {
+        AUTO, ROLLUPS, AGGREGATION
+    }
+
+    private final MongoTemplate mongoTemplate;
+    private final AnalyticsProperties properties;
+
+    public AnalyticsService(MongoTemplate mongoTemplate, AnalyticsProperties properties) {
+        this.mongoTemplate = mongoTemplate;
+        this.properties = properties;
+    }
+
+    public void recordAll(Collection<Image> images) {
+        Map<String, Delta> deltas = new TreeMap<>();
+        for (Image image : images) {
+            add(deltas, image, 1);
+        }
+        apply(deltas);
+    }
+
+    public void record(Image image) {
+        recordAll(List.of(image));
+    }
+
+    public void remove(Image image) {
+        Map<String, Delta> deltas = new TreeMap<>();
+        add(deltas, image, -1);
+        apply(deltas);
+    }
+
+    /**
+     * Moves an image's contribution when its label, confidence or timestamp changes.
+     *
+     * @param before
+     * @param after
+     */
+    public void replace(Image before, Image after) {
+        if (Objects.equals(before.getLabel(), after.getLabel())
+                && before.getConfidence() == after.getConfidence()
+                && TrendBucket.DAY.start(before.getTimestamp()) == TrendBucket.DAY.start(after.getTimestamp())) {
+            return;
+        }
+        Map<String, Delta> deltas = new TreeMap<>();
+        add(deltas, before, -1);
+        add(deltas, after, 1);
+        apply(deltas);
+    }
+
+    /**
+     * {@link #replace(Image, Image)} for many images at once, with one bulk write.
+     *
+     * @param before
+     * @param after
+     */
+    public void replaceAll(Collection<Image> before, Collection<Image> after) {
+        Map<String, Delta> deltas = new TreeMap<>();
+        for (Image image : before) {
+            add(deltas, image, -1);
+        }
+        for (Image image : after) {
+            add(deltas, image, 1);
+        }
+        apply(deltas);
+    }
+
+    public void clear() {
+        mongoTemplate.remove(new Query(), LabelRollup.class);
+    }
+
+    /**
+     * @param from   inclusive lower bound in epoch milliseconds, or {@code null}
+     * @param to     exclusive upper bound in epoch milliseconds, or {@code null}
+     * @param bucket
+     * @param source {@link Source#AUTO} reads rollups whenever the range is day-aligned
+     * @return one entry per bucket and label, oldest bucket first
+     */
+    public List<LabelTrend> trends(Long from, Long to, TrendBucket bucket, Source source) {
+        boolean useRollups = switch (source) {
+            case ROLLUPS -> true;
+            case AGGREGATION -> false;
+            case AUTO -> properties.isRollupsEnabled() && isDayAligned(from) && isDayAligned(to);
+        };
+        return useRollups ? fromRollups(from, to, bucket) : fromAggregation(from, to, bucket);
+    }
+
+    /**
+     * Recomputes every rollup from the images collection, e.g. after rollups were enabled
+     * on an existing database or an increment was lost. Each (day, label) is overwritten
+     * with {@code $set} in place and only rollups no image accounts for any more are
+     * deleted, so the rollups are never empty while this runs and increments to keys
+     * created meanwhile survive.
+     *
+     * @return number of rollup documents written
+     */
+    public int rebuild() {
+        Query existing = new Query();
+        existing.fields().include("id");
+        Set<String> stale = new HashSet<>();
+        for (LabelRollup rollup : mongoTemplate.find(existing, LabelRollup.class)) {
+            stale.add(rollup.getId());
+        }
+
+        List<LabelTrend> days = fromAggregation(null, null, TrendBucket.DAY);
+        if (!days.isEmpty()) {
+            BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, LabelRollup.class);
+            for (LabelTrend day : days) {
+                String id = LabelRollup.id(day.bucketStart(), day.label());
+                stale.remove(id);
+                bulk.upsert(Query.query(Criteria.where("id").is(id)), new Update()
+                        .set("day", day.bucketStart())
+                        .set("label", day.label())
+                        .set("count", day.count())
+                        .set("confidenceSum", day.averageConfidence() * day.count())
+                        .set("lowConfidenceCount", Math.round(day.lowConfidenceRate() * day.count())));
+            }
+            bulk.execute();
+        }
+        if (!stale.isEmpty()) {
+            mongoTemplate.remove(Query.query(Criteria.where("id").in(stale)), LabelRollup.class);
+        }
+        return days.size();
+    }
+
+    private List<LabelTrend> fromRollups(Long from, Long to, TrendBucket bucket) {
+        Criteria day = Criteria.where("day");
+        if (from != null) {
+            day.gte(from);
+        }
+        if (to != null) {
+            day.lt(to);
+        }
+        Query query = from == null && to == null ? new Query() : new Query(day);
+        query.with(Sort.by("day", "label"));
+
+        Map<String, Delta> buckets = new TreeMap<>();
+        for (LabelRollup rollup : mongoTemplate.find(query, LabelRollup.class)) {
+            if (rollup.getCount() <= 0) {
+                continue;
+            }
+            long start = bucket.start(rollup.getDay());
+            buckets.computeIfAbsent(key(start, rollup.getLabel()), k -> new Delta(start, rollup.getLabel()))
+                    .add(rollup.getCount(), rollup.getConfidenceSum(), rollup.getLowConfidenceCount());
+        }
+        return buckets.values().stream().map(Delta::toTrend).toList();
+    }
+
+    private List<LabelTrend> fromAggregation(Long from, Long to, TrendBucket bucket) {
+        Criteria range = Criteria.where("timestamp");
+        if (from != null) {
+            range.gte(from);
+        }
+        if (to != null) {
+            range.lt(to);
+        }
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(from == null && to == null ? new Criteria() : range),
+                Aggregation.project("label", "confidence")
+                        .and(ArithmeticOperators.Subtract.valueOf("timestamp")
+                                .subtract(ArithmeticOperators.Mod.valueOf(
+                                        ArithmeticOperators.Add.valueOf("timestamp").add(bucket.offsetMillis()))
+                                        .mod(bucket.widthMillis())))
+                        .as("bucket")
+                        .and(ConditionalOperators.when(Criteria.where("confidence").lt(properties.getLowConfidenceThreshold()))
+                                .then(1).otherwise(0))
+                        .as("low"),
+                Aggregation.group("bucket", "label")
+                        .count().as("count")
+                        .sum("confidence").as("confidenceSum")
+                        .sum("low").as("lowConfidenceCount"),
+                Aggregation.sort(Sort.by("_id.bucket", "_id.label")));
+
+        List<LabelTrend> trends = new ArrayList<>();
+        for (Document row : mongoTemplate.aggregate(aggregation, Image.class, Document.class)) {
+            Document id = (Document) row.get("_id");
+            Delta totals = new Delta(((Number) id.get("bucket")).longValue(), id.getString("label"));
+            totals.add(((Number) row.get("count")).longValue(), ((Number) row.get("confidenceSum")).doubleValue(),
+                    ((Number) row.get("lowConfidenceCount")).longValue());
+            trends.add(totals.toTrend());
+        }
+        return trends;
+    }
+
+    private void add(Map<String, Delta> deltas, Image image, int sign) {
+        if (image.getLabel() == null) {
+            return;
+        }
+        long day = TrendBucket.DAY.start(image.getTimestamp());
+        boolean low = image.getConfidence() < properties.getLowConfidenceThreshold();
+        deltas.computeIfAbsent(key(day, image.getLabel()), k -> new Delta(day, image.getLabel()))
+                .add(sign, sign * image.getConfidence(), low ? sign : 0);
+    }
+
+    private void apply(Map<String, Delta> deltas) {
+        if (!properties.isRollupsEnabled() || deltas.isEmpty()) {
+            return;
+        }
+        try {
+            BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, LabelRollup.class);
+            int upserts = 0;
+            for (Delta delta : deltas.values()) {
+                if (delta.count == 0 && delta.confidenceSum == 0 && delta.lowConfidenceCount == 0) {
+                    continue;
+                }
+                upserts++;
+                bulk.upsert(Query.query(Criteria.where("id").is(LabelRollup.id(delta.bucketStart, delta.label))),
+                        new Update()
+                                .setOnInsert("day", delta.bucketStart)
+                                .setOnInsert("label", delta.label)
+                                .inc("count", delta.count)
+                                .inc("confidenceSum", delta.confidenceSum)
+                                .inc("lowConfidenceCount", delta.lowConfidenceCount));
+            }
+            // everything cancelled out, and an empty bulk write is an error
+            if (upserts > 0) {
+                bulk.execute();
+            }
+        } catch (DataAccessException e) {
+            // the image itself is saved; rebuild() repairs the rollups
+            log.warn("Could not update label rollups", e);
+        }
+    }
+
+    private static boolean isDayAligned(Long timestamp) {
+        return timestamp == null || TrendBucket.DAY.start(timestamp) == timestamp;
+    }
+
+    private static String key(long bucketStart, String label) {
+        return String.format("%020d:%s", bucketStart, label);
+    }
+
+    private static final class Delta {
+
+        private final long bucketStart;
+        private final String label;
+        private long count;
+        private double confidenceSum;
+        private long lowConfidenceCount;
+
+        Delta(long bucketStart, String label) {
+            this.bucketStart = bucketStart;
+            this.label = label;
+        }
+
+        void add(long count, double confidenceSum, long lowConfidenceCount) {
+            this.count += count;
+            this.confidenceSum += confidenceSum;
+            this.lowConfidenceCount += lowConfidenceCount;
+        }
+
+        LabelTrend toTrend() {
+            return new LabelTrend(bucketStart, label, count, count == 0 ? 0 : confidenceSum / count,
+                    count == 0 ? 0 : (double) lowConfidenceCount / count);
+        }
+    }
+}
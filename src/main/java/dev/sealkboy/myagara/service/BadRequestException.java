@@ -0,0 +1,16 @@
+package dev.sealkboy.myagara.service;
+
+/**
+ * Thrown when a request parameter or header cannot be understood. Its message is sent back
+ * to the client, so it should only describe what the client sent.
+ */
+public class BadRequestException extends IllegalArgumentException {
+
+    public BadRequestException(String message) {
+        super(message);
+    }
+
+    public BadRequestException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,22 @@
+package dev.sealkboy.myagara.service;
+
+import dev.sealkboy.myagara.model.Image;
+
+/**
+ * Outcome of one entry of a bulk upload. {@code index} is the entry's position in the
+ * request; exactly one of {@code image} and {@code error} is set.
+ */
+public record BulkItemResult(int index, String filename, Image image, String error) {
+
+    static BulkItemResult success(int index, Image image) {
+        return new BulkItemResult(index, image.getFilename(), image, null);
+    }
+
+    static BulkItemResult failure(int index, String filename, String error) {
+        return new BulkItemResult(index, filename, null, error);
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+}
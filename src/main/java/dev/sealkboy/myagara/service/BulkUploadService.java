@@ -0,0 +1,301 @@
+package dev.sealkboy.myagara.service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import com.mongodb.bulk.BulkWriteError;
+
+import dev.sealkboy.myagara.model.Image;
+import dev.sealkboy.myagara.storage.SpooledImage;
+import dev.sealkboy.myagara.storage.UploadProperties;
+import dev.sealkboy.myagara.storage.UploadSpool;
+
+/**
+ * Ingests many images in one request. Entries are spooled in order, classified in
+ * parallel on virtual threads (at most {@code myagara.upload.bulk.concurrency} at a time)
+ * and written to Mongo with unordered bulk inserts instead of one save per image. A
+ * classified entry keeps its bytes until it is inserted and its thumbnails are queued, so
+ * a batch is also inserted early once it holds half of the spool's direct memory.
+ */
+@Service
+public class BulkUploadService {
+
+    private final ImageService imageService;
+    private final UploadSpool uploadSpool;
+    private final MongoTemplate mongoTemplate;
+    private final AnalyticsService analyticsService;
+    private final ImageCache imageCache;
+    private final ThumbnailService thumbnailService;
+    private final UploadObservations observations;
+    private final int concurrency;
+    private final int insertBatchSize;
+    private final int maxEntries;
+    private final long maxTotalBytes;
+    private final long maxHeldBytes;
+
+    public BulkUploadService(UploadProperties properties, ImageService imageService, UploadSpool uploadSpool,
+            MongoTemplate mongoTemplate, AnalyticsService analyticsService, ImageCache imageCache,
+            ThumbnailService thumbnailService, UploadObservations observations) {
+        this.imageService = imageService;
+        this.uploadSpool = uploadSpool;
+        this.mongoTemplate = mongoTemplate;
+        this.analyticsService = analyticsService;
+        this.imageCache = imageCache;
+        this.thumbnailService = thumbnailService;
+        this.observations = observations;
+        this.concurrency = properties.getBulk().getConcurrency();
+        this.insertBatchSize = properties.getBulk().getInsertBatchSize();
+        this.maxEntries = properties.getBulk().getMaxEntries();
+        this.maxTotalBytes = properties.getBulk().getMaxTotalSize().toBytes();
+        this.maxHeldBytes = properties.getSpool().getMaxDirectMemory().toBytes() / 2;
+    }
+
+    /**
+     * @param files
+     * @return one result per file, in request order
+     */
+    public List<BulkItemResult> ingest(List<MultipartFile> files) {
+        List<BulkItemResult> results = new ArrayList<>(files.size());
+        try (Ingestion ingestion = new Ingestion(results::add)) {
+            for (int i = 0; i < files.size(); i++) {
+                MultipartFile file = files.get(i);
+                ingestion.submit(i, file.getOriginalFilename(), () -> uploadSpool.spool(file));
+            }
+        }
+        results.sort(Comparator.comparingInt(BulkItemResult::index));
+        return results;
+    }
+
+    /**
+     * Reads a ZIP archive entry by entry and reports each result to {@code sink} as soon
+     * as it is persisted. Directories and hidden entries are skipped. Archives with more than
+     * {@code myagara.upload.bulk.max-entries} entries, or whose images unpack to more than
+     * {@code max-total-size}, are cut off there.
+     *
+     * @param archive
+     * @param sink    called from worker threads, one call at a time
+     * @throws IOException if the archive itself cannot be read or is over a limit
+     */
+    public void ingestZip(InputStream archive, Consumer<BulkItemResult> sink) throws IOException {
+        try (Ingestion ingestion = new Ingestion(sink)) {
+            ZipInputStream zip = new ZipInputStream(archive);
+            UnpackedBytes unpacked = new UnpackedBytes(zip);
+            int index = 0;
+            int entries = 0;
+            for (ZipEntry entry; (entry = zip.getNextEntry()) != null; ) {
+                if (++entries > maxEntries) {
+                    throw new IOException("Archive has more than " + maxEntries + " entries");
+                }
+                String filename = filename(entry);
+                if (entry.isDirectory() || filename.startsWith(".") || entry.getName().startsWith("__MACOSX/")) {
+                    continue;
+                }
+                long size = entry.getSize();
+                String contentType = MediaTypeFactory.getMediaType(filename)
+                        .orElse(MediaType.APPLICATION_OCTET_STREAM).toString();
+                ingestion.submit(index++, filename, () -> uploadSpool.spool(filename, contentType, unpacked, size));
+                if (unpacked.exceeded) {
+                    throw new IOException("Archive unpacks to more than " + maxTotalBytes + " bytes");
+                }
+            }
+        }
+    }
+
+    private static String filename(ZipEntry entry) {
+        String name = entry.getName();
+        return name.substring(name.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * Counts the bytes read out of the archive's entries and refuses to hand out more than
+     * {@code maxTotalBytes} of them.
+     */
+    private final class UnpackedBytes extends FilterInputStream {
+
+        private long read;
+        private boolean exceeded;
+
+        UnpackedBytes(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            // read at most one byte past the limit, enough to tell that it was passed
+            int n = super.read(b, off, (int) Math.min(len, maxTotalBytes - read + 1));
+            if (n > 0) {
+                read += n;
+                if (read > maxTotalBytes) {
+                    exceeded = true;
+                    throw new IOException("Archive unpacks to more than " + maxTotalBytes + " bytes");
+                }
+            }
+            return n;
+        }
+    }
+
+    private interface SpoolTask {
+        SpooledImage spool() throws IOException;
+    }
+
+    /**
+     * One bulk request: spools on the caller's thread, classifies on virtual threads and
+     * flushes classified images to Mongo in batches. Closing waits for every entry.
+     */
+    private final class Ingestion implements AutoCloseable {
+
+        private final Consumer<BulkItemResult> sink;
+        private final Semaphore permits = new Semaphore(concurrency);
+        private final ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+        private final List<Pending> batch = new ArrayList<>(insertBatchSize);
+        private long batchBytes;
+        private final Object sinkLock = new Object();
+
+        Ingestion(Consumer<BulkItemResult> sink) {
+            this.sink = sink;
+        }
+
+        void submit(int index, String filename, SpoolTask task) {
+            permits.acquireUninterruptibly();
+            SpooledImage content;
+            try {
+                content = task.spool();
+            } catch (IOException | RuntimeException e) {
+                permits.release();
+                report(BulkItemResult.failure(index, filename, e.getMessage()));
+                return;
+            }
+            workers.execute(() -> classify(index, content));
+        }
+
+        private void classify(int index, SpooledImage content) {
+            try (content) {
+                Image image = observations.upload("bulk", () -> imageService.classifyUpload(content));
+                add(new Pending(index, image, content.retain()));
+            } catch (RuntimeException e) {
+                report(BulkItemResult.failure(index, content.getFilename(), e.getMessage()));
+            } finally {
+                permits.release();
+            }
+        }
+
+        private void add(Pending pending) {
+            List<Pending> full = null;
+            synchronized (batch) {
+                batch.add(pending);
+                batchBytes += pending.content().contentLength();
+                if (batch.size() >= insertBatchSize || batchBytes >= maxHeldBytes) {
+                    full = List.copyOf(batch);
+                    batch.clear();
+                    batchBytes = 0;
+                }
+            }
+            if (full != null) {
+                insert(full);
+            }
+        }
+
+        private void insert(List<Pending> pending) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            try {
+                insertAndReport(pending);
+            } finally {
+                pending.forEach(item -> item.content().close());
+            }
+        }
+
+        private void insertAndReport(List<Pending> pending) {
+            Set<Integer> failed = new HashSet<>();
+            String error = null;
+            try {
+                observations.stage("save", () -> {
+                    BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Image.class);
+                    // bulk inserts bypass the version initialisation a repository save would do
+                    pending.forEach(item -> item.image().setVersion(0L));
+                    bulk.insert(pending.stream().map(Pending::image).toList());
+                    bulk.execute();
+                });
+            } catch (BulkOperationException e) {
+                for (BulkWriteError writeError : e.getErrors()) {
+                    failed.add(writeError.getIndex());
+                }
+                error = "Error saving image: " + e.getMessage();
+            } catch (DataAccessException e) {
+                for (int i = 0; i < pending.size(); i++) {
+                    failed.add(i);
+                }
+                error = "Error saving image: " + e.getMessage();
+            }
+            List<Pending> saved = new ArrayList<>(pending.size());
+            for (int i = 0; i < pending.size(); i++) {
+                if (!failed.contains(i)) {
+                    saved.add(pending.get(i));
+                }
+            }
+            List<Image> images = saved.stream().map(Pending::image).toList();
+            imageCache.inserted(images.stream().map(Image::getId).toList());
+            observations.stage("analytics", () -> analyticsService.recordAll(images));
+            // rendered from the spooled bytes, as the archived original may not be written yet
+            saved.forEach(item -> thumbnailService.schedule(item.image(), item.content()));
+            for (int i = 0; i < pending.size(); i++) {
+                Pending item = pending.get(i);
+                report(failed.contains(i)
+                        ? BulkItemResult.failure(item.index(), item.image().getFilename(), error)
+                        : BulkItemResult.success(item.index(), item.image()));
+            }
+        }
+
+        private void report(BulkItemResult result) {
+            synchronized (sinkLock) {
+                sink.accept(result);
+            }
+        }
+
+        @Override
+        public void close() {
+            workers.close();
+            List<Pending> rest;
+            synchronized (batch) {
+                rest = List.copyOf(batch);
+                batch.clear();
+                batchBytes = 0;
+            }
+            insert(rest);
+        }
+    }
+
+    /**
+     * A classified entry waiting for its insert, holding its own reference to the bytes.
+     */
+    private record Pending(int index, Image image, SpooledImage content) {
+    }
+}
@@ -0,0 +1,299 @@
+package dev.sealkboy.myagara.service;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.CollectionOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mongodb.CursorType;
+import com.mongodb.client.MongoCursor;
+
+import dev.sealkboy.myagara.model.Image;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Near cache of images by id for reads of classified images, which almost never change.
+ * Every write to the images collection, on any instance, is logged to the capped
+ * {@code image_changes} collection, and each instance tails that log and drops the images
+ * named in it, so a change made elsewhere is seen within a round trip rather than after the
+ * TTL. Reads bypass the cache whenever the log is not being tailed, and everything cached
+ * is dropped on reconnecting, since changes may have been missed meanwhile.
+ * <p>
+ * The id of the latest change doubles as a tag for the collection as a whole. It is the
+ * same on every instance once they have caught up, so listings can answer conditional
+ * requests without a query.
+ * <p>
+ * Listeners see each change once, in log order, which makes the log a feed of image events
+ * where MongoDB change streams are not available.
+ */
+@Component
+public class ImageCache implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageCache.class);
+
+    static final String CHANGES = "image_changes";
+    private static final Duration RECONNECT_DELAY = Duration.ofSeconds(1);
+
+    private final boolean enabled;
+    private final boolean changeFeed;
+    private final long changeLogSize;
+    private final MongoTemplate mongoTemplate;
+    private final Cache<String, Image> images;
+    private volatile String tag = new ObjectId().toHexString();
+    private volatile boolean tailing;
+    private volatile Thread tailer;
+    private final List<Consumer<Change>> listeners = new CopyOnWriteArrayList<>();
+    // the last change handed to listeners, to pick up after it on reconnecting
+    private volatile String lastChange;
+
+    public ImageCache(ImageQueryProperties properties, MongoTemplate mongoTemplate) {
+        ImageQueryProperties.Cache cache = properties.getCache();
+        this.enabled = cache.isEnabled();
+        this.changeFeed = cache.isChangeFeed();
+        this.changeLogSize = cache.getChangeLogSize().toBytes();
+        this.mongoTemplate = mongoTemplate;
+        this.images = Caffeine.newBuilder()
+                .maximumSize(cache.getMaxEntries())
+                .expireAfterWrite(cache.getTtl())
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @param id
+     * @param loader reads the image from the database, returning {@code null} if there is none
+     * @return the cached image, or whatever {@code loader} returns; a missing image is not
+     *         remembered
+     */
+    public Image get(String id, Function<String, Image> loader) {
+        if (!isActive()) {
+            return loader.apply(id);
+        }
+        return images.get(id, loader);
+    }
+
+    /**
+     * Drops the image here and on every other instance. Call it after the write, including
+     * for inserts, which change listings.
+     *
+     * @param id
+     */
+    public void invalidate(String id) {
+        invalidate(List.of(id));
+    }
+
+    public void invalidate(Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        images.invalidateAll(ids);
+        publish(new Document("ids", List.copyOf(ids)));
+    }
+
+    /**
+     * Like {@link #invalidate(Collection)}, for images that were just inserted, so listeners
+     * can tell them from updates.
+     *
+     * @param ids
+     */
+    public void inserted(Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        images.invalidateAll(ids);
+        publish(new Document("ids", List.copyOf(ids)).append("inserted", true));
+    }
+
+    public void invalidateAll() {
+        images.invalidateAll();
+        publish(new Document("ids", null));
+    }
+
+    /**
+     * Calls {@code listener} with every change from now on, made here or, while the change
+     * log is shared, on any other instance. Listeners run on the writing thread or the
+     * tailing thread and must not block.
+     *
+     * @param listener
+     */
+    public void listen(Consumer<Change> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @return an opaque tag that changes whenever any image does, or {@code null} when
+     *         changes made by other instances might go unnoticed
+     */
+    public String tag() {
+        return isActive() ? tag : null;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled || !changeFeed) {
+            return;
+        }
+        createChangeLog();
+        Thread thread = Thread.ofPlatform().name("image-change-feed").daemon().unstarted(this::tail);
+        tailer = thread;
+        thread.start();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        Thread thread = tailer;
+        tailer = null;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, images, "image");
+        Gauge.builder("myagara.images.cache.tailing", this, cache -> cache.tailing ? 1 : 0)
+                .description("Whether changes made by other instances are being followed")
+                .register(registry);
+    }
+
+    private boolean isActive() {
+        return enabled && (!changeFeed || tailing);
+    }
+
+    private void publish(Document change) {
+        ObjectId id = new ObjectId();
+        tag = id.toHexString();
+        if (!enabled || !changeFeed) {
+            notify(change.append("_id", id));
+            return;
+        }
+        try {
+            mongoTemplate.insert(change.append("_id", id), CHANGES);
+        } catch (RuntimeException e) {
+            log.warn("Failed to publish image change {}; other instances may serve stale images for up to the TTL",
+                    change, e);
+        }
+    }
+
+    private void createChangeLog() {
+        try {
+            if (!mongoTemplate.collectionExists(CHANGES)) {
+                mongoTemplate.createCollection(CHANGES, CollectionOptions.empty().capped().size(changeLogSize));
+            }
+            // a tailable cursor over an empty collection dies at once
+            if (mongoTemplate.getCollection(CHANGES).estimatedDocumentCount() == 0) {
+                mongoTemplate.insert(new Document("_id", new ObjectId()).append("ids", null), CHANGES);
+            }
+        } catch (RuntimeException e) {
+            // another instance may have created it first; tailing reports anything worse
+            log.debug("Could not create the image change log", e);
+        }
+    }
+
+    /**
+     * Follows the change log until shut down. Each connection starts from the oldest change
+     * kept, so everything that happened while disconnected and is still in the log is
+     * replayed; the cache is emptied anyway, in case the log has wrapped since. Listeners are
+     * only told about changes after the last one they saw, and about a reset if that change
+     * has since been overwritten.
+     */
+    private void tail() {
+        while (tailer != null) {
+            try (MongoCursor<Document> cursor = mongoTemplate.getCollection(CHANGES).find()
+                    .cursorType(CursorType.TailableAwait)
+                    .maxAwaitTime(1, TimeUnit.SECONDS)
+                    .iterator()) {
+                images.invalidateAll();
+                tailing = true;
+                String resumeAfter = lastChange;
+                boolean caughtUp = resumeAfter == null;
+                String latest = null;
+                while (tailer != null) {
+                    Document change = cursor.tryNext();
+                    if (change != null) {
+                        apply(change);
+                        latest = change.getObjectId("_id").toHexString();
+                        if (caughtUp) {
+                            notify(change);
+                        } else {
+                            caughtUp = resumeAfter.equals(latest);
+                        }
+                    } else if (cursor.getServerCursor() == null) {
+                        break;
+                    } else if (!caughtUp) {
+                        caughtUp = true;
+                        notify(new Document("_id", new ObjectId()).append("ids", null));
+                        lastChange = latest;
+                    }
+                }
+            } catch (RuntimeException e) {
+                if (tailer != null) {
+                    log.warn("Lost the image change feed, bypassing the image cache until it is back", e);
+                }
+            } finally {
+                tailing = false;
+                images.invalidateAll();
+            }
+            try {
+                Thread.sleep(RECONNECT_DELAY);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void apply(Document change) {
+        List<String> ids = change.getList("ids", String.class);
+        if (ids == null) {
+            images.invalidateAll();
+        } else {
+            images.invalidateAll(ids);
+        }
+        tag = change.getObjectId("_id").toHexString();
+    }
+
+    private void notify(Document change) {
+        String id = change.getObjectId("_id").toHexString();
+        lastChange = id;
+        if (listeners.isEmpty()) {
+            return;
+        }
+        Change event = new Change(id, change.getList("ids", String.class), change.getBoolean("inserted", false));
+        for (Consumer<Change> listener : listeners) {
+            try {
+                listener.accept(event);
+            } catch (RuntimeException e) {
+                log.warn("Image change listener failed on {}", event, e);
+            }
+        }
+    }
+
+    /**
+     * One entry of the change log.
+     *
+     * @param id       unique and in log order, but only comparable for equality
+     * @param imageIds the images written, or {@code null} if any may have been
+     * @param inserted whether the images are new
+     */
+    public record Change(String id, List<String> imageIds, boolean inserted) {
+    }
+}
@@ -0,0 +1,11 @@
+package dev.sealkboy.myagara.service;
+
+/**
+ * Thrown when an update names a version of an image that is no longer current.
+ */
+public class ImageConflictException extends RuntimeException {
+
+    public ImageConflictException(String id, long expectedVersion) {
+        super("Image " + id + " was modified concurrently. Expected version " + expectedVersion);
+    }
+}
@@ -0,0 +1,31 @@
+package dev.sealkboy.myagara.service;
+
+import dev.sealkboy.myagara.model.Image;
+
+/**
+ * A write to the images collection, as pushed to subscribers of {@link ImageEventFeed}.
+ *
+ * @param id      resume token; a subscriber that reconnects with it is sent what came after
+ * @param type
+ * @param imageId the image written, or {@code null} for {@link Type#RESET}
+ * @param image   the image as it is now; {@code null} when deleted, and for an event not yet
+ *                looked up
+ */
+public record ImageEvent(String id, Type type, String imageId, Image image) {
+
+    public enum Type {
+        CREATED,
+        UPDATED,
+        DELETED,
+        /** Events may have been missed; subscribers should refetch what they show. */
+        RESET
+    }
+
+    static ImageEvent reset(String id) {
+        return new ImageEvent(id, Type.RESET, null, null);
+    }
+
+    boolean isResolved() {
+        return image != null || type == Type.DELETED || type == Type.RESET;
+    }
+}
@@ -0,0 +1,467 @@
+package dev.sealkboy.myagara.service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+
+import dev.sealkboy.myagara.model.Image;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Pushes every write to the images collection to subscribers as it happens. Events come from
+ * a MongoDB change stream where the server has them, which needs a replica set, and otherwise
+ * from the image cache's change log, which every writer already feeds.
+ * <p>
+ * Each subscriber has a bounded queue and a virtual thread writing to it; one that falls a
+ * whole queue behind is disconnected rather than buffered for. Recent events are kept so a
+ * subscriber reconnecting with the id of the last event it saw is sent only what came after;
+ * if that event is no longer kept, it is sent a {@link ImageEvent.Type#RESET} instead.
+ * Change stream resume tokens are the same on every instance, so with change streams this
+ * also works when the reconnection lands on another instance.
+ */
+@Component
+public class ImageEventFeed implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageEventFeed.class);
+
+    private static final Duration RECONNECT_DELAY = Duration.ofSeconds(1);
+    private static final int CHANGE_STREAM_HISTORY_LOST = 286;
+    private static final int PENDING_CHANGES = 10_000;
+
+    public enum Source {
+        AUTO,
+        CHANGE_STREAM,
+        CHANGE_LOG
+    }
+
+    /**
+     * Receives the events of one subscription, always on the same thread.
+     */
+    public interface Subscriber {
+
+        void onEvent(ImageEvent event) throws IOException;
+
+        /**
+         * Called when nothing has happened for a heartbeat, so dead connections are noticed.
+         */
+        void onIdle() throws IOException;
+
+        /**
+         * Called when the feed ends the subscription, because the subscriber fell too far
+         * behind or the feed is shutting down. The subscriber may reconnect and resume.
+         */
+        void onDropped();
+    }
+
+    private final Source source;
+    private final int bufferSize;
+    private final int historySize;
+    private final Duration heartbeat;
+    private final MongoTemplate mongoTemplate;
+    private final ImageCache imageCache;
+
+    private final Object lock = new Object();
+    private final ArrayDeque<ImageEvent> history = new ArrayDeque<>();
+    private final Set<Subscription> subscriptions = new LinkedHashSet<>();
+    private final BlockingQueue<ImageCache.Change> changes = new ArrayBlockingQueue<>(PENDING_CHANGES);
+    private volatile boolean changesOverflowed;
+    private volatile Source following;
+    private volatile Thread dispatcher;
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    public ImageEventFeed(ImageQueryProperties properties, MongoTemplate mongoTemplate, ImageCache imageCache) {
+        ImageQueryProperties.Events events = properties.getEvents();
+        this.source = Source.valueOf(events.getSource().trim().replace('-', '_').toUpperCase(Locale.ROOT));
+        this.bufferSize = events.getBufferSize();
+        this.historySize = events.getHistory();
+        this.heartbeat = events.getHeartbeat();
+        this.mongoTemplate = mongoTemplate;
+        this.imageCache = imageCache;
+    }
+
+    /**
+     * Subscribes to events from now on, preceded by any kept events after {@code lastEventId}.
+     *
+     * @param lastEventId id of the last event seen before reconnecting, or {@code null}
+     * @param subscriber
+     * @return the subscription, to close when the subscriber goes away
+     */
+    public Subscription subscribe(String lastEventId, Subscriber subscriber) {
+        Subscription subscription = new Subscription(subscriber);
+        synchronized (lock) {
+            if (lastEventId != null) {
+                subscription.backlog.addAll(since(lastEventId));
+            }
+            subscriptions.add(subscription);
+        }
+        subscription.thread.start();
+        return subscription;
+    }
+
+    /**
+     * @return where events are coming from, or {@code null} before the feed has started
+     */
+    public Source getSource() {
+        return following;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        boolean changeStreams = source == Source.CHANGE_STREAM
+                || source == Source.AUTO && changeStreamsAvailable();
+        Runnable loop;
+        if (changeStreams) {
+            following = Source.CHANGE_STREAM;
+            loop = this::watch;
+        } else {
+            following = Source.CHANGE_LOG;
+            imageCache.listen(change -> {
+                if (!changes.offer(change)) {
+                    changesOverflowed = true;
+                }
+            });
+            loop = this::follow;
+        }
+        Thread thread = Thread.ofPlatform().name("image-events").daemon().unstarted(loop);
+        dispatcher = thread;
+        thread.start();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        Thread thread = dispatcher;
+        dispatcher = null;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        synchronized (lock) {
+            subscriptions.forEach(Subscription::drop);
+            subscriptions.clear();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("myagara.images.events.subscribers", this, feed -> {
+                    synchronized (feed.lock) {
+                        return feed.subscriptions.size();
+                    }
+                })
+                .description("Connected subscribers to image events")
+                .register(registry);
+        FunctionCounter.builder("myagara.images.events.published", published, LongAdder::sum)
+                .description("Image events published to subscribers")
+                .register(registry);
+        FunctionCounter.builder("myagara.images.events.delivered", delivered, LongAdder::sum)
+                .description("Image events sent to a subscriber")
+                .register(registry);
+        FunctionCounter.builder("myagara.images.events.dropped", dropped, LongAdder::sum)
+                .description("Subscribers disconnected for falling too far behind")
+                .register(registry);
+    }
+
+    private boolean changeStreamsAvailable() {
+        try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = images().watch().cursor()) {
+            return true;
+        } catch (MongoException e) {
+            log.info("Change streams are not available ({}); image events follow the image change log instead",
+                    e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Follows a change stream over the images collection until shut down, resuming after
+     * the last change seen whenever the connection is lost.
+     */
+    private void watch() {
+        BsonDocument resumeToken = null;
+        while (dispatcher != null) {
+            ChangeStreamIterable<Document> stream = images().watch().fullDocument(FullDocument.UPDATE_LOOKUP).maxAwaitTime(1, TimeUnit.SECONDS);
+            if (resumeToken != null) {
+                stream = stream.resumeAfter(resumeToken);
+            }
+            try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = stream.cursor()) {
+                while (dispatcher != null) {
+                    ChangeStreamDocument<Document> change = cursor.tryNext();
+                    if (change != null) {
+                        resumeToken = change.getResumeToken();
+                        ImageEvent event = toEvent(change);
+                        if (event != null) {
+                            publish(List.of(event));
+                        }
+                    } else if (cursor.getServerCursor() == null) {
+                        // invalidated, e.g. by dropping the collection; there is nothing to resume
+                        resumeToken = null;
+                        break;
+                    }
+                }
+            } catch (MongoException e) {
+                if (dispatcher == null) {
+                    return;
+                }
+                log.warn("Lost the image change stream, resuming in {}", RECONNECT_DELAY, e);
+                if (e.getCode() == CHANGE_STREAM_HISTORY_LOST) {
+                    resumeToken = null;
+                    publish(List.of(ImageEvent.reset(null)));
+                }
+            }
+            try {
+                Thread.sleep(RECONNECT_DELAY);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private ImageEvent toEvent(ChangeStreamDocument<Document> change) {
+        String id = change.getResumeToken().getString("_data").getValue();
+        return switch (change.getOperationType()) {
+            case INSERT, UPDATE, REPLACE -> {
+                Document document = change.getFullDocument();
+                if (document == null) {
+                    // deleted before it could be looked up; the delete follows
+                    yield null;
+                }
+                Image image = mongoTemplate.getConverter().read(Image.class, document);
+                ImageEvent.Type type = switch (change.getOperationType()) {
+                    case INSERT -> ImageEvent.Type.CREATED;
+                    default -> ImageEvent.Type.UPDATED;
+                };
+                yield new ImageEvent(id, type, image.getId(), image);
+            }
+            case DELETE -> new ImageEvent(id, ImageEvent.Type.DELETED, idOf(change.getDocumentKey().get("_id")), null);
+            default -> ImageEvent.reset(id);
+        };
+    }
+
+    private static String idOf(BsonValue id) {
+        return id.isObjectId() ? id.asObjectId().getValue().toHexString() : id.asString().getValue();
+    }
+
+    /**
+     * Turns change log entries into events until shut down. Images are looked up here, once
+     * for all subscribers, unless nobody is listening.
+     */
+    private void follow() {
+        while (dispatcher != null) {
+            ImageCache.Change change;
+            try {
+                change = changes.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (changesOverflowed) {
+                changesOverflowed = false;
+                changes.clear();
+                publish(List.of(ImageEvent.reset(change.id())));
+                continue;
+            }
+            List<ImageEvent> events = toEvents(change);
+            boolean listening;
+            synchronized (lock) {
+                listening = !subscriptions.isEmpty();
+            }
+            publish(listening ? resolve(events) : events);
+        }
+    }
+
+    private static List<ImageEvent> toEvents(ImageCache.Change change) {
+        if (change.imageIds() == null) {
+            return List.of(ImageEvent.reset(change.id()));
+        }
+        ImageEvent.Type type = change.inserted() ? ImageEvent.Type.CREATED : ImageEvent.Type.UPDATED;
+        List<ImageEvent> events = new ArrayList<>(change.imageIds().size());
+        for (int i = 0; i < change.imageIds().size(); i++) {
+            events.add(new ImageEvent(change.id() + "-" + i, type, change.imageIds().get(i), null));
+        }
+        return events;
+    }
+
+    /**
+     * Looks up the images of events that have none yet; those no longer there were deleted.
+     * On failure the events are returned as they are, and sent without the image.
+     */
+    private List<ImageEvent> resolve(List<ImageEvent> events) {
+        Set<String> ids = events.stream()
+                .filter(event -> !event.isResolved())
+                .map(ImageEvent::imageId)
+                .collect(Collectors.toSet());
+        if (ids.isEmpty()) {
+            return events;
+        }
+        Map<String, Image> images;
+        try {
+            images = mongoTemplate.find(Query.query(Criteria.where("id").in(ids)), Image.class).stream()
+                    .collect(Collectors.toMap(Image::getId, Function.identity()));
+        } catch (RuntimeException e) {
+            log.warn("Failed to look up {} images for their events", ids.size(), e);
+            return events;
+        }
+        List<ImageEvent> resolved = new ArrayList<>(events.size());
+        for (ImageEvent event : events) {
+            if (event.isResolved()) {
+                resolved.add(event);
+                continue;
+            }
+            Image image = images.get(event.imageId());
+            resolved.add(image == null
+                    ? new ImageEvent(event.id(), ImageEvent.Type.DELETED, event.imageId(), null)
+                    : new ImageEvent(event.id(), event.type(), event.imageId(), image));
+        }
+        return resolved;
+    }
+
+    private void publish(List<ImageEvent> events) {
+        synchronized (lock) {
+            for (ImageEvent event : events) {
+                history.addLast(event);
+                if (history.size() > historySize) {
+                    history.removeFirst();
+                }
+                for (Iterator<Subscription> iterator = subscriptions.iterator(); iterator.hasNext();) {
+                    Subscription subscription = iterator.next();
+                    if (!subscription.queue.offer(event)) {
+                        iterator.remove();
+                        subscription.drop();
+                        dropped.increment();
+                    }
+                }
+            }
+        }
+        published.add(events.size());
+    }
+
+    // callers hold the lock
+    private List<ImageEvent> since(String lastEventId) {
+        List<ImageEvent> later = new ArrayList<>();
+        boolean found = false;
+        for (ImageEvent event : history) {
+            if (found) {
+                later.add(event);
+            } else {
+                found = event.id().equals(lastEventId);
+            }
+        }
+        if (!found) {
+            return List.of(ImageEvent.reset(history.isEmpty() ? null : history.getLast().id()));
+        }
+        return later;
+    }
+
+    private MongoCollection<Document> images() {
+        return mongoTemplate.getCollection(mongoTemplate.getCollectionName(Image.class));
+    }
+
+    /**
+     * One subscriber's queue and the thread sending from it.
+     */
+    public final class Subscription implements AutoCloseable {
+
+        private final Subscriber subscriber;
+        private final List<ImageEvent> backlog = new ArrayList<>();
+        private final BlockingQueue<ImageEvent> queue = new ArrayBlockingQueue<>(bufferSize);
+        private final Thread thread;
+        private volatile boolean closed;
+        private volatile boolean dropped;
+
+        private Subscription(Subscriber subscriber) {
+            this.subscriber = subscriber;
+            this.thread = Thread.ofVirtual().name("image-events-subscriber").unstarted(this::deliver);
+        }
+
+        /**
+         * Ends the subscription from the subscriber's side.
+         */
+        @Override
+        public void close() {
+            closed = true;
+            synchronized (lock) {
+                subscriptions.remove(this);
+            }
+            thread.interrupt();
+        }
+
+        private void drop() {
+            dropped = true;
+            queue.clear();
+            thread.interrupt();
+        }
+
+        private void deliver() {
+            try {
+                for (ImageEvent event : resolve(backlog)) {
+                    send(event);
+                }
+                backlog.clear();
+                while (!closed && !dropped) {
+                    ImageEvent event = queue.poll(heartbeat.toMillis(), TimeUnit.MILLISECONDS);
+                    if (event == null) {
+                        subscriber.onIdle();
+                    } else {
+                        send(event.isResolved() ? event : resolve(List.of(event)).get(0));
+                    }
+                }
+            } catch (InterruptedException e) {
+                // closed or dropped
+            } catch (IOException | RuntimeException e) {
+                log.debug("Image event subscriber went away", e);
+                closed = true;
+            } finally {
+                synchronized (lock) {
+                    subscriptions.remove(this);
+                }
+                if (!closed) {
+                    subscriber.onDropped();
+                }
+            }
+        }
+
+        private void send(ImageEvent event) throws IOException {
+            if (dropped) {
+                return;
+            }
+            subscriber.onEvent(event);
+            delivered.increment();
+        }
+    }
+}
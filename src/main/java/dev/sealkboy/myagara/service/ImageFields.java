@@ -0,0 +1,98 @@
+package dev.sealkboy.myagara.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.springframework.data.mongodb.core.query.Query;
+
+import dev.sealkboy.myagara.model.Image;
+
+/**
+ * The image properties a client asked for with {@code fields=}. Listings fetch only these
+ * from Mongo, and responses carry only these, so a table of labels does not pay for
+ * filenames, hashes and thumbnails. {@code id, label, confidence, timestamp} with a label
+ * filter is answered from the label index alone.
+ */
+public final class ImageFields {
+
+    private static final Map<String, Function<Image, Object>> PROPERTIES = properties();
+
+    private final List<String> names;
+
+    private ImageFields(List<String> names) {
+        this.names = names;
+    }
+
+    /**
+     * @param fields comma-separated property names, e.g. {@code id,label,confidence}
+     * @return
+     * @throws BadRequestException if a name is not an image property or none is given
+     */
+    public static ImageFields parse(String fields) {
+        List<String> names = new ArrayList<>();
+        for (String name : fields.split(",")) {
+            String trimmed = name.trim();
+            if (trimmed.isEmpty() || names.contains(trimmed)) {
+                continue;
+            }
+            if (!PROPERTIES.containsKey(trimmed)) {
+                throw new BadRequestException("Unknown image field: " + trimmed + "; available fields: "
+                        + PROPERTIES.keySet());
+            }
+            names.add(trimmed);
+        }
+        if (names.isEmpty()) {
+            throw new BadRequestException("No image fields given; available fields: " + PROPERTIES.keySet());
+        }
+        return new ImageFields(List.copyOf(names));
+    }
+
+    public List<String> names() {
+        return names;
+    }
+
+    /**
+     * @param image
+     * @return the requested properties of {@code image}, in the order they were asked for
+     */
+    public Map<String, Object> of(Image image) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (String name : names) {
+            values.put(name, PROPERTIES.get(name).apply(image));
+        }
+        return values;
+    }
+
+    /**
+     * Restricts {@code query} to the requested properties, plus what the next page's cursor
+     * is built from.
+     */
+    Query project(Query query) {
+        query.fields().include(names.toArray(String[]::new)).include("timestamp");
+        return query;
+    }
+
+    @Override
+    public String toString() {
+        return String.join(",", names);
+    }
+
+    private static Map<String, Function<Image, Object>> properties() {
+        Map<String, Function<Image, Object>> properties = new LinkedHashMap<>();
+        properties.put("id", Image::getId);
+        properties.put("filename", Image::getFilename);
+        properties.put("timestamp", Image::getTimestamp);
+        properties.put("label", Image::getLabel);
+        properties.put("confidence", Image::getConfidence);
+        properties.put("contentHash", Image::getContentHash);
+        properties.put("contentType", Image::getContentType);
+        properties.put("size", Image::getSize);
+        properties.put("thumbnails", Image::getThumbnails);
+        properties.put("modelVersion", Image::getModelVersion);
+        properties.put("version", Image::getVersion);
+        return properties;
+    }
+}
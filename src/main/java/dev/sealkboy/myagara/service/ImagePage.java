@@ -0,0 +1,34 @@
+package dev.sealkboy.myagara.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+import dev.sealkboy.myagara.model.Image;
+
+/**
+ * One page of images, newest first. {@code nextCursor} is {@code null} on the last page.
+ */
+public record ImagePage(List<Image> images, String nextCursor) {
+
+    /**
+     * Position just after an image in {@code (timestamp desc, id desc)} order.
+     */
+    record Cursor(long timestamp, String id) {
+
+        String encode() {
+            String raw = timestamp + ":" + id;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static Cursor decode(String cursor) {
+            try {
+                String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int separator = raw.indexOf(':');
+                return new Cursor(Long.parseLong(raw.substring(0, separator)), raw.substring(separator + 1));
+            } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                throw new BadRequestException("Invalid cursor: " + cursor, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package dev.sealkboy.myagara.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+/**
+ * Builds the Mongo queries behind image listing and search. Every query is sorted by
+ * {@code (timestamp, id)} descending and pages by keyset, so it can be answered from one
+ * of the compound indexes declared on {@link dev.sealkboy.myagara.model.Image}.
+ */
+public final class ImageQueries {
+
+    static final Sort NEWEST_FIRST = Sort.by(Sort.Direction.DESC, "timestamp", "id");
+
+    /**
+     * One example of every filter combination the search endpoint accepts, checked by
+     * {@link ImageQueryPlanVerifier}.
+     */
+    public static final Map<String, ImageQuery> SUPPORTED_SHAPES = Map.of(
+            "all", ImageQuery.ALL,
+            "label", new ImageQuery("Grape___Black_rot", null, null, null, null),
+            "label+confidence", new ImageQuery("Grape___Black_rot", null, 60.0, null, null),
+            "label+time", new ImageQuery("Grape___Black_rot", null, null, 0L, Long.MAX_VALUE),
+            "label+time+confidence", new ImageQuery("Grape___Black_rot", 10.0, 60.0, 0L, Long.MAX_VALUE),
+            "time", new ImageQuery(null, null, null, 0L, Long.MAX_VALUE),
+            "time+confidence", new ImageQuery(null, null, 60.0, 0L, Long.MAX_VALUE),
+            "confidence", new ImageQuery(null, 90.0, null, null, null));
+
+    private ImageQueries() {
+    }
+
+    /**
+     * @param filter
+     * @param after  last image of the previous page, or {@code null}
+     * @param limit
+     * @return
+     */
+    static Query page(ImageQuery filter, ImagePage.Cursor after, int limit) {
+        List<Criteria> criteria = new ArrayList<>();
+        if (filter.label() != null) {
+            criteria.add(Criteria.where("label").is(filter.label()));
+        }
+        if (filter.minConfidence() != null || filter.maxConfidence() != null) {
+            Criteria confidence = Criteria.where("confidence");
+            if (filter.minConfidence() != null) {
+                confidence.gte(filter.minConfidence());
+            }
+            if (filter.maxConfidence() != null) {
+                confidence.lt(filter.maxConfidence());
+            }
+            criteria.add(confidence);
+        }
+        if (filter.from() != null || filter.to() != null) {
+            Criteria timestamp = Criteria.where("timestamp");
+            if (filter.from() != null) {
+                timestamp.gte(filter.from());
+            }
+            if (filter.to() != null) {
+                timestamp.lt(filter.to());
+            }
+            criteria.add(timestamp);
+        }
+        if (after != null) {
+            criteria.add(new Criteria().orOperator(
+                    Criteria.where("timestamp").lt(after.timestamp()),
+                    Criteria.where("timestamp").is(after.timestamp()).and("id").lt(after.id())));
+        }
+
+        Query query = new Query().with(NEWEST_FIRST).limit(limit);
+        if (criteria.size() == 1) {
+            query.addCriteria(criteria.get(0));
+        } else if (!criteria.isEmpty()) {
+            query.addCriteria(new Criteria().andOperator(criteria));
+        }
+        return query;
+    }
+}
@@ -0,0 +1,10 @@
+package dev.sealkboy.myagara.service;
+
+/**
+ * Filters for searching images. Every field is optional. Ranges include their lower
+ * bound and exclude their upper bound; timestamps are epoch milliseconds.
+ */
+public record ImageQuery(String label, Double minConfidence, Double maxConfidence, Long from, Long to) {
+
+    public static final ImageQuery ALL = new ImageQuery(null, null, null, null, null);
+}
@@ -0,0 +1,114 @@
+package dev.sealkboy.myagara.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import dev.sealkboy.myagara.model.Image;
+
+/**
+ * Explains every supported search shape against the live collection and reports the
+ * stages of each winning plan. With {@code myagara.images.verify-query-plans=true} the
+ * check runs at startup and fails it if any shape falls back to a collection scan.
+ */
+@Component
+public class ImageQueryPlanVerifier {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageQueryPlanVerifier.class);
+
+    private static final String COLLSCAN = "COLLSCAN";
+
+    private final MongoTemplate mongoTemplate;
+    private final ImageQueryProperties properties;
+
+    public ImageQueryPlanVerifier(MongoTemplate mongoTemplate, ImageQueryProperties properties) {
+        this.mongoTemplate = mongoTemplate;
+        this.properties = properties;
+    }
+
+    public record PlanCheck(String shape, List<String> stages) {
+
+        public boolean isCollectionScan() {
+            return stages.contains(COLLSCAN);
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void verifyOnStartup() {
+        if (properties.isVerifyQueryPlans()) {
+            verify();
+        }
+    }
+
+    /**
+     * @return the winning plan of every supported shape
+     * @throws IllegalStateException if any of them scans the whole collection
+     */
+    public List<PlanCheck> verify() {
+        List<PlanCheck> checks = check();
+        List<String> scans = checks.stream().filter(PlanCheck::isCollectionScan).map(PlanCheck::shape).toList();
+        if (!scans.isEmpty()) {
+            throw new IllegalStateException("Image queries fall back to a collection scan: " + scans);
+        }
+        log.info("Image query plans verified: {}", checks);
+        return checks;
+    }
+
+    public List<PlanCheck> check() {
+        List<PlanCheck> checks = new ArrayList<>();
+        for (Map.Entry<String, ImageQuery> shape : ImageQueries.SUPPORTED_SHAPES.entrySet()) {
+            Query query = ImageQueries.page(shape.getValue(), null, properties.getPageSize() + 1);
+            checks.add(new PlanCheck(shape.getKey(), winningStages(explain(query))));
+        }
+        return checks;
+    }
+
+    private Document explain(Query query) {
+        QueryMapper mapper = new QueryMapper(mongoTemplate.getConverter());
+        MongoPersistentEntity<?> entity = mongoTemplate.getConverter().getMappingContext().getPersistentEntity(Image.class);
+        return mongoTemplate.getCollection(mongoTemplate.getCollectionName(Image.class))
+                .find(mapper.getMappedObject(query.getQueryObject(), entity))
+                .sort(mapper.getMappedSort(query.getSortObject(), entity))
+                .limit(query.getLimit())
+                .explain();
+    }
+
+    /**
+     * @param explain output of the {@code explain} command
+     * @return every stage name in the winning plan, outermost first
+     */
+    public static List<String> winningStages(Document explain) {
+        List<String> stages = new ArrayList<>();
+        Object planner = explain.get("queryPlanner");
+        if (planner instanceof Document queryPlanner) {
+            collectStages(queryPlanner.get("winningPlan"), stages);
+        }
+        return stages;
+    }
+
+    private static void collectStages(Object node, List<String> stages) {
+        if (node instanceof Document plan) {
+            if (plan.get("stage") instanceof String stage) {
+                stages.add(stage);
+            }
+            for (String child : List.of("queryPlan", "inputStage", "inputStages", "outerStage", "innerStage")) {
+                collectStages(plan.get(child), stages);
+            }
+        } else if (node instanceof List<?> plans) {
+            for (Object plan : plans) {
+                collectStages(plan, stages);
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package dev.sealkboy.myagara.service;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Paging and export settings for reading images, bound from {@code myagara.images.*}.
+ */
+@ConfigurationProperties(prefix = "myagara.images")
+public class ImageQueryProperties {
+
+    private int pageSize = 100;
+    private int maxPageSize = 1000;
+    private int exportBatchSize = 500;
+    private boolean verifyQueryPlans = false;
+    private final Cache cache = new Cache();
+    private final Events events = new Events();
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public int getMaxPageSize() {
+        return maxPageSize;
+    }
+
+    public void setMaxPageSize(int maxPageSize) {
+        this.maxPageSize = maxPageSize;
+    }
+
+    public int getExportBatchSize() {
+        return exportBatchSize;
+    }
+
+    public void setExportBatchSize(int exportBatchSize) {
+        this.exportBatchSize = exportBatchSize;
+    }
+
+    public boolean isVerifyQueryPlans() {
+        return verifyQueryPlans;
+    }
+
+    public void setVerifyQueryPlans(boolean verifyQueryPlans) {
+        this.verifyQueryPlans = verifyQueryPlans;
+    }
+
+    public Cache getCache() {
+        return cache;
+    }
+
+    public Events getEvents() {
+        return events;
+    }
+
+    /**
+     * Near cache of images by id, kept coherent across instances through a shared change log.
+     */
+    public static class Cache {
+
+        private boolean enabled = true;
+        private long maxEntries = 10_000;
+        private Duration ttl = Duration.ofMinutes(5);
+        private boolean changeFeed = true;
+        private DataSize changeLogSize = DataSize.ofMegabytes(1);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public long getMaxEntries() {
+            return maxEntries;
+        }
+
+        public void setMaxEntries(long maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        public Duration getTtl() {
+            return ttl;
+        }
+
+        public void setTtl(Duration ttl) {
+            this.ttl = ttl;
+        }
+
+        /**
+         * Whether changes are shared with other instances. Only a single instance may run
+         * without it.
+         */
+        public boolean isChangeFeed() {
+            return changeFeed;
+        }
+
+        public void setChangeFeed(boolean changeFeed) {
+            this.changeFeed = changeFeed;
+        }
+
+        public DataSize getChangeLogSize() {
+            return changeLogSize;
+        }
+
+        public void setChangeLogSize(DataSize changeLogSize) {
+            this.changeLogSize = changeLogSize;
+        }
+    }
+
+    /**
+     * Server-sent events of image writes, pushed to dashboards instead of polling listings.
+     */
+    public static class Events {
+
+        private String source = "auto";
+        private int bufferSize = 256;
+        private int history = 1024;
+        private Duration heartbeat = Duration.ofSeconds(15);
+        private Duration timeout = Duration.ofMinutes(30);
+
+        /**
+         * @return where events come from: {@code change-stream} for MongoDB change streams,
+         *         {@code change-log} for the image cache's change log, or {@code auto} to use
+         *         change streams where the server supports them
+         */
+        public String getSource() {
+            return source;
+        }
+
+        public void setSource(String source) {
+            this.source = source;
+        }
+
+        /**
+         * @return events queued for a subscriber before it is disconnected as too slow
+         */
+        public int getBufferSize() {
+            return bufferSize;
+        }
+
+        public void setBufferSize(int bufferSize) {
+            this.bufferSize = bufferSize;
+        }
+
+        /**
+         * @return recent events kept for subscribers that reconnect with the id of the last
+         *         one they saw
+         */
+        public int getHistory() {
+            return history;
+        }
+
+        public void setHistory(int history) {
+            this.history = history;
+        }
+
+        public Duration getHeartbeat() {
+            return heartbeat;
+        }
+
+        public void setHeartbeat(Duration heartbeat) {
+            this.heartbeat = heartbeat;
+        }
+
+        /**
+         * @return how long one connection is kept open; clients reconnect and resume after it
+         */
+        public Duration getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(Duration timeout) {
+            this.timeout = timeout;
+        }
+    }
+}
@@ -1,52 +1,201 @@
 package dev.sealkboy.myagara.service;
 
-import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.stream.Stream;
 
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.PropertyAccessorFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import dev.sealkboy.myagara.ml.TensorFlowClient;
 import dev.sealkboy.myagara.model.Image;
 import dev.sealkboy.myagara.repository.ImageRepository;
+import dev.sealkboy.myagara.storage.ImageArchiver;
+import dev.sealkboy.myagara.storage.ImageStore;
+import dev.sealkboy.myagara.storage.SpooledImage;
+import dev.sealkboy.myagara.storage.StoredImage;
+import dev.sealkboy.myagara.storage.UploadSpool;
 
 @Service
 public class ImageService {
 
+    private static final Logger log = LoggerFactory.getLogger(ImageService.class);
+
     @Autowired
     private TensorFlowClient tensorFlowClient;
 
     @Autowired
     private ImageRepository imageRepository;
 
+    @Autowired
+    private UploadSpool uploadSpool;
+
+    @Autowired
+    private ImageArchiver imageArchiver;
+
+    @Autowired
+    private ImageStore imageStore;
+
+    @Autowired
+    private ThumbnailService thumbnailService;
+
+    @Autowired
+    private ImageCache imageCache;
+
+    @Autowired
+    private ImageWriteBehind writeBehind;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private ImageQueryProperties queryProperties;
+
+    @Autowired
+    private AnalyticsService analyticsService;
+
+    @Autowired
+    private UploadObservations observations;
+
     /**
+     * Streams the upload into the spool, classifies it straight from memory and hands the
+     * original to the archiver in the background.
+     *
      * @param file 
      * @return 
      */
     public Image uploadImage(MultipartFile file) {
+        return observations.upload("sync", () -> {
+            try (SpooledImage content = observations.stage("spool", () -> uploadSpool.spool(file))) {
+                return classifyAndSave(content);
+            } catch (IOException e) {
+                throw new RuntimeException("Error uploading and processing the image", e);
+            }
+        });
+    }
+
+    /**
+     * Classifies and stores an upload whose bytes have already been spooled, then queues its
+     * thumbnails. The caller keeps ownership of {@code content}. With write-behind enabled the
+     * image is buffered instead, and the rest happens once its batch is flushed.
+     *
+     * @param content
+     * @return
+     */
+    public Image classifyAndSave(SpooledImage content) {
+        Image unsaved = classifyUpload(content);
+        if (writeBehind.isEnabled()) {
+            return observations.stage("save", () -> writeBehind.save(unsaved, content));
+        }
+        Image image = observations.stage("save", () -> imageRepository.save(unsaved));
+        imageCache.inserted(List.of(image.getId()));
+        observations.stage("analytics", () -> analyticsService.record(image));
+        observations.stage("thumbnails", () -> thumbnailService.schedule(image, content));
+        return image;
+    }
+
+    /**
+     * Classifies a spooled upload and archives the original, leaving the returned image
+     * unsaved so callers can persist many of them at once.
+     *
+     * @param content
+     * @return
+     */
+    public Image classifyUpload(SpooledImage content) {
+        Image image;
         try {
-            String filePath = saveImageLocally(file);
+            image = observations.stage("classify", () -> tensorFlowClient.classifyImage(content));
+        } catch (RuntimeException e) {
+            observations.classificationFailed();
+            throw e;
+        }
+        observations.classified(image);
 
-            Image image = tensorFlowClient.classifyImage(new File(filePath));
+        image.setId(UUID.randomUUID().toString());
+        image.setFilename(content.getFilename());
+        image.setTimestamp(System.currentTimeMillis());
+        image.setContentHash(content.sha256());
+        image.setContentType(content.getContentType());
+        image.setSize(content.contentLength());
 
-            image.setId(UUID.randomUUID().toString());
-            image.setFilename(file.getOriginalFilename());
-            image.setTimestamp(System.currentTimeMillis());
+        observations.stage("archive", () -> imageArchiver.archive(content));
 
-            return imageRepository.save(image);
-        } catch (IOException e) {
-            throw new RuntimeException("Error uploading and processing the image", e);
+        return image;
+    }
+
+    /**
+     * Keyset pagination over {@code (timestamp, id)}, newest first. Each page is one
+     * index range scan, however deep into the collection it starts.
+     *
+     * @param cursor {@code nextCursor} of the previous page, or {@code null} for the first page
+     * @param limit  page size, or {@code null} for the configured default
+     * @return
+     */
+    public ImagePage getImages(String cursor, Integer limit) {
+        return searchImages(ImageQuery.ALL, cursor, limit);
+    }
+
+    /**
+     * Same ordering and paging as {@link #getImages(String, Integer)}, restricted by label,
+     * confidence and time range.
+     *
+     * @param filter
+     * @param cursor
+     * @param limit
+     * @return
+     */
+    public ImagePage searchImages(ImageQuery filter, String cursor, Integer limit) {
+        return searchImages(filter, cursor, limit, null);
+    }
+
+    /**
+     * Same as {@link #searchImages(ImageQuery, String, Integer)}, reading only the given
+     * properties of each image from Mongo.
+     *
+     * @param filter
+     * @param cursor
+     * @param limit
+     * @param fields the properties to read, or {@code null} for all of them
+     * @return images with only {@code fields} set
+     */
+    public ImagePage searchImages(ImageQuery filter, String cursor, Integer limit, ImageFields fields) {
+        int pageSize = limit == null
+                ? queryProperties.getPageSize()
+                : Math.max(1, Math.min(limit, queryProperties.getMaxPageSize()));
+        ImagePage.Cursor after = cursor == null || cursor.isBlank() ? null : ImagePage.Cursor.decode(cursor);
+
+        Query query = ImageQueries.page(filter, after, pageSize + 1);
+        List<Image> images = mongoTemplate.find(fields == null ? query : fields.project(query), Image.class);
+        if (images.size() <= pageSize) {
+            return new ImagePage(images, null);
         }
+        List<Image> page = new ArrayList<>(images.subList(0, pageSize));
+        Image last = page.get(pageSize - 1);
+        return new ImagePage(page, new ImagePage.Cursor(last.getTimestamp(), last.getId()).encode());
     }
 
     /**
+     * Every image, newest first, read lazily from a Mongo cursor. The caller must close
+     * the stream.
+     *
      * @return
      */
-    public List<Image> getAllImages() {
-        return imageRepository.findAll();
+    public Stream<Image> streamImages() {
+        Query query = new Query().with(ImageQueries.NEWEST_FIRST).cursorBatchSize(queryProperties.getExportBatchSize());
+        return mongoTemplate.stream(query, Image.class);
     }
 
     /**
@@ -54,64 +203,189 @@ public class ImageService {
      * @return 
      */
     public Image getImageById(String id) {
-        return imageRepository.findById(id)
-                .orElseThrow(() -> new RuntimeException("Image not found with ID: " + id));
+        Image buffered = writeBehind.find(id);
+        if (buffered != null) {
+            return buffered;
+        }
+        Image image = imageCache.get(id, key -> imageRepository.findById(key).orElse(null));
+        if (image == null) {
+            throw new RuntimeException("Image not found with ID: " + id);
+        }
+        return image;
     }
 
     /**
+     * @return a tag that changes whenever any image is added, changed or deleted, or
+     *         {@code null} if changes cannot be tracked right now
+     */
+    public String getImagesTag() {
+        return imageCache.tag();
+    }
+
+    /**
+     * @param image
+     * @return the original bytes of {@code image}, or {@code null} if they were never
+     *         archived or are not written yet
+     */
+    public StoredImage getImageContent(Image image) {
+        if (image.getContentHash() == null) {
+            return null;
+        }
+        try {
+            return imageStore.get(image.getContentHash());
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading the content of image " + image.getId(), e);
+        }
+    }
+
+    /**
+     * @param image
+     * @param size  longest edge in pixels, one of {@link #getThumbnailSizes()}
+     * @return the thumbnail, or {@code null} if the original was never archived
+     */
+    public StoredImage getImageThumbnail(Image image, int size) {
+        return thumbnailService.getThumbnail(image, size);
+    }
+
+    /**
+     * @return the thumbnail sizes on offer, smallest first
+     */
+    public List<Integer> getThumbnailSizes() {
+        return thumbnailService.getSizes();
+    }
+
+    /**
+     * Applies the non-empty fields of {@code updatedImage} with one server-side {@code $set}
+     * and bumps the version. When {@code updatedImage} carries a version, the update only
+     * applies if it is still current.
+     *
      * @param id           
      * @param updatedImage 
      * @return 
+     * @throws ImageConflictException if the given version is stale
      */
     public Image updateImageMetadata(String id, Image updatedImage) {
-        Image existingImage = imageRepository.findById(id)
-                .orElseThrow(() -> new RuntimeException("Image not found with ID: " + id));
-
+        Update update = new Update();
         if (updatedImage.getFilename() != null) {
-            existingImage.setFilename(updatedImage.getFilename());
+            update.set("filename", updatedImage.getFilename());
         }
         if (updatedImage.getTimestamp() != 0) {
-            existingImage.setTimestamp(updatedImage.getTimestamp());
+            update.set("timestamp", updatedImage.getTimestamp());
         }
         if (updatedImage.getLabel() != null) {
-            existingImage.setLabel(updatedImage.getLabel());
+            update.set("label", updatedImage.getLabel());
         }
         if (updatedImage.getConfidence() != 0) {
-            existingImage.setConfidence(updatedImage.getConfidence());
+            update.set("confidence", updatedImage.getConfidence());
+        }
+        if (update.getUpdateObject().isEmpty()) {
+            return updatedImage.getVersion() == null ? getImageById(id) : currentVersion(id, updatedImage.getVersion());
         }
+        update.inc("version", 1);
 
-        return imageRepository.save(existingImage);
+        writeBehind.awaitFlushed(id);
+        Criteria match = Criteria.where("id").is(id);
+        if (updatedImage.getVersion() != null) {
+            match.and("version").is(updatedImage.getVersion());
+        }
+        Image before = mongoTemplate.findAndModify(new Query(match), update, Image.class);
+        if (before == null) {
+            if (updatedImage.getVersion() != null && mongoTemplate.exists(new Query(Criteria.where("id").is(id)), Image.class)) {
+                throw new ImageConflictException(id, updatedImage.getVersion());
+            }
+            throw new RuntimeException("Image not found with ID: " + id);
+        }
+
+        imageCache.invalidate(id);
+        Image after = applyUpdate(before, update);
+        analyticsService.replace(before, after);
+        return after;
+    }
+
+    /**
+     * Reads the image from MongoDB rather than the cache, so that an update changing nothing
+     * still fails on a stale version like any other.
+     */
+    private Image currentVersion(String id, long expectedVersion) {
+        writeBehind.awaitFlushed(id);
+        Image current = mongoTemplate.findById(id, Image.class);
+        if (current == null) {
+            throw new RuntimeException("Image not found with ID: " + id);
+        }
+        if (current.getVersion() == null || current.getVersion() != expectedVersion) {
+            throw new ImageConflictException(id, expectedVersion);
+        }
+        return current;
     }
 
     /**
     @param id 
      */
     public void deleteImageById(String id) {
-        if (!imageRepository.existsById(id)) {
+        writeBehind.awaitFlushed(id);
+        Image removed = mongoTemplate.findAndRemove(new Query(Criteria.where("id").is(id)), Image.class);
+        if (removed == null) {
             throw new RuntimeException("Image not found with ID: " + id);
         }
-        imageRepository.deleteById(id);
+        imageCache.invalidate(id);
+        analyticsService.remove(removed);
+        deleteContentIfUnused(removed.getContentHash());
     }
 
     public void deleteAllImages() {
+        // buffered images would otherwise be inserted after the delete, or rendered from deleted content
+        writeBehind.flushAll();
         imageRepository.deleteAll();
+        imageCache.invalidateAll();
+        analyticsService.clear();
+        try {
+            imageStore.deleteAll();
+        } catch (IOException e) {
+            log.warn("Failed to delete stored image content", e);
+        }
     }
 
     /**
-     * @param file 
-     * @return 
-     * @throws IOException 
+     * Identical uploads share one blob, so it goes only with the last image pointing at it.
+     * The image is already gone by then, so a failure here is logged rather than reported.
+     * The write-behind buffer is checked first: an image leaves it only once it is in Mongo.
      */
-    private String saveImageLocally(MultipartFile file) throws IOException {
-        String directoryPath = "C:/tmp"; 
-        File directory = new File(directoryPath);
-
-        if (!directory.exists() && !directory.mkdirs()) {
-            throw new IOException("Failed to create directory: " + directoryPath);
+    private void deleteContentIfUnused(String hash) {
+        if (hash == null || writeBehind.holdsContent(hash)
+                || mongoTemplate.exists(new Query(Criteria.where("contentHash").is(hash)), Image.class)) {
+            return;
+        }
+        try {
+            imageStore.delete(hash);
+        } catch (IOException e) {
+            log.warn("Failed to delete stored image content {}", hash, e);
         }
+    }
 
-        String filePath = directoryPath + "/" + file.getOriginalFilename();
-        file.transferTo(new File(filePath));
-        return filePath;
+    /**
+     * Applies {@code update} to a copy of {@code before}, so the stored document and the one
+     * returned follow the same rules without reading it back. Only {@code $set} and
+     * {@code $inc} are supported.
+     *
+     * @return the document as {@code findAndModify} left it
+     */
+    private static Image applyUpdate(Image before, Update update) {
+        Image after = new Image();
+        BeanUtils.copyProperties(before, after);
+        BeanWrapper properties = PropertyAccessorFactory.forBeanPropertyAccess(after);
+        Document changes = update.getUpdateObject();
+        Document set = changes.get("$set", Document.class);
+        if (set != null) {
+            set.forEach(properties::setPropertyValue);
+        }
+        Document inc = changes.get("$inc", Document.class);
+        if (inc != null) {
+            inc.forEach((property, by) -> {
+                Number current = (Number) properties.getPropertyValue(property);
+                long value = (current == null ? 0 : current.longValue()) + ((Number) by).longValue();
+                properties.setPropertyValue(property, value);
+            });
+        }
+        return after;
     }
-}
\ No newline at end of file
+}
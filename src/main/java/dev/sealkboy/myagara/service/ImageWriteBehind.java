@@ -0,0 +1,398 @@
+package dev.sealkboy.myagara.service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.bulk.BulkWriteError;
+
+import dev.sealkboy.myagara.model.Image;
+import dev.sealkboy.myagara.storage.SpooledImage;
+import dev.sealkboy.myagara.storage.UploadProperties;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Optional write-behind for newly classified images, enabled with
+ * {@code myagara.upload.write-behind.enabled}. Saves go into a bounded buffer that one
+ * thread empties as unordered bulk inserts once {@code batch-size} images are waiting or the
+ * oldest has waited {@code max-delay}, so an upload no longer waits for a Mongo round trip
+ * of its own.
+ * <p>
+ * With {@code durability=flush} a save returns once its batch is acknowledged. With
+ * {@code durability=buffer} it returns as soon as the image is buffered, and an image whose
+ * batch still fails after {@code max-attempts} is lost, and logged. Failed inserts are
+ * retried with exponential backoff; a duplicate key on retry means an earlier attempt got
+ * through. Buffered images can be read back with {@link #find(String)}, and whatever is
+ * buffered is flushed on shutdown.
+ */
+@Component
+public class ImageWriteBehind implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageWriteBehind.class);
+
+    private static final int DUPLICATE_KEY = 11000;
+    private static final Duration RETRY_AFTER = Duration.ofSeconds(1);
+    private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    public enum Durability {
+        BUFFER, FLUSH
+    }
+
+    private final boolean enabled;
+    private final Durability durability;
+    private final int batchSize;
+    private final Duration maxDelay;
+    private final int maxAttempts;
+    private final Duration retryBackoff;
+    private final Duration shutdownTimeout;
+    private final MongoTemplate mongoTemplate;
+    private final AnalyticsService analyticsService;
+    private final ImageCache imageCache;
+    private final ThumbnailService thumbnailService;
+    private final BlockingQueue<Pending> queue;
+    private final Map<String, Pending> buffered = new ConcurrentHashMap<>();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder flushed = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final Thread flusher;
+    private volatile boolean accepting = true;
+    private volatile long flushRequests;
+
+    public ImageWriteBehind(UploadProperties properties, MongoTemplate mongoTemplate,
+            AnalyticsService analyticsService, ImageCache imageCache, ThumbnailService thumbnailService) {
+        UploadProperties.WriteBehind writeBehind = properties.getWriteBehind();
+        this.enabled = writeBehind.isEnabled();
+        this.durability = Durability.valueOf(writeBehind.getDurability().trim().toUpperCase(Locale.ROOT));
+        this.batchSize = Math.max(1, writeBehind.getBatchSize());
+        this.maxDelay = writeBehind.getMaxDelay();
+        this.maxAttempts = Math.max(1, writeBehind.getMaxAttempts());
+        this.retryBackoff = writeBehind.getRetryBackoff();
+        this.shutdownTimeout = writeBehind.getShutdownTimeout();
+        this.mongoTemplate = mongoTemplate;
+        this.analyticsService = analyticsService;
+        this.imageCache = imageCache;
+        this.thumbnailService = thumbnailService;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, writeBehind.getCapacity()));
+        this.flusher = enabled
+                ? Thread.ofPlatform().name("image-write-behind").daemon().start(this::flushContinuously)
+                : null;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Buffers a classified image for the next bulk insert, after which it is indexed for
+     * analytics and its thumbnails are queued, as a direct save would.
+     *
+     * @param image   not saved yet
+     * @param content its bytes, kept until the image is flushed so thumbnails can be
+     *                rendered from them; the caller keeps its own reference
+     * @return {@code image}, once buffered or once flushed depending on the durability
+     * @throws UploadQueueFullException if the buffer is full
+     * @throws RuntimeException if {@code durability=flush} and the image could not be saved
+     */
+    public Image save(Image image, SpooledImage content) {
+        // bulk inserts bypass the version initialisation a repository save would do
+        image.setVersion(0L);
+        Pending pending = new Pending(image, content == null ? null : content.retain(), new CompletableFuture<>());
+        buffered.put(image.getId(), pending);
+        if (!accepting) {
+            flush(List.of(pending));
+        } else if (!queue.offer(pending)) {
+            buffered.remove(image.getId());
+            pending.release();
+            throw new UploadQueueFullException(RETRY_AFTER);
+        } else if (!accepting && queue.remove(pending)) {
+            // shut down meanwhile, and the queue may have been drained for the last time
+            flush(List.of(pending));
+        }
+        if (durability == Durability.BUFFER) {
+            return image;
+        }
+        try {
+            return pending.saved().join();
+        } catch (CompletionException e) {
+            throw new RuntimeException("Error saving image " + image.getId(), e.getCause());
+        }
+    }
+
+    /**
+     * @param id
+     * @return the image if it is buffered and not flushed yet, otherwise {@code null}
+     */
+    public Image find(String id) {
+        Pending pending = buffered.get(id);
+        return pending == null ? null : pending.image();
+    }
+
+    /**
+     * Waits for a buffered image to reach Mongo, so it can be updated or deleted there.
+     * Returns at once if it is not buffered, and also if its flush fails.
+     *
+     * @param id
+     */
+    public void awaitFlushed(String id) {
+        Pending pending = buffered.get(id);
+        if (pending != null) {
+            await(pending);
+        }
+    }
+
+    /**
+     * Flushes whatever is waiting on the calling thread and waits for batches already being
+     * inserted, so that a bulk delete in Mongo leaves nothing of what was buffered behind.
+     */
+    public void flushAll() {
+        List<Pending> buffer = List.copyOf(buffered.values());
+        // a batch the flusher is still filling goes out now instead of after max-delay
+        synchronized (this) {
+            flushRequests++;
+        }
+        List<Pending> waiting = new ArrayList<>();
+        queue.drainTo(waiting);
+        if (!waiting.isEmpty()) {
+            flush(waiting);
+        }
+        for (Pending pending : buffer) {
+            await(pending);
+        }
+    }
+
+    /**
+     * @param hash
+     * @return whether a buffered image not flushed yet has this content
+     */
+    public boolean holdsContent(String hash) {
+        for (Pending pending : buffered.values()) {
+            if (hash.equals(pending.image().getContentHash())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void await(Pending pending) {
+        try {
+            pending.saved().get(shutdownTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            // the caller finds out from Mongo
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("myagara.writebehind.buffered", buffered, Map::size)
+                .description("Classified images waiting to be inserted")
+                .register(registry);
+        FunctionCounter.builder("myagara.writebehind.batches", batches, LongAdder::sum)
+                .description("Bulk inserts of buffered images")
+                .register(registry);
+        FunctionCounter.builder("myagara.writebehind.images", flushed, LongAdder::sum)
+                .description("Buffered images by outcome")
+                .tag("result", "flushed")
+                .register(registry);
+        FunctionCounter.builder("myagara.writebehind.images", retried, LongAdder::sum)
+                .description("Buffered images by outcome")
+                .tag("result", "retried")
+                .register(registry);
+        FunctionCounter.builder("myagara.writebehind.images", failed, LongAdder::sum)
+                .description("Buffered images by outcome")
+                .tag("result", "failed")
+                .register(registry);
+    }
+
+    /**
+     * Stops buffering and flushes everything still buffered, saving later arrivals directly.
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (flusher == null) {
+            return;
+        }
+        accepting = false;
+        try {
+            flusher.join(shutdownTimeout.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<Pending> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        if (!rest.isEmpty()) {
+            flush(rest);
+        }
+    }
+
+    private void flushContinuously() {
+        List<Pending> batch = new ArrayList<>(batchSize);
+        while (accepting || !queue.isEmpty()) {
+            try {
+                long requests = flushRequests;
+                Pending first = queue.poll(POLL_NANOS, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                // wait for a full batch until the first image has waited max-delay, or until shutdown or flushAll
+                long deadline = System.nanoTime() + maxDelay.toNanos();
+                while (true) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long wait = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || wait <= 0 || !accepting || flushRequests != requests) {
+                        break;
+                    }
+                    Pending next = queue.poll(Math.min(wait, POLL_NANOS), TimeUnit.NANOSECONDS);
+                    if (next != null) {
+                        batch.add(next);
+                    }
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                log.error("Unexpected failure flushing buffered images", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Inserts {@code batch}, retrying whatever failed for a reason other than a duplicate key,
+     * then completes every image one way or the other.
+     */
+    private void flush(List<Pending> batch) {
+        List<Pending> remaining = batch;
+        for (int attempt = 1; !remaining.isEmpty(); attempt++) {
+            List<Pending> retry = insert(remaining);
+            if (retry.isEmpty()) {
+                return;
+            }
+            if (attempt >= maxAttempts) {
+                fail(retry);
+                return;
+            }
+            retried.add(retry.size());
+            try {
+                Thread.sleep(retryBackoff.multipliedBy(1L << Math.min(attempt - 1, 10)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(retry);
+                return;
+            }
+            remaining = retry;
+        }
+    }
+
+    /**
+     * @return the images to try again
+     */
+    private List<Pending> insert(List<Pending> batch) {
+        Set<Integer> retry = new HashSet<>();
+        try {
+            BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Image.class);
+            bulk.insert(batch.stream().map(Pending::image).toList());
+            bulk.execute();
+        } catch (BulkOperationException e) {
+            for (BulkWriteError error : e.getErrors()) {
+                if (error.getCode() != DUPLICATE_KEY) {
+                    retry.add(error.getIndex());
+                }
+            }
+            log.warn("Bulk insert of {} buffered images failed for {}", batch.size(), retry.size(), e);
+        } catch (DataAccessException e) {
+            log.warn("Bulk insert of {} buffered images failed", batch.size(), e);
+            return batch;
+        }
+        batches.increment();
+        List<Image> saved = new ArrayList<>(batch.size());
+        List<Pending> again = new ArrayList<>(retry.size());
+        for (int i = 0; i < batch.size(); i++) {
+            if (retry.contains(i)) {
+                again.add(batch.get(i));
+            } else {
+                saved.add(batch.get(i).image());
+            }
+        }
+        if (!saved.isEmpty()) {
+            afterInsert(batch, retry, saved);
+        }
+        return again;
+    }
+
+    private void afterInsert(List<Pending> batch, Set<Integer> retry, List<Image> saved) {
+        imageCache.inserted(saved.stream().map(Image::getId).toList());
+        try {
+            analyticsService.recordAll(saved);
+        } catch (RuntimeException e) {
+            log.warn("Failed to record {} flushed images in the label rollups", saved.size(), e);
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            if (retry.contains(i)) {
+                continue;
+            }
+            Pending pending = batch.get(i);
+            thumbnailService.schedule(pending.image(), pending.content());
+            pending.release();
+            buffered.remove(pending.image().getId(), pending);
+            flushed.increment();
+            pending.saved().complete(pending.image());
+        }
+    }
+
+    private void fail(List<Pending> batch) {
+        for (Pending pending : batch) {
+            if (durability == Durability.BUFFER) {
+                log.error("Gave up saving buffered image {} after {} attempts; it is lost", pending.image().getId(),
+                        maxAttempts);
+            }
+            pending.release();
+            buffered.remove(pending.image().getId(), pending);
+            failed.increment();
+            pending.saved().completeExceptionally(new RuntimeException("Gave up saving image "
+                    + pending.image().getId() + " after " + maxAttempts + " attempts"));
+        }
+    }
+
+    private record Pending(Image image, SpooledImage content, CompletableFuture<Image> saved) {
+
+        void release() {
+            if (content != null) {
+                content.close();
+            }
+        }
+    }
+}
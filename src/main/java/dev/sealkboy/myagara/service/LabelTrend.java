@@ -0,0 +1,9 @@
+package dev.sealkboy.myagara.service;
+
+/**
+ * Label statistics for one time bucket. {@code lowConfidenceRate} is the share of images
+ * classified below {@code myagara.analytics.low-confidence-threshold}.
+ */
+public record LabelTrend(long bucketStart, String label, long count, double averageConfidence,
+        double lowConfidenceRate) {
+}
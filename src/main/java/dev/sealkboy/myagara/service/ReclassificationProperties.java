@@ -0,0 +1,65 @@
+package dev.sealkboy.myagara.service;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings for re-classifying stored images after a model upgrade, bound from
+ * {@code myagara.reclassification.*}.
+ */
+@ConfigurationProperties(prefix = "myagara.reclassification")
+public class ReclassificationProperties {
+
+    private int batchSize = 100;
+    private double share = 0.25;
+    private int capacity = 8;
+    private Duration lease = Duration.ofMinutes(1);
+
+    /**
+     * @return images read, classified and written back per checkpoint
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return fraction of the inference concurrency limit the job may use; at least one
+     *         classification is always allowed
+     */
+    public double getShare() {
+        return share;
+    }
+
+    public void setShare(double share) {
+        this.share = share;
+    }
+
+    /**
+     * @return classifications taken to fit in flight at once when the adaptive concurrency
+     *         limit is disabled
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return how long a job is left to the instance working on it after its last
+     *         checkpoint before another instance takes it over
+     */
+    public Duration getLease() {
+        return lease;
+    }
+
+    public void setLease(Duration lease) {
+        this.lease = lease;
+    }
+}
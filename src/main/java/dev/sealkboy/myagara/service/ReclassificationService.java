@@ -0,0 +1,471 @@
+package dev.sealkboy.myagara.service;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import dev.sealkboy.myagara.ml.AdaptiveLimiter;
+import dev.sealkboy.myagara.ml.Classification;
+import dev.sealkboy.myagara.ml.InferenceRejectedException;
+import dev.sealkboy.myagara.ml.TensorFlowClient;
+import dev.sealkboy.myagara.model.Image;
+import dev.sealkboy.myagara.model.ReclassificationJob;
+import dev.sealkboy.myagara.storage.ImageStore;
+import dev.sealkboy.myagara.storage.SpooledImage;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Re-runs inference over stored images after a model upgrade. The job walks the images not
+ * yet labelled by the target model in id order, a batch at a time: it classifies each
+ * distinct original once, writes the results back with one bulk update and checkpoints the
+ * last id, so a restarted or taken-over job continues after the last full batch.
+ * <p>
+ * Classifications go through the same concurrency limit and circuit breaker as uploads. The
+ * job keeps at most {@code share} of the current limit in flight and waits out any refusal,
+ * so uploads keep the rest of the capacity. An image edited while it was being classified
+ * is left alone, as is one whose original is not stored.
+ */
+@Service
+public class ReclassificationService implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(ReclassificationService.class);
+
+    private static final Duration SHUTDOWN_WAIT = Duration.ofSeconds(10);
+
+    private final ReclassificationProperties properties;
+    private final MongoTemplate mongoTemplate;
+    private final TensorFlowClient tensorFlowClient;
+    private final ImageStore imageStore;
+    private final ImageCache imageCache;
+    private final AnalyticsService analyticsService;
+    private final String instanceId = UUID.randomUUID().toString();
+    private final ScheduledExecutorService runner;
+    private final ExecutorService classifiers;
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private volatile boolean running;
+    private volatile boolean stopping;
+
+    public ReclassificationService(ReclassificationProperties properties, MongoTemplate mongoTemplate,
+            TensorFlowClient tensorFlowClient, ImageStore imageStore, ImageCache imageCache,
+            AnalyticsService analyticsService) {
+        this.properties = properties;
+        this.mongoTemplate = mongoTemplate;
+        this.tensorFlowClient = tensorFlowClient;
+        this.imageStore = imageStore;
+        this.imageCache = imageCache;
+        this.analyticsService = analyticsService;
+        this.runner = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("reclassification").daemon().factory());
+        this.classifiers = Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name("reclassification-", 0).factory());
+    }
+
+    /**
+     * Starts re-classifying every image not labelled by {@code modelVersion}, replacing any
+     * job for another version. Starting the version of the running job again returns it.
+     *
+     * @param modelVersion the target version, or {@code null} for the model served now
+     * @return the job
+     * @throws BadRequestException if no version is given and the classifier reports none
+     */
+    public ReclassificationJob start(String modelVersion) {
+        String target = modelVersion != null && !modelVersion.isBlank() ? modelVersion.trim()
+                : tensorFlowClient.getModelVersion();
+        if (target == null) {
+            throw new BadRequestException("The classifier does not report a model version; pass modelVersion");
+        }
+        ReclassificationJob current = getJob();
+        if (current != null && current.getState() == ReclassificationJob.State.RUNNING
+                && target.equals(current.getModelVersion())) {
+            return current;
+        }
+        ReclassificationJob job = new ReclassificationJob();
+        job.setId(ReclassificationJob.CURRENT);
+        job.setModelVersion(target);
+        job.setState(ReclassificationJob.State.RUNNING);
+        job.setTotal(mongoTemplate.estimatedCount(Image.class));
+        job.setStartedAt(System.currentTimeMillis());
+        mongoTemplate.save(job);
+        log.info("Re-classifying up to {} images with model {}", job.getTotal(), target);
+        runner.execute(this::resume);
+        return job;
+    }
+
+    /**
+     * @return the running or last job, or {@code null} if none was ever started
+     */
+    public ReclassificationJob getJob() {
+        return mongoTemplate.findById(ReclassificationJob.CURRENT, ReclassificationJob.class);
+    }
+
+    /**
+     * Stops the running job after its current batch. Images written so far keep their new
+     * labels.
+     *
+     * @return the job, or {@code null} if none was ever started
+     */
+    public ReclassificationJob cancel() {
+        mongoTemplate.updateFirst(
+                query(where("id").is(ReclassificationJob.CURRENT).and("state").is(ReclassificationJob.State.RUNNING)),
+                new Update().set("state", ReclassificationJob.State.CANCELLED)
+                        .set("finishedAt", System.currentTimeMillis())
+                        .set("claimedUntil", 0L)
+                        .unset("claimedBy"),
+                ReclassificationJob.class);
+        return getJob();
+    }
+
+    /**
+     * Looks for a job to resume every half lease from now on, starting at once.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void scheduleResume() {
+        long period = Math.max(1_000, properties.getLease().toMillis() / 2);
+        runner.scheduleWithFixedDelay(this::resume, 0, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Claims the running job unless another instance holds its lease, and works on it until
+     * it completes, is cancelled or replaced, or this instance shuts down. A job abandoned by
+     * an instance that died is resumed this way once its lease runs out.
+     *
+     * @return whether a job was claimed
+     */
+    public boolean resume() {
+        if (stopping) {
+            return false;
+        }
+        ReclassificationJob job;
+        try {
+            job = claim();
+        } catch (RuntimeException e) {
+            log.warn("Could not look for a re-classification job to resume", e);
+            return false;
+        }
+        if (job == null) {
+            return false;
+        }
+        running = true;
+        try {
+            run(job);
+        } catch (RuntimeException e) {
+            log.warn("Re-classification with model {} failed; resuming from the last checkpoint",
+                    job.getModelVersion(), e);
+        } finally {
+            running = false;
+            release();
+        }
+        return true;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("myagara.reclassification.running", this, service -> service.running ? 1 : 0)
+                .description("1 while this instance is working on a re-classification job")
+                .register(registry);
+        FunctionCounter.builder("myagara.reclassification.images", processed, LongAdder::sum)
+                .description("Images visited by re-classification jobs, by outcome")
+                .tag("result", "processed")
+                .register(registry);
+        FunctionCounter.builder("myagara.reclassification.images", skipped, LongAdder::sum)
+                .description("Images visited by re-classification jobs, by outcome")
+                .tag("result", "skipped")
+                .register(registry);
+        FunctionCounter.builder("myagara.reclassification.images", failed, LongAdder::sum)
+                .description("Images visited by re-classification jobs, by outcome")
+                .tag("result", "failed")
+                .register(registry);
+        FunctionCounter.builder("myagara.reclassification.throttled", throttled, LongAdder::sum)
+                .description("Re-classifications refused by the concurrency limit or circuit breaker and retried")
+                .register(registry);
+    }
+
+    /**
+     * Lets the current batch finish, then hands the job back so another instance, or this
+     * one after a restart, resumes it at once.
+     */
+    @PreDestroy
+    public void shutdown() {
+        stopping = true;
+        runner.shutdown();
+        try {
+            if (!runner.awaitTermination(SHUTDOWN_WAIT.toMillis(), TimeUnit.MILLISECONDS)) {
+                runner.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        classifiers.shutdownNow();
+    }
+
+    private ReclassificationJob claim() {
+        long now = System.currentTimeMillis();
+        Query unclaimed = query(where("id").is(ReclassificationJob.CURRENT)
+                .and("state").is(ReclassificationJob.State.RUNNING)
+                .and("claimedUntil").lt(now));
+        return mongoTemplate.findAndModify(unclaimed,
+                new Update().set("claimedBy", instanceId).set("claimedUntil", now + properties.getLease().toMillis()),
+                FindAndModifyOptions.options().returnNew(true), ReclassificationJob.class);
+    }
+
+    private void release() {
+        try {
+            mongoTemplate.updateFirst(owned(), new Update().unset("claimedBy").set("claimedUntil", 0L),
+                    ReclassificationJob.class);
+        } catch (RuntimeException e) {
+            log.debug("Could not release the re-classification job; it is resumed once the lease runs out", e);
+        }
+    }
+
+    private Query owned() {
+        return query(where("id").is(ReclassificationJob.CURRENT)
+                .and("state").is(ReclassificationJob.State.RUNNING)
+                .and("claimedBy").is(instanceId));
+    }
+
+    private void run(ReclassificationJob job) {
+        String target = job.getModelVersion();
+        String lastId = job.getLastId();
+        while (!stopping) {
+            List<Image> batch = nextBatch(target, lastId);
+            if (batch.isEmpty()) {
+                mongoTemplate.updateFirst(owned(), new Update()
+                        .set("state", ReclassificationJob.State.COMPLETED)
+                        .set("finishedAt", System.currentTimeMillis())
+                        .set("claimedUntil", 0L)
+                        .unset("claimedBy"), ReclassificationJob.class);
+                log.info("Re-classification with model {} completed", target);
+                return;
+            }
+            Progress progress = reclassify(batch, target);
+            lastId = batch.get(batch.size() - 1).getId();
+            if (!checkpoint(lastId, progress)) {
+                log.info("Re-classification with model {} was cancelled, replaced or taken over", target);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Ids are random, so the order says nothing about age; it is just one every instance can
+     * resume, served by the {@code _id} index.
+     */
+    private List<Image> nextBatch(String target, String lastId) {
+        Criteria criteria = where("modelVersion").ne(target);
+        if (lastId != null) {
+            criteria.and("id").gt(lastId);
+        }
+        Query query = new Query(criteria).with(Sort.by("id")).limit(Math.max(1, properties.getBatchSize()));
+        query.fields().include("contentHash", "label", "confidence", "timestamp", "modelVersion", "version");
+        return mongoTemplate.find(query, Image.class);
+    }
+
+    private Progress reclassify(List<Image> batch, String target) {
+        Map<String, List<Image>> byContent = new LinkedHashMap<>();
+        int missing = 0;
+        for (Image image : batch) {
+            if (image.getContentHash() == null) {
+                missing++;
+            } else {
+                byContent.computeIfAbsent(image.getContentHash(), hash -> new ArrayList<>()).add(image);
+            }
+        }
+
+        Semaphore permits = new Semaphore(allowance());
+        Map<String, CompletableFuture<Classification>> results = new LinkedHashMap<>();
+        for (String hash : byContent.keySet()) {
+            results.put(hash, CompletableFuture.supplyAsync(() -> classify(hash, permits), classifiers));
+        }
+
+        List<Image> before = new ArrayList<>();
+        List<Image> after = new ArrayList<>();
+        int failures = 0;
+        for (Map.Entry<String, List<Image>> content : byContent.entrySet()) {
+            Classification result;
+            try {
+                result = results.get(content.getKey()).join();
+            } catch (CompletionException e) {
+                log.warn("Failed to re-classify {} images with content {}", content.getValue().size(),
+                        content.getKey(), e.getCause());
+                failures += content.getValue().size();
+                continue;
+            }
+            if (result == null) {
+                missing += content.getValue().size();
+                continue;
+            }
+            for (Image image : content.getValue()) {
+                before.add(image);
+                after.add(relabel(image, result, target));
+            }
+        }
+
+        Set<String> written = write(before, after);
+        List<Image> writtenBefore = new ArrayList<>(written.size());
+        List<Image> writtenAfter = new ArrayList<>(written.size());
+        int relabelled = 0;
+        for (int i = 0; i < after.size(); i++) {
+            if (written.contains(after.get(i).getId())) {
+                writtenBefore.add(before.get(i));
+                writtenAfter.add(after.get(i));
+                relabelled += Objects.equals(before.get(i).getLabel(), after.get(i).getLabel()) ? 0 : 1;
+            }
+        }
+        if (!written.isEmpty()) {
+            imageCache.invalidate(written);
+            analyticsService.replaceAll(writtenBefore, writtenAfter);
+        }
+        int edited = after.size() - written.size();
+        processed.add(written.size());
+        skipped.add(missing + edited);
+        failed.add(failures);
+        return new Progress(written.size(), relabelled, missing + edited, failures);
+    }
+
+    /**
+     * @return the original classified by the model served now, or {@code null} if the
+     *         original is not stored
+     */
+    private Classification classify(String hash, Semaphore permits) {
+        permits.acquireUninterruptibly();
+        try (SpooledImage original = imageStore.read(hash)) {
+            if (original == null) {
+                return null;
+            }
+            while (true) {
+                try {
+                    return tensorFlowClient.reclassify(original);
+                } catch (InferenceRejectedException e) {
+                    if (stopping) {
+                        throw e;
+                    }
+                    throttled.increment();
+                    Thread.sleep(e.getRetryAfter());
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading the original " + hash, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted re-classifying " + hash, e);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * @return how many classifications the job may have in flight, re-read every batch as the
+     *         adaptive limit moves
+     */
+    private int allowance() {
+        AdaptiveLimiter.LimitStats limit = tensorFlowClient.getLimitStats();
+        int capacity = limit != null ? limit.limit() : properties.getCapacity();
+        return Math.max(1, (int) (capacity * properties.getShare()));
+    }
+
+    private static Image relabel(Image image, Classification result, String target) {
+        Image after = new Image();
+        after.setId(image.getId());
+        after.setTimestamp(image.getTimestamp());
+        after.setContentHash(image.getContentHash());
+        after.setLabel(result.label());
+        after.setConfidence(result.confidence());
+        after.setModelVersion(result.modelVersion() != null ? result.modelVersion() : target);
+        after.setVersion(image.getVersion() == null ? 1 : image.getVersion() + 1);
+        return after;
+    }
+
+    /**
+     * Writes the new results of images that have not changed since they were read, with one
+     * unordered bulk update.
+     *
+     * @return ids of the images written
+     */
+    private Set<String> write(List<Image> before, List<Image> after) {
+        if (after.isEmpty()) {
+            return Set.of();
+        }
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Image.class);
+        for (int i = 0; i < after.size(); i++) {
+            Image image = after.get(i);
+            bulk.updateOne(query(where("id").is(image.getId()).and("version").is(before.get(i).getVersion())),
+                    new Update().set("label", image.getLabel())
+                            .set("confidence", image.getConfidence())
+                            .set("modelVersion", image.getModelVersion())
+                            .inc("version", 1));
+        }
+        Set<String> ids = new HashSet<>();
+        after.forEach(image -> ids.add(image.getId()));
+        if (bulk.execute().getMatchedCount() == after.size()) {
+            return ids;
+        }
+        // some were edited meanwhile; a bulk result does not say which, so look
+        Query query = query(where("id").in(ids));
+        query.fields().include("modelVersion", "version");
+        Map<String, Image> current = new LinkedHashMap<>();
+        mongoTemplate.find(query, Image.class).forEach(image -> current.put(image.getId(), image));
+        Set<String> written = new HashSet<>();
+        for (Image image : after) {
+            Image stored = current.get(image.getId());
+            if (stored != null && Objects.equals(stored.getVersion(), image.getVersion())
+                    && Objects.equals(stored.getModelVersion(), image.getModelVersion())) {
+                written.add(image.getId());
+            }
+        }
+        return written;
+    }
+
+    private boolean checkpoint(String lastId, Progress progress) {
+        long now = System.currentTimeMillis();
+        Update update = new Update()
+                .set("lastId", lastId)
+                .set("checkpointedAt", now)
+                .set("claimedUntil", now + properties.getLease().toMillis())
+                .inc("processed", progress.processed())
+                .inc("relabelled", progress.relabelled())
+                .inc("skipped", progress.skipped())
+                .inc("failed", progress.failed());
+        return mongoTemplate.updateFirst(owned(), update, ReclassificationJob.class).getMatchedCount() > 0;
+    }
+
+    private record Progress(int processed, int relabelled, int skipped, int failed) {
+    }
+}
@@ -0,0 +1,111 @@
+package dev.sealkboy.myagara.service;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import dev.sealkboy.myagara.ml.TensorFlowClient;
+import dev.sealkboy.myagara.model.Image;
+
+/**
+ * Opens connections to the model server and MongoDB, and runs the image read and
+ * serialization paths once, while the application starts. Ready listeners finish before
+ * the readiness state turns to accepting traffic, so a new instance is only sent requests
+ * once they no longer pay for connecting. A warmup step that fails or takes longer than
+ * the timeout is logged and left to the first requests; it never fails startup.
+ */
+@Component
+public class StartupWarmup {
+
+    private static final Logger log = LoggerFactory.getLogger(StartupWarmup.class);
+
+    private final WarmupProperties properties;
+    private final TensorFlowClient tensorFlowClient;
+    private final MongoTemplate mongoTemplate;
+    private final ObjectMapper objectMapper;
+
+    public StartupWarmup(WarmupProperties properties, TensorFlowClient tensorFlowClient, MongoTemplate mongoTemplate,
+            ObjectMapper objectMapper) {
+        this.properties = properties;
+        this.tensorFlowClient = tensorFlowClient;
+        this.mongoTemplate = mongoTemplate;
+        this.objectMapper = objectMapper;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        Map<String, CompletableFuture<Void>> steps = new LinkedHashMap<>();
+        steps.put("inference", CompletableFuture.runAsync(
+                () -> tensorFlowClient.warmUp(properties.getInferenceConnections()), executor));
+        steps.put("mongo", CompletableFuture.runAsync(this::warmUpMongo, executor));
+        steps.put("serialization", CompletableFuture.runAsync(this::warmUpSerialization, executor));
+        long deadline = start + properties.getTimeout().toNanos();
+        try {
+            steps.forEach((step, future) -> await(step, future, deadline));
+        } finally {
+            executor.shutdownNow();
+        }
+        log.info("Warmed up in {} ms", Duration.ofNanos(System.nanoTime() - start).toMillis());
+    }
+
+    /**
+     * Pings over as many connections as asked for at once, then reads one image, which also
+     * readies the mapping of images from BSON.
+     */
+    private void warmUpMongo() {
+        CompletableFuture<?>[] pings = new CompletableFuture<?>[properties.getMongoConnections()];
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < pings.length; i++) {
+                pings[i] = CompletableFuture.runAsync(() -> mongoTemplate.executeCommand(new Document("ping", 1)),
+                        executor);
+            }
+        }
+        CompletableFuture.allOf(pings).join();
+        mongoTemplate.findOne(new Query().limit(1), Image.class);
+    }
+
+    private void warmUpSerialization() {
+        Image image = new Image();
+        image.setId("warmup");
+        image.setLabel("warmup");
+        try {
+            objectMapper.writeValueAsBytes(image);
+        } catch (Exception e) {
+            throw new RuntimeException("Error serializing an image", e);
+        }
+    }
+
+    private static void await(String step, CompletableFuture<Void> future, long deadline) {
+        try {
+            future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            log.warn("Warmup of {} did not finish in time; the first requests will finish it", step);
+        } catch (ExecutionException e) {
+            log.warn("Warmup of {} failed", step, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
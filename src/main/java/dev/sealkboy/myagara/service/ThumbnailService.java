@@ -0,0 +1,217 @@
+package dev.sealkboy.myagara.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import dev.sealkboy.myagara.model.Image;
+import dev.sealkboy.myagara.storage.ImageStore;
+import dev.sealkboy.myagara.storage.SpooledImage;
+import dev.sealkboy.myagara.storage.StoredImage;
+import dev.sealkboy.myagara.storage.ThumbnailRenderer;
+import dev.sealkboy.myagara.storage.UploadProperties;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Renders thumbnails of saved images on a small pool of platform threads, stores them next
+ * to the original in the {@link ImageStore} and records the sizes on the stored image.
+ * When the queue is full the job is dropped rather than slowing the upload; a thumbnail
+ * that is asked for before it exists is rendered on the requesting thread instead. At most
+ * {@code threads} renders run at once either way, since each holds a decoded image.
+ */
+@Service
+public class ThumbnailService implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(ThumbnailService.class);
+
+    private final boolean enabled;
+    private final List<Integer> sizes;
+    private final ThumbnailRenderer renderer;
+    private final ImageStore imageStore;
+    private final MongoTemplate mongoTemplate;
+    private final ImageCache imageCache;
+    private final ThreadPoolExecutor executor;
+    private final Semaphore renders;
+    private final LongAdder rendered = new LongAdder();
+    private final LongAdder renderedOnDemand = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    public ThumbnailService(UploadProperties properties, ImageStore imageStore, MongoTemplate mongoTemplate,
+            ImageCache imageCache) {
+        UploadProperties.Thumbnails thumbnails = properties.getThumbnails();
+        this.enabled = thumbnails.isEnabled();
+        this.sizes = thumbnails.getSizes().stream().filter(size -> size > 0).distinct().sorted().toList();
+        if (sizes.isEmpty()) {
+            throw new IllegalArgumentException("At least one thumbnail size is required");
+        }
+        this.renderer = new ThumbnailRenderer(thumbnails.getQuality());
+        this.imageStore = imageStore;
+        this.mongoTemplate = mongoTemplate;
+        this.imageCache = imageCache;
+        int threads = Math.max(1, thumbnails.getThreads());
+        this.renders = new Semaphore(threads);
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(thumbnails.getQueueCapacity()),
+                Thread.ofPlatform().name("thumbnail-", 0).daemon().factory(),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * @return the thumbnail sizes on offer, smallest first
+     */
+    public List<Integer> getSizes() {
+        return sizes;
+    }
+
+    /**
+     * Queues thumbnails for an image that has been saved. Does nothing when thumbnails are
+     * disabled.
+     *
+     * @param image
+     * @param content the original bytes if still at hand, or {@code null} to read them back
+     *                from the store; the caller keeps ownership
+     */
+    public void schedule(Image image, SpooledImage content) {
+        if (!enabled || image.getContentHash() == null) {
+            return;
+        }
+        if (content != null) {
+            content.retain();
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    if (render(image, content)) {
+                        rendered.increment();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Failed to render thumbnails of image {}", image.getId(), e);
+                } finally {
+                    if (content != null) {
+                        content.close();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            dropped.increment();
+            if (content != null) {
+                content.close();
+            }
+        }
+    }
+
+    /**
+     * @param image
+     * @param size  longest edge in pixels
+     * @return the thumbnail, rendered now if it was not yet, or {@code null} if the original
+     *         is not stored
+     * @throws BadRequestException if {@code size} is not on offer
+     */
+    public StoredImage getThumbnail(Image image, int size) {
+        if (!sizes.contains(size)) {
+            throw new BadRequestException("Unsupported thumbnail size " + size + "; available sizes: " + sizes);
+        }
+        if (image.getContentHash() == null) {
+            return null;
+        }
+        try {
+            StoredImage thumbnail = imageStore.getDerivative(image.getContentHash(), variant(size));
+            if (thumbnail != null || !render(image, null)) {
+                return thumbnail;
+            }
+            renderedOnDemand.increment();
+            return imageStore.getDerivative(image.getContentHash(), variant(size));
+        } catch (IOException e) {
+            throw new RuntimeException("Error rendering thumbnails of image " + image.getId(), e);
+        }
+    }
+
+    /**
+     * @param size
+     * @return the name the thumbnail of {@code size} is stored under, next to the original
+     */
+    public static String variant(int size) {
+        return "w" + size;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("myagara.thumbnails.queued", executor, pool -> pool.getQueue().size())
+                .description("Saved images waiting for thumbnails")
+                .register(registry);
+        FunctionCounter.builder("myagara.thumbnails.rendered", rendered, LongAdder::sum)
+                .description("Images whose thumbnails were rendered")
+                .tag("trigger", "upload")
+                .register(registry);
+        FunctionCounter.builder("myagara.thumbnails.rendered", renderedOnDemand, LongAdder::sum)
+                .description("Images whose thumbnails were rendered")
+                .tag("trigger", "request")
+                .register(registry);
+        FunctionCounter.builder("myagara.thumbnails.dropped", dropped, LongAdder::sum)
+                .description("Thumbnail jobs dropped because the queue was full")
+                .register(registry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Renders and stores whichever sizes are missing, then records all of them on the stored
+     * image. {@code image} itself is left alone, since the caller may still be handing it out.
+     * Identical uploads share their thumbnails, so a duplicate costs no rendering.
+     *
+     * @return whether the thumbnails exist now, {@code false} if the original is not stored
+     */
+    private boolean render(Image image, SpooledImage content) throws IOException {
+        String hash = image.getContentHash();
+        List<Integer> missing = new ArrayList<>();
+        for (int size : sizes) {
+            if (imageStore.getDerivative(hash, variant(size)) == null) {
+                missing.add(size);
+            }
+        }
+        if (!missing.isEmpty()) {
+            renders.acquireUninterruptibly();
+            try (SpooledImage original = content != null ? content.retain() : imageStore.read(hash)) {
+                if (original == null) {
+                    return false;
+                }
+                for (Map.Entry<Integer, byte[]> thumbnail : renderer.render(original, missing).entrySet()) {
+                    String variant = variant(thumbnail.getKey());
+                    imageStore.putDerivative(hash, variant, SpooledImage.of(hash + "." + variant + ".jpg",
+                            thumbnail.getValue()));
+                }
+            } finally {
+                renders.release();
+            }
+        }
+        // the metadata is unchanged, so no new version; the ETag of a served image covers the sizes
+        Query unrecorded = new Query(Criteria.where("id").is(image.getId()).and("thumbnails").ne(sizes));
+        if (mongoTemplate.updateFirst(unrecorded, new Update().set("thumbnails", sizes), Image.class)
+                .getModifiedCount() > 0) {
+            imageCache.invalidate(image.getId());
+        }
+        return true;
+    }
+}
@@ -0,0 +1,45 @@
+package dev.sealkboy.myagara.service;
+
+import java.util.Locale;
+
+/**
+ * Time buckets for label trends, aligned to UTC days and ISO weeks (starting Monday).
+ */
+public enum TrendBucket {
+
+    DAY(86_400_000L, 0),
+    // the epoch fell on a Thursday, three days after the start of its ISO week
+    WEEK(7 * 86_400_000L, 3 * 86_400_000L);
+
+    private final long widthMillis;
+    private final long offsetMillis;
+
+    TrendBucket(long widthMillis, long offsetMillis) {
+        this.widthMillis = widthMillis;
+        this.offsetMillis = offsetMillis;
+    }
+
+    public long widthMillis() {
+        return widthMillis;
+    }
+
+    public long offsetMillis() {
+        return offsetMillis;
+    }
+
+    /**
+     * @param timestamp epoch milliseconds
+     * @return start of the bucket containing {@code timestamp}
+     */
+    public long start(long timestamp) {
+        return timestamp - Math.floorMod(timestamp + offsetMillis, widthMillis);
+    }
+
+    public static TrendBucket parse(String value) {
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Unknown bucket: " + value + ". Expected day or week");
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package dev.sealkboy.myagara.service;
+
+import java.util.concurrent.CompletableFuture;
+
+import dev.sealkboy.myagara.model.Image;
+
+/**
+ * One asynchronous upload, from the moment its bytes are spooled until the classified
+ * {@link Image} has been saved.
+ */
+public class UploadJob {
+
+    public enum Status {
+        QUEUED, RUNNING, DONE, FAILED
+    }
+
+    private final String id;
+    private final String filename;
+    private final long submittedAt;
+    private final CompletableFuture<Image> result = new CompletableFuture<>();
+    private volatile boolean started;
+    private volatile String error;
+    private volatile long completedAt;
+
+    UploadJob(String id, String filename) {
+        this.id = id;
+        this.filename = filename;
+        this.submittedAt = System.currentTimeMillis();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    /**
+     * Derived from the result future, so a job is never reported finished before its image
+     * or error can be read.
+     */
+    public Status getStatus() {
+        if (result.isDone()) {
+            return result.isCompletedExceptionally() ? Status.FAILED : Status.DONE;
+        }
+        return started ? Status.RUNNING : Status.QUEUED;
+    }
+
+    /**
+     * @return the saved image once the job is {@link Status#DONE}, otherwise {@code null}
+     */
+    public Image getImage() {
+        return result.isDone() && !result.isCompletedExceptionally() ? result.getNow(null) : null;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public long getSubmittedAt() {
+        return submittedAt;
+    }
+
+    public long getCompletedAt() {
+        return completedAt;
+    }
+
+    public boolean isDone() {
+        return result.isDone();
+    }
+
+    /**
+     * @return a future completed when the job finishes, successfully or not
+     */
+    public CompletableFuture<UploadJob> completion() {
+        return result.handle((image, e) -> this);
+    }
+
+    void started() {
+        started = true;
+    }
+
+    void succeeded(Image image) {
+        completedAt = System.currentTimeMillis();
+        result.complete(image);
+    }
+
+    void failed(Throwable e) {
+        completedAt = System.currentTimeMillis();
+        error = e.getMessage();
+        result.completeExceptionally(e);
+    }
+}
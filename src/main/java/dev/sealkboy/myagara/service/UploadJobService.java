@@ -0,0 +1,227 @@
+package dev.sealkboy.myagara.service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
+import dev.sealkboy.myagara.storage.SpooledImage;
+import dev.sealkboy.myagara.storage.UploadProperties;
+import dev.sealkboy.myagara.storage.UploadSpool;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Runs uploads in the background. The request thread only spools the bytes and enqueues
+ * a job; classification, archiving and the Mongo save happen on virtual threads drawn
+ * from a bounded queue. A full queue is rejected with {@link UploadQueueFullException}
+ * rather than blocking the caller.
+ */
+@Service
+public class UploadJobService implements MeterBinder {
+
+    private final ImageService imageService;
+    private final UploadSpool uploadSpool;
+    private final UploadObservations observations;
+    private final ThreadPoolExecutor executor;
+    private final Cache<String, UploadJob> jobs;
+    private final int workers;
+    private final Duration maxWait;
+    private final Duration shutdownTimeout;
+    private final AtomicLong meanJobMillis = new AtomicLong(1_000);
+
+    public UploadJobService(UploadProperties properties, ImageService imageService, UploadSpool uploadSpool,
+            UploadObservations observations) {
+        UploadProperties.Async async = properties.getAsync();
+        this.imageService = imageService;
+        this.uploadSpool = uploadSpool;
+        this.observations = observations;
+        this.workers = async.getWorkers();
+        this.maxWait = async.getMaxWait();
+        this.shutdownTimeout = async.getShutdownTimeout();
+        this.executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(async.getQueueCapacity()),
+                Thread.ofVirtual().name("upload-job-", 0).factory(),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.jobs = Caffeine.newBuilder()
+                .expireAfter(new FinishedJobExpiry(async.getJobTtl()))
+                .build();
+    }
+
+    /**
+     * Spools the upload and queues it for classification.
+     *
+     * @param file
+     * @return the queued job
+     * @throws UploadQueueFullException if no queue slot is free
+     */
+    public UploadJob submit(MultipartFile file) {
+        SpooledImage content;
+        try {
+            content = uploadSpool.spool(file);
+        } catch (IOException e) {
+            throw new RuntimeException("Error uploading and processing the image", e);
+        }
+
+        UploadJob job = new UploadJob(UUID.randomUUID().toString(), content.getFilename());
+        jobs.put(job.getId(), job);
+        try {
+            executor.execute(new Job(job, content, System.nanoTime()));
+        } catch (RejectedExecutionException e) {
+            jobs.invalidate(job.getId());
+            content.close();
+            throw new UploadQueueFullException(retryAfter());
+        }
+        return job;
+    }
+
+    /**
+     * @param id
+     * @return the job, or {@code null} if it is unknown or has expired
+     */
+    public UploadJob getJob(String id) {
+        return jobs.getIfPresent(id);
+    }
+
+    /**
+     * Long-poll support: completes when the job finishes or after {@code wait} (capped at
+     * the configured maximum), whichever comes first.
+     *
+     * @param job
+     * @param wait
+     * @return
+     */
+    public CompletableFuture<UploadJob> await(UploadJob job, Duration wait) {
+        if (job.isDone() || wait.isZero() || wait.isNegative()) {
+            return CompletableFuture.completedFuture(job);
+        }
+        long millis = Math.min(wait.toMillis(), maxWait.toMillis());
+        return job.completion().completeOnTimeout(job, millis, TimeUnit.MILLISECONDS);
+    }
+
+    public int queueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int activeJobs() {
+        return executor.getActiveCount();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("myagara.upload.jobs.queued", this, UploadJobService::queueDepth)
+                .description("Asynchronous uploads waiting for a worker")
+                .register(registry);
+        Gauge.builder("myagara.upload.jobs.active", this, UploadJobService::activeJobs)
+                .description("Asynchronous uploads being classified")
+                .register(registry);
+    }
+
+    /**
+     * Lets queued and running jobs finish for up to {@code shutdown-timeout}. Jobs still
+     * queued after that are failed and their bytes released; running ones are interrupted.
+     */
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (executor.awaitTermination(shutdownTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Runnable queued : executor.shutdownNow()) {
+            if (queued instanceof Job job) {
+                job.abandon();
+            }
+        }
+    }
+
+    /**
+     * Estimates how long the queue ahead of a new job will take to drain at the recent
+     * mean job duration.
+     */
+    private Duration retryAfter() {
+        long drainMillis = (queueDepth() + 1) * meanJobMillis.get() / Math.max(1, workers);
+        return Duration.ofSeconds(Math.max(1, (drainMillis + 999) / 1000));
+    }
+
+    /**
+     * A queued upload, kept as its own type so that shutdown can fail the jobs it never ran.
+     */
+    private final class Job implements Runnable {
+
+        private final UploadJob job;
+        private final SpooledImage content;
+        private final long queuedAt;
+
+        Job(UploadJob job, SpooledImage content, long queuedAt) {
+            this.job = job;
+            this.content = content;
+            this.queuedAt = queuedAt;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            observations.queued(Duration.ofNanos(start - queuedAt));
+            job.started();
+            try (content) {
+                job.succeeded(observations.upload("async", () -> imageService.classifyAndSave(content)));
+            } catch (RuntimeException e) {
+                job.failed(e);
+            } finally {
+                long millis = (System.nanoTime() - start) / 1_000_000;
+                meanJobMillis.getAndUpdate(mean -> (mean * 7 + millis) / 8);
+                finished();
+            }
+        }
+
+        void abandon() {
+            content.close();
+            job.failed(new RuntimeException("Upload was not processed before shutdown"));
+            finished();
+        }
+
+        private void finished() {
+            // re-put so the finished job picks up its expiry
+            jobs.asMap().replace(job.getId(), job, job);
+        }
+    }
+
+    /**
+     * Keeps unfinished jobs indefinitely and finished ones for the configured time to live.
+     */
+    private record FinishedJobExpiry(Duration ttl) implements Expiry<String, UploadJob> {
+
+        @Override
+        public long expireAfterCreate(String id, UploadJob job, long currentTime) {
+            return job.isDone() ? ttl.toNanos() : Long.MAX_VALUE;
+        }
+
+        @Override
+        public long expireAfterUpdate(String id, UploadJob job, long currentTime, long currentDuration) {
+            return expireAfterCreate(id, job, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String id, UploadJob job, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
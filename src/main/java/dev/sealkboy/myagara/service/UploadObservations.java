@@ -0,0 +1,89 @@
+package dev.sealkboy.myagara.service;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+import org.springframework.stereotype.Component;
+
+import dev.sealkboy.myagara.model.Image;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+
+/**
+ * Timings and outcomes of the upload pipeline. Every upload is one {@value #UPLOAD}
+ * observation, tagged with how it arrived, and each stage inside it (spool, classify,
+ * archive, save, analytics) is a child {@value #STAGE} observation, so the stages of one
+ * upload share a trace and each stage has its own latency histogram.
+ */
+@Component
+public class UploadObservations {
+
+    public static final String UPLOAD = "myagara.upload";
+    public static final String STAGE = "myagara.upload.stage";
+    public static final String QUEUE_WAIT = "myagara.upload.queue.wait";
+    public static final String CLASSIFICATIONS = "myagara.classifications";
+    public static final String CONFIDENCE = "myagara.classification.confidence";
+
+    private final ObservationRegistry observationRegistry;
+    private final MeterRegistry meterRegistry;
+
+    public UploadObservations(ObservationRegistry observationRegistry, MeterRegistry meterRegistry) {
+        this.observationRegistry = observationRegistry;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * @param mode {@code sync}, {@code async} or {@code bulk}
+     * @param work the whole upload
+     * @return the result of {@code work}
+     */
+    public <T> T upload(String mode, Supplier<T> work) {
+        return Observation.createNotStarted(UPLOAD, observationRegistry)
+                .contextualName("upload")
+                .lowCardinalityKeyValue("mode", mode)
+                .observe(work);
+    }
+
+    /**
+     * @param stage name of the stage, e.g. {@code classify}
+     * @param work
+     * @return the result of {@code work}
+     */
+    public <T, E extends Throwable> T stage(String stage, Observation.CheckedCallable<T, E> work) throws E {
+        return observation(stage).observeChecked(work);
+    }
+
+    public <E extends Throwable> void stage(String stage, Observation.CheckedRunnable<E> work) throws E {
+        observation(stage).observeChecked(work);
+    }
+
+    /**
+     * @param wait time an asynchronous upload spent queued before a worker picked it up
+     */
+    public void queued(Duration wait) {
+        Timer.builder(QUEUE_WAIT).register(meterRegistry).record(wait);
+    }
+
+    public void classified(Image image) {
+        String label = image.getLabel() == null ? "unknown" : image.getLabel();
+        meterRegistry.counter(CLASSIFICATIONS, "label", label, "outcome", "success").increment();
+        DistributionSummary.builder(CONFIDENCE)
+                .tag("label", label)
+                .baseUnit("percent")
+                .register(meterRegistry)
+                .record(image.getConfidence());
+    }
+
+    public void classificationFailed() {
+        meterRegistry.counter(CLASSIFICATIONS, "label", "none", "outcome", "failure").increment();
+    }
+
+    private Observation observation(String stage) {
+        return Observation.createNotStarted(STAGE, observationRegistry)
+                .contextualName("upload " + stage)
+                .lowCardinalityKeyValue("stage", stage);
+    }
+}
@@ -0,0 +1,20 @@
+package dev.sealkboy.myagara.service;
+
+import java.time.Duration;
+
+/**
+ * Thrown when the asynchronous upload queue cannot take another job.
+ */
+public class UploadQueueFullException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    public UploadQueueFullException(Duration retryAfter) {
+        super("Upload queue is full. Retry after " + retryAfter.toSeconds() + "s");
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,60 @@
+package dev.sealkboy.myagara.service;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings for readying connections at startup, before the instance reports itself ready
+ * for traffic, bound from {@code myagara.warmup.*}.
+ */
+@ConfigurationProperties(prefix = "myagara.warmup")
+public class WarmupProperties {
+
+    private boolean enabled = true;
+    private int inferenceConnections = 4;
+    private int mongoConnections = 4;
+    private Duration timeout = Duration.ofSeconds(10);
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return connections to open to the model server
+     */
+    public int getInferenceConnections() {
+        return inferenceConnections;
+    }
+
+    public void setInferenceConnections(int inferenceConnections) {
+        this.inferenceConnections = inferenceConnections;
+    }
+
+    /**
+     * @return connections to open in the MongoDB pool
+     */
+    public int getMongoConnections() {
+        return mongoConnections;
+    }
+
+    public void setMongoConnections(int mongoConnections) {
+        this.mongoConnections = mongoConnections;
+    }
+
+    /**
+     * @return how long startup waits for the warmup; whatever is unfinished then is left to
+     *         the first requests
+     */
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(Duration timeout) {
+        this.timeout = timeout;
+    }
+}
@@ -0,0 +1,121 @@
+package dev.sealkboy.myagara.storage;
+
+import static org.springframework.data.mongodb.core.query.Query.query;
+import static org.springframework.data.mongodb.gridfs.GridFsCriteria.whereFilename;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.gridfs.GridFsResource;
+import org.springframework.data.mongodb.gridfs.GridFsTemplate;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.client.gridfs.model.GridFSFile;
+
+/**
+ * Keeps originals in MongoDB GridFS, one file per distinct hash used as the filename, for
+ * deployments where the backend has no durable local disk. Derivatives are named
+ * {@code hash.variant}. Two uploads of the same new bytes racing each other may both be
+ * stored; reads take either and deletes remove both.
+ */
+@Component
+@ConditionalOnProperty(name = "myagara.upload.archive.backend", havingValue = "gridfs")
+public class GridFsImageStore implements ImageStore {
+
+    private static final int COPY_BUFFER = 64 * 1024;
+
+    private final GridFsTemplate gridFs;
+
+    public GridFsImageStore(GridFsTemplate gridFs) {
+        this.gridFs = gridFs;
+    }
+
+    @Override
+    public boolean put(SpooledImage image) throws IOException {
+        String hash = image.sha256();
+        if (gridFs.find(byName(hash)).first() != null) {
+            return false;
+        }
+        try (InputStream in = image.getInputStream()) {
+            gridFs.store(in, hash, image.getContentType());
+        }
+        return true;
+    }
+
+    @Override
+    public StoredImage get(String hash) {
+        return read(byName(hash));
+    }
+
+    @Override
+    public void putDerivative(String hash, String variant, SpooledImage derivative) throws IOException {
+        String name = hash + "." + variant;
+        try (InputStream in = derivative.getInputStream()) {
+            gridFs.store(in, name, derivative.getContentType());
+        }
+        // drop what an earlier rendering left, keeping the file just written
+        GridFSFile latest = gridFs.find(byName(name).with(Sort.by(Sort.Direction.DESC, "uploadDate"))).first();
+        if (latest != null) {
+            gridFs.delete(query(whereFilename().is(name)).addCriteria(Criteria.where("_id").ne(latest.getId())));
+        }
+    }
+
+    @Override
+    public StoredImage getDerivative(String hash, String variant) {
+        return read(byName(hash + "." + variant));
+    }
+
+    @Override
+    public void delete(String hash) {
+        gridFs.delete(byName(hash));
+        gridFs.delete(query(whereFilename().regex("^" + hash + "\\.")));
+    }
+
+    @Override
+    public void deleteAll() {
+        gridFs.delete(new Query());
+    }
+
+    private StoredImage read(Query query) {
+        GridFSFile file = gridFs.find(query).first();
+        return file == null ? null : new GridFsImage(gridFs.getResource(file), file.getLength());
+    }
+
+    private static Query byName(String name) {
+        return query(whereFilename().is(name));
+    }
+
+    private record GridFsImage(GridFsResource resource, long length) implements StoredImage {
+
+        @Override
+        public Path file() {
+            return null;
+        }
+
+        @Override
+        public void transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            try (InputStream in = resource.getInputStream()) {
+                in.skipNBytes(position);
+                byte[] buffer = new byte[(int) Math.min(COPY_BUFFER, Math.max(1, count))];
+                while (count > 0) {
+                    int read = in.read(buffer, 0, (int) Math.min(buffer.length, count));
+                    if (read < 0) {
+                        throw new IOException("Stored image " + resource.getFilename() + " is shorter than expected");
+                    }
+                    ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+                    while (chunk.hasRemaining()) {
+                        target.write(chunk);
+                    }
+                    count -= read;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package dev.sealkboy.myagara.storage;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Copies original uploads to the {@link ImageStore} in the background. Blobs are keyed by
+ * the hash of their bytes, so uploads that share a client filename never overwrite each
+ * other and identical uploads are stored once. When the writer falls behind, the uploading
+ * thread writes its own blob.
+ */
+@Component
+public class ImageArchiver implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(ImageArchiver.class);
+
+    private final boolean enabled;
+    private final ImageStore store;
+    private final ThreadPoolExecutor executor;
+    private final LongAdder stored = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+
+    public ImageArchiver(UploadProperties properties, ImageStore store) {
+        UploadProperties.Archive archive = properties.getArchive();
+        this.enabled = archive.isEnabled();
+        this.store = store;
+        this.executor = new ThreadPoolExecutor(archive.getThreads(), archive.getThreads(), 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(archive.getQueueCapacity()),
+                Thread.ofPlatform().name("image-archiver-", 0).daemon().factory(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Schedules the image to be stored under its hash. Does nothing when archiving is
+     * disabled.
+     *
+     * @param image
+     */
+    public void archive(SpooledImage image) {
+        if (!enabled) {
+            return;
+        }
+        image.retain();
+        executor.execute(() -> {
+            try {
+                write(image);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Failed to archive image {}", image.getFilename(), e);
+            } finally {
+                image.close();
+            }
+        });
+    }
+
+    /**
+     * @param image
+     * @return whether the bytes were written, {@code false} if they were already stored
+     * @throws IOException
+     */
+    public boolean write(SpooledImage image) throws IOException {
+        boolean written = store.put(image);
+        (written ? stored : duplicates).increment();
+        return written;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("myagara.archive.queued", executor, pool -> pool.getQueue().size())
+                .description("Originals waiting to be written to the image store")
+                .register(registry);
+        FunctionCounter.builder("myagara.archive.writes", stored, LongAdder::sum)
+                .description("Originals written to the image store")
+                .tag("result", "stored")
+                .register(registry);
+        FunctionCounter.builder("myagara.archive.writes", duplicates, LongAdder::sum)
+                .description("Originals written to the image store")
+                .tag("result", "duplicate")
+                .register(registry);
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+            log.warn("Image archiver did not finish pending writes before shutdown");
+        }
+    }
+}
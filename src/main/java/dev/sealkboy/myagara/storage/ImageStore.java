@@ -0,0 +1,73 @@
+package dev.sealkboy.myagara.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+
+/**
+ * Original image bytes addressed by their SHA-256, so identical uploads are stored once and
+ * a stored blob never changes. Derivatives such as thumbnails are kept next to their
+ * original under the same hash and a variant name.
+ */
+public interface ImageStore {
+
+    /**
+     * Stores the bytes under {@link SpooledImage#sha256()} unless they are already there.
+     *
+     * @param image
+     * @return whether the bytes were written, {@code false} if they were already stored
+     * @throws IOException
+     */
+    boolean put(SpooledImage image) throws IOException;
+
+    /**
+     * @param hash hex SHA-256 of the bytes
+     * @return the stored bytes, or {@code null} if there are none under {@code hash}
+     * @throws IOException
+     */
+    StoredImage get(String hash) throws IOException;
+
+    /**
+     * @param hash hex SHA-256 of the bytes
+     * @return the stored bytes read into memory, or {@code null} if there are none under
+     *         {@code hash}
+     * @throws IOException
+     */
+    default SpooledImage read(String hash) throws IOException {
+        StoredImage stored = get(hash);
+        if (stored == null) {
+            return null;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE - 8, stored.length()));
+        stored.transferTo(0, stored.length(), Channels.newChannel(out));
+        return SpooledImage.of(hash, out.toByteArray());
+    }
+
+    /**
+     * Stores a derivative of the original with hash {@code hash}, replacing any previous one.
+     *
+     * @param hash       hex SHA-256 of the original
+     * @param variant    lower-case letters and digits naming the derivative, e.g. {@code w128}
+     * @param derivative
+     * @throws IOException
+     */
+    void putDerivative(String hash, String variant, SpooledImage derivative) throws IOException;
+
+    /**
+     * @param hash    hex SHA-256 of the original
+     * @param variant
+     * @return the derivative, or {@code null} if it has not been stored
+     * @throws IOException
+     */
+    StoredImage getDerivative(String hash, String variant) throws IOException;
+
+    /**
+     * Deletes the original and all its derivatives.
+     *
+     * @param hash hex SHA-256 of the bytes
+     * @throws IOException
+     */
+    void delete(String hash) throws IOException;
+
+    void deleteAll() throws IOException;
+}
@@ -0,0 +1,161 @@
+package dev.sealkboy.myagara.storage;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps originals on local disk under their hash, sharded two levels deep by its leading
+ * characters ({@code ab/cd/abcd...}) so no directory grows beyond a few hundred entries.
+ * Derivatives sit next to their original as {@code abcd....variant}. Bytes are written to a
+ * temporary file next to the target and moved into place, so a reader never sees a
+ * partial blob.
+ */
+@Component
+@ConditionalOnProperty(name = "myagara.upload.archive.backend", havingValue = "local", matchIfMissing = true)
+public class LocalImageStore implements ImageStore {
+
+    private static final Pattern HASH = Pattern.compile("[0-9a-f]{64}");
+    private static final Pattern VARIANT = Pattern.compile("[a-z0-9]{1,16}");
+    private static final Pattern BLOB = Pattern.compile("[0-9a-f]{64}(\\.[a-z0-9]{1,16})?");
+
+    private final Path directory;
+
+    public LocalImageStore(UploadProperties properties) {
+        this.directory = Paths.get(properties.getArchive().getDirectory());
+    }
+
+    @Override
+    public boolean put(SpooledImage image) throws IOException {
+        Path target = pathOf(image.sha256());
+        if (Files.exists(target)) {
+            return false;
+        }
+        write(target, image);
+        return true;
+    }
+
+    @Override
+    public StoredImage get(String hash) throws IOException {
+        return read(pathOf(hash));
+    }
+
+    @Override
+    public void putDerivative(String hash, String variant, SpooledImage derivative) throws IOException {
+        write(pathOf(hash, variant), derivative);
+    }
+
+    @Override
+    public StoredImage getDerivative(String hash, String variant) throws IOException {
+        return read(pathOf(hash, variant));
+    }
+
+    @Override
+    public void delete(String hash) throws IOException {
+        Path original = pathOf(hash);
+        if (!Files.isDirectory(original.getParent())) {
+            return;
+        }
+        List<Path> blobs;
+        try (Stream<Path> files = Files.list(original.getParent())) {
+            blobs = files.filter(path -> path.getFileName().toString().startsWith(hash)).toList();
+        }
+        for (Path blob : blobs) {
+            Files.deleteIfExists(blob);
+        }
+    }
+
+    /**
+     * Removes every blob, leaving anything else in the directory alone.
+     */
+    @Override
+    public void deleteAll() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        List<Path> blobs;
+        try (Stream<Path> files = Files.walk(directory, 3)) {
+            blobs = files.filter(path -> BLOB.matcher(path.getFileName().toString()).matches())
+                    .filter(path -> directory.relativize(path).getNameCount() == 3)
+                    .toList();
+        }
+        for (Path blob : blobs) {
+            Files.deleteIfExists(blob);
+        }
+    }
+
+    /**
+     * @param hash
+     * @return where the blob for {@code hash} lives
+     * @throws IllegalArgumentException if {@code hash} is not a hex SHA-256
+     */
+    public Path pathOf(String hash) {
+        if (hash == null || !HASH.matcher(hash).matches()) {
+            throw new IllegalArgumentException("Invalid content hash: " + hash);
+        }
+        return directory.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+    }
+
+    /**
+     * @param hash
+     * @param variant
+     * @return where the derivative {@code variant} of {@code hash} lives
+     * @throws IllegalArgumentException if either is malformed
+     */
+    public Path pathOf(String hash, String variant) {
+        if (variant == null || !VARIANT.matcher(variant).matches()) {
+            throw new IllegalArgumentException("Invalid derivative name: " + variant);
+        }
+        return pathOf(hash).resolveSibling(hash + "." + variant);
+    }
+
+    private static void write(Path target, SpooledImage image) throws IOException {
+        Files.createDirectories(target.getParent());
+        Path partial = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".part");
+        try {
+            try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.WRITE)) {
+                image.writeTo(channel);
+            }
+            Files.move(partial, target, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(partial);
+        }
+    }
+
+    private static StoredImage read(Path file) throws IOException {
+        try {
+            return new FileImage(file, Files.size(file));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private record FileImage(Path file, long length) implements StoredImage {
+
+        @Override
+        public void transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long end = position + count;
+                while (position < end) {
+                    long sent = channel.transferTo(position, end - position, target);
+                    if (sent <= 0 && position >= channel.size()) {
+                        throw new IOException("Stored image " + file + " is shorter than expected");
+                    }
+                    position += sent;
+                }
+            }
+        }
+    }
+}
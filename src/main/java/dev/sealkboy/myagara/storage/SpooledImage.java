@@ -0,0 +1,182 @@
+package dev.sealkboy.myagara.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.springframework.core.io.AbstractResource;
+
+/**
+ * Bytes of one uploaded image held in memory, either on the heap or in a pooled direct
+ * buffer. It can be read any number of times as a {@link org.springframework.core.io.Resource}
+ * and is reference counted so that asynchronous consumers can keep it alive; the backing
+ * buffer goes back to its pool when the last reference is closed.
+ */
+public final class SpooledImage extends AbstractResource implements AutoCloseable {
+
+    private final String filename;
+    private final String contentType;
+    private final ByteBuffer content;
+    private final Consumer<ByteBuffer> recycler;
+    private final AtomicInteger references = new AtomicInteger(1);
+    private volatile String sha256;
+
+    SpooledImage(String filename, String contentType, ByteBuffer content, Consumer<ByteBuffer> recycler) {
+        this.filename = filename;
+        this.contentType = contentType;
+        this.content = content;
+        this.recycler = recycler;
+    }
+
+    /**
+     * @param filename
+     * @param bytes
+     * @return an image backed by the given heap array
+     */
+    public static SpooledImage of(String filename, byte[] bytes) {
+        return new SpooledImage(filename, null, ByteBuffer.wrap(bytes), null);
+    }
+
+    @Override
+    public String getFilename() {
+        return filename;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public long contentLength() {
+        return content.remaining();
+    }
+
+    @Override
+    public boolean exists() {
+        return true;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new ByteBufferInputStream(content.duplicate());
+    }
+
+    /**
+     * @return a read-only view of the bytes, positioned at the start
+     */
+    public ByteBuffer contents() {
+        return content.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return hex SHA-256 of the bytes, computed once
+     */
+    public String sha256() {
+        String hash = sha256;
+        if (hash == null) {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                digest.update(content.duplicate());
+                hash = HexFormat.of().formatHex(digest.digest());
+                sha256 = hash;
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not available", e);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Writes all bytes to the channel; for file channels and direct buffers this does not
+     * copy through the Java heap.
+     *
+     * @param channel
+     * @throws IOException
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        ByteBuffer source = content.duplicate();
+        while (source.hasRemaining()) {
+            channel.write(source);
+        }
+    }
+
+    /**
+     * Adds a reference that must be released with {@link #close()}.
+     *
+     * @return this image
+     */
+    public SpooledImage retain() {
+        if (references.getAndIncrement() <= 0) {
+            references.decrementAndGet();
+            throw new IllegalStateException("Spooled image " + filename + " has already been released");
+        }
+        return this;
+    }
+
+    @Override
+    public void close() {
+        if (references.decrementAndGet() == 0 && recycler != null) {
+            recycler.accept(content);
+        }
+    }
+
+    @Override
+    public String getDescription() {
+        return "Spooled image [" + filename + ", " + content.remaining() + " bytes]";
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return this == other;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(this);
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+    }
+}
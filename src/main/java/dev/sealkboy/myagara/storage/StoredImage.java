@@ -0,0 +1,30 @@
+package dev.sealkboy.myagara.storage;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+
+/**
+ * Bytes of one image held by an {@link ImageStore}.
+ */
+public interface StoredImage {
+
+    long length();
+
+    /**
+     * @return the file holding the bytes, or {@code null} if they are not on the local file
+     *         system
+     */
+    Path file();
+
+    /**
+     * Writes {@code count} bytes starting at {@code position} to the channel. File-backed
+     * images hand the copy to the operating system where it can.
+     *
+     * @param position
+     * @param count
+     * @param target
+     * @throws IOException
+     */
+    void transferTo(long position, long count, WritableByteChannel target) throws IOException;
+}
@@ -0,0 +1,133 @@
+package dev.sealkboy.myagara.storage;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.springframework.core.io.Resource;
+
+/**
+ * Renders JPEG thumbnails that fit in a square of each requested size, keeping the aspect
+ * ratio and never enlarging. The original is decoded once, subsampled while decoding when
+ * it is much larger than the biggest thumbnail, and each smaller size is scaled from the
+ * one before it in steps of at most half, so bilinear filtering does not alias.
+ */
+public class ThumbnailRenderer {
+
+    private final float quality;
+
+    /**
+     * @param quality JPEG quality between 0 and 1
+     */
+    public ThumbnailRenderer(float quality) {
+        this.quality = quality;
+    }
+
+    /**
+     * @param original an encoded image
+     * @param sizes    longest edge of each thumbnail in pixels
+     * @return JPEG bytes by size, largest first
+     * @throws IOException if the original cannot be decoded
+     */
+    public Map<Integer, byte[]> render(Resource original, List<Integer> sizes) throws IOException {
+        List<Integer> descending = sizes.stream().distinct().sorted(Comparator.reverseOrder()).toList();
+        Map<Integer, byte[]> thumbnails = new LinkedHashMap<>();
+        if (descending.isEmpty()) {
+            return thumbnails;
+        }
+        BufferedImage current = decode(original, descending.get(0));
+        for (int size : descending) {
+            current = shrink(current, size);
+            thumbnails.put(size, encode(current));
+        }
+        return thumbnails;
+    }
+
+    private BufferedImage decode(Resource original, int largest) throws IOException {
+        try (InputStream in = original.getInputStream();
+                ImageInputStream stream = new MemoryCacheImageInputStream(in)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format: " + original.getFilename());
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, Math.max(reader.getWidth(0), reader.getHeight(0)) / (largest * 2));
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * @return {@code image} scaled so its longest edge is at most {@code size}, on an opaque
+     *         RGB raster
+     */
+    private static BufferedImage shrink(BufferedImage image, int size) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        double scale = Math.min(1.0, (double) size / Math.max(width, height));
+        int targetWidth = Math.max(1, (int) Math.round(width * scale));
+        int targetHeight = Math.max(1, (int) Math.round(height * scale));
+        BufferedImage current = image;
+        do {
+            int stepWidth = Math.max(targetWidth, current.getWidth() / 2);
+            int stepHeight = Math.max(targetHeight, current.getHeight() / 2);
+            current = draw(current, stepWidth, stepHeight);
+        } while (current.getWidth() > targetWidth || current.getHeight() > targetHeight);
+        return current;
+    }
+
+    private static BufferedImage draw(BufferedImage source, int width, int height) {
+        BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D graphics = target.createGraphics();
+        try {
+            // transparent pixels would turn black in a JPEG
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+
+    private byte[] encode(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(image.getWidth() * image.getHeight() / 4);
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (MemoryCacheImageOutputStream stream = new MemoryCacheImageOutputStream(out)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,375 @@
+package dev.sealkboy.myagara.storage;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Settings for handling uploaded image bytes, bound from {@code myagara.upload.*}.
+ */
+@ConfigurationProperties(prefix = "myagara.upload")
+public class UploadProperties {
+
+    private final Spool spool = new Spool();
+    private final Archive archive = new Archive();
+    private final Thumbnails thumbnails = new Thumbnails();
+    private final Async async = new Async();
+    private final Bulk bulk = new Bulk();
+    private final WriteBehind writeBehind = new WriteBehind();
+
+    public Spool getSpool() {
+        return spool;
+    }
+
+    public Archive getArchive() {
+        return archive;
+    }
+
+    public Thumbnails getThumbnails() {
+        return thumbnails;
+    }
+
+    public Async getAsync() {
+        return async;
+    }
+
+    public Bulk getBulk() {
+        return bulk;
+    }
+
+    public WriteBehind getWriteBehind() {
+        return writeBehind;
+    }
+
+    /**
+     * Where upload bytes are held while they are classified.
+     */
+    public static class Spool {
+
+        private DataSize inMemoryThreshold = DataSize.ofKilobytes(256);
+        private DataSize maxDirectMemory = DataSize.ofMegabytes(256);
+        private DataSize maxEntrySize = DataSize.ofMegabytes(20);
+        private Duration acquireTimeout = Duration.ofSeconds(5);
+
+        public DataSize getInMemoryThreshold() {
+            return inMemoryThreshold;
+        }
+
+        public void setInMemoryThreshold(DataSize inMemoryThreshold) {
+            this.inMemoryThreshold = inMemoryThreshold;
+        }
+
+        public DataSize getMaxDirectMemory() {
+            return maxDirectMemory;
+        }
+
+        public void setMaxDirectMemory(DataSize maxDirectMemory) {
+            this.maxDirectMemory = maxDirectMemory;
+        }
+
+        public DataSize getMaxEntrySize() {
+            return maxEntrySize;
+        }
+
+        public void setMaxEntrySize(DataSize maxEntrySize) {
+            this.maxEntrySize = maxEntrySize;
+        }
+
+        public Duration getAcquireTimeout() {
+            return acquireTimeout;
+        }
+
+        public void setAcquireTimeout(Duration acquireTimeout) {
+            this.acquireTimeout = acquireTimeout;
+        }
+    }
+
+    /**
+     * Optional background copy of every original upload to a content-addressed store, either
+     * {@code local} disk under {@code directory} or MongoDB {@code gridfs}.
+     */
+    public static class Archive {
+
+        private boolean enabled = true;
+        private String backend = "local";
+        private String directory = System.getProperty("java.io.tmpdir") + "/myagara/originals";
+        private int threads = 2;
+        private int queueCapacity = 256;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public String getBackend() {
+            return backend;
+        }
+
+        public void setBackend(String backend) {
+            this.backend = backend;
+        }
+
+        public String getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+    }
+
+    /**
+     * JPEG thumbnails rendered in the background once an upload is saved, each fitting in a
+     * square of one of {@code sizes} pixels.
+     */
+    public static class Thumbnails {
+
+        private boolean enabled = true;
+        private List<Integer> sizes = new ArrayList<>(List.of(128, 512));
+        private float quality = 0.8f;
+        private int threads = 2;
+        private int queueCapacity = 256;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public List<Integer> getSizes() {
+            return sizes;
+        }
+
+        public void setSizes(List<Integer> sizes) {
+            this.sizes = sizes;
+        }
+
+        public float getQuality() {
+            return quality;
+        }
+
+        public void setQuality(float quality) {
+            this.quality = quality;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+    }
+
+    /**
+     * Queue and workers behind {@code POST /api/images/upload?mode=async}.
+     */
+    public static class Async {
+
+        private int workers = 32;
+        private int queueCapacity = 256;
+        private Duration jobTtl = Duration.ofMinutes(10);
+        private Duration maxWait = Duration.ofSeconds(20);
+        private Duration shutdownTimeout = Duration.ofSeconds(30);
+
+        public int getWorkers() {
+            return workers;
+        }
+
+        public void setWorkers(int workers) {
+            this.workers = workers;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        public Duration getJobTtl() {
+            return jobTtl;
+        }
+
+        public void setJobTtl(Duration jobTtl) {
+            this.jobTtl = jobTtl;
+        }
+
+        public Duration getMaxWait() {
+            return maxWait;
+        }
+
+        public void setMaxWait(Duration maxWait) {
+            this.maxWait = maxWait;
+        }
+
+        public Duration getShutdownTimeout() {
+            return shutdownTimeout;
+        }
+
+        public void setShutdownTimeout(Duration shutdownTimeout) {
+            this.shutdownTimeout = shutdownTimeout;
+        }
+    }
+
+    /**
+     * Parallelism and Mongo batching of {@code POST /api/images/bulk}.
+     */
+    public static class Bulk {
+
+        private int concurrency = 16;
+        private int insertBatchSize = 256;
+        private int maxEntries = 10000;
+        private DataSize maxTotalSize = DataSize.ofGigabytes(1);
+
+        public int getConcurrency() {
+            return concurrency;
+        }
+
+        public void setConcurrency(int concurrency) {
+            this.concurrency = concurrency;
+        }
+
+        public int getInsertBatchSize() {
+            return insertBatchSize;
+        }
+
+        public void setInsertBatchSize(int insertBatchSize) {
+            this.insertBatchSize = insertBatchSize;
+        }
+
+        public int getMaxEntries() {
+            return maxEntries;
+        }
+
+        public void setMaxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+        }
+
+        public DataSize getMaxTotalSize() {
+            return maxTotalSize;
+        }
+
+        public void setMaxTotalSize(DataSize maxTotalSize) {
+            this.maxTotalSize = maxTotalSize;
+        }
+    }
+
+    /**
+     * Buffering of classified uploads so they reach Mongo in bulk inserts rather than one
+     * save each.
+     */
+    public static class WriteBehind {
+
+        private boolean enabled = false;
+        private String durability = "flush";
+        private int batchSize = 256;
+        private Duration maxDelay = Duration.ofMillis(10);
+        private int capacity = 4096;
+        private int maxAttempts = 5;
+        private Duration retryBackoff = Duration.ofMillis(100);
+        private Duration shutdownTimeout = Duration.ofSeconds(30);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        /**
+         * @return {@code flush} to answer an upload once its image is in Mongo, or
+         *         {@code buffer} to answer as soon as it is buffered, at the risk of losing it
+         *         if the process dies or Mongo stays unavailable
+         */
+        public String getDurability() {
+            return durability;
+        }
+
+        public void setDurability(String durability) {
+            this.durability = durability;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public Duration getMaxDelay() {
+            return maxDelay;
+        }
+
+        public void setMaxDelay(Duration maxDelay) {
+            this.maxDelay = maxDelay;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public void setCapacity(int capacity) {
+            this.capacity = capacity;
+        }
+
+        public int getMaxAttempts() {
+            return maxAttempts;
+        }
+
+        public void setMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+        }
+
+        public Duration getRetryBackoff() {
+            return retryBackoff;
+        }
+
+        public void setRetryBackoff(Duration retryBackoff) {
+            this.retryBackoff = retryBackoff;
+        }
+
+        public Duration getShutdownTimeout() {
+            return shutdownTimeout;
+        }
+
+        public void setShutdownTimeout(Duration shutdownTimeout) {
+            this.shutdownTimeout = shutdownTimeout;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package dev.sealkboy.myagara.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Holds upload bytes in memory for the duration of a request instead of writing them to a
+ * named temp file. Small uploads live on the heap; larger ones are read into pooled direct
+ * buffers whose total size is capped, so bursts of large uploads wait for (or fail to get)
+ * spool space rather than exhausting memory. Streams of unknown length, such as entries of a
+ * streamed ZIP, grow through the same pooled buffers up to {@code max-entry-size}.
+ * <p>
+ * Buffers come in whole megabytes, or powers of two below one. A buffer counts against the
+ * cap from its allocation until its memory is freed, pooled ones included, so making room
+ * for a size the pool lacks frees pooled buffers there and then instead of leaving them to
+ * the garbage collector.
+ */
+@Component
+public class UploadSpool implements MeterBinder {
+
+    private static final int MB = 1 << 20;
+    private static final MethodHandle INVOKE_CLEANER = invokeCleaner();
+
+    private final int inMemoryThreshold;
+    private final int maxEntryBytes;
+    private final long acquireTimeoutNanos;
+    private final Semaphore directBytes;
+    private final Map<Integer, Deque<ByteBuffer>> freeBuffers = new ConcurrentHashMap<>();
+
+    public UploadSpool(UploadProperties properties) {
+        UploadProperties.Spool spool = properties.getSpool();
+        this.inMemoryThreshold = (int) Math.min(Integer.MAX_VALUE, spool.getInMemoryThreshold().toBytes());
+        int maxDirectBytes = (int) Math.min(Integer.MAX_VALUE, spool.getMaxDirectMemory().toBytes());
+        this.maxEntryBytes = (int) Math.min(maxDirectBytes, spool.getMaxEntrySize().toBytes());
+        this.acquireTimeoutNanos = spool.getAcquireTimeout().toNanos();
+        this.directBytes = new Semaphore(maxDirectBytes);
+    }
+
+    /**
+     * @param file
+     * @return the upload's bytes; close it once every consumer is done
+     * @throws IOException if the upload cannot be read or does not fit in the spool
+     */
+    public SpooledImage spool(MultipartFile file) throws IOException {
+        if (file == null || file.isEmpty()) {
+            throw new IOException("No image file provided");
+        }
+        try (InputStream in = file.getInputStream()) {
+            return spool(file.getOriginalFilename(), file.getContentType(), in, file.getSize());
+        }
+    }
+
+    /**
+     * @param filename
+     * @param contentType
+     * @param in          stream positioned at the first byte of the image
+     * @param size        number of bytes to read, or a negative value if unknown
+     * @return the image's bytes; close it once every consumer is done
+     * @throws IOException
+     */
+    public SpooledImage spool(String filename, String contentType, InputStream in, long size) throws IOException {
+        if (size > maxEntryBytes) {
+            throw new IOException("Upload of " + size + " bytes exceeds the limit of " + maxEntryBytes);
+        }
+        if (size < 0) {
+            return spoolUnknownSize(filename, contentType, in);
+        }
+        if (size <= inMemoryThreshold) {
+            byte[] bytes = in.readNBytes((int) size);
+            checkComplete(bytes.length, size);
+            return new SpooledImage(filename, contentType, ByteBuffer.wrap(bytes), null);
+        }
+
+        ByteBuffer buffer = allocate(capacityFor((int) size));
+        try {
+            buffer.limit((int) size);
+            ReadableByteChannel channel = Channels.newChannel(in);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // keep reading until the declared size has arrived
+            }
+            checkComplete(buffer.position(), size);
+            buffer.flip();
+            return new SpooledImage(filename, contentType, buffer, this::recycle);
+        } catch (IOException | RuntimeException e) {
+            recycle(buffer);
+            throw e;
+        }
+    }
+
+    /**
+     * Reads up to the in-memory threshold onto the heap and, if the stream goes on, continues
+     * into direct buffers from the pool, moving to one twice the size each time the current
+     * one fills up. While the bytes are copied both buffers count against the cap, so growing
+     * briefly takes up to twice the entry's size of it.
+     */
+    private SpooledImage spoolUnknownSize(String filename, String contentType, InputStream in) throws IOException {
+        byte[] head = in.readNBytes(inMemoryThreshold + 1);
+        if (head.length <= inMemoryThreshold) {
+            return new SpooledImage(filename, contentType, ByteBuffer.wrap(head), null);
+        }
+        if (head.length > maxEntryBytes) {
+            throw new IOException("Upload exceeds the limit of " + maxEntryBytes + " bytes");
+        }
+
+        ByteBuffer buffer = allocate(capacityFor((int) Math.min(2L * head.length, maxEntryBytes)));
+        try {
+            buffer.put(head);
+            ReadableByteChannel channel = Channels.newChannel(in);
+            while (true) {
+                buffer.limit(Math.min(buffer.capacity(), maxEntryBytes));
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // fill the current buffer or reach the end of the stream
+                }
+                if (buffer.hasRemaining()) {
+                    break;
+                }
+                if (buffer.position() >= maxEntryBytes) {
+                    if (in.read() >= 0) {
+                        throw new IOException("Upload exceeds the limit of " + maxEntryBytes + " bytes");
+                    }
+                    break;
+                }
+                ByteBuffer larger = allocate(capacityFor((int) Math.min(2L * buffer.capacity(), maxEntryBytes)));
+                buffer.flip();
+                larger.put(buffer);
+                recycle(buffer);
+                buffer = larger;
+            }
+            buffer.flip();
+            return new SpooledImage(filename, contentType, buffer, this::recycle);
+        } catch (IOException | RuntimeException e) {
+            recycle(buffer);
+            throw e;
+        }
+    }
+
+    /**
+     * @return bytes of direct memory not currently allocated to the spool
+     */
+    public int availableDirectBytes() {
+        return directBytes.availablePermits();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("myagara.upload.spool.direct.available", this, UploadSpool::availableDirectBytes)
+                .baseUnit("bytes")
+                .description("Direct memory the spool can still hand to uploads")
+                .register(registry);
+    }
+
+    private ByteBuffer allocate(int capacity) throws IOException {
+        Deque<ByteBuffer> free = freeBuffers.get(capacity);
+        ByteBuffer pooled = free == null ? null : free.pollFirst();
+        if (pooled != null) {
+            return pooled.clear();
+        }
+        if (!directBytes.tryAcquire(capacity)) {
+            trimFreeBuffers();
+            try {
+                if (!directBytes.tryAcquire(capacity, acquireTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                    throw new IOException("Upload spool is full");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for upload spool space");
+            }
+        }
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    private void recycle(ByteBuffer buffer) {
+        // someone is waiting for space, possibly of a different size: give the bytes back instead
+        if (directBytes.hasQueuedThreads() && free(buffer)) {
+            return;
+        }
+        freeBuffers.computeIfAbsent(buffer.capacity(), capacity -> new ConcurrentLinkedDeque<>()).offerFirst(buffer);
+    }
+
+    private void trimFreeBuffers() {
+        for (Deque<ByteBuffer> free : freeBuffers.values()) {
+            ByteBuffer buffer;
+            while ((buffer = free.pollFirst()) != null) {
+                if (!free(buffer)) {
+                    free.offerFirst(buffer);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Releases the buffer's native memory now and only then its share of the cap.
+     *
+     * @return {@code false} if this JVM offers no way to, in which case the buffer stays in use
+     */
+    private boolean free(ByteBuffer buffer) {
+        if (INVOKE_CLEANER == null) {
+            return false;
+        }
+        try {
+            INVOKE_CLEANER.invokeExact(buffer);
+        } catch (Throwable e) {
+            return false;
+        }
+        directBytes.release(buffer.capacity());
+        return true;
+    }
+
+    /**
+     * @return the size class holding {@code size} bytes: whole megabytes, or the next power
+     *         of two below one, never more than {@code max-entry-size}
+     */
+    private int capacityFor(int size) {
+        long capacity;
+        if (size > MB) {
+            capacity = (size + (long) MB - 1) / MB * MB;
+        } else {
+            capacity = Integer.highestOneBit(size);
+            if (capacity < size) {
+                capacity = capacity << 1;
+            }
+        }
+        return (int) Math.min(capacity, maxEntryBytes);
+    }
+
+    private static MethodHandle invokeCleaner() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            return MethodHandles.lookup()
+                    .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(theUnsafe.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static void checkComplete(long read, long expected) throws IOException {
+        if (read != expected) {
+            throw new IOException("Upload ended after " + read + " of " + expected + " bytes");
+        }
+    }
+}
@@ -4,21 +4,47 @@ import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import dev.sealkboy.myagara.controller.ImageController;
 import dev.sealkboy.myagara.model.Image;
+import dev.sealkboy.myagara.service.BadRequestException;
+import dev.sealkboy.myagara.service.ImageFields;
+import dev.sealkboy.myagara.service.ImagePage;
+import dev.sealkboy.myagara.service.ImageQuery;
 import dev.sealkboy.myagara.service.ImageService;
+import dev.sealkboy.myagara.service.UploadJob;
+import dev.sealkboy.myagara.service.UploadJobService;
+import dev.sealkboy.myagara.storage.StoredImage;
 
 class ImageControllerTest {
 
@@ -28,6 +54,12 @@ class ImageControllerTest {
     @Mock
     private ImageService imageService;
 
+    @Mock
+    private UploadJobService uploadJobService;
+
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper();
+
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
@@ -44,6 +76,34 @@ class ImageControllerTest {
         verify(imageService, times(1)).uploadImage(mockFile);
     }
 
+    @Test
+    void testUploadImageAsync() {
+        MultipartFile mockFile = mock(MultipartFile.class);
+        UploadJob job = mock(UploadJob.class);
+        when(job.getId()).thenReturn("job-1");
+        when(uploadJobService.submit(mockFile)).thenReturn(job);
+
+        ResponseEntity<UploadJob> response = imageController.uploadImageAsync(mockFile);
+
+        assertEquals(HttpStatus.ACCEPTED, response.getStatusCode());
+        assertEquals("/api/images/jobs/job-1", response.getHeaders().getLocation().toString());
+        verify(imageService, never()).uploadImage(any(MultipartFile.class));
+    }
+
+    @Test
+    void testGetUploadJob() {
+        UploadJob job = mock(UploadJob.class);
+        when(job.isDone()).thenReturn(true);
+        when(uploadJobService.getJob("job-1")).thenReturn(job);
+        when(uploadJobService.await(job, Duration.ofSeconds(5))).thenReturn(CompletableFuture.completedFuture(job));
+
+        ResponseEntity<UploadJob> response = imageController.getUploadJob("job-1", 5).join();
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertSame(job, response.getBody());
+
+        assertEquals(HttpStatus.NOT_FOUND, imageController.getUploadJob("missing", 0).join().getStatusCode());
+    }
+
 
     @Test
     void testGetAllImages() {
@@ -56,14 +116,131 @@ class ImageControllerTest {
         mockImage2.setFilename("image2.jpg");
 
         List<Image> mockImages = Arrays.asList(mockImage1, mockImage2);
-        when(imageService.getAllImages()).thenReturn(mockImages);
+        when(imageService.getImages(null, 2)).thenReturn(new ImagePage(mockImages, "next"));
 
-        ResponseEntity<List<Image>> response = imageController.getAllImages();
+        ResponseEntity<List<Image>> response = imageController.getImages(null, 2, webRequest(null));
 
         assertNotNull(response);
         assertEquals(200, response.getStatusCode().value());
         assertEquals(2, response.getBody().size());
-        verify(imageService, times(1)).getAllImages();
+        assertEquals("next", response.getHeaders().getFirst("X-Next-Cursor"));
+        assertEquals("</api/images?limit=2&cursor=next>; rel=\"next\"", response.getHeaders().getFirst(HttpHeaders.LINK));
+        verify(imageService, times(1)).getImages(null, 2);
+    }
+
+    @Test
+    void testGetImageFieldsReturnsOnlyThoseFields() {
+        Image image = new Image();
+        image.setId("1");
+        image.setLabel("Corn___Healthy");
+        image.setConfidence(97.5);
+        image.setFilename("leaf.jpg");
+        when(imageService.searchImages(eq(ImageQuery.ALL), isNull(), eq(20), any(ImageFields.class)))
+                .thenReturn(new ImagePage(List.of(image), "next"));
+
+        ResponseEntity<List<Map<String, Object>>> response = imageController.getImageFields("id,label,confidence",
+                null, 20, webRequest(null));
+
+        assertEquals(List.of(Map.of("id", "1", "label", "Corn___Healthy", "confidence", 97.5)), response.getBody());
+        assertEquals("</api/images?fields=id,label,confidence&limit=20&cursor=next>; rel=\"next\"",
+                response.getHeaders().getFirst(HttpHeaders.LINK));
+        assertEquals(List.of(HttpHeaders.ACCEPT), response.getHeaders().getVary());
+        verify(imageService).searchImages(eq(ImageQuery.ALL), isNull(), eq(20),
+                argThat(fields -> fields.names().equals(List.of("id", "label", "confidence"))));
+        assertThrows(BadRequestException.class,
+                () -> imageController.getImageFields("id,owner", null, null, webRequest(null)));
+    }
+
+    @Test
+    void testUnchangedListingIsNotModifiedWithoutQuerying() {
+        when(imageService.getImagesTag()).thenReturn("abc");
+        when(imageService.getImages(null, null)).thenReturn(new ImagePage(List.of(new Image()), null));
+
+        ResponseEntity<List<Image>> first = imageController.getImages(null, null, webRequest(null));
+        assertEquals("W/\"abc\"", first.getHeaders().getETag());
+        assertEquals("no-cache", first.getHeaders().getCacheControl());
+
+        ServletWebRequest revalidation = webRequest("W/\"abc\"");
+        assertNull(imageController.getImages(null, null, revalidation));
+        assertEquals(304, revalidation.getResponse().getStatus());
+        verify(imageService, times(1)).getImages(null, null);
+
+        when(imageService.getImagesTag()).thenReturn(null);
+        ResponseEntity<List<Image>> untracked = imageController.getImages(null, null, webRequest("W/\"abc\""));
+        assertNull(untracked.getHeaders().getETag());
+        verify(imageService, times(2)).getImages(null, null);
+    }
+
+    @Test
+    void testUpdateImageMetadataWithIfMatch() {
+        Image updatedImage = new Image();
+        updatedImage.setLabel("Corn___Blight");
+        Image saved = new Image();
+        saved.setVersion(4L);
+        when(imageService.updateImageMetadata(eq("123"), any(Image.class))).thenReturn(saved);
+
+        ResponseEntity<Image> response = imageController.updateImageMetadata("123", updatedImage, "W/\"3\"");
+
+        assertEquals("\"4\"", response.getHeaders().getETag());
+        verify(imageService).updateImageMetadata(eq("123"), argThat(image -> image.getVersion() == 3L));
+        assertThrows(BadRequestException.class,
+                () -> imageController.updateImageMetadata("123", new Image(), "\"abc\""));
+    }
+
+    @Test
+    void testSearchImages() {
+        Instant from = Instant.parse("2024-05-01T00:00:00Z");
+        when(imageService.searchImages(any(ImageQuery.class), isNull(), isNull()))
+                .thenReturn(new ImagePage(List.of(new Image()), "next"));
+
+        ResponseEntity<List<Image>> response = imageController.searchImages("Grape___Black_rot", null, 60.0, from, null, null, null,
+                webRequest(null));
+
+        assertEquals(1, response.getBody().size());
+        assertEquals("</api/images/search?label=Grape___Black_rot&maxConfidence=60.0&from=2024-05-01T00:00:00Z&cursor=next>; rel=\"next\"",
+                response.getHeaders().getFirst(HttpHeaders.LINK));
+        verify(imageService).searchImages(new ImageQuery("Grape___Black_rot", null, 60.0, from.toEpochMilli(), null), null, null);
+    }
+
+    @Test
+    void testExportStreamsWithoutBufferingTheCollection() throws Exception {
+        int total = 20_000;
+        AtomicLong produced = new AtomicLong();
+        AtomicLong writtenLines = new AtomicLong();
+        AtomicLong maxBacklog = new AtomicLong();
+        AtomicBoolean closed = new AtomicBoolean();
+        Stream<Image> cursor = Stream.iterate(0, i -> i < total, i -> i + 1)
+                .map(i -> {
+                    maxBacklog.accumulateAndGet(produced.incrementAndGet() - writtenLines.get(), Math::max);
+                    Image image = new Image();
+                    image.setId("id-" + i);
+                    image.setFilename("leaf" + i + ".jpg");
+                    image.setTimestamp(total - i);
+                    return image;
+                })
+                .onClose(() -> closed.set(true));
+        when(imageService.streamImages()).thenReturn(cursor);
+        OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) {
+                if (b == '\n') {
+                    writtenLines.incrementAndGet();
+                }
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                for (int i = off; i < off + len; i++) {
+                    write(b[i]);
+                }
+            }
+        };
+
+        imageController.exportImages().getBody().writeTo(out);
+
+        assertEquals(total, writtenLines.get());
+        assertEquals(1, maxBacklog.get(), "each image should be written before the next is read");
+        assertTrue(closed.get(), "the Mongo cursor should be closed");
     }
 
     @Test
@@ -75,7 +252,7 @@ class ImageControllerTest {
 
         when(imageService.getImageById(id)).thenReturn(mockImage);
 
-        ResponseEntity<Image> response = imageController.getImageById(id);
+        ResponseEntity<Image> response = imageController.getImageById(id, webRequest(null));
 
         assertNotNull(response);
         assertEquals(200, response.getStatusCode().value());
@@ -83,6 +260,128 @@ class ImageControllerTest {
         verify(imageService, times(1)).getImageById(id);
     }
 
+    @Test
+    void testGetImageByIdIsTaggedWithItsVersion() {
+        Image image = new Image();
+        image.setId("123");
+        image.setVersion(2L);
+        when(imageService.getImageById("123")).thenReturn(image);
+
+        ResponseEntity<Image> response = imageController.getImageById("123", webRequest("\"1\""));
+        assertEquals("\"2\"", response.getHeaders().getETag());
+        assertEquals(image, response.getBody());
+
+        ServletWebRequest revalidation = webRequest("\"2\"");
+        assertNull(imageController.getImageById("123", revalidation));
+        assertEquals(304, revalidation.getResponse().getStatus());
+    }
+
+    @Test
+    void testRenderedThumbnailsChangeTheTagButNotTheVersion() {
+        Image image = new Image();
+        image.setId("123");
+        image.setVersion(2L);
+        image.setThumbnails(List.of(128, 512));
+        when(imageService.getImageById("123")).thenReturn(image);
+
+        ResponseEntity<Image> response = imageController.getImageById("123", webRequest("\"2\""));
+        assertEquals("\"2-128-512\"", response.getHeaders().getETag());
+
+        when(imageService.updateImageMetadata(eq("123"), any(Image.class))).thenReturn(image);
+        imageController.updateImageMetadata("123", new Image(), "\"2-128-512\"");
+        verify(imageService).updateImageMetadata(eq("123"), argThat(update -> update.getVersion() == 2L));
+    }
+
+    @Test
+    void testGetImageContentServesBytesWithCacheHeaders() throws Exception {
+        Image image = contentImage();
+        when(imageService.getImageContent(image)).thenReturn(stored("0123456789", null));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        imageController.getImageContent("1", new MockHttpServletRequest("GET", "/api/images/1/content"), response);
+
+        assertEquals(200, response.getStatus());
+        assertEquals("0123456789", response.getContentAsString());
+        assertEquals("image/jpeg", response.getContentType());
+        assertEquals("\"" + image.getContentHash() + "\"", response.getHeader(HttpHeaders.ETAG));
+        assertTrue(response.getHeader(HttpHeaders.CACHE_CONTROL).contains("immutable"));
+        assertEquals("bytes", response.getHeader(HttpHeaders.ACCEPT_RANGES));
+    }
+
+    @Test
+    void testGetImageContentHonoursRangeAndIfNoneMatch() throws Exception {
+        Image image = contentImage();
+        when(imageService.getImageContent(image)).thenReturn(stored("0123456789", null));
+
+        MockHttpServletRequest ranged = new MockHttpServletRequest("GET", "/api/images/1/content");
+        ranged.addHeader(HttpHeaders.RANGE, "bytes=2-5");
+        MockHttpServletResponse partial = new MockHttpServletResponse();
+        imageController.getImageContent("1", ranged, partial);
+        assertEquals(206, partial.getStatus());
+        assertEquals("2345", partial.getContentAsString());
+        assertEquals("bytes 2-5/10", partial.getHeader(HttpHeaders.CONTENT_RANGE));
+
+        MockHttpServletRequest beyond = new MockHttpServletRequest("GET", "/api/images/1/content");
+        beyond.addHeader(HttpHeaders.RANGE, "bytes=20-");
+        MockHttpServletResponse unsatisfiable = new MockHttpServletResponse();
+        imageController.getImageContent("1", beyond, unsatisfiable);
+        assertEquals(416, unsatisfiable.getStatus());
+        assertEquals("bytes */10", unsatisfiable.getHeader(HttpHeaders.CONTENT_RANGE));
+
+        MockHttpServletRequest cached = new MockHttpServletRequest("GET", "/api/images/1/content");
+        cached.addHeader(HttpHeaders.IF_NONE_MATCH, "\"" + image.getContentHash() + "\"");
+        MockHttpServletResponse notModified = new MockHttpServletResponse();
+        imageController.getImageContent("1", cached, notModified);
+        assertEquals(304, notModified.getStatus());
+        assertEquals(0, notModified.getContentAsByteArray().length);
+    }
+
+    @Test
+    void testGetImageContentHandsLargeFilesToSendfile() throws Exception {
+        Image image = contentImage();
+        Path file = Path.of("/data/originals/blob");
+        when(imageService.getImageContent(image)).thenReturn(stored("x".repeat(100_000), file));
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/images/1/content");
+        request.setAttribute("org.apache.tomcat.sendfile.support", Boolean.TRUE);
+        request.addHeader(HttpHeaders.RANGE, "bytes=1000-");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        imageController.getImageContent("1", request, response);
+
+        assertEquals(206, response.getStatus());
+        assertEquals(99_000, response.getContentLengthLong());
+        assertEquals(0, response.getContentAsByteArray().length);
+        assertEquals(file.toAbsolutePath().toString(), request.getAttribute("org.apache.tomcat.sendfile.filename"));
+        assertEquals(1000L, request.getAttribute("org.apache.tomcat.sendfile.start"));
+        assertEquals(100_000L, request.getAttribute("org.apache.tomcat.sendfile.end"));
+    }
+
+    @Test
+    void testGetImageThumbnailDefaultsToSmallestSize() throws Exception {
+        Image image = contentImage();
+        when(imageService.getThumbnailSizes()).thenReturn(List.of(128, 512));
+        when(imageService.getImageThumbnail(image, 128)).thenReturn(stored("thumb", null));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        imageController.getImageThumbnail("1", null, new MockHttpServletRequest("GET", "/api/images/1/thumbnail"),
+                response);
+
+        assertEquals(200, response.getStatus());
+        assertEquals("thumb", response.getContentAsString());
+        assertEquals("image/jpeg", response.getContentType());
+        assertEquals("\"" + image.getContentHash() + ".w128\"", response.getHeader(HttpHeaders.ETAG));
+    }
+
+    @Test
+    void testGetImageContentNotArchived() throws Exception {
+        when(imageService.getImageContent(contentImage())).thenReturn(null);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        imageController.getImageContent("1", new MockHttpServletRequest("GET", "/api/images/1/content"), response);
+
+        assertEquals(404, response.getStatus());
+    }
+
     @Test
     void testUpdateImageMetadata() {
         String id = "123";
@@ -95,7 +394,7 @@ class ImageControllerTest {
 
         when(imageService.updateImageMetadata(eq(id), any(Image.class))).thenReturn(mockUpdatedImage);
 
-        ResponseEntity<Image> response = imageController.updateImageMetadata(id, updatedImage);
+        ResponseEntity<Image> response = imageController.updateImageMetadata(id, updatedImage, null);
 
         assertNotNull(response);
         assertEquals(200, response.getStatusCode().value());
@@ -127,4 +426,42 @@ class ImageControllerTest {
         assertEquals("All Images Deleted", response.getBody());
         verify(imageService, times(1)).deleteAllImages();
     }
+
+    private static ServletWebRequest webRequest(String ifNoneMatch) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/images");
+        if (ifNoneMatch != null) {
+            request.addHeader(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+        }
+        return new ServletWebRequest(request, new MockHttpServletResponse());
+    }
+
+    private Image contentImage() {
+        Image image = new Image();
+        image.setId("1");
+        image.setFilename("leaf.jpg");
+        image.setContentHash("ab".repeat(32));
+        when(imageService.getImageById("1")).thenReturn(image);
+        return image;
+    }
+
+    private static StoredImage stored(String content, Path file) {
+        byte[] bytes = content.getBytes();
+        return new StoredImage() {
+
+            @Override
+            public long length() {
+                return bytes.length;
+            }
+
+            @Override
+            public Path file() {
+                return file;
+            }
+
+            @Override
+            public void transferTo(long position, long count, WritableByteChannel target) throws IOException {
+                target.write(ByteBuffer.wrap(bytes, (int) position, (int) count));
+            }
+        };
+    }
 }
@@ -0,0 +1,91 @@
+package dev.sealkboy.myagara.mlTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+import dev.sealkboy.myagara.ml.AdaptiveLimiter;
+
+class AdaptiveLimiterTest {
+
+    private static final long FAST = Duration.ofMillis(20).toNanos();
+    private static final long SLOW = Duration.ofMillis(200).toNanos();
+
+    @Test
+    void testCallsOverTheLimitAreRefused() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(2, 1, 10, 2.0, 0.2);
+
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+
+        limiter.onIgnored();
+        assertTrue(limiter.tryAcquire());
+        assertEquals(1, limiter.stats().rejected());
+        assertEquals(2, limiter.stats().inFlight());
+    }
+
+    @Test
+    void testLimitGrowsWhileLatencyHolds() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(4, 1, 100, 2.0, 0.2);
+
+        saturate(limiter, FAST, 50);
+
+        assertTrue(limiter.getLimit() > 20, "limit " + limiter.getLimit());
+    }
+
+    @Test
+    void testLimitShrinksWhenLatencyRises() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(4, 1, 100, 2.0, 0.2);
+        saturate(limiter, FAST, 50);
+        int before = limiter.getLimit();
+
+        saturate(limiter, SLOW, 3);
+
+        assertTrue(limiter.getLimit() < before / 2, before + " -> " + limiter.getLimit());
+    }
+
+    @Test
+    void testIdleLimitDoesNotGrow() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(10, 1, 100, 2.0, 0.2);
+
+        for (int i = 0; i < 50; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.onSuccess(FAST);
+        }
+
+        assertEquals(10, limiter.getLimit());
+    }
+
+    @Test
+    void testFailureBacksOffDownToMinimum() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(10, 3, 100, 2.0, 0.2);
+
+        assertTrue(limiter.tryAcquire());
+        limiter.onFailure();
+        assertEquals(9, limiter.getLimit());
+
+        for (int i = 0; i < 50; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.onFailure();
+        }
+        assertEquals(3, limiter.getLimit());
+    }
+
+    /**
+     * Fills the limit and completes every call with {@code latencyNanos}, {@code rounds} times.
+     */
+    private static void saturate(AdaptiveLimiter limiter, long latencyNanos, int rounds) {
+        for (int round = 0; round < rounds; round++) {
+            int acquired = 0;
+            while (limiter.tryAcquire()) {
+                acquired++;
+            }
+            for (int i = 0; i < acquired; i++) {
+                limiter.onSuccess(latencyNanos);
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package dev.sealkboy.myagara.mlTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+import dev.sealkboy.myagara.ml.CircuitBreaker;
+
+class CircuitBreakerTest {
+
+    @Test
+    void testOpensWhenFailureRateReachesThreshold() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 10, 4, 0.5, Duration.ofSeconds(30), 2);
+
+        call(breaker, true);
+        call(breaker, false);
+        call(breaker, true);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState(), "too few calls to judge");
+
+        call(breaker, false);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+        assertEquals(1, breaker.stats().rejected());
+        long retryAfter = breaker.retryAfter().toSeconds();
+        assertTrue(retryAfter >= 29 && retryAfter <= 30, "retry after " + retryAfter);
+    }
+
+    @Test
+    void testOldOutcomesLeaveTheWindow() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 4, 4, 0.5, Duration.ofSeconds(30), 2);
+
+        call(breaker, false);
+        for (int i = 0; i < 10; i++) {
+            call(breaker, true);
+        }
+        call(breaker, true);
+        call(breaker, true);
+        call(breaker, false);
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0.25, breaker.stats().failureRate());
+    }
+
+    @Test
+    void testHalfOpenTrialsCloseOrReopen() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker("test", 4, 2, 0.5, Duration.ofMillis(50), 2);
+        call(breaker, false);
+        call(breaker, false);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        Thread.sleep(80);
+        assertTrue(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        Thread.sleep(80);
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire(), "only two trial calls at a time");
+        breaker.onSuccess();
+        breaker.onSuccess();
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    private static void call(CircuitBreaker breaker, boolean succeeded) {
+        assertTrue(breaker.tryAcquire());
+        if (succeeded) {
+            breaker.onSuccess();
+        } else {
+            breaker.onFailure();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package dev.sealkboy.myagara.mlTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.Resource;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import dev.sealkboy.myagara.ml.CachedClassification;
+import dev.sealkboy.myagara.ml.Classification;
+import dev.sealkboy.myagara.ml.ClassificationCache;
+import dev.sealkboy.myagara.ml.InferenceProperties;
+import dev.sealkboy.myagara.storage.SpooledImage;
+
+class ClassificationCacheTest {
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final AtomicInteger inferences = new AtomicInteger();
+    private volatile String servedVersion = "v1";
+    private ClassificationCache cache;
+
+    @AfterEach
+    void tearDown() {
+        if (cache != null) {
+            cache.shutdown();
+        }
+    }
+
+    @Test
+    void testIdenticalBytesAreClassifiedOnce() {
+        cache = cache(false);
+
+        Classification first = cache.classify(image("leaf.jpg", "same bytes"), this::infer).join();
+        Classification second = cache.classify(image("other-name.jpg", "same bytes"), this::infer).join();
+
+        assertEquals(first, second);
+        assertEquals(1, inferences.get());
+        assertEquals(1, cache.stats().hits());
+        assertEquals(1, cache.stats().misses());
+    }
+
+    @Test
+    void testConcurrentIdenticalUploadsShareOneInference() {
+        cache = cache(false);
+        CompletableFuture<Classification> pending = new CompletableFuture<>();
+
+        CompletableFuture<Classification> first = cache.classify(image("a.jpg", "burst"), image -> {
+            inferences.incrementAndGet();
+            return pending;
+        });
+        CompletableFuture<Classification> second = cache.classify(image("b.jpg", "burst"), this::infer);
+        pending.complete(new Classification("Grape___Black_rot", 55.0, "v1"));
+
+        assertEquals("Grape___Black_rot", first.join().label());
+        assertEquals("Grape___Black_rot", second.join().label());
+        assertEquals(1, inferences.get());
+    }
+
+    @Test
+    void testModelChangeInvalidatesEntries() {
+        cache = cache(false);
+        cache.onModelVersion("v1");
+        cache.classify(image("leaf.jpg", "bytes"), this::infer).join();
+
+        servedVersion = "v2";
+        cache.onModelVersion("v2");
+        cache.classify(image("leaf.jpg", "bytes"), this::infer).join();
+
+        assertEquals(2, inferences.get());
+        assertEquals("v2", cache.stats().modelVersion());
+    }
+
+    @Test
+    void testResultOfReplacedModelIsNotServed() {
+        cache = cache(false);
+        cache.onModelVersion("v1");
+        CompletableFuture<Classification> pending = new CompletableFuture<>();
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<Classification> inFlight = cache.classify(image("leaf.jpg", "bytes"),
+                image -> calls.getAndIncrement() == 0 ? pending : infer(image));
+
+        servedVersion = "v2";
+        cache.onModelVersion("v2");
+        pending.complete(new Classification("Apple___Apple_scab", 91.0, "v1"));
+
+        assertEquals("v2", inFlight.join().modelVersion());
+    }
+
+    @Test
+    void testFailedInferenceIsNotCached() {
+        cache = cache(false);
+        CompletableFuture<Classification> failed = cache.classify(image("leaf.jpg", "bytes"),
+                image -> CompletableFuture.failedFuture(new RuntimeException("Flask server is unavailable")));
+        assertThrows(Exception.class, failed::join);
+
+        cache.classify(image("leaf.jpg", "bytes"), this::infer).join();
+
+        assertEquals(1, inferences.get());
+    }
+
+    @Test
+    void testPersistentTierAnswersMissesOfTheCurrentModel() {
+        cache = cache(true);
+        cache.onModelVersion("v1");
+        CachedClassification stored = new CachedClassification();
+        stored.setLabel("Cherry___healthy");
+        stored.setConfidence(97.0);
+        stored.setModelVersion("v1");
+        when(mongoTemplate.findOne(any(Query.class), eq(CachedClassification.class))).thenReturn(stored);
+
+        Classification result = cache.classify(image("leaf.jpg", "bytes"), this::infer).join();
+
+        assertEquals("Cherry___healthy", result.label());
+        assertEquals(0, inferences.get());
+        assertEquals(1, cache.stats().persistentHits());
+    }
+
+    @Test
+    void testNewResultsAreWrittenToPersistentTier() {
+        cache = cache(true);
+        cache.onModelVersion("v1");
+
+        cache.classify(image("leaf.jpg", "bytes"), this::infer).join();
+
+        verify(mongoTemplate, times(1)).save(argThat((CachedClassification cached) ->
+                cached.getId().equals(SpooledImage.of("x", "bytes".getBytes()).sha256())
+                        && cached.getModelVersion().equals("v1")));
+    }
+
+    @Test
+    void testDisabledCacheAlwaysInfers() {
+        InferenceProperties properties = new InferenceProperties();
+        properties.getCache().setEnabled(false);
+        cache = new ClassificationCache(properties, mongoTemplate);
+
+        cache.classify(image("leaf.jpg", "bytes"), this::infer).join();
+        cache.classify(image("leaf.jpg", "bytes"), this::infer).join();
+
+        assertEquals(2, inferences.get());
+    }
+
+    private ClassificationCache cache(boolean persistent) {
+        InferenceProperties properties = new InferenceProperties();
+        properties.getCache().setPersistent(persistent);
+        return new ClassificationCache(properties, mongoTemplate);
+    }
+
+    private CompletableFuture<Classification> infer(Resource image) {
+        inferences.incrementAndGet();
+        return CompletableFuture.completedFuture(new Classification("Apple___Apple_scab", 91.0, servedVersion));
+    }
+
+    private static SpooledImage image(String filename, String content) {
+        return SpooledImage.of(filename, content.getBytes());
+    }
+}
@@ -0,0 +1,86 @@
+package dev.sealkboy.myagara.mlTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import dev.sealkboy.myagara.ml.Classification;
+import dev.sealkboy.myagara.ml.FlaskClassifier;
+import dev.sealkboy.myagara.ml.InferenceTransport;
+import dev.sealkboy.myagara.ml.PartialBatchException;
+import dev.sealkboy.myagara.ml.UnclassifiableImageException;
+import dev.sealkboy.myagara.storage.SpooledImage;
+
+class FlaskClassifierTest {
+
+    private final InferenceTransport transport = mock(InferenceTransport.class);
+    private final FlaskClassifier classifier = new FlaskClassifier(transport);
+
+    @Test
+    void testSingleImageUsesClassifyEndpoint() {
+        when(transport.postImages(eq("/classify"), eq("image"), anyList())).thenReturn(
+                Map.of("label", "Grape___Black_rot", "confidence", 87.5, "model_version", "abc"));
+
+        Classification result = classifier.classify(List.of(image())).get(0);
+
+        assertEquals(new Classification("Grape___Black_rot", 87.5, "abc"), result);
+    }
+
+    @Test
+    void testSeveralImagesUseBatchEndpoint() {
+        when(transport.postImages(eq("/classify_batch"), eq("images"), anyList())).thenReturn(Map.of(
+                "results", List.of(Map.of("label", "Cherry___healthy", "confidence", 97.0),
+                        Map.of("label", "Apple___Apple_scab", "confidence", 64.0)),
+                "model_version", "abc"));
+
+        List<Classification> results = classifier.classify(List.of(image(), image()));
+
+        assertEquals("Cherry___healthy", results.get(0).label());
+        assertEquals("Apple___Apple_scab", results.get(1).label());
+        assertEquals("abc", results.get(1).modelVersion());
+    }
+
+    @Test
+    void testUnreadableImagesFailOnTheirOwn() {
+        when(transport.postImages(eq("/classify_batch"), eq("images"), anyList())).thenReturn(Map.of(
+                "results", List.of(Map.of("label", "Cherry___healthy", "confidence", 97.0),
+                        Map.of("error", "cannot identify image file")),
+                "model_version", "abc"));
+
+        PartialBatchException exception = assertThrows(PartialBatchException.class,
+                () -> classifier.classify(List.of(image(), image())));
+
+        assertNull(exception.getFailure(0));
+        assertEquals("Cherry___healthy", exception.<Classification>getResult(0).label());
+        assertInstanceOf(UnclassifiableImageException.class, exception.getFailure(1));
+        assertEquals("Error classifying image: cannot identify image file", exception.getFailure(1).getMessage());
+    }
+
+    @Test
+    void testMismatchedBatchResponseFails() {
+        when(transport.postImages(eq("/classify_batch"), eq("images"), anyList()))
+                .thenReturn(Map.of("results", List.of()));
+
+        RuntimeException exception = assertThrows(RuntimeException.class,
+                () -> classifier.classify(List.of(image(), image())));
+        assertEquals("Error connecting to Flask API", exception.getMessage());
+    }
+
+    @Test
+    void testWarmUpCallsTheModelServerOncePerConnection() {
+        when(transport.get("/model")).thenReturn(Map.of("model_version", "abc"));
+
+        classifier.warmUp(3);
+
+        verify(transport, times(3)).get("/model");
+    }
+
+    private static SpooledImage image() {
+        return SpooledImage.of("leaf.jpg", "bytes".getBytes());
+    }
+}
@@ -0,0 +1,322 @@
+package dev.sealkboy.myagara.mlTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import dev.sealkboy.myagara.ml.HttpInferenceTransport;
+import dev.sealkboy.myagara.ml.ImagePreprocessor;
+import dev.sealkboy.myagara.ml.InferenceProperties;
+import dev.sealkboy.myagara.ml.ReplicaPool;
+import dev.sealkboy.myagara.ml.UnclassifiableImageException;
+import dev.sealkboy.myagara.storage.SpooledImage;
+
+class HttpInferenceTransportTest {
+
+    private HttpServer server;
+    private HttpInferenceTransport transport;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private final List<HttpServer> replicas = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newFixedThreadPool(16));
+        server.createContext("/classify", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            respond(exchange, 200, "{\"label\": \"Grape___Black_rot\", \"confidence\": 87.5}");
+        });
+        server.createContext("/slow", exchange -> {
+            sleep(2_000);
+            respond(exchange, 200, "{}");
+        });
+        server.createContext("/echo", exchange -> {
+            String body;
+            try (InputStream in = exchange.getRequestBody()) {
+                body = new String(in.readAllBytes(), StandardCharsets.ISO_8859_1);
+            }
+            byte[] bytes = objectMapper.writeValueAsBytes(Map.of("body", body));
+            exchange.sendResponseHeaders(200, bytes.length);
+            exchange.getResponseBody().write(bytes);
+            exchange.close();
+        });
+        server.createContext("/broken", exchange -> respond(exchange, 500, "{\"error\": \"boom\"}"));
+        server.createContext("/unreadable", exchange -> respond(exchange, 422, "{\"error\": \"cannot identify image file\"}"));
+        server.start();
+
+        transport = transport(Duration.ofSeconds(10));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        transport.close();
+        server.stop(0);
+        replicas.forEach(replica -> replica.stop(0));
+    }
+
+    @Test
+    void testPostImagesDecodesResponse() {
+        Map<String, Object> body = transport.postImages("/classify", "image", List.of(image()));
+
+        assertEquals("Grape___Black_rot", body.get("label"));
+        assertEquals(87.5, ((Number) body.get("confidence")).doubleValue());
+    }
+
+    @Test
+    void testConcurrentCallsReuseBoundedConnections() throws Exception {
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Map<String, Object>>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                results.add(callers.submit(() -> transport.postImages("/classify", "image", List.of(image()))));
+            }
+            for (Future<Map<String, Object>> result : results) {
+                assertEquals("Grape___Black_rot", result.get().get("label"));
+            }
+        } finally {
+            callers.shutdown();
+        }
+
+        assertTrue(clientPorts.size() <= 2, "expected at most 2 sockets but saw " + clientPorts.size());
+        assertTrue(transport.getPoolStats().getLeased() == 0);
+    }
+
+    @Test
+    void testTotalTimeoutAbortsSlowCall() throws IOException {
+        HttpInferenceTransport impatient = transport(Duration.ofMillis(300));
+        try {
+            impatient.postImages("/classify", "image", List.of(image()));
+
+            long start = System.nanoTime();
+            RuntimeException exception = assertThrows(RuntimeException.class,
+                    () -> impatient.postImages("/slow", "image", List.of(image())));
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+            assertTrue(exception.getMessage().contains("total timeout"));
+            assertTrue(elapsedMillis < 1_500, "call should be aborted near the total timeout");
+        } finally {
+            impatient.close();
+        }
+    }
+
+    @Test
+    void testPreprocessedTensorIsSentWithItsShape() throws IOException {
+        BufferedImage leaf = new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        ImageIO.write(leaf, "png", encoded);
+        Resource tensor = new ImagePreprocessor(new InferenceProperties())
+                .prepare(SpooledImage.of("leaf.png", encoded.toByteArray()));
+
+        String body = (String) transport.postImages("/echo", "image", List.of(tensor)).get("body");
+
+        assertTrue(body.contains("filename=\"leaf.rgb\""));
+        assertTrue(body.contains("Content-Type: application/x-uint8-tensor; shape=128x128x3"), body.substring(0, 200));
+    }
+
+    @Test
+    void testErrorStatusIsReported() {
+        RuntimeException exception = assertThrows(RuntimeException.class,
+                () -> transport.postImages("/broken", "image", List.of(image())));
+
+        assertTrue(exception.getCause().getMessage().contains("Status: 500"));
+    }
+
+    @Test
+    void testUnreadableImageIsReportedAsSuch() {
+        UnclassifiableImageException exception = assertThrows(UnclassifiableImageException.class,
+                () -> transport.postImages("/unreadable", "image", List.of(image())));
+
+        assertEquals("Error classifying image: cannot identify image file", exception.getMessage());
+    }
+
+    @Test
+    void testCallsPreferReplicaWithFewestInFlight() throws Exception {
+        AtomicInteger slowCalls = new AtomicInteger();
+        AtomicInteger fastCalls = new AtomicInteger();
+        String slow = replica(slowCalls, () -> true, 300);
+        String fast = replica(fastCalls, () -> true, 0);
+        HttpInferenceTransport pooled = transport(properties -> properties.setEndpoints(List.of(slow, fast)));
+        ExecutorService callers = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Map<String, Object>>> results = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                results.add(callers.submit(() -> pooled.postImages("/classify", "image", List.of(image()))));
+            }
+            for (Future<Map<String, Object>> result : results) {
+                assertEquals("Grape___Black_rot", result.get().get("label"));
+            }
+        } finally {
+            callers.shutdown();
+            pooled.close();
+        }
+
+        assertTrue(slowCalls.get() < 10, "slow replica got " + slowCalls.get() + " of 40 calls");
+        assertEquals(40, slowCalls.get() + fastCalls.get());
+    }
+
+    @Test
+    void testFailingReplicaIsEvictedAndReadmitted() throws Exception {
+        AtomicBoolean up = new AtomicBoolean(false);
+        AtomicInteger flakyCalls = new AtomicInteger();
+        String flaky = replica(flakyCalls, up::get, 0);
+        String steady = replica(new AtomicInteger(), () -> true, 0);
+        HttpInferenceTransport pooled = transport(properties -> {
+            properties.setEndpoints(List.of(flaky, steady));
+            properties.getReplicas().setHealthCheckInterval(Duration.ofMillis(50));
+            properties.getReplicas().setUnhealthyThreshold(2);
+            properties.getReplicas().setHealthyThreshold(2);
+        });
+        try {
+            await(() -> !stats(pooled, flaky).healthy());
+            int callsWhileEvicted = flakyCalls.get();
+            for (int i = 0; i < 20; i++) {
+                pooled.postImages("/classify", "image", List.of(image()));
+            }
+            assertEquals(callsWhileEvicted, flakyCalls.get(), "evicted replica should get no calls");
+
+            up.set(true);
+            await(() -> stats(pooled, flaky).healthy());
+        } finally {
+            pooled.close();
+        }
+    }
+
+    @Test
+    void testSlowCallIsHedgedToAnotherReplica() throws IOException {
+        AtomicBoolean stalled = new AtomicBoolean(false);
+        String first = replica(new AtomicInteger(), () -> true, () -> stalled.get() ? 2_000 : 0);
+        String second = replica(new AtomicInteger(), () -> true, () -> 0);
+        HttpInferenceTransport hedged = transport(properties -> {
+            properties.setEndpoints(List.of(first, second));
+            properties.getHedge().setEnabled(true);
+            properties.getHedge().setMinDelay(Duration.ofMillis(20));
+            properties.getHedge().setMaxRatio(1.0);
+        });
+        try {
+            for (int i = 0; i < 30; i++) {
+                hedged.postImages("/classify", "image", List.of(image()));
+            }
+            stalled.set(true);
+            for (int i = 0; i < 10; i++) {
+                long start = System.nanoTime();
+                assertEquals("Grape___Black_rot", hedged.postImages("/classify", "image", List.of(image())).get("label"));
+                long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+                assertTrue(elapsedMillis < 1_000, "hedged call took " + elapsedMillis + "ms");
+            }
+            assertTrue(stats(hedged, second).hedged() > 0);
+        } finally {
+            hedged.close();
+        }
+    }
+
+    private HttpInferenceTransport transport(Duration totalTimeout) {
+        return transport(properties -> properties.getHttp().setTotalTimeout(totalTimeout));
+    }
+
+    private HttpInferenceTransport transport(Consumer<InferenceProperties> customizer) {
+        InferenceProperties properties = new InferenceProperties();
+        properties.setEndpoint("http://127.0.0.1:" + server.getAddress().getPort());
+        properties.getHttp().setMaxConnectionsPerRoute(2);
+        customizer.accept(properties);
+        return new HttpInferenceTransport(properties, new ObjectMapper());
+    }
+
+    private String replica(AtomicInteger calls, BooleanSupplier up, long delayMillis) throws IOException {
+        return replica(calls, up, () -> delayMillis);
+    }
+
+    /**
+     * @return the endpoint of another model server that counts its classify calls and,
+     *         while not {@code up}, fails every request including health checks
+     */
+    private String replica(AtomicInteger calls, BooleanSupplier up, LongSupplier delayMillis)
+            throws IOException {
+        HttpServer replica = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        replica.setExecutor(Executors.newCachedThreadPool());
+        replica.createContext("/classify", exchange -> {
+            calls.incrementAndGet();
+            sleep(delayMillis.getAsLong());
+            respond(exchange, up.getAsBoolean() ? 200 : 500, "{\"label\": \"Grape___Black_rot\", \"confidence\": 87.5}");
+        });
+        replica.createContext("/model", exchange -> respond(exchange, up.getAsBoolean() ? 200 : 500,
+                "{\"model_version\": \"1\"}"));
+        replica.start();
+        replicas.add(replica);
+        return "http://127.0.0.1:" + replica.getAddress().getPort();
+    }
+
+    private static ReplicaPool.ReplicaStats stats(HttpInferenceTransport transport, String endpoint) {
+        return transport.getReplicaStats().stream()
+                .filter(stats -> stats.endpoint().equals(endpoint))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "condition not met within 5s");
+            sleep(10);
+        }
+    }
+
+    private static ByteArrayResource image() {
+        return new ByteArrayResource("test content".getBytes()) {
+            @Override
+            public String getFilename() {
+                return "leaf.jpg";
+            }
+        };
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            in.readAllBytes();
+        }
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.close();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
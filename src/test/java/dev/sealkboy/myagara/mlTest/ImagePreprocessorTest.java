@@ -0,0 +1,149 @@
+package dev.sealkboy.myagara.mlTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.Resource;
+
+import dev.sealkboy.myagara.ml.ImagePreprocessor;
+import dev.sealkboy.myagara.ml.InferenceProperties;
+import dev.sealkboy.myagara.ml.PreprocessedImage;
+import dev.sealkboy.myagara.storage.SpooledImage;
+
+class ImagePreprocessorTest {
+
+    @Test
+    void testTensorModeSendsRawPixelsAtInputSize() throws IOException {
+        ImagePreprocessor preprocessor = preprocessor("tensor");
+        SpooledImage original = image(Color.RED, 2000, 1500, "png");
+
+        PreprocessedImage prepared = (PreprocessedImage) preprocessor.prepare(original);
+
+        assertTrue(prepared.isTensor());
+        assertEquals("application/x-uint8-tensor;shape=128x128x3", prepared.getContentType());
+        assertEquals("leaf.rgb", prepared.getFilename());
+        byte[] pixels = read(prepared);
+        assertEquals(128 * 128 * 3, pixels.length);
+        assertArrayEquals(new byte[] { (byte) 255, 0, 0 }, new byte[] { pixels[0], pixels[1], pixels[2] });
+        assertArrayEquals(new byte[] { (byte) 255, 0, 0 },
+                new byte[] { pixels[pixels.length - 3], pixels[pixels.length - 2], pixels[pixels.length - 1] });
+
+        ImagePreprocessor.PreprocessStats stats = preprocessor.stats();
+        assertEquals(1, stats.images());
+        assertEquals(original.contentLength(), stats.bytesIn());
+        assertEquals(pixels.length, stats.bytesOut());
+    }
+
+    @Test
+    void testJpegModeSendsSmallResizedImage() throws IOException {
+        ImagePreprocessor preprocessor = preprocessor("jpeg");
+        SpooledImage original = noise(1024, 768);
+
+        Resource prepared = preprocessor.prepare(original);
+
+        assertEquals("leaf.jpg", prepared.getFilename());
+        assertTrue(prepared.contentLength() < original.contentLength() / 10,
+                prepared.contentLength() + " bytes sent for " + original.contentLength());
+        BufferedImage decoded = ImageIO.read(prepared.getInputStream());
+        assertEquals(128, decoded.getWidth());
+        assertEquals(128, decoded.getHeight());
+    }
+
+    @Test
+    void testUndecodableImageIsSentUnchanged() {
+        ImagePreprocessor preprocessor = preprocessor("tensor");
+        SpooledImage garbage = SpooledImage.of("leaf.webp", "not an image".getBytes());
+
+        assertSame(garbage, preprocessor.prepare(garbage));
+        assertEquals(1, preprocessor.stats().passedThrough());
+        assertThrows(IOException.class, () -> preprocessor.tensor(garbage));
+    }
+
+    @Test
+    void testNoneModeSendsOriginal() throws IOException {
+        SpooledImage original = image(Color.GREEN, 64, 64, "png");
+
+        assertSame(original, preprocessor("none").prepare(original));
+    }
+
+    @Test
+    void testParallelPreparationKeepsOrderAndDoesNotMixPooledBuffers() throws IOException {
+        ImagePreprocessor preprocessor = preprocessor("tensor");
+        Color[] colors = { Color.RED, Color.GREEN, Color.BLUE };
+        List<SpooledImage> images = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            images.add(image(colors[i % 3], 300, 200, i % 2 == 0 ? "png" : "bmp"));
+        }
+
+        List<Resource> prepared = preprocessor.prepareAll(images);
+
+        assertEquals(images.size(), prepared.size());
+        for (int i = 0; i < prepared.size(); i++) {
+            byte[] pixels = read(prepared.get(i));
+            Color expected = colors[i % 3];
+            int center = (64 * 128 + 64) * 3;
+            assertEquals(expected.getRed(), pixels[center] & 0xFF, "image " + i);
+            assertEquals(expected.getGreen(), pixels[center + 1] & 0xFF, "image " + i);
+            assertEquals(expected.getBlue(), pixels[center + 2] & 0xFF, "image " + i);
+        }
+    }
+
+    @Test
+    void testPreparedTensorIsNotPreparedAgain() throws IOException {
+        ImagePreprocessor preprocessor = preprocessor("tensor");
+        Resource prepared = preprocessor.prepare(image(Color.BLUE, 64, 64, "png"));
+
+        assertSame(prepared, preprocessor.prepare(prepared));
+        assertSame(prepared, preprocessor.tensor(prepared));
+    }
+
+    private static ImagePreprocessor preprocessor(String mode) {
+        InferenceProperties properties = new InferenceProperties();
+        properties.getPreprocess().setMode(mode);
+        return new ImagePreprocessor(properties);
+    }
+
+    private static byte[] read(Resource resource) throws IOException {
+        try (InputStream in = resource.getInputStream()) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static SpooledImage image(Color color, int width, int height, String format) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(color);
+        graphics.fillRect(0, 0, width, height);
+        graphics.dispose();
+        return encode(image, format);
+    }
+
+    private static SpooledImage noise(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt(0xFFFFFF));
+            }
+        }
+        return encode(image, "png");
+    }
+
+    private static SpooledImage encode(BufferedImage image, String format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, format, out);
+        return SpooledImage.of("leaf." + format, out.toByteArray());
+    }
+}
@@ -0,0 +1,157 @@
+package dev.sealkboy.myagara.mlTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import dev.sealkboy.myagara.ml.InferenceBatcher;
+import dev.sealkboy.myagara.ml.PartialBatchException;
+import dev.sealkboy.myagara.ml.UnclassifiableImageException;
+
+class InferenceBatcherTest {
+
+    @Test
+    void testConcurrentCallsShareOneBatch() throws Exception {
+        List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        try (InferenceBatcher<Integer, String> batcher = new InferenceBatcher<>("test", 4, Duration.ofSeconds(5), 1,
+                inputs -> {
+                    batchSizes.add(inputs.size());
+                    return inputs.stream().map(i -> "result-" + i).toList();
+                })) {
+
+            List<CompletableFuture<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(batcher.submit(i));
+            }
+
+            for (int i = 0; i < 4; i++) {
+                assertEquals("result-" + i, futures.get(i).get());
+            }
+            assertEquals(List.of(4), batchSizes);
+
+            InferenceBatcher.BatchStats stats = batcher.stats();
+            assertEquals(1, stats.batches());
+            assertEquals(4, stats.requests());
+            assertEquals(4, stats.maxBatchSize());
+            assertEquals(1, stats.sizeHistogram()[4]);
+        }
+    }
+
+    @Test
+    void testPartialBatchFlushedAfterMaxWait() throws Exception {
+        try (InferenceBatcher<Integer, Integer> batcher = new InferenceBatcher<>("test", 16, Duration.ofMillis(20), 1,
+                inputs -> inputs.stream().map(i -> i * 2).toList())) {
+
+            long start = System.nanoTime();
+            assertEquals(42, batcher.submit(21).get());
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+            assertTrue(elapsedMillis >= 15, "batch should wait for more work before dispatching");
+            assertEquals(1, batcher.stats().sizeHistogram()[1]);
+        }
+    }
+
+    @Test
+    void testBatchFailurePropagatesToEveryCaller() {
+        try (InferenceBatcher<Integer, Integer> batcher = new InferenceBatcher<>("test", 2, Duration.ofSeconds(5), 1,
+                inputs -> {
+                    throw new RuntimeException("Flask server is unavailable");
+                })) {
+
+            CompletableFuture<Integer> first = batcher.submit(1);
+            CompletableFuture<Integer> second = batcher.submit(2);
+
+            CompletionException exception = assertThrows(CompletionException.class, first::join);
+            assertEquals("Flask server is unavailable", exception.getCause().getMessage());
+            assertThrows(CompletionException.class, second::join);
+        }
+    }
+
+    @Test
+    void testFailedItemsFailOnlyTheirCallers() throws Exception {
+        try (InferenceBatcher<Integer, Integer> batcher = new InferenceBatcher<>("test", 2, Duration.ofSeconds(5), 1,
+                inputs -> {
+                    throw new PartialBatchException(Arrays.asList(2, null),
+                            Arrays.asList(null, new UnclassifiableImageException("Cannot decode image")));
+                })) {
+
+            CompletableFuture<Integer> first = batcher.submit(1);
+            CompletableFuture<Integer> second = batcher.submit(2);
+
+            assertEquals(2, first.get());
+            CompletionException exception = assertThrows(CompletionException.class, second::join);
+            assertEquals("Cannot decode image", exception.getCause().getMessage());
+        }
+    }
+
+    @Test
+    void testMismatchedResultCountFailsBatch() {
+        try (InferenceBatcher<Integer, Integer> batcher = new InferenceBatcher<>("test", 2, Duration.ofSeconds(5), 1,
+                inputs -> List.of(1))) {
+
+            CompletableFuture<Integer> first = batcher.submit(1);
+            CompletableFuture<Integer> second = batcher.submit(2);
+
+            assertThrows(CompletionException.class, first::join);
+            assertThrows(CompletionException.class, second::join);
+        }
+    }
+
+    @Test
+    void testCloseDispatchesQueuedWork() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        InferenceBatcher<Integer, Integer> batcher = new InferenceBatcher<>("test", 1, Duration.ZERO, 1,
+                inputs -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return inputs;
+                });
+
+        CompletableFuture<Integer> first = batcher.submit(1);
+        CompletableFuture<Integer> second = batcher.submit(2);
+        release.countDown();
+        batcher.close();
+
+        assertEquals(1, first.get());
+        assertEquals(2, second.get());
+        assertTrue(batcher.submit(3).isCompletedExceptionally());
+    }
+
+    @Test
+    void testCallsRacingCloseAllComplete() throws Exception {
+        InferenceBatcher<Integer, Integer> batcher = new InferenceBatcher<>("test", 4, Duration.ZERO, 2,
+                inputs -> inputs);
+        List<CompletableFuture<Integer>> futures = new CopyOnWriteArrayList<>();
+        List<Thread> callers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            callers.add(Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 2_000; i++) {
+                    futures.add(batcher.submit(i));
+                }
+            }));
+        }
+        Thread.sleep(5);
+        batcher.close();
+        for (Thread caller : callers) {
+            caller.join();
+        }
+
+        // every call is either answered or refused; none is left behind in the queue
+        assertTrue(CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new))
+                .handle((done, error) -> true).get(5, TimeUnit.SECONDS));
+        assertEquals(0, batcher.queueDepth());
+    }
+}
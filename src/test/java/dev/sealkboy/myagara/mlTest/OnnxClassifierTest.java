@@ -0,0 +1,127 @@
+package dev.sealkboy.myagara.mlTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+
+import dev.sealkboy.myagara.ml.Classification;
+import dev.sealkboy.myagara.ml.ImagePreprocessor;
+import dev.sealkboy.myagara.ml.InferenceProperties;
+import dev.sealkboy.myagara.ml.OnnxClassifier;
+import dev.sealkboy.myagara.ml.PartialBatchException;
+import dev.sealkboy.myagara.ml.UnclassifiableImageException;
+import dev.sealkboy.myagara.storage.SpooledImage;
+
+/**
+ * Runs the bundled {@code models/tiny_classifier.onnx}, which picks the dominant colour
+ * channel: red is class 0, green class 1 and blue class 2.
+ */
+class OnnxClassifierTest {
+
+    private OnnxClassifier classifier;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        InferenceProperties properties = new InferenceProperties();
+        properties.getOnnx().setModelPath(Path.of(new ClassPathResource("models/tiny_classifier.onnx").getURI()).toString());
+        properties.getBatch().setMaxSize(2);
+        classifier = new OnnxClassifier(properties, new ImagePreprocessor(properties));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        classifier.close();
+    }
+
+    @Test
+    void testClassifiesSingleImage() throws IOException {
+        Classification result = classifier.classify(List.of(image(Color.RED, "png"))).get(0);
+
+        assertEquals("Apple___Apple_scab", result.label());
+        assertTrue(result.confidence() > 90.0, "confidence was " + result.confidence());
+        assertEquals(classifier.modelVersion(), result.modelVersion());
+    }
+
+    @Test
+    void testBatchLargerThanMaxSizeKeepsOrder() throws IOException {
+        List<SpooledImage> images = List.of(image(Color.BLUE, "png"), image(Color.GREEN, "jpg"),
+                image(Color.RED, "png"), image(Color.BLUE, "jpg"), image(Color.GREEN, "png"));
+
+        List<String> labels = classifier.classify(images).stream().map(Classification::label).toList();
+
+        assertEquals(List.of("Cherry___healthy", "Blueberry___healthy", "Apple___Apple_scab",
+                "Cherry___healthy", "Blueberry___healthy"), labels);
+    }
+
+    @Test
+    void testRepeatedCallsAreStable() throws IOException {
+        List<Classification> first = classifier.classify(List.of(image(Color.GREEN, "png")));
+        List<Classification> results = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            results.addAll(classifier.classify(List.of(image(Color.GREEN, "png"))));
+        }
+
+        assertTrue(results.stream().allMatch(first.get(0)::equals));
+    }
+
+    @Test
+    void testAcceptsPreprocessedTensors() throws IOException {
+        ImagePreprocessor preprocessor = new ImagePreprocessor(new InferenceProperties());
+
+        Classification result = classifier.classify(List.of(preprocessor.tensor(image(Color.BLUE, "jpg")))).get(0);
+
+        assertEquals("Cherry___healthy", result.label());
+    }
+
+    @Test
+    void testModelVersionIsContentHash() {
+        assertTrue(classifier.modelVersion().matches("[0-9a-f]{16}"));
+    }
+
+    @Test
+    void testUndecodableImageFails() {
+        SpooledImage garbage = SpooledImage.of("leaf.jpg", "not an image".getBytes());
+
+        PartialBatchException exception = assertThrows(PartialBatchException.class,
+                () -> classifier.classify(List.of(garbage)));
+        assertInstanceOf(UnclassifiableImageException.class, exception.getFailure(0));
+    }
+
+    @Test
+    void testUndecodableImageFailsOnlyItself() throws IOException {
+        SpooledImage garbage = SpooledImage.of("leaf.jpg", "not an image".getBytes());
+        List<SpooledImage> images = List.of(image(Color.BLUE, "png"), garbage, image(Color.RED, "png"));
+
+        PartialBatchException exception = assertThrows(PartialBatchException.class, () -> classifier.classify(images));
+
+        assertEquals("Cherry___healthy", exception.<Classification>getResult(0).label());
+        assertInstanceOf(UnclassifiableImageException.class, exception.getFailure(1));
+        assertNull(exception.getFailure(2));
+        assertEquals("Apple___Apple_scab", exception.<Classification>getResult(2).label());
+    }
+
+    private static SpooledImage image(Color color, String format) throws IOException {
+        BufferedImage image = new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(color);
+        graphics.fillRect(0, 0, 64, 48);
+        graphics.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, format, out);
+        return SpooledImage.of("leaf." + format, out.toByteArray());
+    }
+}
@@ -0,0 +1,78 @@
+package dev.sealkboy.myagara.mlTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import dev.sealkboy.myagara.ml.CircuitBreaker;
+import dev.sealkboy.myagara.ml.ClassificationCache;
+import dev.sealkboy.myagara.ml.Classifier;
+import dev.sealkboy.myagara.ml.ImagePreprocessor;
+import dev.sealkboy.myagara.ml.InferenceProperties;
+import dev.sealkboy.myagara.ml.TensorFlowClient;
+import dev.sealkboy.myagara.ml.UnclassifiableImageException;
+import dev.sealkboy.myagara.storage.SpooledImage;
+
+/**
+ * How the concurrency limit and the circuit breaker around the classifier react to the
+ * outcome of each call.
+ */
+class TensorFlowClientGuardsTest {
+
+    private final Classifier classifier = mock(Classifier.class);
+    private final InferenceProperties properties = new InferenceProperties();
+    private TensorFlowClient client;
+
+    @BeforeEach
+    void setUp() {
+        properties.getBatch().setEnabled(false);
+        properties.getCache().setEnabled(false);
+        properties.getCache().setModelCheckInterval(Duration.ZERO);
+        properties.getPreprocess().setMode("none");
+        properties.getBreaker().setMinimumCalls(4);
+        properties.getBreaker().setWindowSize(4);
+        client = new TensorFlowClient(properties, classifier,
+                new ClassificationCache(properties, mock(MongoTemplate.class)), new ImagePreprocessor(properties));
+    }
+
+    @AfterEach
+    void tearDown() {
+        client.shutdown();
+    }
+
+    @Test
+    void testUnreadableImagesDoNotOpenTheBreaker() {
+        when(classifier.classify(anyList())).thenThrow(new UnclassifiableImageException("Cannot decode image"));
+        int limit = client.getLimitStats().limit();
+
+        for (int i = 0; i < 10; i++) {
+            assertThrows(UnclassifiableImageException.class, () -> client.reclassify(image()));
+        }
+
+        assertEquals(CircuitBreaker.State.CLOSED, client.getBreakerStats().state());
+        assertEquals(limit, client.getLimitStats().limit());
+        assertEquals(0, client.getLimitStats().inFlight());
+    }
+
+    @Test
+    void testClassifierFailuresOpenTheBreaker() {
+        when(classifier.classify(anyList())).thenThrow(new RuntimeException("Error connecting to Flask API"));
+
+        for (int i = 0; i < 4; i++) {
+            assertThrows(RuntimeException.class, () -> client.reclassify(image()));
+        }
+
+        assertEquals(CircuitBreaker.State.OPEN, client.getBreakerStats().state());
+    }
+
+    private static SpooledImage image() {
+        return SpooledImage.of("leaf.jpg", "bytes".getBytes());
+    }
+}
@@ -0,0 +1,168 @@
+package dev.sealkboy.myagara.serviceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.time.Instant;
+import java.util.List;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import dev.sealkboy.myagara.model.Image;
+import dev.sealkboy.myagara.model.LabelRollup;
+import dev.sealkboy.myagara.service.AnalyticsProperties;
+import dev.sealkboy.myagara.service.AnalyticsService;
+import dev.sealkboy.myagara.service.LabelTrend;
+import dev.sealkboy.myagara.service.TrendBucket;
+
+class AnalyticsServiceTest {
+
+    private static final long MONDAY = Instant.parse("2024-05-06T00:00:00Z").toEpochMilli();
+    private static final long DAY = TrendBucket.DAY.widthMillis();
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final BulkOperations bulkOperations = mock(BulkOperations.class);
+    private AnalyticsService analyticsService;
+
+    @BeforeEach
+    void setUp() {
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, LabelRollup.class)).thenReturn(bulkOperations);
+        analyticsService = new AnalyticsService(mongoTemplate, new AnalyticsProperties());
+    }
+
+    @Test
+    void testRecordAllIncrementsOneRollupPerDayAndLabel() {
+        analyticsService.recordAll(List.of(
+                image("Grape___Black_rot", 55.0, MONDAY + 1_000),
+                image("Grape___Black_rot", 95.0, MONDAY + 2_000),
+                image("Grape___Black_rot", 80.0, MONDAY + DAY)));
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(bulkOperations, times(2)).upsert(query.capture(), update.capture());
+        verify(bulkOperations, times(1)).execute();
+        assertEquals(LabelRollup.id(MONDAY, "Grape___Black_rot"), query.getAllValues().get(0).getQueryObject().get("id"));
+        Document inc = (Document) update.getAllValues().get(0).getUpdateObject().get("$inc");
+        assertEquals(2L, inc.get("count"));
+        assertEquals(150.0, inc.get("confidenceSum"));
+        assertEquals(1L, inc.get("lowConfidenceCount"));
+    }
+
+    @Test
+    void testReplaceMovesContributionBetweenLabels() {
+        analyticsService.replace(image("Corn___Healthy", 90.0, MONDAY), image("Corn___Blight", 90.0, MONDAY));
+
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(bulkOperations, times(2)).upsert(any(Query.class), update.capture());
+        assertEquals(-1L, ((Document) update.getAllValues().get(1).getUpdateObject().get("$inc")).get("count"));
+        assertEquals(1L, ((Document) update.getAllValues().get(0).getUpdateObject().get("$inc")).get("count"));
+    }
+
+    @Test
+    void testUnchangedTrendFieldsDoNotTouchRollups() {
+        analyticsService.replace(image("Corn___Healthy", 90.0, MONDAY), image("Corn___Healthy", 90.0, MONDAY + 5));
+
+        verifyNoInteractions(bulkOperations);
+    }
+
+    @Test
+    void testReplaceAllThatCancelsOutWritesNothing() {
+        analyticsService.replaceAll(
+                List.of(image("Corn___Healthy", 90.0, MONDAY), image("Corn___Blight", 70.0, MONDAY)),
+                List.of(image("Corn___Blight", 70.0, MONDAY), image("Corn___Healthy", 90.0, MONDAY)));
+
+        verify(bulkOperations, never()).upsert(any(Query.class), any(Update.class));
+        verify(bulkOperations, never()).execute();
+    }
+
+    @Test
+    void testWeeklyTrendsAreFoldedFromDailyRollups() {
+        when(mongoTemplate.find(any(Query.class), eq(LabelRollup.class))).thenReturn(List.of(
+                rollup(MONDAY, "Grape___Black_rot", 2, 150.0, 1),
+                rollup(MONDAY + 6 * DAY, "Grape___Black_rot", 2, 90.0, 1),
+                rollup(MONDAY + 7 * DAY, "Grape___Black_rot", 1, 40.0, 1),
+                rollup(MONDAY + 2 * DAY, "Apple___healthy", 0, 0.0, 0)));
+
+        List<LabelTrend> trends = analyticsService.trends(MONDAY, MONDAY + 14 * DAY, TrendBucket.WEEK,
+                AnalyticsService.Source.AUTO);
+
+        assertEquals(List.of(
+                new LabelTrend(MONDAY, "Grape___Black_rot", 4, 60.0, 0.5),
+                new LabelTrend(MONDAY + 7 * DAY, "Grape___Black_rot", 1, 40.0, 1.0)), trends);
+        verify(mongoTemplate, never()).aggregate(any(Aggregation.class), eq(Image.class), eq(Document.class));
+    }
+
+    @Test
+    void testUnalignedRangeFallsBackToAggregation() {
+        Document row = new Document("_id", new Document("bucket", MONDAY).append("label", "Grape___Black_rot"))
+                .append("count", 4).append("confidenceSum", 240.0).append("lowConfidenceCount", 2);
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(Image.class), eq(Document.class)))
+                .thenReturn(new AggregationResults<>(List.of(row), new Document()));
+
+        List<LabelTrend> trends = analyticsService.trends(MONDAY + 3_600_000, null, TrendBucket.DAY,
+                AnalyticsService.Source.AUTO);
+
+        assertEquals(List.of(new LabelTrend(MONDAY, "Grape___Black_rot", 4, 60.0, 0.5)), trends);
+        verify(mongoTemplate, never()).find(any(Query.class), eq(LabelRollup.class));
+    }
+
+    @Test
+    void testRebuildOverwritesRollupsInPlaceAndDeletesOnlyStaleOnes() {
+        Document row = new Document("_id", new Document("bucket", MONDAY).append("label", "Grape___Black_rot"))
+                .append("count", 4).append("confidenceSum", 240.0).append("lowConfidenceCount", 2);
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(Image.class), eq(Document.class)))
+                .thenReturn(new AggregationResults<>(List.of(row), new Document()));
+        LabelRollup current = rollup(MONDAY, "Grape___Black_rot", 3, 180.0, 1);
+        current.setId(LabelRollup.id(MONDAY, "Grape___Black_rot"));
+        LabelRollup stale = rollup(MONDAY, "Apple___healthy", 1, 90.0, 0);
+        stale.setId(LabelRollup.id(MONDAY, "Apple___healthy"));
+        when(mongoTemplate.find(any(Query.class), eq(LabelRollup.class))).thenReturn(List.of(current, stale));
+
+        assertEquals(1, analyticsService.rebuild());
+
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(bulkOperations).upsert(any(Query.class), update.capture());
+        Document set = (Document) update.getValue().getUpdateObject().get("$set");
+        assertEquals(4L, set.get("count"));
+        assertEquals(240.0, set.get("confidenceSum"));
+        assertEquals(2L, set.get("lowConfidenceCount"));
+        ArgumentCaptor<Query> removed = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).remove(removed.capture(), eq(LabelRollup.class));
+        assertEquals("{\"id\": {\"$in\": [\"" + stale.getId() + "\"]}}", removed.getValue().getQueryObject().toJson());
+    }
+
+    @Test
+    void testWeekBucketsStartOnMonday() {
+        assertEquals(MONDAY, TrendBucket.WEEK.start(MONDAY + 6 * DAY + 5));
+        assertEquals(MONDAY, TrendBucket.WEEK.start(MONDAY));
+        assertEquals(MONDAY - 7 * DAY, TrendBucket.WEEK.start(MONDAY - 1));
+    }
+
+    private static Image image(String label, double confidence, long timestamp) {
+        Image image = new Image();
+        image.setLabel(label);
+        image.setConfidence(confidence);
+        image.setTimestamp(timestamp);
+        return image;
+    }
+
+    private static LabelRollup rollup(long day, String label, long count, double confidenceSum, long low) {
+        LabelRollup rollup = new LabelRollup();
+        rollup.setDay(day);
+        rollup.setLabel(label);
+        rollup.setCount(count);
+        rollup.setConfidenceSum(confidenceSum);
+        rollup.setLowConfidenceCount(low);
+        return rollup;
+    }
+}
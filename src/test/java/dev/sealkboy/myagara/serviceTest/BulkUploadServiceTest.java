@@ -0,0 +1,187 @@
+package dev.sealkboy.myagara.serviceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MultipartFile;
+
+import dev.sealkboy.myagara.model.Image;
+import dev.sealkboy.myagara.service.AnalyticsService;
+import dev.sealkboy.myagara.service.BulkItemResult;
+import dev.sealkboy.myagara.service.BulkUploadService;
+import dev.sealkboy.myagara.service.ImageCache;
+import dev.sealkboy.myagara.service.ImageService;
+import dev.sealkboy.myagara.service.ThumbnailService;
+import dev.sealkboy.myagara.service.UploadObservations;
+import dev.sealkboy.myagara.storage.SpooledImage;
+import dev.sealkboy.myagara.storage.UploadProperties;
+import dev.sealkboy.myagara.storage.UploadSpool;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+
+class BulkUploadServiceTest {
+
+    private final ImageService imageService = mock(ImageService.class);
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final BulkOperations bulkOperations = mock(BulkOperations.class);
+    private final AnalyticsService analyticsService = mock(AnalyticsService.class);
+    private final ImageCache imageCache = mock(ImageCache.class);
+    private final ThumbnailService thumbnailService = mock(ThumbnailService.class);
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private final UploadProperties properties = new UploadProperties();
+    private BulkUploadService bulkUploadService;
+
+    @BeforeEach
+    void setUp() {
+        properties.getBulk().setConcurrency(3);
+        properties.getBulk().setInsertBatchSize(4);
+        createService();
+
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Image.class)).thenReturn(bulkOperations);
+        when(imageService.classifyUpload(any(SpooledImage.class))).thenAnswer(invocation -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(10);
+            running.decrementAndGet();
+            SpooledImage content = invocation.getArgument(0);
+            Image image = new Image();
+            image.setId("id-" + content.getFilename());
+            image.setFilename(content.getFilename());
+            image.setLabel("Apple___healthy");
+            return image;
+        });
+    }
+
+    @Test
+    void testMultipartFilesAreClassifiedInParallelAndInsertedInBatches() {
+        List<MultipartFile> files = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            files.add(new MockMultipartFile("images", "leaf" + i + ".jpg", "image/jpeg", ("bytes" + i).getBytes()));
+        }
+
+        List<BulkItemResult> results = bulkUploadService.ingest(files);
+
+        assertEquals(10, results.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, results.get(i).index());
+            assertEquals("leaf" + i + ".jpg", results.get(i).filename());
+            assertTrue(results.get(i).isSuccess());
+        }
+        assertTrue(maxRunning.get() <= 3, "concurrency limit exceeded: " + maxRunning.get());
+        verify(bulkOperations, times(3)).execute();
+        verify(imageService, never()).classifyAndSave(any());
+        // thumbnails come from the spooled bytes, since the archived original may not exist yet
+        verify(thumbnailService, times(10)).schedule(any(Image.class), notNull());
+    }
+
+    @Test
+    void testBatchIsInsertedEarlyWhenItHoldsTooManyBytes() {
+        properties.getSpool().setMaxDirectMemory(DataSize.ofBytes(20));
+        createService();
+        List<MultipartFile> files = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            files.add(new MockMultipartFile("images", "leaf" + i + ".jpg", "image/jpeg", "six b.".getBytes()));
+        }
+
+        assertTrue(bulkUploadService.ingest(files).stream().allMatch(BulkItemResult::isSuccess));
+        verify(bulkOperations, times(2)).execute();
+    }
+
+    @Test
+    void testFailedEntriesAreReportedWithoutStoppingTheBatch() {
+        when(imageService.classifyUpload(argThat(content -> content.getFilename().equals("bad.jpg"))))
+                .thenThrow(new RuntimeException("Error connecting to Flask API"));
+
+        List<BulkItemResult> results = bulkUploadService.ingest(List.of(
+                new MockMultipartFile("images", "bad.jpg", "image/jpeg", "x".getBytes()),
+                new MockMultipartFile("images", "empty.jpg", "image/jpeg", new byte[0]),
+                new MockMultipartFile("images", "good.jpg", "image/jpeg", "y".getBytes())));
+
+        assertEquals("Error connecting to Flask API", results.get(0).error());
+        assertEquals("No image file provided", results.get(1).error());
+        assertTrue(results.get(2).isSuccess());
+        verify(bulkOperations, times(1)).insert(argThat((List<?> images) -> images.size() == 1));
+        verify(analyticsService, times(1)).recordAll(argThat(images -> images.size() == 1));
+    }
+
+    @Test
+    void testZipEntriesAreStreamedAsTheyFinish() throws IOException {
+        List<BulkItemResult> streamed = new ArrayList<>();
+        bulkUploadService.ingestZip(new ByteArrayInputStream(archive()), streamed::add);
+
+        assertEquals(5, streamed.size());
+        assertTrue(streamed.stream().allMatch(BulkItemResult::isSuccess));
+        assertEquals("Apple___healthy", streamed.get(0).image().getLabel());
+        verify(bulkOperations, times(2)).execute();
+    }
+
+    @Test
+    void testArchiveWithTooManyEntriesIsCutOff() throws IOException {
+        properties.getBulk().setMaxEntries(3);
+        createService();
+        byte[] archive = archive();
+
+        List<BulkItemResult> streamed = new ArrayList<>();
+        IOException exception = assertThrows(IOException.class,
+                () -> bulkUploadService.ingestZip(new ByteArrayInputStream(archive), streamed::add));
+
+        assertEquals("Archive has more than 3 entries", exception.getMessage());
+        assertEquals(2, streamed.size());
+        assertTrue(streamed.stream().allMatch(BulkItemResult::isSuccess));
+    }
+
+    @Test
+    void testArchiveUnpackingToTooManyBytesIsCutOff() throws IOException {
+        properties.getBulk().setMaxTotalSize(DataSize.ofBytes(12));
+        createService();
+        byte[] archive = archive();
+
+        List<BulkItemResult> streamed = new ArrayList<>();
+        assertThrows(IOException.class,
+                () -> bulkUploadService.ingestZip(new ByteArrayInputStream(archive), streamed::add));
+
+        assertEquals(3, streamed.size());
+        assertEquals(2, streamed.stream().filter(BulkItemResult::isSuccess).count());
+        assertEquals("Archive unpacks to more than 12 bytes",
+                streamed.stream().filter(result -> !result.isSuccess()).findFirst().orElseThrow().error());
+    }
+
+    private void createService() {
+        bulkUploadService = new BulkUploadService(properties, imageService, new UploadSpool(properties), mongoTemplate,
+                analyticsService, imageCache, thumbnailService, new UploadObservations(ObservationRegistry.NOOP, new SimpleMeterRegistry()));
+    }
+
+    /**
+     * A directory, five six-byte images and a hidden file, deflated so that no entry
+     * declares its size up front.
+     */
+    private static byte[] archive() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            zip.putNextEntry(new ZipEntry("survey/"));
+            for (int i = 0; i < 5; i++) {
+                zip.putNextEntry(new ZipEntry("survey/leaf" + i + ".jpg"));
+                zip.write(("bytes" + i).getBytes());
+            }
+            zip.putNextEntry(new ZipEntry("survey/.DS_Store"));
+            zip.write(1);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,77 @@
+package dev.sealkboy.myagara.serviceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import dev.sealkboy.myagara.model.Image;
+import dev.sealkboy.myagara.service.ImageCache;
+import dev.sealkboy.myagara.service.ImageQueryProperties;
+
+class ImageCacheTest {
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final AtomicInteger loads = new AtomicInteger();
+    private final Function<String, Image> loader = id -> {
+        loads.incrementAndGet();
+        Image image = new Image();
+        image.setId(id);
+        return image;
+    };
+
+    @Test
+    void testSingleInstanceCachesUntilInvalidated() {
+        ImageCache cache = new ImageCache(properties(false), mongoTemplate);
+        String tag = cache.tag();
+
+        Image first = cache.get("1", loader);
+        assertSame(first, cache.get("1", loader));
+        assertEquals(1, loads.get());
+        assertNull(cache.get("2", id -> null));
+        assertNull(cache.get("2", id -> null), "a missing image is not remembered");
+
+        cache.invalidate("1");
+        assertNotSame(first, cache.get("1", loader));
+        assertNotEquals(tag, cache.tag());
+        verifyNoInteractions(mongoTemplate);
+    }
+
+    @Test
+    void testSharedCacheIsBypassedUntilTheChangeLogIsTailed() {
+        ImageCache cache = new ImageCache(properties(true), mongoTemplate);
+
+        cache.get("1", loader);
+        cache.get("1", loader);
+        assertEquals(2, loads.get());
+        assertNull(cache.tag());
+    }
+
+    @Test
+    void testChangesArePublishedToOtherInstances() {
+        ImageCache cache = new ImageCache(properties(true), mongoTemplate);
+
+        cache.invalidate(List.of("1", "2"));
+        cache.invalidateAll();
+
+        ArgumentCaptor<Document> changes = ArgumentCaptor.forClass(Document.class);
+        verify(mongoTemplate, times(2)).insert(changes.capture(), eq("image_changes"));
+        assertEquals(List.of("1", "2"), changes.getAllValues().get(0).getList("ids", String.class));
+        assertNull(changes.getAllValues().get(1).get("ids"));
+        assertNotEquals(changes.getAllValues().get(0).get("_id"), changes.getAllValues().get(1).get("_id"));
+    }
+
+    private static ImageQueryProperties properties(boolean changeFeed) {
+        ImageQueryProperties properties = new ImageQueryProperties();
+        properties.getCache().setChangeFeed(changeFeed);
+        return properties;
+    }
+}
@@ -0,0 +1,163 @@
+package dev.sealkboy.myagara.serviceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import dev.sealkboy.myagara.model.Image;
+import dev.sealkboy.myagara.service.ImageCache;
+import dev.sealkboy.myagara.service.ImageEvent;
+import dev.sealkboy.myagara.service.ImageEventFeed;
+import dev.sealkboy.myagara.service.ImageQueryProperties;
+
+class ImageEventFeedTest {
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final ImageQueryProperties properties = new ImageQueryProperties();
+    private ImageCache imageCache;
+    private ImageEventFeed feed;
+
+    @BeforeEach
+    void setUp() {
+        properties.getCache().setChangeFeed(false);
+        properties.getEvents().setSource("change-log");
+        properties.getEvents().setBufferSize(2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        feed.shutdown();
+    }
+
+    @Test
+    void testWritesArePushedWithTheImage() throws Exception {
+        when(mongoTemplate.find(any(Query.class), eq(Image.class)))
+                .thenReturn(List.of(image("a")))
+                .thenReturn(List.of());
+        start();
+        Collector collector = new Collector();
+        feed.subscribe(null, collector);
+
+        imageCache.inserted(List.of("a"));
+        imageCache.invalidate("a");
+
+        ImageEvent created = collector.next();
+        assertEquals(ImageEvent.Type.CREATED, created.type());
+        assertEquals("a", created.image().getId());
+        ImageEvent deleted = collector.next();
+        assertEquals(ImageEvent.Type.DELETED, deleted.type());
+        assertEquals("a", deleted.imageId());
+        assertNotEquals(created.id(), deleted.id());
+    }
+
+    @Test
+    void testReconnectingResumesAfterTheLastEventSeen() throws Exception {
+        when(mongoTemplate.find(any(Query.class), eq(Image.class)))
+                .thenAnswer(invocation -> List.of(image("a"), image("b")));
+        start();
+        Collector first = new Collector();
+        ImageEventFeed.Subscription subscription = feed.subscribe(null, first);
+        imageCache.inserted(List.of("a"));
+        imageCache.invalidate("b");
+        ImageEvent seen = first.next();
+        first.next();
+        subscription.close();
+
+        Collector resumed = new Collector();
+        feed.subscribe(seen.id(), resumed);
+        ImageEvent replayed = resumed.next();
+        assertEquals(ImageEvent.Type.UPDATED, replayed.type());
+        assertEquals("b", replayed.imageId());
+
+        Collector lost = new Collector();
+        feed.subscribe("forgotten", lost);
+        assertEquals(ImageEvent.Type.RESET, lost.next().type());
+    }
+
+    @Test
+    void testSlowSubscriberIsDropped() throws Exception {
+        when(mongoTemplate.find(any(Query.class), eq(Image.class))).thenReturn(List.of());
+        start();
+        CountDownLatch stuck = new CountDownLatch(1);
+        CountDownLatch droppedLatch = new CountDownLatch(1);
+        feed.subscribe(null, new ImageEventFeed.Subscriber() {
+
+            @Override
+            public void onEvent(ImageEvent event) {
+                stuck.countDown();
+                try {
+                    new CountDownLatch(1).await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void onIdle() {
+            }
+
+            @Override
+            public void onDropped() {
+                droppedLatch.countDown();
+            }
+        });
+
+        imageCache.invalidate("1");
+        assertTrue(stuck.await(2, TimeUnit.SECONDS));
+        for (int i = 2; i <= 5; i++) {
+            imageCache.invalidate(String.valueOf(i));
+        }
+
+        assertTrue(droppedLatch.await(2, TimeUnit.SECONDS));
+    }
+
+    private void start() {
+        imageCache = new ImageCache(properties, mongoTemplate);
+        feed = new ImageEventFeed(properties, mongoTemplate, imageCache);
+        feed.start();
+        assertEquals(ImageEventFeed.Source.CHANGE_LOG, feed.getSource());
+    }
+
+    private static Image image(String id) {
+        Image image = new Image();
+        image.setId(id);
+        image.setLabel("Apple___healthy");
+        return image;
+    }
+
+    private static class Collector implements ImageEventFeed.Subscriber {
+
+        private final BlockingQueue<ImageEvent> events = new LinkedBlockingQueue<>();
+
+        ImageEvent next() throws InterruptedException {
+            ImageEvent event = events.poll(2, TimeUnit.SECONDS);
+            assertNotNull(event, "no event arrived");
+            return event;
+        }
+
+        @Override
+        public void onEvent(ImageEvent event) {
+            events.add(event);
+        }
+
+        @Override
+        public void onIdle() {
+        }
+
+        @Override
+        public void onDropped() {
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package dev.sealkboy.myagara.serviceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+
+import dev.sealkboy.myagara.model.Image;
+import dev.sealkboy.myagara.service.ImageQueries;
+import dev.sealkboy.myagara.service.ImageQueryPlanVerifier;
+import dev.sealkboy.myagara.service.ImageQueryProperties;
+
+class ImageQueryPlanVerifierTest {
+
+    private static final Document INDEX_SCAN = Document.parse("""
+            {"queryPlanner": {"winningPlan": {"stage": "LIMIT", "inputStage": {"stage": "FETCH",
+              "inputStage": {"stage": "IXSCAN", "indexName": "label_timestamp_id_confidence"}}}}}
+            """);
+    private static final Document COLLECTION_SCAN = Document.parse("""
+            {"queryPlanner": {"winningPlan": {"stage": "SORT", "inputStage": {"stage": "COLLSCAN"}}}}
+            """);
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final FindIterable<Document> find = mockFindIterable();
+    private ImageQueryPlanVerifier verifier;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        MongoMappingContext mappingContext = new MongoMappingContext();
+        mappingContext.afterPropertiesSet();
+        MongoCollection<Document> collection = mock(MongoCollection.class);
+        when(mongoTemplate.getConverter()).thenReturn(new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, mappingContext));
+        when(mongoTemplate.getCollectionName(Image.class)).thenReturn("images");
+        when(mongoTemplate.getCollection("images")).thenReturn(collection);
+        when(collection.find(any(Bson.class))).thenReturn(find);
+        verifier = new ImageQueryPlanVerifier(mongoTemplate, new ImageQueryProperties());
+    }
+
+    @Test
+    void testIndexedPlansPass() {
+        when(find.explain()).thenReturn(INDEX_SCAN);
+
+        List<ImageQueryPlanVerifier.PlanCheck> checks = verifier.verify();
+
+        assertEquals(ImageQueries.SUPPORTED_SHAPES.size(), checks.size());
+        assertEquals(List.of("LIMIT", "FETCH", "IXSCAN"), checks.get(0).stages());
+    }
+
+    @Test
+    void testCollectionScanFailsVerification() {
+        when(find.explain()).thenReturn(INDEX_SCAN, COLLECTION_SCAN);
+
+        IllegalStateException exception = assertThrows(IllegalStateException.class, verifier::verify);
+        assertTrue(exception.getMessage().contains("collection scan"));
+    }
+
+    @Test
+    void testWinningStagesReadsSlotBasedPlans() {
+        Document sbe = Document.parse("""
+                {"queryPlanner": {"winningPlan": {"queryPlan": {"stage": "FETCH",
+                  "inputStage": {"stage": "IXSCAN"}}, "slotBasedPlan": {}}}}
+                """);
+
+        assertEquals(List.of("FETCH", "IXSCAN"), ImageQueryPlanVerifier.winningStages(sbe));
+        assertEquals(List.of("SORT", "COLLSCAN"), ImageQueryPlanVerifier.winningStages(COLLECTION_SCAN));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static FindIterable<Document> mockFindIterable() {
+        FindIterable<Document> find = mock(FindIterable.class);
+        when(find.sort(any())).thenReturn(find);
+        when(find.limit(anyInt())).thenReturn(find);
+        return find;
+    }
+}
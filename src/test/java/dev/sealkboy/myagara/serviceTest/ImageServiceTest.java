@@ -4,21 +4,49 @@ import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 
-import java.io.File;
 import java.io.IOException;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Spy;
+import org.springframework.core.io.Resource;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.mock.web.MockMultipartFile;
 
 import dev.sealkboy.myagara.ml.TensorFlowClient;
 import dev.sealkboy.myagara.model.Image;
 import dev.sealkboy.myagara.repository.ImageRepository;
+import dev.sealkboy.myagara.service.AnalyticsService;
+import dev.sealkboy.myagara.service.BadRequestException;
+import dev.sealkboy.myagara.service.ImageCache;
+import dev.sealkboy.myagara.service.ImageWriteBehind;
+import dev.sealkboy.myagara.service.ImageConflictException;
+import dev.sealkboy.myagara.service.ImageFields;
+import dev.sealkboy.myagara.service.ImagePage;
+import dev.sealkboy.myagara.service.ImageQuery;
+import dev.sealkboy.myagara.service.ImageQueryProperties;
 import dev.sealkboy.myagara.service.ImageService;
+import dev.sealkboy.myagara.service.ThumbnailService;
+import dev.sealkboy.myagara.service.UploadObservations;
+import dev.sealkboy.myagara.storage.ImageArchiver;
+import dev.sealkboy.myagara.storage.ImageStore;
+import dev.sealkboy.myagara.storage.SpooledImage;
+import dev.sealkboy.myagara.storage.UploadProperties;
+import dev.sealkboy.myagara.storage.UploadSpool;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.observation.DefaultMeterObservationHandler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
 
 class ImageServiceTest {
 
@@ -31,6 +59,38 @@ class ImageServiceTest {
     @Mock
     private ImageRepository imageRepository;
 
+    @Spy
+    private UploadSpool uploadSpool = new UploadSpool(new UploadProperties());
+
+    @Mock
+    private ImageArchiver imageArchiver;
+
+    @Mock
+    private ImageStore imageStore;
+
+    @Mock
+    private ThumbnailService thumbnailService;
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Spy
+    private ImageCache imageCache = new ImageCache(singleInstance(), mock(MongoTemplate.class));
+
+    @Mock
+    private ImageWriteBehind writeBehind;
+
+    @Spy
+    private ImageQueryProperties queryProperties = new ImageQueryProperties();
+
+    @Mock
+    private AnalyticsService analyticsService;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Spy
+    private UploadObservations observations = new UploadObservations(observationRegistry(meterRegistry), meterRegistry);
+
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
@@ -47,7 +107,7 @@ class ImageServiceTest {
         mockImage.setLabel("Tomato___Healthy");
         mockImage.setConfidence(99.0);
 
-        when(tensorFlowClient.classifyImage(any(File.class))).thenReturn(mockImage);
+        when(tensorFlowClient.classifyImage(any(Resource.class))).thenReturn(mockImage);
         when(imageRepository.save(any(Image.class))).thenAnswer(invocation -> invocation.getArgument(0));
 
 
@@ -57,6 +117,44 @@ class ImageServiceTest {
         assertEquals("Tomato___Healthy", uploadedImage.getLabel());
         assertEquals(99.0, uploadedImage.getConfidence());
         verify(imageRepository, times(1)).save(any(Image.class));
+        verify(imageArchiver, times(1)).archive(any(SpooledImage.class));
+        assertEquals(64, uploadedImage.getContentHash().length());
+        assertEquals("image/jpeg", uploadedImage.getContentType());
+        assertEquals(12, uploadedImage.getSize());
+        verify(thumbnailService, times(1)).schedule(eq(uploadedImage), any(SpooledImage.class));
+        verify(analyticsService, times(1)).record(uploadedImage);
+    }
+
+    @Test
+    void testUploadRecordsStageTimingsAndLabel() {
+        Image classified = new Image();
+        classified.setLabel("Tomato___Healthy");
+        classified.setConfidence(99.0);
+        when(tensorFlowClient.classifyImage(any(Resource.class))).thenReturn(classified);
+        when(imageRepository.save(any(Image.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        imageService.uploadImage(new MockMultipartFile("image", "leaf.jpg", "image/jpeg", "test content".getBytes()));
+
+        assertEquals(1, meterRegistry.get(UploadObservations.UPLOAD).tag("mode", "sync").timer().count());
+        for (String stage : List.of("spool", "classify", "archive", "save", "analytics")) {
+            assertEquals(1, meterRegistry.get(UploadObservations.STAGE).tag("stage", stage).timer().count(), stage);
+        }
+        assertEquals(1, meterRegistry.get(UploadObservations.CLASSIFICATIONS)
+                .tags("label", "Tomato___Healthy", "outcome", "success").counter().count());
+        assertEquals(99.0, meterRegistry.get(UploadObservations.CONFIDENCE).summary().max());
+    }
+
+    @Test
+    void testFailedClassificationIsCounted() {
+        when(tensorFlowClient.classifyImage(any(Resource.class)))
+                .thenThrow(new RuntimeException("Flask server is unavailable"));
+
+        assertThrows(RuntimeException.class, () -> imageService.uploadImage(
+                new MockMultipartFile("image", "leaf.jpg", "image/jpeg", "test content".getBytes())));
+
+        assertEquals(1, meterRegistry.get(UploadObservations.CLASSIFICATIONS).tag("outcome", "failure").counter().count());
+        assertEquals(1, meterRegistry.get(UploadObservations.STAGE).tag("stage", "classify")
+                .tag("error", "RuntimeException").timer().count());
     }
 
     @Test
@@ -67,13 +165,13 @@ class ImageServiceTest {
     }
 
     @Test
-    void testSaveImageLocallyFailure() throws IllegalStateException, IOException {
+    void testUploadReadFailure() throws IllegalStateException, IOException {
 
-        MockMultipartFile mockFile = new MockMultipartFile(
+        MockMultipartFile mockFile = spy(new MockMultipartFile(
                 "image", "leaf.jpg", "image/jpeg", "test content".getBytes()
-        );
+        ));
 
-        doThrow(new IOException("Directory creation failed")).when(mockFile).transferTo(any(File.class));
+        doThrow(new IOException("Connection reset")).when(mockFile).getInputStream();
 
 
         Exception exception = assertThrows(RuntimeException.class, () -> imageService.uploadImage(mockFile));
@@ -87,7 +185,7 @@ class ImageServiceTest {
                 "image", "leaf.jpg", "image/jpeg", "test content".getBytes()
         );
 
-        when(tensorFlowClient.classifyImage(any(File.class)))
+        when(tensorFlowClient.classifyImage(any(Resource.class)))
                 .thenThrow(new RuntimeException("Flask server is unavailable"));
 
 
@@ -114,6 +212,27 @@ class ImageServiceTest {
         verify(imageRepository, times(1)).findById("1");
     }
 
+    @Test
+    void testGetImageByIdIsCachedUntilChanged() {
+        Image image = new Image();
+        image.setId("1");
+        image.setVersion(3L);
+        when(imageRepository.findById("1")).thenReturn(Optional.of(image));
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), eq(Image.class))).thenReturn(image);
+        String tag = imageService.getImagesTag();
+
+        assertSame(image, imageService.getImageById("1"));
+        assertSame(image, imageService.getImageById("1"));
+        verify(imageRepository, times(1)).findById("1");
+
+        Image update = new Image();
+        update.setLabel("Corn___Blight");
+        imageService.updateImageMetadata("1", update);
+        imageService.getImageById("1");
+        verify(imageRepository, times(2)).findById("1");
+        assertNotEquals(tag, imageService.getImagesTag());
+    }
+
     @Test
     void testGetImageByIdNotFound() {
 
@@ -136,8 +255,10 @@ class ImageServiceTest {
         updatedImage.setLabel("Corn___Blight");
         updatedImage.setConfidence(92.0);
 
-        when(imageRepository.findById("1")).thenReturn(Optional.of(existingImage));
-        when(imageRepository.save(any(Image.class))).thenReturn(existingImage);
+        existingImage.setVersion(3L);
+        existingImage.setModelVersion("v2");
+        existingImage.setThumbnails(List.of(128));
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), eq(Image.class))).thenReturn(existingImage);
 
 
         Image result = imageService.updateImageMetadata("1", updatedImage);
@@ -145,7 +266,52 @@ class ImageServiceTest {
 
         assertEquals("Corn___Blight", result.getLabel());
         assertEquals(92.0, result.getConfidence());
-        verify(imageRepository, times(1)).save(existingImage);
+        assertEquals(4L, result.getVersion());
+        assertEquals("v2", result.getModelVersion());
+        assertEquals(List.of(128), result.getThumbnails());
+        assertEquals("Corn___Healthy", existingImage.getLabel());
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate, times(1)).findAndModify(any(Query.class), update.capture(), eq(Image.class));
+        assertEquals("{\"$set\": {\"label\": \"Corn___Blight\", \"confidence\": 92.0}, \"$inc\": {\"version\": 1}}",
+                update.getValue().getUpdateObject().toJson());
+        verify(imageRepository, never()).save(any(Image.class));
+        verify(analyticsService, times(1)).replace(existingImage, result);
+    }
+
+    @Test
+    void testUpdateImageMetadataWithStaleVersionConflicts() {
+
+        Image updatedImage = new Image();
+        updatedImage.setLabel("Corn___Blight");
+        updatedImage.setVersion(2L);
+
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), eq(Image.class))).thenReturn(null);
+        when(mongoTemplate.exists(any(Query.class), eq(Image.class))).thenReturn(true);
+
+
+        assertThrows(ImageConflictException.class, () -> imageService.updateImageMetadata("1", updatedImage));
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).findAndModify(query.capture(), any(Update.class), eq(Image.class));
+        assertEquals("{\"id\": \"1\", \"version\": 2}", query.getValue().getQueryObject().toJson());
+        verifyNoInteractions(analyticsService);
+    }
+
+    @Test
+    void testUpdateChangingNothingStillChecksVersion() {
+
+        Image current = new Image();
+        current.setId("1");
+        current.setVersion(3L);
+        when(mongoTemplate.findById("1", Image.class)).thenReturn(current);
+        Image stale = new Image();
+        stale.setVersion(2L);
+        Image fresh = new Image();
+        fresh.setVersion(3L);
+
+
+        assertThrows(ImageConflictException.class, () -> imageService.updateImageMetadata("1", stale));
+        assertSame(current, imageService.updateImageMetadata("1", fresh));
+        verify(mongoTemplate, never()).findAndModify(any(Query.class), any(Update.class), eq(Image.class));
     }
 
     @Test
@@ -154,7 +320,7 @@ class ImageServiceTest {
         Image updatedImage = new Image();
         updatedImage.setLabel("Corn___Blight");
 
-        when(imageRepository.findById("1")).thenReturn(Optional.empty());
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), eq(Image.class))).thenReturn(null);
 
 
         Exception exception = assertThrows(RuntimeException.class, () -> {
@@ -167,19 +333,50 @@ class ImageServiceTest {
     @Test
     void testDeleteImageByIdSuccess() {
  
-        when(imageRepository.existsById("1")).thenReturn(true);
+        Image existingImage = image("1", 20);
+        when(mongoTemplate.findAndRemove(any(Query.class), eq(Image.class))).thenReturn(existingImage);
+
+
+        imageService.deleteImageById("1");
 
 
+        verify(mongoTemplate, times(1)).findAndRemove(any(Query.class), eq(Image.class));
+        verify(imageRepository, never()).deleteById(anyString());
+        verify(analyticsService, times(1)).remove(existingImage);
+    }
+
+    @Test
+    void testDeleteImageDeletesContentOnlyWithLastReference() throws IOException {
+        Image first = image("1", 20);
+        first.setContentHash("a".repeat(64));
+        Image second = image("2", 30);
+        second.setContentHash("a".repeat(64));
+        when(mongoTemplate.findAndRemove(any(Query.class), eq(Image.class))).thenReturn(first, second);
+        when(mongoTemplate.exists(any(Query.class), eq(Image.class))).thenReturn(true, false);
+
         imageService.deleteImageById("1");
+        verify(imageStore, never()).delete(anyString());
 
+        imageService.deleteImageById("2");
+        verify(imageStore, times(1)).delete("a".repeat(64));
+    }
 
-        verify(imageRepository, times(1)).deleteById("1");
+    @Test
+    void testDeleteImageKeepsContentOfBufferedImage() throws IOException {
+        Image removed = image("1", 20);
+        removed.setContentHash("a".repeat(64));
+        when(mongoTemplate.findAndRemove(any(Query.class), eq(Image.class))).thenReturn(removed);
+        when(writeBehind.holdsContent("a".repeat(64))).thenReturn(true);
+
+        imageService.deleteImageById("1");
+
+        verify(imageStore, never()).delete(anyString());
     }
 
     @Test
     void testDeleteImageByIdNotFound() {
 
-        when(imageRepository.existsById("1")).thenReturn(false);
+        when(mongoTemplate.findAndRemove(any(Query.class), eq(Image.class))).thenReturn(null);
 
 
         Exception exception = assertThrows(RuntimeException.class, () -> imageService.deleteImageById("1"));
@@ -187,11 +384,111 @@ class ImageServiceTest {
     }
 
     @Test
-    void testDeleteAllImages() {
+    void testDeleteAllImages() throws IOException {
 
         imageService.deleteAllImages();
 
 
-        verify(imageRepository, times(1)).deleteAll();
+        InOrder order = inOrder(writeBehind, imageRepository);
+        order.verify(writeBehind).flushAll();
+        order.verify(imageRepository).deleteAll();
+        verify(analyticsService, times(1)).clear();
+        verify(imageStore, times(1)).deleteAll();
+    }
+
+    @Test
+    void testGetImagesReturnsCursorWhenMoreRemain() {
+        when(mongoTemplate.find(any(Query.class), eq(Image.class)))
+                .thenReturn(List.of(image("c", 30), image("b", 20), image("a", 20)));
+
+        ImagePage page = imageService.getImages(null, 2);
+
+        assertEquals(2, page.images().size());
+        assertNotNull(page.nextCursor());
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(query.capture(), eq(Image.class));
+        assertEquals(3, query.getValue().getLimit());
+        assertEquals("{\"timestamp\": -1, \"id\": -1}", query.getValue().getSortObject().toJson());
+    }
+
+    @Test
+    void testGetImagesContinuesAfterCursor() {
+        when(mongoTemplate.find(any(Query.class), eq(Image.class)))
+                .thenReturn(List.of(image("c", 30), image("b", 20), image("a", 20)))
+                .thenReturn(List.of(image("a", 20)));
+        String cursor = imageService.getImages(null, 2).nextCursor();
+
+        ImagePage page = imageService.getImages(cursor, 2);
+
+        assertNull(page.nextCursor());
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate, times(2)).find(query.capture(), eq(Image.class));
+        String criteria = query.getAllValues().get(1).getQueryObject().toJson();
+        assertTrue(criteria.contains("{\"$lt\": 20}"), criteria);
+        assertTrue(criteria.contains("{\"$lt\": \"b\"}"), criteria);
+    }
+
+    @Test
+    void testGetImagesCapsPageSizeAndRejectsBadCursor() {
+        queryProperties.setMaxPageSize(50);
+        when(mongoTemplate.find(any(Query.class), eq(Image.class))).thenReturn(List.of());
+
+        imageService.getImages(null, 10_000);
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(query.capture(), eq(Image.class));
+        assertEquals(51, query.getValue().getLimit());
+        assertThrows(BadRequestException.class, () -> imageService.getImages("not a cursor", null));
+    }
+
+    @Test
+    void testSearchImagesReadsOnlyRequestedFields() {
+        when(mongoTemplate.find(any(Query.class), eq(Image.class))).thenReturn(List.of(image("b", 20), image("a", 10)));
+
+        ImagePage page = imageService.searchImages(ImageQuery.ALL, null, 1, ImageFields.parse("label, confidence,label"));
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(query.capture(), eq(Image.class));
+        assertEquals(Set.of("label", "confidence", "timestamp"), query.getValue().getFieldsObject().keySet());
+        assertNotNull(page.nextCursor());
+        assertEquals(List.of("label", "confidence"), List.copyOf(ImageFields.parse("label,confidence").of(page.images().get(0)).keySet()));
+        assertThrows(BadRequestException.class, () -> ImageFields.parse("label,secret"));
+        assertThrows(BadRequestException.class, () -> ImageFields.parse(" , "));
+    }
+
+    @Test
+    void testSearchImagesCombinesFiltersWithKeyset() {
+        when(mongoTemplate.find(any(Query.class), eq(Image.class)))
+                .thenReturn(List.of(image("b", 20), image("a", 10)));
+        String cursor = imageService.getImages(null, 1).nextCursor();
+
+        imageService.searchImages(new ImageQuery("Grape___Black_rot", null, 60.0, 5L, 100L), cursor, 10);
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate, times(2)).find(query.capture(), eq(Image.class));
+        String criteria = query.getAllValues().get(1).getQueryObject().toJson();
+        assertTrue(criteria.contains("{\"label\": \"Grape___Black_rot\"}"), criteria);
+        assertTrue(criteria.contains("{\"confidence\": {\"$lt\": 60.0}}"), criteria);
+        assertTrue(criteria.contains("{\"timestamp\": {\"$gte\": 5, \"$lt\": 100}}"), criteria);
+        assertTrue(criteria.contains("{\"timestamp\": 20, \"id\": {\"$lt\": \"b\"}}"), criteria);
+    }
+
+    private static Image image(String id, long timestamp) {
+        Image image = new Image();
+        image.setId(id);
+        image.setTimestamp(timestamp);
+        return image;
+    }
+
+    private static ImageQueryProperties singleInstance() {
+        ImageQueryProperties properties = new ImageQueryProperties();
+        properties.getCache().setChangeFeed(false);
+        return properties;
+    }
+
+    private static ObservationRegistry observationRegistry(MeterRegistry meterRegistry) {
+        ObservationRegistry registry = ObservationRegistry.create();
+        registry.observationConfig().observationHandler(new DefaultMeterObservationHandler(meterRegistry));
+        return registry;
     }
 }
@@ -0,0 +1,196 @@
+package dev.sealkboy.myagara.serviceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.Set;
+
+import org.bson.BsonDocument;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+
+import dev.sealkboy.myagara.model.Image;
+import dev.sealkboy.myagara.service.AnalyticsService;
+import dev.sealkboy.myagara.service.ImageCache;
+import dev.sealkboy.myagara.service.ImageWriteBehind;
+import dev.sealkboy.myagara.service.ThumbnailService;
+import dev.sealkboy.myagara.storage.SpooledImage;
+import dev.sealkboy.myagara.storage.UploadProperties;
+
+class ImageWriteBehindTest {
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final BulkOperations bulk = mock(BulkOperations.class);
+    private final AnalyticsService analyticsService = mock(AnalyticsService.class);
+    private final ImageCache imageCache = mock(ImageCache.class);
+    private final ThumbnailService thumbnailService = mock(ThumbnailService.class);
+    private final List<List<String>> inserted = new ArrayList<>();
+    private UploadProperties properties;
+    private ImageWriteBehind writeBehind;
+
+    @BeforeEach
+    void setUp() {
+        properties = new UploadProperties();
+        properties.getWriteBehind().setEnabled(true);
+        properties.getWriteBehind().setRetryBackoff(Duration.ofMillis(1));
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Image.class)).thenReturn(bulk);
+        when(bulk.insert(anyList())).thenAnswer(invocation -> {
+            List<Image> images = invocation.getArgument(0);
+            synchronized (inserted) {
+                inserted.add(images.stream().map(Image::getId).toList());
+            }
+            return bulk;
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (writeBehind != null) {
+            writeBehind.shutdown();
+        }
+    }
+
+    @Test
+    void testImagesAreInsertedInBatches() throws Exception {
+        properties.getWriteBehind().setDurability("buffer");
+        properties.getWriteBehind().setBatchSize(3);
+        properties.getWriteBehind().setMaxDelay(Duration.ofSeconds(10));
+        writeBehind = writeBehind();
+
+        for (int i = 1; i <= 3; i++) {
+            writeBehind.save(image("id-" + i), null);
+        }
+
+        verify(bulk, timeout(2000)).execute();
+        assertEquals(List.of(List.of("id-1", "id-2", "id-3")), inserted);
+        verify(imageCache, timeout(2000)).inserted(List.of("id-1", "id-2", "id-3"));
+        verify(analyticsService, timeout(2000)).recordAll(argThat(images -> images.size() == 3));
+        verify(thumbnailService, timeout(2000).times(3)).schedule(any(Image.class), isNull());
+    }
+
+    @Test
+    void testBufferedImageIsReadableAndFlushedOnShutdown() {
+        properties.getWriteBehind().setDurability("buffer");
+        properties.getWriteBehind().setMaxDelay(Duration.ofMinutes(1));
+        writeBehind = writeBehind();
+        SpooledImage content = SpooledImage.of("leaf.jpg", new byte[] { 1, 2, 3 });
+        Image image = image("id-1");
+
+        assertSame(image, writeBehind.save(image, content));
+        content.close();
+        assertSame(image, writeBehind.find("id-1"));
+        assertEquals(0L, image.getVersion());
+        verify(bulk, never()).execute();
+
+        writeBehind.shutdown();
+
+        assertEquals(List.of(List.of("id-1")), inserted);
+        assertNull(writeBehind.find("id-1"));
+        verify(thumbnailService).schedule(image, content);
+    }
+
+    @Test
+    void testFailedBatchIsRetried() {
+        properties.getWriteBehind().setMaxDelay(Duration.ZERO);
+        when(bulk.execute())
+                .thenThrow(new DataAccessResourceFailureException("primary stepped down"))
+                .thenReturn(BulkWriteResult.acknowledged(1, 0, 0, 0, List.of(), List.of()));
+        writeBehind = writeBehind();
+
+        Image image = image("id-1");
+        assertSame(image, writeBehind.save(image, null));
+
+        assertEquals(List.of(List.of("id-1"), List.of("id-1")), inserted);
+        verify(analyticsService).recordAll(List.of(image));
+    }
+
+    @Test
+    void testOnlyFailedInsertsAreRetriedAndDuplicatesCountAsSaved() {
+        properties.getWriteBehind().setMaxDelay(Duration.ofSeconds(10));
+        properties.getWriteBehind().setBatchSize(3);
+        List<BulkWriteError> errors = List.of(
+                new BulkWriteError(11000, "duplicate key", new BsonDocument(), 0),
+                new BulkWriteError(91, "shutdown in progress", new BsonDocument(), 2));
+        when(bulk.execute())
+                .thenThrow(new BulkOperationException("partial failure", new MongoBulkWriteException(
+                        BulkWriteResult.acknowledged(1, 0, 0, 0, List.of(), List.of()), errors, null,
+                        new ServerAddress(), Set.of())))
+                .thenReturn(BulkWriteResult.acknowledged(1, 0, 0, 0, List.of(), List.of()));
+        properties.getWriteBehind().setDurability("buffer");
+        writeBehind = writeBehind();
+
+        for (int i = 1; i <= 3; i++) {
+            writeBehind.save(image("id-" + i), null);
+        }
+        writeBehind.shutdown();
+
+        assertEquals(List.of(List.of("id-1", "id-2", "id-3"), List.of("id-3")), inserted);
+        verify(imageCache).inserted(List.of("id-1", "id-2"));
+        verify(imageCache).inserted(List.of("id-3"));
+    }
+
+    @Test
+    void testFlushDurabilityFailsOnceRetriesAreExhausted() {
+        properties.getWriteBehind().setMaxDelay(Duration.ZERO);
+        properties.getWriteBehind().setMaxAttempts(2);
+        when(bulk.execute()).thenThrow(new DataAccessResourceFailureException("no primary"));
+        writeBehind = writeBehind();
+
+        assertThrows(RuntimeException.class, () -> writeBehind.save(image("id-1"), null));
+
+        assertEquals(2, inserted.size());
+        assertNull(writeBehind.find("id-1"));
+        verifyNoInteractions(analyticsService, thumbnailService);
+    }
+
+    @Test
+    void testFlushAllInsertsWhatIsBufferedWithoutWaiting() throws Exception {
+        properties.getWriteBehind().setDurability("buffer");
+        properties.getWriteBehind().setMaxDelay(Duration.ofMinutes(1));
+        properties.getWriteBehind().setShutdownTimeout(Duration.ofMinutes(1));
+        writeBehind = writeBehind();
+        Image first = image("id-1");
+        first.setContentHash("a".repeat(64));
+
+        writeBehind.save(first, null);
+        // by now the flusher holds the first image while it waits for a full batch
+        Thread.sleep(300);
+        writeBehind.save(image("id-2"), null);
+        assertTrue(writeBehind.holdsContent("a".repeat(64)));
+
+        long start = System.nanoTime();
+        writeBehind.flushAll();
+
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+        assertEquals(2, inserted.stream().mapToInt(List::size).sum());
+        assertFalse(writeBehind.holdsContent("a".repeat(64)));
+    }
+
+    private ImageWriteBehind writeBehind() {
+        return new ImageWriteBehind(properties, mongoTemplate, analyticsService, imageCache, thumbnailService);
+    }
+
+    private static Image image(String id) {
+        Image image = new Image();
+        image.setId(id);
+        image.setFilename("leaf.jpg");
+        image.setLabel("Healthy");
+        image.setConfidence(97.5);
+        return image;
+    }
+}
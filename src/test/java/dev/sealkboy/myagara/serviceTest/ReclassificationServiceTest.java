@@ -0,0 +1,184 @@
+package dev.sealkboy.myagara.serviceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.result.UpdateResult;
+
+import dev.sealkboy.myagara.ml.Classification;
+import dev.sealkboy.myagara.ml.InferenceOverloadedException;
+import dev.sealkboy.myagara.ml.TensorFlowClient;
+import dev.sealkboy.myagara.model.Image;
+import dev.sealkboy.myagara.model.ReclassificationJob;
+import dev.sealkboy.myagara.service.AnalyticsService;
+import dev.sealkboy.myagara.service.BadRequestException;
+import dev.sealkboy.myagara.service.ImageCache;
+import dev.sealkboy.myagara.service.ReclassificationProperties;
+import dev.sealkboy.myagara.service.ReclassificationService;
+import dev.sealkboy.myagara.storage.ImageStore;
+import dev.sealkboy.myagara.storage.SpooledImage;
+
+class ReclassificationServiceTest {
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final BulkOperations bulk = mock(BulkOperations.class);
+    private final TensorFlowClient tensorFlowClient = mock(TensorFlowClient.class);
+    private final ImageStore imageStore = mock(ImageStore.class);
+    private final ImageCache imageCache = mock(ImageCache.class);
+    private final AnalyticsService analyticsService = mock(AnalyticsService.class);
+    private ReclassificationService reclassificationService;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        reclassificationService = new ReclassificationService(new ReclassificationProperties(), mongoTemplate,
+                tensorFlowClient, imageStore, imageCache, analyticsService);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Image.class)).thenReturn(bulk);
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(ReclassificationJob.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+        when(imageStore.read(anyString())).thenAnswer(invocation -> SpooledImage.of("original", new byte[] { 1, 2 }));
+    }
+
+    @AfterEach
+    void tearDown() {
+        reclassificationService.shutdown();
+    }
+
+    @Test
+    void testJobRelabelsImagesInBulkAndCompletes() {
+        claimable(job(null));
+        when(mongoTemplate.find(any(Query.class), eq(Image.class)))
+                .thenReturn(List.of(image("a", "hash-1", "Healthy"), image("b", "hash-1", "Healthy"),
+                        image("c", null, "Healthy")))
+                .thenReturn(List.of());
+        when(tensorFlowClient.reclassify(any())).thenReturn(new Classification("Grape___Black_rot", 91.0, "v2"));
+        when(bulk.execute()).thenReturn(BulkWriteResult.acknowledged(0, 2, 0, 2, List.of(), List.of()));
+
+        assertTrue(reclassificationService.resume());
+
+        // both images share one original, so it is classified once
+        verify(tensorFlowClient, times(1)).reclassify(any());
+        verify(bulk, times(2)).updateOne(any(Query.class), any(Update.class));
+        verify(imageCache).invalidate(eq(Set.of("a", "b")));
+        verify(analyticsService).replaceAll(argThat(before -> before.size() == 2),
+                argThat(after -> after.stream().allMatch(image -> image.getLabel().equals("Grape___Black_rot")
+                        && image.getModelVersion().equals("v2") && image.getVersion() == 4L)));
+
+        ArgumentCaptor<Update> updates = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate, atLeast(2)).updateFirst(any(Query.class), updates.capture(),
+                eq(ReclassificationJob.class));
+        Document checkpoint = updates.getAllValues().get(0).getUpdateObject();
+        assertEquals("c", ((Document) checkpoint.get("$set")).get("lastId"));
+        assertEquals(2, ((Document) checkpoint.get("$inc")).get("processed"));
+        assertEquals(2, ((Document) checkpoint.get("$inc")).get("relabelled"));
+        assertEquals(1, ((Document) checkpoint.get("$inc")).get("skipped"));
+        Document completion = updates.getAllValues().get(1).getUpdateObject();
+        assertEquals(ReclassificationJob.State.COMPLETED, ((Document) completion.get("$set")).get("state"));
+    }
+
+    @Test
+    void testResumedJobContinuesAfterItsCheckpoint() {
+        claimable(job("m"));
+        when(mongoTemplate.find(any(Query.class), eq(Image.class))).thenReturn(List.of());
+
+        assertTrue(reclassificationService.resume());
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(query.capture(), eq(Image.class));
+        assertEquals(new Document("$gt", "m"), query.getValue().getQueryObject().get("id"));
+        assertEquals(new Document("$ne", "v2"), query.getValue().getQueryObject().get("modelVersion"));
+    }
+
+    @Test
+    void testRefusedClassificationIsRetried() {
+        claimable(job(null));
+        when(mongoTemplate.find(any(Query.class), eq(Image.class)))
+                .thenReturn(List.of(image("a", "hash-1", "Healthy")))
+                .thenReturn(List.of());
+        when(tensorFlowClient.reclassify(any()))
+                .thenThrow(new InferenceOverloadedException(Duration.ofMillis(1)))
+                .thenReturn(new Classification("Healthy", 99.0, "v2"));
+        when(bulk.execute()).thenReturn(BulkWriteResult.acknowledged(0, 1, 0, 1, List.of(), List.of()));
+
+        assertTrue(reclassificationService.resume());
+
+        verify(tensorFlowClient, times(2)).reclassify(any());
+        verify(imageCache).invalidate(eq(Set.of("a")));
+    }
+
+    @Test
+    void testImageEditedMeanwhileIsSkipped() {
+        claimable(job(null));
+        Image edited = image("b", "hash-2", "Healthy");
+        edited.setVersion(4L);
+        Image written = image("a", "hash-1", "Healthy");
+        written.setVersion(4L);
+        written.setModelVersion("v2");
+        when(mongoTemplate.find(any(Query.class), eq(Image.class)))
+                .thenReturn(List.of(image("a", "hash-1", "Healthy"), image("b", "hash-2", "Healthy")))
+                .thenReturn(List.of(written, edited))
+                .thenReturn(List.of());
+        when(tensorFlowClient.reclassify(any())).thenReturn(new Classification("Corn___Common_rust", 88.0, "v2"));
+        when(bulk.execute()).thenReturn(BulkWriteResult.acknowledged(0, 1, 0, 1, List.of(), List.of()));
+
+        assertTrue(reclassificationService.resume());
+
+        verify(imageCache).invalidate(eq(Set.of("a")));
+        verify(analyticsService).replaceAll(argThat(before -> before.size() == 1), argThat(after -> after.size() == 1));
+    }
+
+    @Test
+    void testNothingToResumeWithoutAClaimableJob() {
+        assertFalse(reclassificationService.resume());
+        verify(mongoTemplate, never()).find(any(Query.class), eq(Image.class));
+    }
+
+    @Test
+    void testStartNeedsAModelVersion() {
+        when(tensorFlowClient.getModelVersion()).thenReturn(null);
+
+        assertThrows(BadRequestException.class, () -> reclassificationService.start(null));
+        verify(mongoTemplate, never()).save(any());
+    }
+
+    private void claimable(ReclassificationJob job) {
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class),
+                eq(ReclassificationJob.class))).thenReturn(job);
+    }
+
+    private static ReclassificationJob job(String lastId) {
+        ReclassificationJob job = new ReclassificationJob();
+        job.setId(ReclassificationJob.CURRENT);
+        job.setModelVersion("v2");
+        job.setState(ReclassificationJob.State.RUNNING);
+        job.setLastId(lastId);
+        return job;
+    }
+
+    private static Image image(String id, String contentHash, String label) {
+        Image image = new Image();
+        image.setId(id);
+        image.setContentHash(contentHash);
+        image.setLabel(label);
+        image.setConfidence(75.0);
+        image.setModelVersion("v1");
+        image.setVersion(3L);
+        return image;
+    }
+}
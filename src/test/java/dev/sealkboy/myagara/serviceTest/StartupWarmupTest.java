@@ -0,0 +1,63 @@
+package dev.sealkboy.myagara.serviceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import dev.sealkboy.myagara.ml.TensorFlowClient;
+import dev.sealkboy.myagara.model.Image;
+import dev.sealkboy.myagara.service.StartupWarmup;
+import dev.sealkboy.myagara.service.WarmupProperties;
+
+class StartupWarmupTest {
+
+    private final WarmupProperties properties = new WarmupProperties();
+    private final TensorFlowClient tensorFlowClient = mock(TensorFlowClient.class);
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final StartupWarmup warmup = new StartupWarmup(properties, tensorFlowClient, mongoTemplate,
+            new ObjectMapper());
+
+    @Test
+    void testConnectionsAreOpenedAtStartup() {
+        properties.setMongoConnections(3);
+        properties.setInferenceConnections(5);
+
+        warmup.warmUp();
+
+        verify(tensorFlowClient).warmUp(5);
+        verify(mongoTemplate, times(3)).executeCommand(new Document("ping", 1));
+        verify(mongoTemplate).findOne(any(Query.class), eq(Image.class));
+    }
+
+    @Test
+    void testSlowOrFailingStepsDoNotHoldUpStartup() throws Exception {
+        properties.setTimeout(Duration.ofMillis(100));
+        CountDownLatch never = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            never.await();
+            return null;
+        }).when(tensorFlowClient).warmUp(anyInt());
+        when(mongoTemplate.executeCommand(any(Document.class))).thenThrow(new IllegalStateException("no server"));
+
+        assertTimeoutPreemptively(Duration.ofSeconds(5), warmup::warmUp);
+    }
+
+    @Test
+    void testDisabledWarmupTouchesNothing() {
+        properties.setEnabled(false);
+
+        warmup.warmUp();
+
+        verifyNoInteractions(tensorFlowClient, mongoTemplate);
+    }
+}
@@ -0,0 +1,108 @@
+package dev.sealkboy.myagara.serviceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.mongodb.client.result.UpdateResult;
+
+import dev.sealkboy.myagara.model.Image;
+import dev.sealkboy.myagara.service.BadRequestException;
+import dev.sealkboy.myagara.service.ImageCache;
+import dev.sealkboy.myagara.service.ThumbnailService;
+import dev.sealkboy.myagara.storage.LocalImageStore;
+import dev.sealkboy.myagara.storage.SpooledImage;
+import dev.sealkboy.myagara.storage.UploadProperties;
+
+class ThumbnailServiceTest {
+
+    @TempDir
+    Path directory;
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final ImageCache imageCache = mock(ImageCache.class);
+    private LocalImageStore store;
+    private ThumbnailService thumbnailService;
+
+    @BeforeEach
+    void setUp() {
+        UploadProperties properties = new UploadProperties();
+        properties.getArchive().setDirectory(directory.toString());
+        properties.getThumbnails().setSizes(List.of(512, 64));
+        store = new LocalImageStore(properties);
+        thumbnailService = new ThumbnailService(properties, store, mongoTemplate, imageCache);
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(Image.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+    }
+
+    @Test
+    void testScheduledThumbnailsAreStoredAndRecorded() throws Exception {
+        SpooledImage content = SpooledImage.of("leaf.jpg", jpeg(800, 600));
+        Image image = image(content);
+
+        thumbnailService.schedule(image, content);
+        content.close();
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate, timeout(5000)).updateFirst(any(Query.class), update.capture(), eq(Image.class));
+        verify(imageCache, timeout(5000)).invalidate("id-1");
+        thumbnailService.shutdown();
+
+        assertNotNull(store.getDerivative(image.getContentHash(), "w64"));
+        assertNotNull(store.getDerivative(image.getContentHash(), "w512"));
+        Document recorded = update.getValue().getUpdateObject();
+        assertEquals(new Document("thumbnails", List.of(64, 512)), recorded.get("$set"));
+        assertNull(recorded.get("$inc"));
+        // the instance the caller got back is not the worker's to change
+        assertNull(image.getThumbnails());
+    }
+
+    @Test
+    void testMissingThumbnailIsRenderedOnRequest() throws Exception {
+        SpooledImage content = SpooledImage.of("leaf.jpg", jpeg(300, 200));
+        store.put(content);
+        Image image = image(content);
+
+        assertNull(store.getDerivative(image.getContentHash(), "w64"));
+        assertTrue(thumbnailService.getThumbnail(image, 64).length() > 0);
+        assertNotNull(store.getDerivative(image.getContentHash(), "w512"));
+    }
+
+    @Test
+    void testUnknownSizeAndUnarchivedOriginal() throws Exception {
+        Image image = image(SpooledImage.of("leaf.jpg", jpeg(300, 200)));
+
+        assertThrows(BadRequestException.class, () -> thumbnailService.getThumbnail(image, 100));
+        assertNull(thumbnailService.getThumbnail(image, 64));
+        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(Update.class), eq(Image.class));
+    }
+
+    private static Image image(SpooledImage content) {
+        Image image = new Image();
+        image.setId("id-1");
+        image.setContentHash(content.sha256());
+        return image;
+    }
+
+    private static byte[] jpeg(int width, int height) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR), "jpeg", out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,156 @@
+package dev.sealkboy.myagara.serviceTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.multipart.MultipartFile;
+
+import dev.sealkboy.myagara.model.Image;
+import dev.sealkboy.myagara.service.ImageService;
+import dev.sealkboy.myagara.service.UploadJob;
+import dev.sealkboy.myagara.service.UploadJobService;
+import dev.sealkboy.myagara.service.UploadObservations;
+import dev.sealkboy.myagara.service.UploadQueueFullException;
+import dev.sealkboy.myagara.storage.SpooledImage;
+import dev.sealkboy.myagara.storage.UploadProperties;
+import dev.sealkboy.myagara.storage.UploadSpool;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+
+class UploadJobServiceTest {
+
+    private final ImageService imageService = mock(ImageService.class);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private UploadJobService uploadJobService;
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        if (uploadJobService != null) {
+            uploadJobService.shutdown();
+        }
+    }
+
+    @Test
+    void testJobCompletesWithSavedImage() {
+        uploadJobService = service(2, 4);
+        Image saved = new Image();
+        saved.setId("42");
+        saved.setLabel("Apple___healthy");
+        when(imageService.classifyAndSave(any(SpooledImage.class))).thenReturn(saved);
+
+        UploadJob job = uploadJobService.submit(file());
+        UploadJob finished = uploadJobService.await(job, Duration.ofSeconds(5)).join();
+
+        assertEquals(UploadJob.Status.DONE, finished.getStatus());
+        assertEquals("42", finished.getImage().getId());
+        assertEquals("leaf.jpg", finished.getFilename());
+        assertSame(job, uploadJobService.getJob(job.getId()));
+    }
+
+    @Test
+    void testFailedJobReportsError() {
+        uploadJobService = service(2, 4);
+        when(imageService.classifyAndSave(any(SpooledImage.class)))
+                .thenThrow(new RuntimeException("Error connecting to Flask API"));
+
+        UploadJob job = uploadJobService.await(uploadJobService.submit(file()), Duration.ofSeconds(5)).join();
+
+        assertEquals(UploadJob.Status.FAILED, job.getStatus());
+        assertEquals("Error connecting to Flask API", job.getError());
+        assertNull(job.getImage());
+    }
+
+    @Test
+    void testFullQueueIsRejectedWithRetryAfter() {
+        uploadJobService = service(1, 1);
+        blockWorkers();
+
+        uploadJobService.submit(file());
+        uploadJobService.submit(file());
+
+        UploadQueueFullException exception = assertThrows(UploadQueueFullException.class,
+                () -> uploadJobService.submit(file()));
+        assertTrue(exception.getRetryAfter().toSeconds() >= 1);
+        assertEquals(1, uploadJobService.queueDepth());
+    }
+
+    @Test
+    void testLongPollReturnsPendingJobAfterWait() {
+        uploadJobService = service(1, 1);
+        blockWorkers();
+
+        UploadJob job = uploadJobService.submit(file());
+        long start = System.nanoTime();
+        UploadJob polled = uploadJobService.await(job, Duration.ofMillis(200)).join();
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertFalse(polled.isDone());
+        assertTrue(elapsedMillis >= 150, "long poll should wait for the job");
+    }
+
+    @Test
+    void testQueueGaugesFollowWaitingJobs() {
+        uploadJobService = service(1, 4);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        uploadJobService.bindTo(registry);
+        blockWorkers();
+
+        uploadJobService.submit(file());
+        uploadJobService.submit(file());
+        uploadJobService.submit(file());
+
+        assertTrue(registry.get("myagara.upload.jobs.queued").gauge().value() >= 2);
+    }
+
+    @Test
+    void testShutdownFailsJobsItNeverRanAndReleasesTheirBytes() throws IOException {
+        UploadProperties properties = new UploadProperties();
+        properties.getAsync().setWorkers(1);
+        properties.getAsync().setShutdownTimeout(Duration.ofMillis(100));
+        UploadSpool uploadSpool = mock(UploadSpool.class);
+        SpooledImage running = SpooledImage.of("running.jpg", "a".getBytes());
+        SpooledImage queued = SpooledImage.of("queued.jpg", "b".getBytes());
+        when(uploadSpool.spool(any(MultipartFile.class))).thenReturn(running, queued);
+        uploadJobService = new UploadJobService(properties, imageService, uploadSpool,
+                new UploadObservations(ObservationRegistry.NOOP, new SimpleMeterRegistry()));
+        blockWorkers();
+
+        uploadJobService.submit(file());
+        UploadJob second = uploadJobService.submit(file());
+        verify(imageService, timeout(2000)).classifyAndSave(running);
+        uploadJobService.shutdown();
+
+        assertEquals(UploadJob.Status.FAILED, second.getStatus());
+        assertEquals("Upload was not processed before shutdown", second.getError());
+        assertThrows(IllegalStateException.class, queued::retain);
+    }
+
+    private UploadJobService service(int workers, int queueCapacity) {
+        UploadProperties properties = new UploadProperties();
+        properties.getAsync().setWorkers(workers);
+        properties.getAsync().setQueueCapacity(queueCapacity);
+        return new UploadJobService(properties, imageService, new UploadSpool(properties),
+                new UploadObservations(ObservationRegistry.NOOP, new SimpleMeterRegistry()));
+    }
+
+    private void blockWorkers() {
+        when(imageService.classifyAndSave(any(SpooledImage.class))).thenAnswer(invocation -> {
+            release.await(10, TimeUnit.SECONDS);
+            return new Image();
+        });
+    }
+
+    private static MockMultipartFile file() {
+        return new MockMultipartFile("image", "leaf.jpg", "image/jpeg", "test content".getBytes());
+    }
+}
@@ -0,0 +1,70 @@
+package dev.sealkboy.myagara.storageTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import dev.sealkboy.myagara.storage.ImageArchiver;
+import dev.sealkboy.myagara.storage.LocalImageStore;
+import dev.sealkboy.myagara.storage.SpooledImage;
+import dev.sealkboy.myagara.storage.UploadProperties;
+
+class ImageArchiverTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testUploadsSharingAFilenameDoNotCollide() throws Exception {
+        LocalImageStore store = store(true);
+        ImageArchiver archiver = new ImageArchiver(properties(true), store);
+        SpooledImage first = SpooledImage.of("leaf.jpg", "first".getBytes());
+        SpooledImage second = SpooledImage.of("leaf.jpg", "second".getBytes());
+
+        archiver.archive(first);
+        archiver.archive(second);
+        archiver.shutdown();
+
+        assertEquals("first", Files.readString(store.pathOf(first.sha256())));
+        assertEquals("second", Files.readString(store.pathOf(second.sha256())));
+    }
+
+    @Test
+    void testIdenticalUploadsAreStoredOnce() throws Exception {
+        ImageArchiver archiver = new ImageArchiver(properties(true), store(true));
+
+        assertTrue(archiver.write(SpooledImage.of("leaf.jpg", "same".getBytes())));
+        assertFalse(archiver.write(SpooledImage.of("other.jpg", "same".getBytes())));
+
+        try (var files = Files.walk(directory)) {
+            assertEquals(1, files.filter(Files::isRegularFile).count());
+        }
+    }
+
+    @Test
+    void testDisabledArchiverWritesNothing() throws Exception {
+        ImageArchiver archiver = new ImageArchiver(properties(false), store(false));
+
+        archiver.archive(SpooledImage.of("leaf.jpg", "first".getBytes()));
+        archiver.shutdown();
+
+        try (var files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    private LocalImageStore store(boolean enabled) {
+        return new LocalImageStore(properties(enabled));
+    }
+
+    private UploadProperties properties(boolean enabled) {
+        UploadProperties properties = new UploadProperties();
+        properties.getArchive().setEnabled(enabled);
+        properties.getArchive().setDirectory(directory.toString());
+        return properties;
+    }
+}
@@ -0,0 +1,91 @@
+package dev.sealkboy.myagara.storageTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import dev.sealkboy.myagara.storage.LocalImageStore;
+import dev.sealkboy.myagara.storage.SpooledImage;
+import dev.sealkboy.myagara.storage.StoredImage;
+import dev.sealkboy.myagara.storage.UploadProperties;
+
+class LocalImageStoreTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testBlobsAreShardedByHash() throws Exception {
+        SpooledImage image = SpooledImage.of("leaf.jpg", "leaf".getBytes());
+        String hash = image.sha256();
+
+        store().put(image);
+
+        Path expected = directory.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+        assertEquals("leaf", Files.readString(expected));
+        try (var files = Files.list(expected.getParent())) {
+            assertEquals(1, files.count(), "no partial file is left behind");
+        }
+    }
+
+    @Test
+    void testTransfersRequestedRange() throws Exception {
+        LocalImageStore store = store();
+        SpooledImage image = SpooledImage.of("leaf.jpg", "0123456789".getBytes());
+        store.put(image);
+
+        StoredImage stored = store.get(image.sha256());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        stored.transferTo(2, 5, Channels.newChannel(out));
+
+        assertEquals(10, stored.length());
+        assertEquals(store.pathOf(image.sha256()), stored.file());
+        assertEquals("23456", out.toString());
+    }
+
+    @Test
+    void testMissingAndDeletedBlobs() throws Exception {
+        LocalImageStore store = store();
+        SpooledImage image = SpooledImage.of("leaf.jpg", "leaf".getBytes());
+        Files.writeString(directory.resolve("unrelated.txt"), "keep");
+
+        assertNull(store.get(image.sha256()));
+        store.put(image);
+        store.deleteAll();
+
+        assertNull(store.get(image.sha256()));
+        assertTrue(Files.exists(directory.resolve("unrelated.txt")));
+        assertThrows(IllegalArgumentException.class, () -> store.get("../../etc/passwd"));
+    }
+
+    @Test
+    void testDerivativesLiveNextToTheOriginalAndGoWithIt() throws Exception {
+        LocalImageStore store = store();
+        SpooledImage image = SpooledImage.of("leaf.jpg", "leaf".getBytes());
+        store.put(image);
+
+        store.putDerivative(image.sha256(), "w128", SpooledImage.of("thumb.jpg", "small".getBytes()));
+
+        Path derivative = store.pathOf(image.sha256(), "w128");
+        assertEquals(store.pathOf(image.sha256()).getParent(), derivative.getParent());
+        assertEquals(5, store.getDerivative(image.sha256(), "w128").length());
+        assertThrows(IllegalArgumentException.class, () -> store.getDerivative(image.sha256(), "../x"));
+
+        store.delete(image.sha256());
+
+        assertNull(store.get(image.sha256()));
+        assertNull(store.getDerivative(image.sha256(), "w128"));
+    }
+
+    private LocalImageStore store() {
+        UploadProperties properties = new UploadProperties();
+        properties.getArchive().setDirectory(directory.toString());
+        return new LocalImageStore(properties);
+    }
+}
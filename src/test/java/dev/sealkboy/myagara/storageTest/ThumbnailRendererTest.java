@@ -0,0 +1,58 @@
+package dev.sealkboy.myagara.storageTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+
+import dev.sealkboy.myagara.storage.ThumbnailRenderer;
+
+class ThumbnailRendererTest {
+
+    private final ThumbnailRenderer renderer = new ThumbnailRenderer(0.8f);
+
+    @Test
+    void testThumbnailsKeepAspectRatio() throws IOException {
+        Map<Integer, byte[]> thumbnails = renderer.render(encode(1600, 800, "jpeg"), List.of(128, 512));
+
+        assertEquals(List.of(512, 128), List.copyOf(thumbnails.keySet()));
+        assertDimensions(thumbnails.get(512), 512, 256);
+        assertDimensions(thumbnails.get(128), 128, 64);
+    }
+
+    @Test
+    void testSmallImagesAreNotEnlarged() throws IOException {
+        Map<Integer, byte[]> thumbnails = renderer.render(encode(100, 60, "png"), List.of(128));
+
+        assertDimensions(thumbnails.get(128), 100, 60);
+    }
+
+    @Test
+    void testUndecodableImageIsRejected() {
+        assertThrows(IOException.class,
+                () -> renderer.render(new ByteArrayResource("not an image".getBytes()), List.of(128)));
+    }
+
+    private static ByteArrayResource encode(int width, int height, String format) throws IOException {
+        int type = format.equals("png") ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_3BYTE_BGR;
+        BufferedImage image = new BufferedImage(width, height, type);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, format, out);
+        return new ByteArrayResource(out.toByteArray());
+    }
+
+    private static void assertDimensions(byte[] jpeg, int width, int height) throws IOException {
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(jpeg));
+        assertEquals(width, decoded.getWidth());
+        assertEquals(height, decoded.getHeight());
+    }
+}
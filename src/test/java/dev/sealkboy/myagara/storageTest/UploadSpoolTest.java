@@ -0,0 +1,171 @@
+package dev.sealkboy.myagara.storageTest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.util.unit.DataSize;
+
+import dev.sealkboy.myagara.storage.SpooledImage;
+import dev.sealkboy.myagara.storage.UploadProperties;
+import dev.sealkboy.myagara.storage.UploadSpool;
+
+class UploadSpoolTest {
+
+    private UploadSpool uploadSpool;
+
+    @BeforeEach
+    void setUp() {
+        UploadProperties properties = new UploadProperties();
+        properties.getSpool().setInMemoryThreshold(DataSize.ofBytes(16));
+        properties.getSpool().setMaxDirectMemory(DataSize.ofBytes(128));
+        properties.getSpool().setAcquireTimeout(Duration.ofMillis(50));
+        uploadSpool = new UploadSpool(properties);
+    }
+
+    @Test
+    void testSmallUploadStaysOnHeap() throws IOException {
+        MockMultipartFile file = new MockMultipartFile("image", "leaf.jpg", "image/jpeg", "tiny".getBytes());
+
+        try (SpooledImage image = uploadSpool.spool(file)) {
+            assertFalse(image.contents().isDirect());
+            assertEquals("leaf.jpg", image.getFilename());
+            assertArrayEquals("tiny".getBytes(), image.getInputStream().readAllBytes());
+        }
+        assertEquals(128, uploadSpool.availableDirectBytes());
+    }
+
+    @Test
+    void testLargeUploadUsesDirectBufferAndCanBeReadTwice() throws IOException {
+        byte[] bytes = new byte[100];
+        Arrays.fill(bytes, (byte) 7);
+        MockMultipartFile file = new MockMultipartFile("image", "leaf.jpg", "image/jpeg", bytes);
+
+        try (SpooledImage image = uploadSpool.spool(file)) {
+            assertTrue(image.contents().isDirect());
+            assertEquals(100, image.contentLength());
+            assertArrayEquals(bytes, image.getInputStream().readAllBytes());
+            assertArrayEquals(bytes, image.getInputStream().readAllBytes());
+            assertEquals(0, uploadSpool.availableDirectBytes());
+        }
+    }
+
+    @Test
+    void testSpoolCapacityIsBounded() throws IOException {
+        SpooledImage first = uploadSpool.spool("a.jpg", "image/jpeg", new ByteArrayInputStream(new byte[100]), 100);
+
+        IOException exception = assertThrows(IOException.class,
+                () -> uploadSpool.spool("b.jpg", "image/jpeg", new ByteArrayInputStream(new byte[64]), 64));
+        assertEquals("Upload spool is full", exception.getMessage());
+
+        first.close();
+        try (SpooledImage second = uploadSpool.spool("b.jpg", "image/jpeg", new ByteArrayInputStream(new byte[64]), 64)) {
+            assertEquals(64, second.contentLength());
+        }
+    }
+
+    @Test
+    void testPooledBufferCountsUntilItIsFreed() throws IOException {
+        uploadSpool.spool("a.jpg", "image/jpeg", new ByteArrayInputStream(new byte[100]), 100).close();
+        assertEquals(0, uploadSpool.availableDirectBytes());
+
+        try (SpooledImage image = uploadSpool.spool("b.jpg", "image/jpeg", new ByteArrayInputStream(new byte[64]), 64)) {
+            assertEquals(64, uploadSpool.availableDirectBytes());
+        }
+    }
+
+    @Test
+    void testLargeUploadsTakeWholeMegabytes() throws IOException {
+        UploadProperties properties = new UploadProperties();
+        properties.getSpool().setInMemoryThreshold(DataSize.ofBytes(16));
+        properties.getSpool().setMaxDirectMemory(DataSize.ofMegabytes(8));
+        properties.getSpool().setMaxEntrySize(DataSize.ofBytes(5 * 1024 * 1024 + 512));
+        UploadSpool spool = new UploadSpool(properties);
+        int size = 3 * 1024 * 1024 + 1;
+
+        try (SpooledImage image = spool.spool("a.jpg", "image/jpeg", new ByteArrayInputStream(new byte[size]), size)) {
+            assertEquals(4 * 1024 * 1024, DataSize.ofMegabytes(8).toBytes() - spool.availableDirectBytes());
+        }
+        int large = 5 * 1024 * 1024 + 100;
+        try (SpooledImage image = spool.spool("b.jpg", "image/jpeg", new ByteArrayInputStream(new byte[large]), large)) {
+            // the size class is capped at the entry limit rather than rounded past it
+            assertEquals(5 * 1024 * 1024 + 512, DataSize.ofMegabytes(8).toBytes() - spool.availableDirectBytes());
+        }
+    }
+
+    @Test
+    void testBufferIsKeptUntilLastReferenceCloses() throws IOException {
+        SpooledImage image = uploadSpool.spool("a.jpg", "image/jpeg", new ByteArrayInputStream(new byte[100]), 100);
+        image.retain();
+
+        image.close();
+        assertThrows(IOException.class,
+                () -> uploadSpool.spool("b.jpg", "image/jpeg", new ByteArrayInputStream(new byte[100]), 100));
+
+        image.close();
+        assertThrows(IllegalStateException.class, image::retain);
+        try (SpooledImage reused = uploadSpool.spool("b.jpg", "image/jpeg", new ByteArrayInputStream(new byte[100]), 100)) {
+            assertEquals(100, reused.contentLength());
+        }
+    }
+
+    @Test
+    void testTruncatedUploadIsRejected() throws IOException {
+        IOException exception = assertThrows(IOException.class,
+                () -> uploadSpool.spool("a.jpg", "image/jpeg", new ByteArrayInputStream(new byte[40]), 100));
+        assertTrue(exception.getMessage().contains("40 of 100"));
+
+        try (SpooledImage image = uploadSpool.spool("b.jpg", "image/jpeg", new ByteArrayInputStream(new byte[100]), 100)) {
+            assertEquals(100, image.contentLength());
+        }
+    }
+
+    @Test
+    void testOversizedUploadIsRejected() {
+        assertThrows(IOException.class,
+                () -> uploadSpool.spool("a.jpg", "image/jpeg", new ByteArrayInputStream(new byte[200]), 200));
+    }
+
+    @Test
+    void testStreamOfUnknownLengthGrowsThroughDirectBuffers() throws IOException {
+        byte[] bytes = new byte[40];
+        Arrays.fill(bytes, (byte) 3);
+
+        try (SpooledImage image = uploadSpool.spool("a.jpg", "image/jpeg", new ByteArrayInputStream(bytes), -1)) {
+            assertTrue(image.contents().isDirect());
+            assertArrayEquals(bytes, image.getInputStream().readAllBytes());
+        }
+        try (SpooledImage image = uploadSpool.spool("b.jpg", "image/jpeg", new ByteArrayInputStream(new byte[8]), -1)) {
+            assertFalse(image.contents().isDirect());
+            assertEquals(8, image.contentLength());
+        }
+    }
+
+    @Test
+    void testStreamOfUnknownLengthIsCutOffAtTheEntryLimit() throws IOException {
+        UploadProperties properties = new UploadProperties();
+        properties.getSpool().setInMemoryThreshold(DataSize.ofBytes(16));
+        properties.getSpool().setMaxDirectMemory(DataSize.ofBytes(128));
+        properties.getSpool().setMaxEntrySize(DataSize.ofBytes(48));
+        UploadSpool limited = new UploadSpool(properties);
+
+        IOException exception = assertThrows(IOException.class,
+                () -> limited.spool("a.jpg", "image/jpeg", new ByteArrayInputStream(new byte[200]), -1));
+        assertEquals("Upload exceeds the limit of 48 bytes", exception.getMessage());
+
+        try (SpooledImage image = limited.spool("b.jpg", "image/jpeg", new ByteArrayInputStream(new byte[48]), -1)) {
+            assertEquals(48, image.contentLength());
+        }
+    }
+
+    @Test
+    void testMissingFileIsRejected() {
+        assertThrows(IOException.class, () -> uploadSpool.spool(null));
+    }
+}
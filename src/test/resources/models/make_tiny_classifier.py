@@ -0,0 +1,76 @@
+"""Writes tiny_classifier.onnx, the model used by OnnxClassifierTest.
+
+The graph averages each colour channel of a [N, 128, 128, 3] float input in [0, 1] and
+maps the three means to five class probabilities, so a red image is class 0, a green one
+class 1 and a blue one class 2. It is encoded by hand so no onnx package is needed.
+"""
+import struct
+
+
+def varint(value):
+    out = bytearray()
+    value &= (1 << 64) - 1
+    while True:
+        byte = value & 0x7F
+        value >>= 7
+        if value:
+            out.append(byte | 0x80)
+        else:
+            out.append(byte)
+            return bytes(out)
+
+
+def field(number, wire_type, payload):
+    return varint(number << 3 | wire_type) + payload
+
+
+def integer(number, value):
+    return field(number, 0, varint(value))
+
+
+def message(number, body):
+    return field(number, 2, varint(len(body)) + body)
+
+
+def text(number, value):
+    return message(number, value.encode())
+
+
+def tensor(name, dims, values):
+    body = b"".join(integer(1, d) for d in dims) + integer(2, 1) + text(8, name)
+    return body + message(9, struct.pack("<%df" % len(values), *values))
+
+
+def value_info(name, dims):
+    shape = b"".join(message(1, text(2, d) if isinstance(d, str) else integer(1, d)) for d in dims)
+    return text(1, name) + message(2, message(1, integer(1, 1) + message(2, shape)))
+
+
+def node(op_type, inputs, outputs, attributes=b""):
+    return b"".join(text(1, i) for i in inputs) + b"".join(text(2, o) for o in outputs) + text(4, op_type) + attributes
+
+
+weights = [0.0] * 15
+for channel in range(3):
+    weights[channel * 5 + channel] = 8.0
+bias = [0.0, 0.0, 0.0, -4.0, -4.0]
+
+reduce_attributes = message(5, text(1, "axes") + integer(20, 7) + integer(8, 1) + integer(8, 2)) \
+    + message(5, text(1, "keepdims") + integer(20, 2) + integer(3, 0))
+
+graph = (
+    message(1, node("ReduceMean", ["input"], ["means"], reduce_attributes))
+    + message(1, node("MatMul", ["means", "weights"], ["scores"]))
+    + message(1, node("Add", ["scores", "bias"], ["logits"]))
+    + message(1, node("Softmax", ["logits"], ["probabilities"]))
+    + text(2, "tiny_classifier")
+    + message(5, tensor("weights", [3, 5], weights))
+    + message(5, tensor("bias", [5], bias))
+    + message(11, value_info("input", ["batch", 128, 128, 3]))
+    + message(12, value_info("probabilities", ["batch", 5]))
+)
+
+model = integer(1, 8) + text(2, "myagara-tests") + message(7, graph) + message(8, text(1, "") + integer(2, 13))
+
+with open("tiny_classifier.onnx", "wb") as out:
+    out.write(model)